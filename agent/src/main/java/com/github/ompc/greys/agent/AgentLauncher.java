@@ -61,37 +61,23 @@ public class AgentLauncher {
                     // 通过加载的类获取方法签名signature
                     adviceWeaverClass.getMethod("methodOnBegin",
                             int.class,
-                            ClassLoader.class,
-                            String.class,
-                            String.class,
-                            String.class,
                             Object.class,
                             Object[].class),
                     adviceWeaverClass.getMethod("methodOnReturnEnd",
                             Object.class,
-                            int.class),
+                            int.class,
+                            long.class),
                     adviceWeaverClass.getMethod("methodOnThrowingEnd",
                             Throwable.class,
-                            int.class),
-                    adviceWeaverClass.getMethod("methodOnInvokeBeforeTracing",
                             int.class,
-                            Integer.class,
-                            String.class,
-                            String.class,
-                            String.class),
+                            long.class),
+                    adviceWeaverClass.getMethod("methodOnInvokeBeforeTracing",
+                            int.class),
                     adviceWeaverClass.getMethod("methodOnInvokeAfterTracing",
-                            int.class,
-                            Integer.class,
-                            String.class,
-                            String.class,
-                            String.class),
+                            int.class),
                     adviceWeaverClass.getMethod("methodOnInvokeThrowTracing",
-                            int.class,
-                            Integer.class,
-                            String.class,
-                            String.class,
-                            String.class,
-                            String.class),
+                            Throwable.class,
+                            int.class),
                     AgentLauncher.class.getMethod("resetGreysClassLoader")
             );
         }
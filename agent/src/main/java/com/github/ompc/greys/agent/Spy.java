@@ -1,7 +1,14 @@
 package com.github.ompc.greys.agent;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
 import java.lang.reflect.Method;
 
+import static java.lang.invoke.MethodType.methodType;
+
 /**
  * 间谍类<br/>
  * 藏匿在各个ClassLoader中
@@ -23,6 +30,38 @@ public class Spy {
      */
     public static volatile Method AGENT_RESET_METHOD;
 
+    /**
+     * 通知开关,下标为方法ID<br/>
+     * 被增强的代码在调用钩子之前先检查开关,方法上没有监听器时只剩下一次数组读取的开销<br/>
+     * 织入的代码中只有方法ID,同一个方法可能被多个通知共享,所以开关按方法而不是按通知划分:
+     * 方法上所有通知都注销后开关关闭,效果与按通知划分相同
+     */
+    public static volatile boolean[] ADVICE_SWITCHES = new boolean[0];
+
+
+    // -- 各种Advice钩子的invokedynamic调用点名称 --
+    public static final String INDY_ON_BEFORE = "onBefore";
+    public static final String INDY_ON_RETURN = "onReturn";
+    public static final String INDY_ON_THROWS = "onThrows";
+    public static final String INDY_BEFORE_INVOKING = "beforeInvoking";
+    public static final String INDY_AFTER_INVOKING = "afterInvoking";
+    public static final String INDY_THROW_INVOKING = "throwInvoking";
+
+    // -- 各种Advice钩子的invokedynamic调用点 --
+    // 调用点的类型与AdviceWeaver中的钩子方法签名保持一致,钩子未初始化前指向空实现
+    private static final MutableCallSite ON_BEFORE_CALL_SITE = newCallSite(methodType(void.class,
+            int.class, Object.class, Object[].class));
+    private static final MutableCallSite ON_RETURN_CALL_SITE = newCallSite(methodType(void.class,
+            Object.class, int.class, long.class));
+    private static final MutableCallSite ON_THROWS_CALL_SITE = newCallSite(methodType(void.class,
+            Throwable.class, int.class, long.class));
+    private static final MutableCallSite BEFORE_INVOKING_CALL_SITE = newCallSite(methodType(void.class,
+            int.class));
+    private static final MutableCallSite AFTER_INVOKING_CALL_SITE = newCallSite(methodType(void.class,
+            int.class));
+    private static final MutableCallSite THROW_INVOKING_CALL_SITE = newCallSite(methodType(void.class,
+            Throwable.class, int.class));
+
     /*
      * 用于普通的间谍初始化
      */
@@ -35,6 +74,7 @@ public class Spy {
             Method beforeInvokingMethod,
             Method afterInvokingMethod,
             Method throwInvokingMethod) {
+        link(onBeforeMethod, onReturnMethod, onThrowsMethod, beforeInvokingMethod, afterInvokingMethod, throwInvokingMethod);
         ON_BEFORE_METHOD = onBeforeMethod;
         ON_RETURN_METHOD = onReturnMethod;
         ON_THROWS_METHOD = onThrowsMethod;
@@ -56,6 +96,7 @@ public class Spy {
             Method afterInvokingMethod,
             Method throwInvokingMethod,
             Method agentResetMethod) {
+        link(onBeforeMethod, onReturnMethod, onThrowsMethod, beforeInvokingMethod, afterInvokingMethod, throwInvokingMethod);
         ON_BEFORE_METHOD = onBeforeMethod;
         ON_RETURN_METHOD = onReturnMethod;
         ON_THROWS_METHOD = onThrowsMethod;
@@ -67,6 +108,7 @@ public class Spy {
 
 
     public static void clean() {
+        link(null, null, null, null, null, null);
         ON_BEFORE_METHOD = null;
         ON_RETURN_METHOD = null;
         ON_THROWS_METHOD = null;
@@ -76,4 +118,112 @@ public class Spy {
         AGENT_RESET_METHOD = null;
     }
 
+    /**
+     * invokedynamic引导方法<br/>
+     * 被增强的字节码通过invokedynamic指令调用钩子时由JVM回调,
+     * 返回的调用点在钩子重新初始化时会被整体切换,JIT可以将钩子内联到被增强方法中
+     *
+     * @param lookup 调用者查找上下文
+     * @param name   调用点名称
+     * @param type   调用点类型
+     * @return 钩子调用点
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) {
+        final MutableCallSite callSite;
+        if (INDY_ON_BEFORE.equals(name)) {
+            callSite = ON_BEFORE_CALL_SITE;
+        } else if (INDY_ON_RETURN.equals(name)) {
+            callSite = ON_RETURN_CALL_SITE;
+        } else if (INDY_ON_THROWS.equals(name)) {
+            callSite = ON_THROWS_CALL_SITE;
+        } else if (INDY_BEFORE_INVOKING.equals(name)) {
+            callSite = BEFORE_INVOKING_CALL_SITE;
+        } else if (INDY_AFTER_INVOKING.equals(name)) {
+            callSite = AFTER_INVOKING_CALL_SITE;
+        } else if (INDY_THROW_INVOKING.equals(name)) {
+            callSite = THROW_INVOKING_CALL_SITE;
+        } else {
+            throw new IllegalArgumentException("illegal spy call site : " + name);
+        }
+
+        if (!callSite.type().equals(type)) {
+            throw new IllegalArgumentException("illegal spy call site type : " + name + type);
+        }
+        return callSite;
+    }
+
+    /*
+     * 重新链接所有的钩子调用点
+     * 钩子未发生变化时不做切换,避免JIT对已编译的被增强方法做无谓的逆优化
+     */
+    private static synchronized void link(
+            Method onBeforeMethod,
+            Method onReturnMethod,
+            Method onThrowsMethod,
+            Method beforeInvokingMethod,
+            Method afterInvokingMethod,
+            Method throwInvokingMethod) {
+        boolean isChanged = false;
+        isChanged |= link(ON_BEFORE_CALL_SITE, ON_BEFORE_METHOD, onBeforeMethod);
+        isChanged |= link(ON_RETURN_CALL_SITE, ON_RETURN_METHOD, onReturnMethod);
+        isChanged |= link(ON_THROWS_CALL_SITE, ON_THROWS_METHOD, onThrowsMethod);
+        isChanged |= link(BEFORE_INVOKING_CALL_SITE, BEFORE_INVOKING_METHOD, beforeInvokingMethod);
+        isChanged |= link(AFTER_INVOKING_CALL_SITE, AFTER_INVOKING_METHOD, afterInvokingMethod);
+        isChanged |= link(THROW_INVOKING_CALL_SITE, THROW_INVOKING_METHOD, throwInvokingMethod);
+        if (isChanged) {
+            MutableCallSite.syncAll(new MutableCallSite[]{
+                    ON_BEFORE_CALL_SITE,
+                    ON_RETURN_CALL_SITE,
+                    ON_THROWS_CALL_SITE,
+                    BEFORE_INVOKING_CALL_SITE,
+                    AFTER_INVOKING_CALL_SITE,
+                    THROW_INVOKING_CALL_SITE
+            });
+        }
+    }
+
+    private static boolean link(MutableCallSite callSite, Method current, Method hook) {
+        if (null != current
+                && current.equals(hook)) {
+            return false;
+        }
+        callSite.setTarget(toMethodHandle(hook, callSite.type()));
+        return true;
+    }
+
+    private static MethodHandle toMethodHandle(Method hook, MethodType type) {
+        if (null == hook) {
+            return nop(type);
+        }
+        try {
+            return MethodHandles.publicLookup().unreflect(hook).asType(type);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("illegal spy hook : " + hook, e);
+        }
+    }
+
+    private static MutableCallSite newCallSite(MethodType type) {
+        return new MutableCallSite(nop(type));
+    }
+
+    /*
+     * 空实现,用于钩子尚未初始化或已被清理的调用点
+     */
+    private static MethodHandle nop(MethodType type) {
+        try {
+            return MethodHandles.dropArguments(
+                    MethodHandles.lookup().findStatic(Spy.class, "nop", methodType(void.class)),
+                    0,
+                    type.parameterList()
+            );
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void nop() {
+    }
+
 }
@@ -18,6 +18,9 @@ public final class Advice {
     public final Object returnObj;
     public final Throwable throwExp;
 
+    // 方法耗时(纳秒),由编织代码在方法开始和结束时计算,Before通知点为0
+    public final long cost;
+
     private final static int ACCESS_BEFORE = 1;
     private final static int ACCESS_AFTER_RETUNING = 1 << 1;
     private final static int ACCESS_AFTER_THROWING = 1 << 2;
@@ -42,6 +45,7 @@ public final class Advice {
      * @param params    调用参数
      * @param returnObj 返回值
      * @param throwExp  抛出异常
+     * @param cost      方法耗时(纳秒)
      * @param access    进入场景
      */
     private Advice(
@@ -52,6 +56,7 @@ public final class Advice {
             Object[] params,
             Object returnObj,
             Throwable throwExp,
+            long cost,
             int access) {
         this.loader = loader;
         this.clazzRef = clazzRef;
@@ -61,6 +66,7 @@ public final class Advice {
         this.params = params;
         this.returnObj = returnObj;
         this.throwExp = throwExp;
+        this.cost = cost;
         isBefore = (access & ACCESS_BEFORE) == ACCESS_BEFORE;
         isThrow = (access & ACCESS_AFTER_THROWING) == ACCESS_AFTER_THROWING;
         isReturn = (access & ACCESS_AFTER_RETUNING) == ACCESS_AFTER_RETUNING;
@@ -98,6 +104,7 @@ public final class Advice {
                 params,
                 null, //returnObj
                 null, //throwExp
+                0,
                 ACCESS_BEFORE
         );
     }
@@ -111,7 +118,8 @@ public final class Advice {
             LazyGet<GaMethod> methodRef,
             Object target,
             Object[] params,
-            Object returnObj) {
+            Object returnObj,
+            long cost) {
         return new Advice(
                 loader,
                 clazzRef,
@@ -120,6 +128,7 @@ public final class Advice {
                 params,
                 returnObj,
                 null, //throwExp
+                cost,
                 ACCESS_AFTER_RETUNING
         );
     }
@@ -133,7 +142,8 @@ public final class Advice {
             LazyGet<GaMethod> methodRef,
             Object target,
             Object[] params,
-            Throwable throwExp) {
+            Throwable throwExp,
+            long cost) {
         return new Advice(
                 loader,
                 clazzRef,
@@ -142,10 +152,21 @@ public final class Advice {
                 params,
                 null, //returnObj
                 throwExp,
+                cost,
                 ACCESS_AFTER_THROWING
         );
     }
 
+    /**
+     * 获取方法耗时(毫秒)<br/>
+     * 保留纳秒精度,用于表达式中的#cost
+     *
+     * @return 方法耗时(毫秒)
+     */
+    public double getCostMillis() {
+        return cost / 1000000d;
+    }
+
     /**
      * 获取Java类
      *
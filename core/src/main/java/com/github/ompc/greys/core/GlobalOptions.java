@@ -49,6 +49,56 @@ public class GlobalOptions {
     )
     public static volatile boolean isBatchReTransform = true;
 
+    /**
+     * 批量增强时每批重新转换的时间预算<br/>
+     * 按照预算拆分批次,批次之间让出CPU,避免一次性重新转换大量类造成长时间停顿
+     */
+    @Option(level = 1,
+            name = "re-transform-chunk-budget",
+            summary = "Option to control the time budget(ms) of each reTransform chunk",
+            description = "Classes are reTransformed in chunks sized to fit this budget with batch mode, " +
+                    "yielding between chunks. 0 means reTransform all classes in one batch."
+    )
+    public static volatile long reTransformChunkBudget = 50;
+
+    /**
+     * 是否使用invokedynamic调用通知钩子<br/>
+     * 这个开关打开后，对于class版本不低于1.7的类，将通过invokedynamic直接调用钩子方法，而不再经过反射，
+     * 关闭或者类版本过低时仍然使用Method.invoke()的方式
+     */
+    @Option(level = 1,
+            name = "invoke-dynamic",
+            summary = "Option to dispatch advice with invokedynamic",
+            description = "This option enables to call the advice hooks through invokedynamic instead of reflection "
+                    + "when the class version is 1.7 or above, takes effect on classes enhanced afterwards."
+    )
+    public static volatile boolean isEnableInvokeDynamic = true;
+
+    /**
+     * 织入时是否保留并修补原有的栈帧<br/>
+     * 这个开关打开后，对于class版本不低于1.7的类，只为织入的代码补上栈帧，不再整体重新计算，
+     * 关闭、类版本过低或者修补失败时仍然由ClassWriter重新计算栈帧
+     */
+    @Option(level = 1,
+            name = "patch-frames",
+            summary = "Option to patch the existing stack map frames when weaving",
+            description = "This option keeps the existing stack map frames and only adds frames for the woven code "
+                    + "instead of recomputing all of them when the class version is 1.7 or above."
+    )
+    public static volatile boolean isPatchFrames = true;
+
+    /**
+     * 命令结束时是否自动还原增强<br/>
+     * 这个开关打开后，命令结束时在后台还原只被该命令所增强的类，其他命令仍在使用的增强保持不变
+     */
+    @Option(level = 1,
+            name = "auto-reset",
+            summary = "Option to reset the enhanced classes automatically when the command ends",
+            description = "This option enables the classes enhanced by a command to be reset in background when the command ends, "
+                    + "classes still enhanced by other commands are re-woven with the remaining methods."
+    )
+    public static volatile boolean isAutoReset = true;
+
     /**
      * 是否支持json格式化输出<br/>
      * 这个开关打开后，使用json格式输出目标对象，配合-x参数使用
@@ -73,16 +123,18 @@ public class GlobalOptions {
     @Option(
             level = 1,
             name = "ptrace-class-matcher-lru-capacity",
-            summary = "...",
-            description = "..."
+            summary = "Option to control the capacity of the class name matching cache of ptrace.",
+            description = "ptrace caches the matching results of class names shared by all threads, " +
+                    "the least recently used results are evicted once the cache exceeds this capacity."
     )
     public static volatile int ptraceClassMatcherLruCapacity = 1024;
 
     @Option(
             level = 1,
             name = "ptrace-method-matcher-lru-capacity",
-            summary = "...",
-            description = "..."
+            summary = "Option to control the capacity of the method name matching cache of ptrace.",
+            description = "ptrace caches the matching results of method names shared by all threads, " +
+                    "the least recently used results are evicted once the cache exceeds this capacity."
     )
     public static volatile int ptraceMethodMatcherLruCapacity = 2048;
 
@@ -135,6 +187,54 @@ public class GlobalOptions {
     )
     public static volatile boolean isEnableTraceId = true;
 
+    @Option(
+            level = 1,
+            name = "overhead-budget",
+            summary = "Option to control the overhead budget(%) of each advice.",
+            description = "When the listeners of an advice take more than this percentage of the CPU time of all processors, " +
+                    "the advice is degraded to sampling first, then detached and reset if it is still over budget. " +
+                    "0 means unlimited, which is the default."
+    )
+    public static volatile int overheadBudget = 0;
+
+    @Option(
+            level = 1,
+            name = "enhance-parallelism",
+            summary = "Option to control the parallelism of enhanced bytecode generation.",
+            description = "Enhanced bytecode is generated on a fork-join pool before retransforming classes. " +
+                    "0 means the number of available processors, 1 means generating in transform serially."
+    )
+    public static volatile int enhanceParallelism = 0;
+
+    @Option(
+            level = 1,
+            name = "class-bytes-cache-capacity",
+            summary = "Option to control the capacity(KB) of the enhanced class bytes cache.",
+            description = "Enhanced class bytes are cached compressed, the least recently used are evicted " +
+                    "and woven again when needed once the cache exceeds this capacity. 0 means unlimited."
+    )
+    public static volatile int classBytesCacheCapacity = 16 * 1024;
+
+    @Option(
+            level = 1,
+            name = "weave-cache-capacity",
+            summary = "Option to control the capacity(MB) of the on-disk enhanced bytecode cache.",
+            description = "Enhanced bytecode is kept in ~/.greys/weave-cache keyed by the original bytecode, " +
+                    "the woven methods and the Greys version, and reused when enhancing the same classes again. " +
+                    "The least recently used files are deleted once the cache exceeds this capacity. 0 means disabled."
+    )
+    public static volatile int weaveCacheCapacity = 64;
+
+    @Option(
+            level = 1,
+            name = "match-parallelism",
+            summary = "Option to control the parallelism of class and method matching.",
+            description = "Loaded classes and their methods are matched on a fork-join pool when there are many of them, " +
+                    "results are merged in the same order as serial matching. " +
+                    "0 means the number of available processors, 1 means matching serially."
+    )
+    public static volatile int matchParallelism = 0;
+
     /**
      * 选项
      */
@@ -20,7 +20,7 @@ public final class TimeFragment {
     // 记录时间戳
     public final Date gmtCreate;
 
-    // 片段耗时
+    // 片段耗时(纳秒)
     public final long cost;
 
     // 片段堆栈
@@ -33,7 +33,7 @@ public final class TimeFragment {
      * @param processId 时间片段执行过程ID
      * @param advice    时间片段所包含得通知上下文
      * @param gmtCreate 时间片段创建时间
-     * @param cost      时间片段执行耗时
+     * @param cost      时间片段执行耗时(纳秒)
      * @param stack     时间片段触发堆栈
      */
     public TimeFragment(int id, int processId, Advice advice, Date gmtCreate, long cost, String stack) {
@@ -45,4 +45,13 @@ public final class TimeFragment {
         this.stack = stack;
     }
 
+    /**
+     * 获取片段耗时(毫秒)
+     *
+     * @return 片段耗时(毫秒)
+     */
+    public double getCostMillis() {
+        return cost / 1000000d;
+    }
+
 }
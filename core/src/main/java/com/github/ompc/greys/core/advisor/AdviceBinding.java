@@ -0,0 +1,90 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.util.TracingFilter;
+import com.github.ompc.greys.core.util.perf.PerfHistogram;
+
+/**
+ * 通知绑定<br/>
+ * 一个通知监听器在某个方法上的注册记录
+ */
+final class AdviceBinding {
+
+    static final AdviceBinding[] EMPTY_BINDINGS = new AdviceBinding[0];
+
+    final int adviceId;
+    final AdviceListener listener;
+
+    // 采样器,为null则全量通知
+    // 开销超出预算时会被替换成降级的采样器
+    volatile Sampler sampler;
+
+    // 方法调用跟踪过滤器,为null则跟踪所有调用点
+    final TracingFilter tracingFilter;
+
+    // 监听器所需要的事件和数据
+    final int capabilities;
+
+    // 监听器执行耗时(纳秒),记录数即为监听器被回调的次数
+    final PerfHistogram listenerNanos;
+
+    // 是否统计监听器耗时,只有设置了开销预算时才需要,注册时确定
+    final boolean isMetering;
+
+    // 注销后置为false,让已经进入方法的调用不再回调已销毁的监听器
+    volatile boolean isActive = true;
+
+    AdviceBinding(int adviceId, AdviceListener listener, Sampler sampler, TracingFilter tracingFilter, PerfHistogram listenerNanos) {
+        this.adviceId = adviceId;
+        this.listener = listener;
+        this.sampler = sampler;
+        this.tracingFilter = tracingFilter;
+        this.capabilities = AdviceWeaver.getCapabilities(listener);
+        this.listenerNanos = listenerNanos;
+        this.isMetering = GlobalOptions.overheadBudget > 0;
+    }
+
+    /**
+     * 开始统计监听器耗时
+     *
+     * @return 开始时间(纳秒),不统计时为0
+     */
+    long beginMetering() {
+        return isMetering
+                ? System.nanoTime()
+                : 0L;
+    }
+
+    /**
+     * 结束统计监听器耗时
+     *
+     * @param beginNanos 开始时间(纳秒)
+     */
+    void endMetering(long beginNanos) {
+        if (isMetering) {
+            listenerNanos.record(System.nanoTime() - beginNanos);
+        }
+    }
+
+    /**
+     * 监听器是否需要该事件
+     *
+     * @param event 事件
+     * @return true:需要
+     */
+    boolean isCapable(int event) {
+        return (capabilities & event) != 0;
+    }
+
+    /**
+     * 判定本次调用是否通知该监听器
+     *
+     * @return true:通知;false:本次调用未被采样
+     */
+    boolean isSampling() {
+        final Sampler sampler = this.sampler;
+        return null == sampler
+                || sampler.sampling();
+    }
+
+}
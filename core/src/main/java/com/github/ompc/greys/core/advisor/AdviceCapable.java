@@ -0,0 +1,37 @@
+package com.github.ompc.greys.core.advisor;
+
+/**
+ * 通知能力声明<br/>
+ * 监听器通过实现该接口声明自己需要哪些事件和数据,编织时只织入所需要的钩子和参数,
+ * 多个监听器共享同一处编织时按照所有监听器的并集织入,但每个监听器只会收到自己声明过的事件<br/>
+ * 未实现该接口的监听器视为需要所有的事件和数据
+ */
+public interface AdviceCapable {
+
+    // -- 事件 --
+    int EVENT_BEFORE = 1;
+    int EVENT_RETURNING = 1 << 1;
+    int EVENT_THROWING = 1 << 2;
+
+    // -- 数据,未声明的数据在通知中为null --
+    int DATA_TARGET = 1 << 3;
+    int DATA_ARGS = 1 << 4;
+    int DATA_RETURN_OBJECT = 1 << 5;
+
+    // 所有事件
+    int EVENT_ALL = EVENT_BEFORE | EVENT_RETURNING | EVENT_THROWING;
+
+    // 所有数据
+    int DATA_ALL = DATA_TARGET | DATA_ARGS | DATA_RETURN_OBJECT;
+
+    // 所有事件和数据
+    int ALL = EVENT_ALL | DATA_ALL;
+
+    /**
+     * 获取监听器所需要的事件和数据
+     *
+     * @return 事件和数据的位组合
+     */
+    int getCapabilities();
+
+}
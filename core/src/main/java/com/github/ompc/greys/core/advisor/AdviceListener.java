@@ -46,12 +46,13 @@ public interface AdviceListener {
      * @param args         参数列表
      * @param returnObject 返回结果
      *                     若为无返回值方法(void),则为null
+     * @param cost         方法耗时(纳秒)
      * @throws Throwable 通知过程出错
      */
     void afterReturning(
             ClassLoader loader, String className, String methodName, String methodDesc,
             Object target, Object[] args,
-            Object returnObject) throws Throwable;
+            Object returnObject, long cost) throws Throwable;
 
     /**
      * 异常通知
@@ -64,11 +65,12 @@ public interface AdviceListener {
      *                   若目标为静态方法,则为null
      * @param args       参数列表
      * @param throwable  目标异常
+     * @param cost       方法耗时(纳秒)
      * @throws Throwable 通知过程出错
      */
     void afterThrowing(
             ClassLoader loader, String className, String methodName, String methodDesc,
             Object target, Object[] args,
-            Throwable throwable) throws Throwable;
+            Throwable throwable, long cost) throws Throwable;
 
 }
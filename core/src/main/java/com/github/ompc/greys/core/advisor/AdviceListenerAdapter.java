@@ -4,7 +4,12 @@ package com.github.ompc.greys.core.advisor;
  * 监听适配器
  * Created by vlinux on 16/6/1.
  */
-public class AdviceListenerAdapter implements AdviceListener {
+public class AdviceListenerAdapter implements AdviceListener, AdviceCapable {
+
+    @Override
+    public int getCapabilities() {
+        return ALL;
+    }
 
     @Override
     public void create() {
@@ -22,12 +27,12 @@ public class AdviceListenerAdapter implements AdviceListener {
     }
 
     @Override
-    public void afterReturning(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Object returnObject) throws Throwable {
+    public void afterReturning(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Object returnObject, long cost) throws Throwable {
 
     }
 
     @Override
-    public void afterThrowing(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Throwable throwable) throws Throwable {
+    public void afterThrowing(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Throwable throwable, long cost) throws Throwable {
 
     }
 
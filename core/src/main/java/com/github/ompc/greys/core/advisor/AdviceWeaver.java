@@ -1,14 +1,11 @@
 package com.github.ompc.greys.core.advisor;
 
+import com.github.ompc.greys.core.GlobalOptions;
 import com.github.ompc.greys.core.util.AsmCodeLock;
 import com.github.ompc.greys.core.util.CodeLock;
-import com.github.ompc.greys.core.util.GaMethod;
 import com.github.ompc.greys.core.util.LogUtil;
-import com.github.ompc.greys.core.util.affect.EnhancerAffect;
-import com.github.ompc.greys.core.util.collection.GaStack;
-import com.github.ompc.greys.core.util.collection.ThreadUnsafeFixGaStack;
-import com.github.ompc.greys.core.util.collection.ThreadUnsafeGaStack;
-import com.github.ompc.greys.core.util.matcher.Matcher;
+import com.github.ompc.greys.core.util.TracingFilter;
+import com.github.ompc.greys.core.util.perf.GaPerf;
 import org.apache.commons.lang3.StringUtils;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.AdviceAdapter;
@@ -17,14 +14,22 @@ import org.objectweb.asm.commons.Method;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static com.github.ompc.greys.core.advisor.AdviceBinding.EMPTY_BINDINGS;
+import static com.github.ompc.greys.core.advisor.AdviceCapable.*;
 import static com.github.ompc.greys.core.GlobalOptions.isDebugForAsm;
+import static com.github.ompc.greys.core.GlobalOptions.isEnableInvokeDynamic;
 import static com.github.ompc.greys.core.util.GaCheckUtils.isEquals;
-import static com.github.ompc.greys.core.util.GaStringUtils.tranClassName;
-import static java.lang.Thread.currentThread;
+import static java.lang.System.arraycopy;
+import static org.apache.commons.lang3.reflect.FieldUtils.writeStaticField;
 
 
 /**
@@ -59,26 +64,6 @@ class AsmMethod {
     }
 }
 
-/**
- * Method匹配器,用于封装Asm方法的匹配
- */
-class AsmMethodMatcher implements Matcher<AsmMethod> {
-
-    private final GaMethod gaMethod;
-
-    AsmMethodMatcher(GaMethod gaMethod) {
-        this.gaMethod = gaMethod;
-    }
-
-    @Override
-    public boolean matching(AsmMethod target) {
-        return StringUtils.equals(gaMethod.getName(), target.name)
-                && StringUtils.equals(gaMethod.getDesc(), target.desc);
-    }
-
-}
-
-
 /**
  * TryCatch块,用于ExceptionsTable重排序
  */
@@ -98,12 +83,112 @@ class AsmTryCatchBlock {
 
 }
 
+/**
+ * 执行帧,保存Begin时的执行现场,供End时恢复
+ */
+class AdviceFrame {
+
+    MethodMeta meta;
+    Object target;
+    Object[] args;
+    AdviceBinding[] bindings;
+
+    /*
+     * 释放现场引用,避免池化的帧拖住目标对象
+     */
+    void clear() {
+        meta = null;
+        target = null;
+        args = null;
+        bindings = null;
+    }
+
+}
+
+/**
+ * 线程上下文<br/>
+ * 每个线程独占一份,承载防重入标记和线程帧栈,帧对象池化复用,push/pop不需要任何同步
+ */
+class AdviceThreadContext {
+
+    private static final int INIT_FRAME_STACK_SIZE = 16;
+
+    // 防止自己递归调用
+    boolean isSelfCall;
+
+    private AdviceFrame[] frames = new AdviceFrame[INIT_FRAME_STACK_SIZE];
+    private int depth;
+
+    /**
+     * 压入一个执行帧
+     *
+     * @return 可复用的执行帧
+     */
+    AdviceFrame push() {
+        if (depth == frames.length) {
+            final AdviceFrame[] newFrames = new AdviceFrame[frames.length << 1];
+            System.arraycopy(frames, 0, newFrames, 0, frames.length);
+            frames = newFrames;
+        }
+        AdviceFrame frame = frames[depth];
+        if (null == frame) {
+            frame = frames[depth] = new AdviceFrame();
+        }
+        depth++;
+        return frame;
+    }
+
+    /**
+     * 查看栈顶的执行帧
+     *
+     * @return 栈顶的执行帧, 栈为空则返回null
+     */
+    AdviceFrame peek() {
+        return depth > 0
+                ? frames[depth - 1]
+                : null;
+    }
+
+    /**
+     * 当前线程帧栈的深度
+     *
+     * @return 帧栈中的执行帧数量
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * 弹出方法ID所对应的执行帧<br/>
+     * 如果栈顶不是该方法的帧(reg/unReg与方法执行并发),则向下寻找并丢弃之上的残留帧,
+     * 找不到则说明Begin没有压帧,不做任何弹出
+     *
+     * @param methodId 方法ID
+     * @return 执行帧, 找不到则返回null
+     */
+    AdviceFrame pop(int methodId) {
+        for (int index = depth - 1; index >= 0; index--) {
+            final AdviceFrame frame = frames[index];
+            if (null != frame.meta
+                    && frame.meta.id == methodId) {
+                while (depth - 1 > index) {
+                    frames[--depth].clear();
+                }
+                depth--;
+                return frame;
+            }
+        }
+        return null;
+    }
+
+}
+
 /**
  * ASM 访问者编程模型 ClassVisitor
  * 通知编织者<br/>
  * <p/>
- * <h2>线程帧栈与执行帧栈</h2>
- * 编织者在执行通知的时候有两个重要的栈:线程帧栈(threadFrameStack),执行帧栈(frameStack)
+ * <h2>线程上下文与执行帧</h2>
+ * 编织者在执行通知的时候为每个线程维护一份线程上下文(AdviceThreadContext),其中的线程帧栈保存了各个方法Begin时的执行帧(AdviceFrame)
  * <p/>
  * Created by oldmanpushcart@gmail.com on 15/5/17.
  */
@@ -111,81 +196,118 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
     private final static Logger logger = LogUtil.getLogger();
 
-    // 线程帧栈堆栈大小
-    private final static int FRAME_STACK_SIZE = 7;
+    // 最多保留的已注销未还原通知个数
+    static final int MAX_UN_REG_ADVICES = 256;
 
-    // 通知监听器集合
-    private final static Map<Integer/*ADVICE_ID*/, AdviceListener> advices
-            = new ConcurrentHashMap<Integer, AdviceListener>();
+    // 被编织方法的元数据表,下标即为方法ID
+    private static volatile MethodMeta[] methodMetas = new MethodMeta[1024];
+    private static int methodMetaSeq = 0;
 
-    // 线程帧封装
-    private static final Map<Thread, GaStack<GaStack<Object>>> threadBoundContexts
-            = new ConcurrentHashMap<Thread, GaStack<GaStack<Object>>>();
+    // 方法调用点的元数据表,下标即为调用点ID
+    private static volatile CallSiteMeta[] callSiteMetas = new CallSiteMeta[1024];
+    private static int callSiteMetaSeq = 0;
 
-    // 防止自己递归调用
-    private static final ThreadLocal<Boolean> isSelfCallRef = new ThreadLocal<Boolean>() {
+    // 类-方法元数据索引,一个(类,方法名+方法描述)只对应一个方法元数据
+    private static final Map<Class<?>, Map<String/*name+desc*/, MethodMeta>> classMethodMetas
+            = new WeakHashMap<Class<?>, Map<String, MethodMeta>>();
 
+    // 通知在增强时所圈定的方法,注册监听器时才真正绑定到方法上
+    private static final Map<Integer/*ADVICE_ID*/, Collection<MethodMeta>> adviceMethodMetas
+            = new HashMap<Integer, Collection<MethodMeta>>();
+    // 已经注销但尚未还原的通知所独占的方法,还原时取出
+    // 不自动还原时只保留最近注销的通知,更早的通知还原时由类的归属释放来解除织入状态
+    private static final Map<Integer/*ADVICE_ID*/, Collection<MethodMeta>> unRegAdviceMethodMetas
+            = new LinkedHashMap<Integer, Collection<MethodMeta>>() {
         @Override
-        protected Boolean initialValue() {
-            return false;
+        protected boolean removeEldestEntry(Map.Entry<Integer, Collection<MethodMeta>> eldest) {
+            return size() > MAX_UN_REG_ADVICES;
         }
-
     };
+    private static final Map<Integer/*ADVICE_ID*/, TracingFilter> adviceTracingFilters
+            = new HashMap<Integer, TracingFilter>();
+    private static final Object methodMetaLock = new Object();
+
+    // 通知开关,下标为方法ID,方法上注册有监听器时打开
+    // 增强的字节码被多个通知共享,织入时并不知道通知ID,所以按方法而不是按通知划分
+    // 所有的Spy共享同一个数组实例,只有扩容的时候才需要重新同步到各个Spy中
+    private static volatile boolean[] adviceSwitches = new boolean[1024];
+
+    // 已经派遣出去的Spy
+    private static final Map<Class<?>, Boolean> spyClasses = new WeakHashMap<Class<?>, Boolean>();
+    private static final Object adviceSwitchLock = new Object();
+
+    // 通知监听器集合
+    private final static Map<Integer/*ADVICE_ID*/, AdviceListener> advices
+            = new ConcurrentHashMap<Integer, AdviceListener>();
+
+    // 线程上下文
+    // 所有通知都注销后会整体替换成新的ThreadLocal,旧的线程上下文随之失去引用,由各个线程的ThreadLocalMap自行清理
+    private static volatile ThreadLocal<AdviceThreadContext> threadContextRef = newThreadContextRef();
 
 
     /**
      * 方法开始<br/>
      * 用于编织通知器,外部不会直接调用
      * 这里的调用主要在于Spy间谍类初始化的时候，保存了改方法的method引用。
-     * 这里的钩子方法，实际上调用了ASM的getStatic指令执行。
+     * 这里的钩子方法，实际上通过invokedynamic或ASM的getStatic指令执行。
      * <p>
      * 看到这里，用ASM操作字节码，最常用的方式还是直接调用静态方法，因为静态方法用ASM的接口比较容易调用。
      *
-     * @param loader     类加载器
-     * @param adviceId   通知ID
-     * @param className  类名
-     * @param methodName 方法名
-     * @param methodDesc 方法描述
-     * @param target     返回结果
-     *                   若为无返回值方法(void),则为null
-     * @param args       参数列表
+     * @param methodId 方法ID
+     * @param target   目标对象
+     *                 若目标为静态方法,则为null
+     * @param args     参数列表
      */
-    public static void methodOnBegin(
-            int adviceId,
-            ClassLoader loader, String className, String methodName, String methodDesc,
-            Object target, Object[] args) {
+    public static void methodOnBegin(int methodId, Object target, Object[] args) {
 
-        if (!advices.containsKey(adviceId)) {
+        final MethodMeta meta = getMethodMeta(methodId);
+        if (null == meta) {
             return;
         }
 
-        if (isSelfCallRef.get()) {
+        // 方法上没有任何监听器
+        final AdviceBinding[] bindings = meta.getBindings();
+        if (bindings.length == 0) {
+            return;
+        }
+
+        final AdviceThreadContext context = threadContextRef.get();
+        if (context.isSelfCall) {
             return;
         } else {
-            isSelfCallRef.set(true);
+            context.isSelfCall = true;
         }
 
         try {
-            // 构建执行帧栈,保护当前的执行现场
-            final GaStack<Object> frameStack = new ThreadUnsafeFixGaStack<Object>(FRAME_STACK_SIZE);
-            frameStack.push(loader);
-            frameStack.push(className);
-            frameStack.push(methodName);
-            frameStack.push(methodDesc);
-            frameStack.push(target);
-            frameStack.push(args);
-
-            final AdviceListener listener = getListener(adviceId);
-            frameStack.push(listener);
-
-            // 获取通知器并做前置通知
-            before(listener, loader, className, methodName, methodDesc, target, args);
-
-            // 保护当前执行帧栈,压入线程帧栈
+            // 采样,在做任何通知之前先确定本次调用需要通知哪些监听器
+            final AdviceBinding[] sampledBindings = sampling(bindings);
+
+            // 逐个监听器做前置通知
+            final ClassLoader loader = meta.getLoader();
+            for (final AdviceBinding binding : sampledBindings) {
+                if (binding.isCapable(EVENT_BEFORE)) {
+                    final long beginNanos = binding.beginMetering();
+                    before(binding.listener, loader, meta.className, meta.methodName, meta.methodDesc, target, args);
+                    binding.endMetering(beginNanos);
+                }
+            }
+
+            // 没有织入结束钩子的方法不会再弹帧,无需保存执行现场
+            if (!meta.isEndWoven()) {
+                return;
+            }
+
+            // 保护当前执行现场,压入线程帧栈
             // 这里的栈帧仅仅是一个模拟，并非真正的jvm栈，实际上就是一个调用当前环境的保存而已
-            threadFrameStackPush(frameStack);
+            // 监听器表也一并保存,保证before/end通知的是同一批监听器
+            // 即使本次调用没有被任何监听器采样也需要压帧,否则递归调用时End会错误的弹出外层的帧
+            final AdviceFrame frame = context.push();
+            frame.meta = meta;
+            frame.target = target;
+            frame.args = args;
+            frame.bindings = sampledBindings;
         } finally {
-            isSelfCallRef.set(false);
+            context.isSelfCall = false;
         }
 
     }
@@ -196,10 +318,12 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      * 用于编织通知器,外部不会直接调用
      *
      * @param returnObject 返回对象
-     *                     若目标为静态方法,则为null
+     *                     若为无返回值方法(void),则为null
+     * @param methodId     方法ID
+     * @param cost         方法耗时(纳秒)
      */
-    public static void methodOnReturnEnd(Object returnObject, int adviceId) {
-        methodOnEnd(adviceId, false, returnObject);
+    public static void methodOnReturnEnd(Object returnObject, int methodId, long cost) {
+        methodOnEnd(methodId, false, returnObject, cost);
     }
 
     /**
@@ -207,59 +331,79 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      * 用于编织通知器,外部不会直接调用
      *
      * @param throwable 抛出异常
+     * @param methodId  方法ID
+     * @param cost      方法耗时(纳秒)
      */
-    public static void methodOnThrowingEnd(Throwable throwable, int adviceId) {
-        methodOnEnd(adviceId, true, throwable);
+    public static void methodOnThrowingEnd(Throwable throwable, int methodId, long cost) {
+        methodOnEnd(methodId, true, throwable, cost);
     }
 
     /**
      * 所有的返回都统一处理
      *
+     * @param methodId          方法ID
      * @param isThrowing        标记正常返回结束还是抛出异常结束
      * @param returnOrThrowable 正常返回或者抛出异常对象
+     * @param cost              方法耗时(纳秒)
      */
-    private static void methodOnEnd(int adviceId, boolean isThrowing, Object returnOrThrowable) {
+    private static void methodOnEnd(int methodId, boolean isThrowing, Object returnOrThrowable, long cost) {
 
-        if (!advices.containsKey(adviceId)) {
+        final MethodMeta meta = getMethodMeta(methodId);
+        if (null == meta) {
             return;
         }
 
-        if (isSelfCallRef.get()) {
+        final AdviceThreadContext context = threadContextRef.get();
+        if (context.isSelfCall) {
             return;
         } else {
-            isSelfCallRef.set(true);
+            context.isSelfCall = true;
         }
 
         try {
-            // 弹射线程帧栈,恢复Begin所保护的执行帧栈
-            final GaStack<Object> frameStack = threadFrameStackPop();
+            // 弹射线程帧栈,恢复Begin所保护的执行现场
+            final AdviceFrame frame = context.pop(methodId);
 
             // 用于保护reg和before执行并发的情况
             // 如果before没有注入,则不对end做任何处理
-            if (null == frameStack) {
+            if (null == frame) {
                 return;
             }
 
-            // 弹射执行帧栈,恢复Begin所保护的现场
-            final AdviceListener listener = (AdviceListener) frameStack.pop();
-            final Object[] args = (Object[]) frameStack.pop();
-            final Object target = frameStack.pop();
-            final String methodDesc = (String) frameStack.pop();
-            final String methodName = (String) frameStack.pop();
-            final String className = (String) frameStack.pop();
-            final ClassLoader loader = (ClassLoader) frameStack.pop();
+            final AdviceBinding[] bindings = frame.bindings;
+            final Object target = frame.target;
+            final Object[] args = frame.args;
+            frame.clear();
 
-            // 异常通知
-            if (isThrowing) {
-                afterThrowing(listener, loader, className, methodName, methodDesc, target, args, (Throwable) returnOrThrowable);
-            }
+            final ClassLoader loader = meta.getLoader();
+            for (final AdviceBinding binding : bindings) {
+
+                // 方法执行期间监听器已被注销
+                if (!binding.isActive) {
+                    continue;
+                }
+
+                // 异常通知
+                if (isThrowing) {
+                    if (binding.isCapable(EVENT_THROWING)) {
+                        final long beginNanos = binding.beginMetering();
+                        afterThrowing(binding.listener, loader, meta.className, meta.methodName, meta.methodDesc, target, args, (Throwable) returnOrThrowable, cost);
+                        binding.endMetering(beginNanos);
+                    }
+                }
+
+                // 返回通知
+                else {
+                    if (binding.isCapable(EVENT_RETURNING)) {
+                        final long beginNanos = binding.beginMetering();
+                        afterReturning(binding.listener, loader, meta.className, meta.methodName, meta.methodDesc, target, args, returnOrThrowable, cost);
+                        binding.endMetering(beginNanos);
+                    }
+                }
 
-            // 返回通知
-            else {
-                afterReturning(listener, loader, className, methodName, methodDesc, target, args, returnOrThrowable);
             }
         } finally {
-            isSelfCallRef.set(false);
+            context.isSelfCall = false;
         }
 
     }
@@ -267,22 +411,24 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     /**
      * 方法内部调用开始
      *
-     * @param adviceId   通知ID
-     * @param lineNumber 代码行号
-     * @param owner      调用类名
-     * @param name       调用方法名
-     * @param desc       调用方法描述
+     * @param callSiteId 调用点ID
      */
-    public static void methodOnInvokeBeforeTracing(int adviceId, Integer lineNumber, String owner, String name, String desc) {
-        if (!advices.containsKey(adviceId)) {
+    public static void methodOnInvokeBeforeTracing(int callSiteId) {
+        final CallSiteMeta site = getCallSiteMeta(callSiteId);
+        if (null == site) {
             return;
         }
-        final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
-        if (null != listener) {
-            try {
-                listener.invokeBeforeTracing(lineNumber, owner, name, desc);
-            } catch (Throwable t) {
-                logger.warn("advice before tracing failed.", t);
+        for (final AdviceBinding binding : getTracingBindings(site.meta.id)) {
+            if (binding.isActive
+                    && binding.listener instanceof InvokeTraceable
+                    && isTracing(binding, site)) {
+                final long beginNanos = binding.beginMetering();
+                try {
+                    ((InvokeTraceable) binding.listener).invokeBeforeTracing(site.lineNumber, site.owner, site.name, site.desc);
+                } catch (Throwable t) {
+                    logger.warn("advice before tracing failed.", t);
+                }
+                binding.endMetering(beginNanos);
             }
         }
     }
@@ -290,22 +436,24 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     /**
      * 方法内部调用结束(正常返回)
      *
-     * @param adviceId   通知ID
-     * @param lineNumber 代码行号
-     * @param owner      调用类名
-     * @param name       调用方法名
-     * @param desc       调用方法描述
+     * @param callSiteId 调用点ID
      */
-    public static void methodOnInvokeAfterTracing(int adviceId, Integer lineNumber, String owner, String name, String desc) {
-        if (!advices.containsKey(adviceId)) {
+    public static void methodOnInvokeAfterTracing(int callSiteId) {
+        final CallSiteMeta site = getCallSiteMeta(callSiteId);
+        if (null == site) {
             return;
         }
-        final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
-        if (null != listener) {
-            try {
-                listener.invokeAfterTracing(lineNumber, owner, name, desc);
-            } catch (Throwable t) {
-                logger.warn("advice after tracing failed.", t);
+        for (final AdviceBinding binding : getTracingBindings(site.meta.id)) {
+            if (binding.isActive
+                    && binding.listener instanceof InvokeTraceable
+                    && isTracing(binding, site)) {
+                final long beginNanos = binding.beginMetering();
+                try {
+                    ((InvokeTraceable) binding.listener).invokeAfterTracing(site.lineNumber, site.owner, site.name, site.desc);
+                } catch (Throwable t) {
+                    logger.warn("advice after tracing failed.", t);
+                }
+                binding.endMetering(beginNanos);
             }
         }
     }
@@ -313,64 +461,427 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     /**
      * 方法内部调用结束(异常返回)
      *
-     * @param adviceId       通知ID
-     * @param lineNumber     代码行号
-     * @param owner          调用类名
-     * @param name           调用方法名
-     * @param desc           调用方法描述
-     * @param throwException 抛出的异常
+     * @param throwable  抛出的异常
+     * @param callSiteId 调用点ID
      */
-    public static void methodOnInvokeThrowTracing(int adviceId, Integer lineNumber, String owner, String name, String desc, String throwException) {
-        if (!advices.containsKey(adviceId)) {
+    public static void methodOnInvokeThrowTracing(Throwable throwable, int callSiteId) {
+        final CallSiteMeta site = getCallSiteMeta(callSiteId);
+        if (null == site) {
             return;
         }
-        final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
-        if (null != listener) {
-            try {
-                listener.invokeThrowTracing(lineNumber, owner, name, desc, throwException);
-            } catch (Throwable t) {
-                logger.warn("advice throw tracing failed.", t);
+
+        // 异常类名只在确实有监听器需要通知时才计算
+        String throwException = null;
+        for (final AdviceBinding binding : getTracingBindings(site.meta.id)) {
+            if (binding.isActive
+                    && binding.listener instanceof InvokeTraceable
+                    && isTracing(binding, site)) {
+                if (null == throwException) {
+                    throwException = throwable.getClass().getName();
+                }
+                final long beginNanos = binding.beginMetering();
+                try {
+                    ((InvokeTraceable) binding.listener).invokeThrowTracing(site.lineNumber, site.owner, site.name, site.desc, throwException);
+                } catch (Throwable t) {
+                    logger.warn("advice throw tracing failed.", t);
+                }
+                binding.endMetering(beginNanos);
             }
         }
     }
 
+    /*
+     * 采样,返回本次调用需要通知的监听器
+     * 所有监听器都被采样时直接返回原监听器表,不产生任何对象分配
+     */
+    private static AdviceBinding[] sampling(final AdviceBinding[] bindings) {
+        AdviceBinding[] sampledBindings = null;
+        int count = 0;
+        for (int index = 0; index < bindings.length; index++) {
+            final AdviceBinding binding = bindings[index];
+            if (binding.isSampling()) {
+                if (null != sampledBindings) {
+                    sampledBindings[count] = binding;
+                }
+                count++;
+            } else if (null == sampledBindings) {
+                sampledBindings = new AdviceBinding[bindings.length];
+                arraycopy(bindings, 0, sampledBindings, 0, count);
+            }
+        }
+
+        if (null == sampledBindings) {
+            return bindings;
+        }
+        if (count == 0) {
+            return EMPTY_BINDINGS;
+        }
+        final AdviceBinding[] newBindings = new AdviceBinding[count];
+        arraycopy(sampledBindings, 0, newBindings, 0, count);
+        return newBindings;
+    }
 
     /*
-     * 线程帧栈压栈<br/>
-     * 将当前执行帧栈压入线程栈
+     * 判断监听器是否需要跟踪该调用点
+     * 方法只按照监听器自己的过滤器织入跟踪时,织入的调用点就是它所需要的,无需再做匹配
      */
-    private static void threadFrameStackPush(GaStack<Object> frameStack) {
-        final Thread thread = currentThread();
-        GaStack<GaStack<Object>> threadFrameStack = threadBoundContexts.get(thread);
-        if (null == threadFrameStack) {
-            threadBoundContexts.put(thread, threadFrameStack = new ThreadUnsafeGaStack<GaStack<Object>>());
+    private static boolean isTracing(final AdviceBinding binding, final CallSiteMeta site) {
+        final TracingFilter filter = binding.tracingFilter;
+        if (null == filter) {
+            return true;
         }
-        threadFrameStack.push(frameStack);
+        final TracingFilter[] wovenFilters = site.meta.tracingFilters;
+        return (wovenFilters.length == 1 && wovenFilters[0] == filter)
+                || filter.isTracing(site.owner, site.name);
     }
 
-    private static GaStack<Object> threadFrameStackPop() {
-        final GaStack<GaStack<Object>> stackGaStack = threadBoundContexts.get(currentThread());
+    /*
+     * 获取需要跟踪方法内部调用的监听器
+     * 只有方法开始时被采样的监听器才会收到内部调用的通知,所以从当前方法的执行帧中获取
+     */
+    private static AdviceBinding[] getTracingBindings(final int methodId) {
+        final AdviceFrame frame = threadContextRef.get().peek();
+        return null != frame
+                && null != frame.meta
+                && frame.meta.id == methodId
+                ? frame.bindings
+                : EMPTY_BINDINGS;
+    }
+
+    /**
+     * 登记方法元数据<br/>
+     * 同一个(类,方法名+方法描述)只会登记一次,返回的方法ID将作为常量编织到目标方法中
+     *
+     * @param clazz      方法所归属的类
+     * @param methodName 方法名
+     * @param methodDesc 方法描述
+     * @return 方法元数据
+     */
+    static MethodMeta regMethodMeta(Class<?> clazz, String methodName, String methodDesc) {
+        synchronized (methodMetaLock) {
+
+            Map<String, MethodMeta> metaMap = classMethodMetas.get(clazz);
+            if (null == metaMap) {
+                classMethodMetas.put(clazz, metaMap = new HashMap<String, MethodMeta>());
+            }
+
+            final String key = MethodMeta.toKey(methodName, methodDesc);
+            MethodMeta meta = metaMap.get(key);
+            if (null != meta) {
+                return meta;
+            }
+
+            final int methodId = methodMetaSeq++;
+            MethodMeta[] metas = methodMetas;
+            if (methodId >= metas.length) {
+                final MethodMeta[] newMetas = new MethodMeta[metas.length << 1];
+                arraycopy(metas, 0, newMetas, 0, metas.length);
+                metas = newMetas;
+            }
+            metas[methodId] = meta = new MethodMeta(methodId, clazz, methodName, methodDesc);
+            methodMetas = metas;
+            metaMap.put(key, meta);
+
+            // 编织的开关检查会用到该方法ID
+            ensureAdviceSwitch(methodId);
+            return meta;
+        }
+    }
 
-        // 用于保护reg和before并发导致before/end乱序的场景
-        if (null == stackGaStack
-                || stackGaStack.isEmpty()) {
-            return null;
+    /**
+     * 发布类中方法的织入状态<br/>
+     * 类完成重新转换后调用,此前运行的仍是旧的字节码,按旧的织入状态压帧弹帧才能配对
+     *
+     * @param clazz 类
+     */
+    static void activate(Class<?> clazz) {
+        synchronized (methodMetaLock) {
+            final Map<String, MethodMeta> metaMap = classMethodMetas.get(clazz);
+            if (null != metaMap) {
+                for (final MethodMeta meta : metaMap.values()) {
+                    meta.activate();
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取类中需要织入的方法元数据
+     *
+     * @param clazz 类
+     * @return name+desc -> 方法元数据
+     */
+    static Map<String, MethodMeta> getWovenMethodMetas(Class<?> clazz) {
+        final Map<String, MethodMeta> wovenMetaMap = new HashMap<String, MethodMeta>();
+        synchronized (methodMetaLock) {
+            final Map<String, MethodMeta> metaMap = classMethodMetas.get(clazz);
+            if (null != metaMap) {
+                for (final Map.Entry<String, MethodMeta> entry : metaMap.entrySet()) {
+                    if (entry.getValue().isWoven) {
+                        wovenMetaMap.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
         }
-        return stackGaStack.pop();
+        return wovenMetaMap;
     }
 
-    private static AdviceListener getListener(int adviceId) {
-        return advices.get(adviceId);
+    /**
+     * 登记通知所圈定的方法<br/>
+     * 增强完成之后调用,等到注册监听器的时候才真正绑定
+     *
+     * @param adviceId      通知ID
+     * @param metas         方法元数据集合
+     * @param tracingFilter 方法调用跟踪过滤器,为null则跟踪所有调用点
+     */
+    static void regAdviceMethodMetas(int adviceId, Collection<MethodMeta> metas, TracingFilter tracingFilter) {
+        synchronized (methodMetaLock) {
+            adviceMethodMetas.put(adviceId, new ArrayList<MethodMeta>(metas));
+            if (null != tracingFilter) {
+                adviceTracingFilters.put(adviceId, tracingFilter);
+            }
+        }
     }
 
+    /**
+     * 重置所有方法元数据<br/>
+     * 所有类都已经还原成原始字节码后调用,解除所有方法上的监听器
+     */
+    static void resetMethodMetas() {
+        synchronized (methodMetaLock) {
+            final MethodMeta[] metas = methodMetas;
+            for (int index = 0; index < methodMetaSeq; index++) {
+                final MethodMeta meta = metas[index];
+                meta.isWoven = false;
+                meta.wovenCapabilities = 0;
+                meta.activeCapabilities = 0;
+                meta.clearTracingFilters();
+                for (final AdviceBinding binding : meta.getBindings()) {
+                    binding.isActive = false;
+                }
+                meta.unBindAll();
+                turnAdviceSwitch(meta.id, false);
+            }
+            adviceMethodMetas.clear();
+            unRegAdviceMethodMetas.clear();
+            adviceTracingFilters.clear();
+        }
+    }
 
     /**
-     * 注册监听器
+     * 注销通知并解除其独占方法的织入状态<br/>
+     * 其他通知仍然圈定着的方法保持原样
+     *
+     * @param adviceId 通知ID
+     * @return 需要还原的方法元数据
+     */
+    static Collection<MethodMeta> unWeave(int adviceId) {
+        unReg(adviceId);
+        final Collection<MethodMeta> metas;
+        synchronized (methodMetaLock) {
+            metas = unRegAdviceMethodMetas.remove(adviceId);
+        }
+
+        final Collection<MethodMeta> unWovenMetas = new ArrayList<MethodMeta>();
+        if (null == metas) {
+            return unWovenMetas;
+        }
+        synchronized (methodMetaLock) {
+            for (final MethodMeta meta : metas) {
+                if (!meta.isWoven
+                        || isAdvised(meta)) {
+                    continue;
+                }
+                meta.isWoven = false;
+                meta.wovenCapabilities = 0;
+                meta.clearTracingFilters();
+                unWovenMetas.add(meta);
+            }
+        }
+        return unWovenMetas;
+    }
+
+    /**
+     * 解除类中不再被任何通知圈定的方法的织入状态<br/>
+     * 类已经不再被任何通知增强时调用,已注销通知的登记被淘汰后依然能还原干净
+     *
+     * @param clazz 类
+     */
+    static void unWeave(Class<?> clazz) {
+        synchronized (methodMetaLock) {
+            final Map<String, MethodMeta> metaMap = classMethodMetas.get(clazz);
+            if (null == metaMap) {
+                return;
+            }
+            for (final MethodMeta meta : metaMap.values()) {
+                if (!meta.isWoven
+                        || isAdvised(meta)) {
+                    continue;
+                }
+                meta.isWoven = false;
+                meta.wovenCapabilities = 0;
+                meta.clearTracingFilters();
+            }
+        }
+    }
+
+    /*
+     * 注销后仍需还原的方法:仍处于织入状态且不再被其他通知圈定
+     */
+    private static Collection<MethodMeta> toUnWeaveMetas(Collection<MethodMeta> metas) {
+        final Collection<MethodMeta> unWeaveMetas = new ArrayList<MethodMeta>();
+        for (final MethodMeta meta : metas) {
+            if (meta.isWoven
+                    && !isAdvised(meta)) {
+                unWeaveMetas.add(meta);
+            }
+        }
+        return unWeaveMetas;
+    }
+
+    /*
+     * 方法是否仍被某个通知所圈定
+     */
+    private static boolean isAdvised(MethodMeta meta) {
+        for (final Collection<MethodMeta> metas : adviceMethodMetas.values()) {
+            if (metas.contains(meta)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 登记方法调用点<br/>
+     * 同一个方法中相同位置的同一处调用只会登记一次,返回的调用点ID将作为常量编织到目标方法中
+     *
+     * @param meta       调用点所在的方法
+     * @param index      调用点在方法中的序号
+     * @param lineNumber 代码行号
+     * @param owner      调用类名
+     * @param name       调用方法名
+     * @param desc       调用方法描述
+     * @return 调用点ID
+     */
+    static int regCallSiteMeta(MethodMeta meta, int index, Integer lineNumber, String owner, String name, String desc) {
+        synchronized (methodMetaLock) {
+
+            final List<CallSiteMeta> sites = meta.callSites;
+            if (index < sites.size()) {
+                final CallSiteMeta site = sites.get(index);
+                if (site.isSame(lineNumber, owner, name, desc)) {
+                    return site.id;
+                }
+            }
+
+            final int callSiteId = callSiteMetaSeq++;
+            CallSiteMeta[] metas = callSiteMetas;
+            if (callSiteId >= metas.length) {
+                final CallSiteMeta[] newMetas = new CallSiteMeta[metas.length << 1];
+                arraycopy(metas, 0, newMetas, 0, metas.length);
+                metas = newMetas;
+            }
+            final CallSiteMeta site = new CallSiteMeta(callSiteId, meta, lineNumber, owner, name, desc);
+            metas[callSiteId] = site;
+            callSiteMetas = metas;
+
+            if (index < sites.size()) {
+                sites.set(index, site);
+            } else {
+                sites.add(site);
+            }
+            return callSiteId;
+        }
+    }
+
+    /**
+     * 根据调用点ID获取调用点元数据
+     *
+     * @param callSiteId 调用点ID
+     * @return 调用点元数据, 若调用点ID不存在则为null
+     */
+    static CallSiteMeta getCallSiteMeta(int callSiteId) {
+        final CallSiteMeta[] metas = callSiteMetas;
+        return callSiteId >= 0 && callSiteId < metas.length
+                ? metas[callSiteId]
+                : null;
+    }
+
+    /**
+     * 根据方法ID获取方法元数据
+     *
+     * @param methodId 方法ID
+     * @return 方法元数据, 若方法ID不存在则为null
+     */
+    static MethodMeta getMethodMeta(int methodId) {
+        final MethodMeta[] metas = methodMetas;
+        return methodId >= 0 && methodId < metas.length
+                ? metas[methodId]
+                : null;
+    }
+
+    /**
+     * 获取监听器所需要的事件和数据
+     *
+     * @param listener 通知监听器
+     * @return 事件和数据的位组合
+     */
+    public static int getCapabilities(AdviceListener listener) {
+        return listener instanceof AdviceCapable
+                ? ((AdviceCapable) listener).getCapabilities()
+                : ALL;
+    }
+
+    /*
+     * 获取当前线程的上下文
+     */
+    static AdviceThreadContext getThreadContext() {
+        return threadContextRef.get();
+    }
+
+    private static ThreadLocal<AdviceThreadContext> newThreadContextRef() {
+        return new ThreadLocal<AdviceThreadContext>() {
+            @Override
+            protected AdviceThreadContext initialValue() {
+                return new AdviceThreadContext();
+            }
+        };
+    }
+
+
+    /**
+     * 注册监听器<br/>
+     * 监听器被绑定到增强时所圈定的方法上,已经织入过的方法无需重新增强即可立即生效
      *
      * @param adviceId 通知ID
      * @param listener 通知监听器
      */
     public static void reg(int adviceId, AdviceListener listener) {
+        reg(adviceId, listener, null);
+    }
+
+    /**
+     * 注册监听器<br/>
+     * 监听器被绑定到增强时所圈定的方法上,已经织入过的方法无需重新增强即可立即生效
+     *
+     * @param adviceId 通知ID
+     * @param listener 通知监听器
+     * @param sampler  采样器,为null则全量通知
+     */
+    public static void reg(int adviceId, AdviceListener listener, Sampler sampler) {
+        reg(adviceId, listener, sampler, null);
+    }
+
+    /**
+     * 注册监听器<br/>
+     * 监听器被绑定到增强时所圈定的方法上,已经织入过的方法无需重新增强即可立即生效
+     *
+     * @param adviceId        通知ID
+     * @param listener        通知监听器
+     * @param sampler         采样器,为null则全量通知
+     * @param overheadHandler 开销超出预算时的处理器,为null则不做开销守护
+     */
+    public static void reg(int adviceId, AdviceListener listener, Sampler sampler, OverheadGuard.Handler overheadHandler) {
 
         // 触发监听器创建
         listener.create();
@@ -378,18 +889,68 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
         // 注册监听器
         advices.put(adviceId, listener);
 
-        logger.info("reg adviceId={};listener={}", adviceId, listener);
+        // 绑定到方法上并打开通知开关
+        synchronized (methodMetaLock) {
+            final Collection<MethodMeta> metas = adviceMethodMetas.get(adviceId);
+            if (null != metas) {
+                final AdviceBinding binding = new AdviceBinding(adviceId, listener, sampler, adviceTracingFilters.get(adviceId), GaPerf.regAdvice(adviceId));
+                if (null != overheadHandler
+                        && GlobalOptions.overheadBudget > 0) {
+                    OverheadGuard.guard(binding, overheadHandler);
+                }
+                for (final MethodMeta meta : metas) {
+                    meta.bind(binding);
+                    turnAdviceSwitch(meta.id, true);
+                }
+            }
+        }
+
+        logger.info("reg adviceId={};listener={};sampler={}", adviceId, listener, sampler);
     }
 
     /**
-     * 注销监听器
+     * 注销监听器<br/>
+     * 圈定的方法仍保持织入状态,留待还原该通知的增强时解除
      *
      * @param adviceId 通知ID
      */
     public static void unReg(int adviceId) {
 
+        OverheadGuard.unGuard(adviceId);
+
+        // 从方法上解绑,没有监听器的方法关闭通知开关
+        synchronized (methodMetaLock) {
+            final Collection<MethodMeta> metas = adviceMethodMetas.remove(adviceId);
+            adviceTracingFilters.remove(adviceId);
+            if (null != metas) {
+
+                // 只保留本通知独占的方法,没有则不再登记
+                final Collection<MethodMeta> unWeaveMetas = toUnWeaveMetas(metas);
+                if (!unWeaveMetas.isEmpty()) {
+                    unRegAdviceMethodMetas.put(adviceId, unWeaveMetas);
+                }
+                for (final MethodMeta meta : metas) {
+                    for (final AdviceBinding binding : meta.getBindings()) {
+                        if (binding.adviceId == adviceId) {
+                            binding.isActive = false;
+                        }
+                    }
+                    meta.unBind(adviceId);
+                    if (meta.getBindings().length == 0) {
+                        turnAdviceSwitch(meta.id, false);
+                    }
+                }
+            }
+        }
+
         // 注销监听器
         final AdviceListener listener = advices.remove(adviceId);
+        GaPerf.unRegAdvice(adviceId);
+
+        // 所有通知都已注销,释放所有线程上下文
+        if (advices.isEmpty()) {
+            threadContextRef = newThreadContextRef();
+        }
 
         // 触发监听器销毁
         if (null != listener) {
@@ -400,6 +961,64 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
     }
 
+    /**
+     * 登记Spy<br/>
+     * 被增强的类在执行前,其所见的Spy必须已经持有当前的通知开关
+     *
+     * @param spyClass Spy类
+     */
+    public static void regSpy(Class<?> spyClass) {
+        synchronized (adviceSwitchLock) {
+            if (!spyClasses.containsKey(spyClass)) {
+                syncAdviceSwitches(spyClass, adviceSwitches);
+                spyClasses.put(spyClass, Boolean.TRUE);
+            }
+        }
+    }
+
+    /*
+     * 确保通知开关能容纳该方法ID
+     * 扩容后需要同步到所有已知的Spy中
+     */
+    private static void ensureAdviceSwitch(int methodId) {
+        synchronized (adviceSwitchLock) {
+            boolean[] switches = adviceSwitches;
+            if (methodId < switches.length) {
+                return;
+            }
+
+            int length = switches.length;
+            while (methodId >= length) {
+                length <<= 1;
+            }
+            final boolean[] newSwitches = new boolean[length];
+            arraycopy(switches, 0, newSwitches, 0, switches.length);
+            adviceSwitches = switches = newSwitches;
+
+            for (final Class<?> spyClass : spyClasses.keySet()) {
+                syncAdviceSwitches(spyClass, switches);
+            }
+        }
+    }
+
+    /*
+     * 打开/关闭通知开关
+     */
+    private static void turnAdviceSwitch(int methodId, boolean isOn) {
+        synchronized (adviceSwitchLock) {
+            ensureAdviceSwitch(methodId);
+            adviceSwitches[methodId] = isOn;
+        }
+    }
+
+    private static void syncAdviceSwitches(Class<?> spyClass, boolean[] switches) {
+        try {
+            writeStaticField(spyClass, "ADVICE_SWITCHES", switches);
+        } catch (IllegalAccessException e) {
+            logger.warn("sync advice switches to {} failed.", spyClass, e);
+        }
+    }
+
     private static void before(AdviceListener listener,
                                ClassLoader loader, String className, String methodName, String methodDesc,
                                Object target, Object[] args) {
@@ -416,10 +1035,10 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
     private static void afterReturning(AdviceListener listener,
                                        ClassLoader loader, String className, String methodName, String methodDesc,
-                                       Object target, Object[] args, Object returnObject) {
+                                       Object target, Object[] args, Object returnObject, long cost) {
         if (null != listener) {
             try {
-                listener.afterReturning(loader, className, methodName, methodDesc, target, args, returnObject);
+                listener.afterReturning(loader, className, methodName, methodDesc, target, args, returnObject, cost);
             } catch (Throwable t) {
                 logger.warn("advice returning failed.", t);
             }
@@ -428,10 +1047,10 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
     private static void afterThrowing(AdviceListener listener,
                                       ClassLoader loader, String className, String methodName, String methodDesc,
-                                      Object target, Object[] args, Throwable throwable) {
+                                      Object target, Object[] args, Throwable throwable, long cost) {
         if (null != listener) {
             try {
-                listener.afterThrowing(loader, className, methodName, methodDesc, target, args, throwable);
+                listener.afterThrowing(loader, className, methodName, methodDesc, target, args, throwable, cost);
             } catch (Throwable t) {
                 logger.warn("advice throwing failed.", t);
             }
@@ -439,39 +1058,68 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     }
 
 
-    private final int adviceId;
-    private final boolean isTracing;
     private final String internalClassName;
-    private final String javaClassName;
-    private final Matcher<AsmMethod> asmMethodMatcher;
-    private final EnhancerAffect affect;
+    private final Map<String/*name+desc*/, MethodMeta> wovenMethodMetas;
+
+    // 是否保留并修补原有的栈帧,为false时由ClassWriter重新计算栈帧
+    private final boolean isPatchFrames;
+
+    // 方法ID常量(name+desc -> 常量),不为null时以常量代替方法ID织入,
+    // 编织结果与方法ID的分配无关,使用前再替换成真实的方法ID
+    private final Map<String/*name+desc*/, Integer> idConstants;
+
+    // 是否通过invokedynamic调用钩子,在visit()时根据类版本确定
+    private boolean isInvokeDynamic;
 
 
+    /**
+     * 构建通知编织器<br/>
+     * 每个类只织入一层钩子,同一个方法上的所有监听器共用这一层钩子
+     *
+     * @param internalClassName 类名称(透传)
+     * @param wovenMethodMetas  需要织入的方法元数据(name+desc -> 方法元数据)
+     *                          只有登记在这里的方法才会被织入通知器
+     * @param isPatchFrames     是否保留并修补原有的栈帧,需要以EXPAND_FRAMES读取,
+     *                          且类中不能有JSR/RET指令(1.7及以上版本的类)
+     * @param cv                ClassVisitor for ASM
+     */
+    public AdviceWeaver(
+            final String internalClassName,
+            final Map<String, MethodMeta> wovenMethodMetas,
+            final boolean isPatchFrames,
+            final ClassVisitor cv) {
+        this(internalClassName, wovenMethodMetas, isPatchFrames, null, cv);
+    }
+
     /**
      * 构建通知编织器
      *
-     * @param adviceId          通知ID
-     * @param isTracing         可跟踪方法调用
      * @param internalClassName 类名称(透传)
-     * @param asmMethodMatcher  asm方法匹配
-     *                          只有匹配上的方法才会被织入通知器
-     * @param affect            影响计数
+     * @param wovenMethodMetas  需要织入的方法元数据(name+desc -> 方法元数据)
+     * @param isPatchFrames     是否保留并修补原有的栈帧
+     * @param idConstants       方法ID常量(name+desc -> 常量),为null则直接织入方法ID;
+     *                          常量值不能小于{@link Short#MAX_VALUE},保证以ldc指令从常量池中加载
      * @param cv                ClassVisitor for ASM
      */
     public AdviceWeaver(
-            final int adviceId,
-            final boolean isTracing,
             final String internalClassName,
-            final Matcher<AsmMethod> asmMethodMatcher,
-            final EnhancerAffect affect,
+            final Map<String, MethodMeta> wovenMethodMetas,
+            final boolean isPatchFrames,
+            final Map<String, Integer> idConstants,
             final ClassVisitor cv) {
         super(ASM5, cv);
-        this.adviceId = adviceId;
-        this.isTracing = isTracing;
         this.internalClassName = internalClassName;
-        this.javaClassName = tranClassName(internalClassName);
-        this.asmMethodMatcher = asmMethodMatcher;
-        this.affect = affect;
+        this.wovenMethodMetas = wovenMethodMetas;
+        this.isPatchFrames = isPatchFrames;
+        this.idConstants = idConstants;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        // invokedynamic指令只有在1.7及以上版本的类中才允许出现
+        this.isInvokeDynamic = isEnableInvokeDynamic
+                && (version & 0xFFFF) >= V1_7;
+        super.visit(version, access, name, signature, superName, interfaces);
     }
 
     /**
@@ -488,7 +1136,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     private boolean isIgnore(MethodVisitor mv, int access, String name, String desc) {
         return null == mv
                 || isAbstract(access)
-                || !asmMethodMatcher.matching(new AsmMethod(name, desc))
+                || !wovenMethodMetas.containsKey(MethodMeta.toKey(name, desc))
                 || isEquals(name, "<clinit>");
     }
 
@@ -510,15 +1158,33 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             return mv;
         }
 
-        // 编织方法计数
-        affect.mCnt(1);
+        // 运行期钩子只需要方法ID
+        final String key = MethodMeta.toKey(name, desc);
+        final MethodMeta meta = wovenMethodMetas.get(key);
+        final int methodId = null == idConstants
+                ? meta.id
+                : idConstants.get(key);
+        final boolean isTracing = meta.isTracing();
+        // 返回和异常两个结束钩子总是成对织入,Begin压入的帧在两条退出路径上都能弹出
+        // 只需要其中一种事件的监听器由methodOnEnd过滤,不会收到另一种事件
+        final int capabilities = (meta.wovenCapabilities & (EVENT_RETURNING | EVENT_THROWING)) != 0
+                ? meta.wovenCapabilities | EVENT_RETURNING | EVENT_THROWING
+                : meta.wovenCapabilities;
+
+        // 修补栈帧时不能再内联JSR,1.7及以上版本的类中本来就不会出现JSR/RET指令
+        final FramePatcher framePatcher = isPatchFrames
+                ? new FramePatcher(internalClassName, access, name, desc, mv)
+                : null;
 
 
         /**
          * ASM 做增强的核心代码。子定义adapter，然后根据需求重写ASM操作字节码的方法。
          * ASM的字节码指令是执行类的，因此主要流程在于改写字节码的执行流程
          * */
-        return new AdviceAdapter(ASM5, new JSRInlinerAdapter(mv, access, name, desc, signature, exceptions), access, name, desc) {
+        final MethodVisitor nextMv = isPatchFrames
+                ? framePatcher
+                : new JSRInlinerAdapter(mv, access, name, desc, signature, exceptions);
+        return new AdviceAdapter(ASM5, nextMv, access, name, desc) {
 
             // -- Lebel for try...catch block
             private final Label beginLabel = new Label();
@@ -537,14 +1203,29 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             private final Type ASM_TYPE_SPY = Type.getType("Lcom/github/ompc/greys/agent/Spy;");
             private final Type ASM_TYPE_OBJECT = Type.getType(Object.class);
             private final Type ASM_TYPE_OBJECT_ARRAY = Type.getType(Object[].class);
-            private final Type ASM_TYPE_CLASS = Type.getType(Class.class);
             private final Type ASM_TYPE_INTEGER = Type.getType(Integer.class);
-            private final Type ASM_TYPE_CLASS_LOADER = Type.getType(ClassLoader.class);
-            private final Type ASM_TYPE_STRING = Type.getType(String.class);
+            private final Type ASM_TYPE_LONG = Type.getType(Long.class);
+            private final Type ASM_TYPE_SYSTEM = Type.getType(System.class);
             private final Type ASM_TYPE_THROWABLE = Type.getType(Throwable.class);
             private final Type ASM_TYPE_INT = Type.getType(int.class);
             private final Type ASM_TYPE_METHOD = Type.getType(java.lang.reflect.Method.class);
+            private final Type ASM_TYPE_BOOLEAN_ARRAY = Type.getType(boolean[].class);
             private final Method ASM_METHOD_METHOD_INVOKE = Method.getMethod("Object invoke(Object,Object[])");
+            private final Method ASM_METHOD_NANO_TIME = Method.getMethod("long nanoTime()");
+
+            // -- invokedynamic的引导方法以及各个钩子调用点的类型 --
+            private final Handle ASM_HANDLE_SPY_BOOTSTRAP = new Handle(
+                    H_INVOKESTATIC,
+                    ASM_TYPE_SPY.getInternalName(),
+                    "bootstrap",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+                    false
+            );
+            private final String ASM_DESC_BEFORE = "(ILjava/lang/Object;[Ljava/lang/Object;)V";
+            private final String ASM_DESC_RETURN = "(Ljava/lang/Object;IJ)V";
+            private final String ASM_DESC_THROWS = "(Ljava/lang/Throwable;IJ)V";
+            private final String ASM_DESC_BEFORE_OR_AFTER_INVOKING = "(I)V";
+            private final String ASM_DESC_THROW_INVOKING = "(Ljava/lang/Throwable;I)V";
 
             // 代码锁
             private final CodeLock codeLockForTracing = new TracingAsmCodeLock(this);
@@ -615,35 +1296,89 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             }
 
             /**
-             * 加载ClassLoader<br/>
-             * 这里分开静态方法中ClassLoader的获取以及普通方法中ClassLoader的获取
-             * 主要是性能上的考虑
+             * 在代码锁中编织钩子调用,并在外层加上通知开关的检查<br/>
+             * 通知注销后被增强的代码只剩下一次开关数组的读取
+             * @param block 钩子调用代码块
              */
-            private void loadClassLoader() {
+            private void lockWithAdviceSwitch(final CodeLock.Block block) {
+                codeLockForTracing.lock(new CodeLock.Block() {
+                    @Override
+                    public void code() {
+                        final Label skipLabel = new Label();
+                        getStatic(ASM_TYPE_SPY, "ADVICE_SWITCHES", ASM_TYPE_BOOLEAN_ARRAY);
+                        push(methodId);
+                        arrayLoad(Type.BOOLEAN_TYPE);
+                        ifZCmp(EQ, skipLabel);
+                        block.code();
+                        mark(skipLabel);
+                    }
+                });
+            }
 
-                if (this.isStaticMethod()) {
+            /**
+             * 获取当前的局部变量类型,不修补栈帧时返回null
+             */
+            private Object[] getFrameLocals() {
+                return null == framePatcher
+                        ? null
+                        : framePatcher.getLocals();
+            }
 
-//                    // fast enhance
-//                    if (GlobalOptions.isEnableFastEnhance) {
-//                        visitLdcInsn(Type.getType(String.format("L%s;", internalClassName)));
-//                        visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false);
-//                    }
+            /**
+             * 标记异常处理块,修补栈帧时同时补上异常处理块的栈帧
+             * @param catchLabel 异常处理块
+             * @param locals     异常处理块的局部变量类型
+             */
+            private void markCatch(final Label catchLabel, final Object[] locals) {
+                if (null != framePatcher) {
+                    framePatcher.catchFrame(catchLabel, locals, ASM_TYPE_THROWABLE.getInternalName());
+                }
+                mark(catchLabel);
+            }
 
-                    // normal enhance
-//                    else {
+            /**
+             * 通过invokedynamic调用钩子方法<br/>
+             * 钩子参数需要按照调用点类型事先压入堆栈
+             * @param keyOfMethod 通知方法KEY
+             */
+            private void invokeAdviceDynamic(int keyOfMethod) {
 
-                    // 这里不得不用性能极差的Class.forName()来完成类的获取,因为有可能当前这个静态方法在执行的时候
-                    // 当前类并没有完成实例化,会引起JVM对class文件的合法性校验失败
-                    // 未来我可能会在这一块考虑性能优化,但对于当前而言,功能远远重要于性能,也就不打算折腾这么复杂了
-                    visitLdcInsn(javaClassName);
-                    invokeStatic(ASM_TYPE_CLASS, Method.getMethod("Class forName(String)"));
-                    invokeVirtual(ASM_TYPE_CLASS, Method.getMethod("ClassLoader getClassLoader()"));
-//                    }
+                switch (keyOfMethod) {
+
+                    case KEY_GREYS_ADVICE_BEFORE_METHOD: {
+                        invokeDynamic("onBefore", ASM_DESC_BEFORE, ASM_HANDLE_SPY_BOOTSTRAP);
+                        break;
+                    }
+
+                    case KEY_GREYS_ADVICE_RETURN_METHOD: {
+                        invokeDynamic("onReturn", ASM_DESC_RETURN, ASM_HANDLE_SPY_BOOTSTRAP);
+                        break;
+                    }
+
+                    case KEY_GREYS_ADVICE_THROWS_METHOD: {
+                        invokeDynamic("onThrows", ASM_DESC_THROWS, ASM_HANDLE_SPY_BOOTSTRAP);
+                        break;
+                    }
+
+                    case KEY_GREYS_ADVICE_BEFORE_INVOKING_METHOD: {
+                        invokeDynamic("beforeInvoking", ASM_DESC_BEFORE_OR_AFTER_INVOKING, ASM_HANDLE_SPY_BOOTSTRAP);
+                        break;
+                    }
+
+                    case KEY_GREYS_ADVICE_AFTER_INVOKING_METHOD: {
+                        invokeDynamic("afterInvoking", ASM_DESC_BEFORE_OR_AFTER_INVOKING, ASM_HANDLE_SPY_BOOTSTRAP);
+                        break;
+                    }
+
+                    case KEY_GREYS_ADVICE_THROW_INVOKING_METHOD: {
+                        invokeDynamic("throwInvoking", ASM_DESC_THROW_INVOKING, ASM_HANDLE_SPY_BOOTSTRAP);
+                        break;
+                    }
+
+                    default: {
+                        throw new IllegalArgumentException("illegal keyOfMethod=" + keyOfMethod);
+                    }
 
-                } else {
-                    loadThis();
-                    invokeVirtual(ASM_TYPE_OBJECT, Method.getMethod("Class getClass()"));
-                    invokeVirtual(ASM_TYPE_CLASS, Method.getMethod("ClassLoader getClassLoader()"));
                 }
 
             }
@@ -652,57 +1387,73 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
              * 加载before通知参数数组
              */
             private void loadArrayForBefore() {
-                push(7);
+                push(3);
                 newArray(ASM_TYPE_OBJECT);
 
                 dup();
                 push(0);
-                push(adviceId);
+                push(methodId);
                 box(ASM_TYPE_INT);
                 arrayStore(ASM_TYPE_INTEGER);
 
                 dup();
                 push(1);
-                loadClassLoader();
-                arrayStore(ASM_TYPE_CLASS_LOADER);
+                loadTargetIfCapable();
+                arrayStore(ASM_TYPE_OBJECT);
 
                 dup();
                 push(2);
-                push(tranClassName(javaClassName));
-                arrayStore(ASM_TYPE_STRING);
+                loadArgArrayIfCapable();
+                arrayStore(ASM_TYPE_OBJECT_ARRAY);
+            }
 
-                dup();
-                push(3);
-                push(name);
-                arrayStore(ASM_TYPE_STRING);
 
-                dup();
-                push(4);
-                push(desc);
-                arrayStore(ASM_TYPE_STRING);
+            /**
+             * 按照before钩子的签名依次压入参数
+             */
+            private void loadArgsForBefore() {
+                push(methodId);
+                loadTargetIfCapable();
+                loadArgArrayIfCapable();
+            }
 
-                dup();
-                push(5);
-                loadThisOrPushNullIfIsStatic();
-                arrayStore(ASM_TYPE_OBJECT);
 
-                dup();
-                push(6);
-                loadArgArray();
-                arrayStore(ASM_TYPE_OBJECT_ARRAY);
-            }
+            // 是否已经进入方法体,构造函数要等到父类构造函数调用完成之后
+            private boolean isMethodEntered;
 
+            // 方法开始时间(纳秒)的局部变量,没有织入结束钩子时不分配
+            private int beginNanosLocal = -1;
+
+            /**
+             * 压入方法耗时(纳秒)
+             */
+            private void loadCost() {
+                invokeStatic(ASM_TYPE_SYSTEM, ASM_METHOD_NANO_TIME);
+                loadLocal(beginNanosLocal);
+                math(SUB, Type.LONG_TYPE);
+            }
 
             @Override
             protected void onMethodEnter() {
 
-                codeLockForTracing.lock(new CodeLock.Block() {
+                isMethodEntered = true;
+
+                lockWithAdviceSwitch(new CodeLock.Block() {
                     @Override
                     public void code() {
 
                         final StringBuilder append = new StringBuilder();
                         _debug(append, "debug:onMethodEnter()");
 
+                        if (isInvokeDynamic) {
+                            loadArgsForBefore();
+                            _debug(append, "loadArgsForBefore()");
+
+                            invokeAdviceDynamic(KEY_GREYS_ADVICE_BEFORE_METHOD);
+                            _debug(append, "invokeDynamic()");
+                            return;
+                        }
+
                         // 加载before方法
                         loadAdviceMethod(KEY_GREYS_ADVICE_BEFORE_METHOD);
                         _debug(append, "loadAdviceMethod()");
@@ -722,6 +1473,23 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                     }
                 });
 
+                // 记录方法开始时间,放在局部变量中天然支持递归
+                // 开关关闭时也需要初始化,保证异常处理块中的局部变量总是已赋值
+                // 进入时开关关闭、结束时开关打开的调用,开始时间仍为0,算出的耗时并不可信;
+                // 这样的调用进入时没有经过methodOnBegin压帧,methodOnEnd弹不出帧而直接丢弃,耗时不会被通知出去
+                if (isCapable(EVENT_RETURNING | EVENT_THROWING)) {
+                    beginNanosLocal = newLocal(Type.LONG_TYPE);
+                    push(0L);
+                    storeLocal(beginNanosLocal);
+                    lockWithAdviceSwitch(new CodeLock.Block() {
+                        @Override
+                        public void code() {
+                            invokeStatic(ASM_TYPE_SYSTEM, ASM_METHOD_NANO_TIME);
+                            storeLocal(beginNanosLocal);
+                        }
+                    });
+                }
+
                 mark(beginLabel);
 
             }
@@ -733,7 +1501,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             private void loadReturnArgs() {
                 dup2X1();
                 pop2();
-                push(2);
+                push(3);
                 newArray(ASM_TYPE_OBJECT);
                 dup();
                 dup2X1();
@@ -744,16 +1512,23 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
                 dup();
                 push(1);
-                push(adviceId);
+                push(methodId);
                 box(ASM_TYPE_INT);
                 arrayStore(ASM_TYPE_INTEGER);
+
+                dup();
+                push(2);
+                loadCost();
+                box(Type.LONG_TYPE);
+                arrayStore(ASM_TYPE_LONG);
             }
 
             @Override
             protected void onMethodExit(final int opcode) {
 
-                if (!isThrow(opcode)) {
-                    codeLockForTracing.lock(new CodeLock.Block() {
+                if (!isThrow(opcode)
+                        && isCapable(EVENT_RETURNING)) {
+                    lockWithAdviceSwitch(new CodeLock.Block() {
                         @Override
                         public void code() {
 
@@ -761,9 +1536,17 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                             _debug(append, "debug:onMethodExit()");
 
                             // 加载返回对象
-                            loadReturn(opcode);
+                            loadReturnIfCapable(opcode);
                             _debug(append, "loadReturn()");
 
+                            if (isInvokeDynamic) {
+                                push(methodId);
+                                loadCost();
+                                invokeAdviceDynamic(KEY_GREYS_ADVICE_RETURN_METHOD);
+                                _debug(append, "invokeDynamic()");
+                                return;
+                            }
+
                             // 加载returning方法
                             loadAdviceMethod(KEY_GREYS_ADVICE_RETURN_METHOD);
                             _debug(append, "loadAdviceMethod()");
@@ -787,12 +1570,15 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
 
             /*
-             * 创建throwing通知参数本地变量
+             * 加载throwing通知参数数组
+             * 异常通知与方法内部调用的异常跟踪共用同一个参数结构:异常+ID,异常通知额外带上方法耗时
+             * @param id 方法ID或调用点ID
+             * @param isCost 是否带上方法耗时
              */
-            private void loadThrowArgs() {
+            private void loadThrowArgs(final int id, final boolean isCost) {
                 dup2X1();
                 pop2();
-                push(2);
+                push(isCost ? 3 : 2);
                 newArray(ASM_TYPE_OBJECT);
                 dup();
                 dup2X1();
@@ -803,19 +1589,40 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
                 dup();
                 push(1);
-                push(adviceId);
+                push(id);
                 box(ASM_TYPE_INT);
                 arrayStore(ASM_TYPE_INTEGER);
+
+                if (isCost) {
+                    dup();
+                    push(2);
+                    loadCost();
+                    box(Type.LONG_TYPE);
+                    arrayStore(ASM_TYPE_LONG);
+                }
             }
 
             @Override
             public void visitMaxs(int maxStack, int maxLocals) {
 
+                // 没有织入结束钩子时,不织入包裹整个方法的try...catch
+                if (!isCapable(EVENT_THROWING)) {
+                    super.visitMaxs(maxStack, maxLocals);
+                    return;
+                }
+
                 mark(endLabel);
-                visitTryCatchBlock(beginLabel, endLabel, mark(), ASM_TYPE_THROWABLE.getInternalName());
+                final Label catchLabel = new Label();
+                visitTryCatchBlock(beginLabel, endLabel, catchLabel, ASM_TYPE_THROWABLE.getInternalName());
                 // catchException(beginLabel, endLabel, ASM_TYPE_THROWABLE);
 
-                codeLockForTracing.lock(new CodeLock.Block() {
+                // try块覆盖了整个方法体,异常处理块只保留方法开始时间,其余局部变量都视为TOP
+                final Object[] catchLocals = new Object[beginNanosLocal + 1];
+                Arrays.fill(catchLocals, TOP);
+                catchLocals[beginNanosLocal] = LONG;
+                markCatch(catchLabel, catchLocals);
+
+                lockWithAdviceSwitch(new CodeLock.Block() {
                     @Override
                     public void code() {
 
@@ -826,6 +1633,14 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         loadThrow();
                         _debug(append, "loadAdviceMethod()");
 
+                        if (isInvokeDynamic) {
+                            push(methodId);
+                            loadCost();
+                            invokeAdviceDynamic(KEY_GREYS_ADVICE_THROWS_METHOD);
+                            _debug(append, "invokeDynamic()");
+                            return;
+                        }
+
                         // 加载throwing方法
                         loadAdviceMethod(KEY_GREYS_ADVICE_THROWS_METHOD);
                         _debug(append, "loadAdviceMethod()");
@@ -834,7 +1649,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         pushNull();
 
                         // 加载throw通知参数数组
-                        loadThrowArgs();
+                        loadThrowArgs(methodId, true);
                         _debug(append, "loadThrowArgs()");
 
                         // 调用方法
@@ -885,6 +1700,49 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                 }
             }
 
+            /**
+             * 是否织入了该事件或数据
+             * @param capability 事件或数据
+             * @return true:需要织入
+             */
+            private boolean isCapable(int capability) {
+                return (capabilities & capability) != 0;
+            }
+
+            /**
+             * 加载this/null,没有监听器需要目标对象时直接推入null
+             */
+            private void loadTargetIfCapable() {
+                if (isCapable(DATA_TARGET)) {
+                    loadThisOrPushNullIfIsStatic();
+                } else {
+                    pushNull();
+                }
+            }
+
+            /**
+             * 加载参数数组,没有监听器需要参数时直接推入null,避免数组分配和基本类型装箱
+             */
+            private void loadArgArrayIfCapable() {
+                if (isCapable(DATA_ARGS)) {
+                    loadArgArray();
+                } else {
+                    pushNull();
+                }
+            }
+
+            /**
+             * 加载返回值,没有监听器需要返回值时直接推入null,避免基本类型装箱
+             * @param opcode 操作码
+             */
+            private void loadReturnIfCapable(int opcode) {
+                if (isCapable(DATA_RETURN_OBJECT)) {
+                    loadReturn(opcode);
+                } else {
+                    pushNull();
+                }
+            }
+
             /**
              * 加载返回值
              * @param opcode 操作吗
@@ -928,89 +1786,17 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
             /**
              * 加载方法调用跟踪通知所需参数数组(for before/after)
+             * @param callSiteId 调用点ID
              */
-            private void loadArrayForInvokeBeforeOrAfterTracing(String owner, String name, String desc) {
-                push(5);
-                newArray(ASM_TYPE_OBJECT);
-
-                dup();
-                push(0);
-                push(adviceId);
-                box(ASM_TYPE_INT);
-                arrayStore(ASM_TYPE_INTEGER);
-
-                if (null != currentLineNumber) {
-                    dup();
-                    push(1);
-                    push(currentLineNumber);
-                    box(ASM_TYPE_INT);
-                    arrayStore(ASM_TYPE_INTEGER);
-                }
-
-                dup();
-                push(2);
-                push(owner);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(3);
-                push(name);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(4);
-                push(desc);
-                arrayStore(ASM_TYPE_STRING);
-            }
-
-            /**
-             * 加载方法调用跟踪通知所需参数数组(for throw)
-             */
-            private void loadArrayForInvokeThrowTracing(String owner, String name, String desc) {
-                push(6);
+            private void loadArrayForInvokeTracing(final int callSiteId) {
+                push(1);
                 newArray(ASM_TYPE_OBJECT);
 
                 dup();
                 push(0);
-                push(adviceId);
+                push(callSiteId);
                 box(ASM_TYPE_INT);
                 arrayStore(ASM_TYPE_INTEGER);
-
-
-                if (null != currentLineNumber) {
-                    dup();
-                    push(1);
-                    push(currentLineNumber);
-                    box(ASM_TYPE_INT);
-                    arrayStore(ASM_TYPE_INTEGER);
-                }
-
-                dup();
-                push(2);
-                push(owner);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(3);
-                push(name);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(4);
-                push(desc);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup2(); // e,a,e,a
-                swap(); // e,a,a,e
-                invokeVirtual(ASM_TYPE_OBJECT, Method.getMethod("Class getClass()"));
-                invokeVirtual(ASM_TYPE_CLASS, Method.getMethod("String getName()"));
-
-                // e,a,a,s
-                push(5); // e,a,a,s,4
-                swap();  // e,a,a,4,s
-                arrayStore(ASM_TYPE_STRING);
-
-                // e,a
             }
 
 
@@ -1024,7 +1810,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             /*
              * 跟踪代码
              */
-            private void tracing(final int tracingType, final String owner, final String name, final String desc) {
+            private void tracing(final int tracingType, final int callSiteId) {
 
                 final String label;
                 switch (tracingType) {
@@ -1045,26 +1831,39 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                     }
                 }
 
-                codeLockForTracing.lock(new CodeLock.Block() {
+                final boolean isThrowTracing = tracingType == KEY_GREYS_ADVICE_THROW_INVOKING_METHOD;
+
+                lockWithAdviceSwitch(new CodeLock.Block() {
                     @Override
                     public void code() {
 
                         final StringBuilder append = new StringBuilder();
                         _debug(append, "debug:" + label + "()");
 
-                        if (tracingType == KEY_GREYS_ADVICE_THROW_INVOKING_METHOD) {
-                            loadArrayForInvokeThrowTracing(owner, name, desc);
-                        } else {
-                            loadArrayForInvokeBeforeOrAfterTracing(owner, name, desc);
+                        // 异常跟踪需要带上栈顶的异常,异常类名推迟到钩子中才计算
+                        if (isThrowTracing) {
+                            loadThrow();
+                            _debug(append, "loadThrow()");
+                        }
+
+                        if (isInvokeDynamic) {
+                            push(callSiteId);
+                            invokeAdviceDynamic(tracingType);
+                            _debug(append, "invokeDynamic()");
+                            return;
                         }
-                        _debug(append, "loadArrayForInvokeTracing()");
 
                         loadAdviceMethod(tracingType);
-                        swap();
                         _debug(append, "loadAdviceMethod()");
 
                         pushNull();
-                        swap();
+
+                        if (isThrowTracing) {
+                            loadThrowArgs(callSiteId, false);
+                        } else {
+                            loadArrayForInvokeTracing(callSiteId);
+                        }
+                        _debug(append, "loadArrayForInvokeTracing()");
 
                         invokeVirtual(ASM_TYPE_METHOD, ASM_METHOD_METHOD_INVOKE);
                         pop();
@@ -1077,6 +1876,9 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
             private Integer currentLineNumber;
 
+            // 调用点在方法中的序号
+            private int callSiteIndex;
+
             @Override
             public void visitLineNumber(int line, Label start) {
                 super.visitLineNumber(line, start);
@@ -1086,13 +1888,21 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             @Override
             public void visitMethodInsn(final int opcode, final String owner, final String name, final String desc, final boolean itf) {
 
-                if (!isTracing || codeLockForTracing.isLock()) {
+                // 构造函数在调用父类构造函数之前this尚未初始化,此时的方法调用不做跟踪
+                // 被跟踪过滤器排除的调用点直接不织入
+                if (!isTracing
+                        || !isMethodEntered
+                        || codeLockForTracing.isLock()
+                        || !meta.isTracing(owner, name)) {
                     super.visitMethodInsn(opcode, owner, name, desc, itf);
                     return;
                 }
 
+                // 登记调用点,运行期只需要传入调用点ID
+                final int callSiteId = regCallSiteMeta(meta, callSiteIndex++, currentLineNumber, owner, name, desc);
+
                 // 方法调用前通知
-                tracing(KEY_GREYS_ADVICE_BEFORE_INVOKING_METHOD, owner, name, desc);
+                tracing(KEY_GREYS_ADVICE_BEFORE_INVOKING_METHOD, callSiteId);
 
                 final Label beginLabel = new Label();
                 final Label endLabel = new Label();
@@ -1102,19 +1912,23 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                 // {
 
                 mark(beginLabel);
+                final Object[] beginLocals = getFrameLocals();
                 super.visitMethodInsn(opcode, owner, name, desc, itf);
                 mark(endLabel);
 
                 // 方法调用后通知
-                tracing(KEY_GREYS_ADVICE_AFTER_INVOKING_METHOD, owner, name, desc);
+                tracing(KEY_GREYS_ADVICE_AFTER_INVOKING_METHOD, callSiteId);
                 goTo(finallyLabel);
 
                 // }
                 // catch
                 // {
 
-                catchException(beginLabel, endLabel, ASM_TYPE_THROWABLE);
-                tracing(KEY_GREYS_ADVICE_THROW_INVOKING_METHOD, owner, name, desc);
+                // 与catchException()一样直接交给下游,保证调用点的try...catch排在异常表的前边
+                final Label catchLabel = new Label();
+                this.mv.visitTryCatchBlock(beginLabel, endLabel, catchLabel, ASM_TYPE_THROWABLE.getInternalName());
+                markCatch(catchLabel, beginLocals);
+                tracing(KEY_GREYS_ADVICE_THROW_INVOKING_METHOD, callSiteId);
 
                 throwException();
 
@@ -0,0 +1,41 @@
+package com.github.ompc.greys.core.advisor;
+
+import static com.github.ompc.greys.core.util.GaCheckUtils.isEquals;
+
+/**
+ * 方法调用点的元数据<br/>
+ * 被跟踪的方法内部每一处方法调用都登记一份,被增强的代码只需要传入调用点ID
+ */
+final class CallSiteMeta {
+
+    // 调用点ID
+    final int id;
+
+    // 调用点所在的方法
+    final MethodMeta meta;
+
+    final Integer lineNumber;
+    final String owner;
+    final String name;
+    final String desc;
+
+    CallSiteMeta(int id, MethodMeta meta, Integer lineNumber, String owner, String name, String desc) {
+        this.id = id;
+        this.meta = meta;
+        this.lineNumber = lineNumber;
+        this.owner = owner;
+        this.name = name;
+        this.desc = desc;
+    }
+
+    /**
+     * 是否为同一处方法调用
+     */
+    boolean isSame(Integer lineNumber, String owner, String name, String desc) {
+        return isEquals(this.lineNumber, lineNumber)
+                && isEquals(this.owner, owner)
+                && isEquals(this.name, name)
+                && isEquals(this.desc, desc);
+    }
+
+}
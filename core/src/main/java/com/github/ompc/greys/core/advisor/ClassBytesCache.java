@@ -0,0 +1,251 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.util.perf.GaPerf;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 增强类字节码缓存<br/>
+ * 以类为弱引用键,不会阻止目标ClassLoader被回收;字节码压缩后保存,
+ * 总量超过上限时按最近最少使用淘汰字节码,被淘汰的类仍然保留增强记录,需要时按照织入状态重新编织<br/>
+ * 同时记录每个类被哪些通知所增强,通知重置时只还原仅被该通知增强的类
+ */
+final class ClassBytesCache {
+
+    // 类 -> 缓存项
+    private final Map<Class<?>, Entry> entries = new WeakHashMap<Class<?>, Entry>();
+
+    // 缓存中压缩后字节码的总量
+    private long bytesSize;
+
+    // 访问序列,用于淘汰最近最少使用的字节码
+    private long accessSeq;
+
+    // 压缩与解压缩器,初始化的代价较高,在锁内复用
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] buffer = new byte[8192];
+
+    /*
+     * 缓存项,不能持有类的引用
+     */
+    private static class Entry {
+
+        // 增强该类的通知
+        private final Set<Integer/*ADVICE_ID*/> owners = new HashSet<Integer>();
+
+        // 压缩后的字节码,被淘汰后为null
+        private byte[] compressedBytes;
+
+        // 字节码原始长度
+        private int length;
+
+        // 最近一次访问的序列
+        private long lastAccess;
+
+    }
+
+    /**
+     * 放入增强后的字节码,类的增强记录保持不变
+     *
+     * @param clazz      增强的类
+     * @param classBytes 增强后的字节码,为null表示只保留增强记录
+     */
+    synchronized void put(Class<?> clazz, byte[] classBytes) {
+        Entry entry = entries.get(clazz);
+        if (null == entry) {
+            entries.put(clazz, entry = new Entry());
+        }
+        evict(entry);
+        if (null != classBytes) {
+            entry.compressedBytes = compress(classBytes);
+            entry.length = classBytes.length;
+            entry.lastAccess = ++accessSeq;
+            bytesSize += entry.compressedBytes.length;
+            evictIfNecessary(entry);
+        }
+        updatePerf();
+    }
+
+    /**
+     * 获取增强后的字节码
+     *
+     * @param clazz 增强的类
+     * @return 增强后的字节码,没有增强或者字节码已被淘汰时返回null
+     */
+    synchronized byte[] get(Class<?> clazz) {
+        final Entry entry = entries.get(clazz);
+        if (null == entry
+                || null == entry.compressedBytes) {
+            return null;
+        }
+        entry.lastAccess = ++accessSeq;
+        return decompress(entry.compressedBytes, entry.length);
+    }
+
+    /**
+     * 类是否被增强
+     *
+     * @param clazz 类
+     * @return true:被增强
+     */
+    synchronized boolean contains(Class<?> clazz) {
+        return entries.containsKey(clazz);
+    }
+
+    /**
+     * 移除类的增强记录
+     *
+     * @param clazz 类
+     */
+    synchronized void remove(Class<?> clazz) {
+        final Entry entry = entries.remove(clazz);
+        if (null != entry) {
+            evict(entry);
+            updatePerf();
+        }
+    }
+
+    /**
+     * 移除所有增强记录
+     */
+    synchronized void clear() {
+        entries.clear();
+        bytesSize = 0;
+        updatePerf();
+    }
+
+    /**
+     * @return 所有被增强的类
+     */
+    synchronized List<Class<?>> getClasses() {
+        return new ArrayList<Class<?>>(entries.keySet());
+    }
+
+    /**
+     * 登记类被通知所增强
+     *
+     * @param clazz    增强的类
+     * @param adviceId 通知ID
+     */
+    synchronized void own(Class<?> clazz, int adviceId) {
+        final Entry entry = entries.get(clazz);
+        if (null != entry) {
+            entry.owners.add(adviceId);
+        }
+    }
+
+    /**
+     * 注销通知对所有类的增强登记
+     *
+     * @param adviceId 通知ID
+     * @return 不再被任何通知增强的类
+     */
+    synchronized Set<Class<?>> release(int adviceId) {
+        final Set<Class<?>> orphans = new HashSet<Class<?>>();
+        for (final Map.Entry<Class<?>, Entry> mapEntry : entries.entrySet()) {
+            final Set<Integer> owners = mapEntry.getValue().owners;
+            if (owners.remove(adviceId)
+                    && owners.isEmpty()) {
+                orphans.add(mapEntry.getKey());
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * 获取增强该类的通知
+     *
+     * @param clazz 类
+     * @return 通知ID集合
+     */
+    synchronized Set<Integer> getOwners(Class<?> clazz) {
+        final Entry entry = entries.get(clazz);
+        return null == entry
+                ? new HashSet<Integer>()
+                : new HashSet<Integer>(entry.owners);
+    }
+
+    /*
+     * 超过容量上限时淘汰最近最少使用的字节码,刚放入的字节码不淘汰
+     */
+    private void evictIfNecessary(Entry keep) {
+        final long capacity = GlobalOptions.classBytesCacheCapacity * 1024L;
+        if (capacity <= 0
+                || bytesSize <= capacity) {
+            return;
+        }
+
+        // 被回收的类的缓存项已经消失,先重新统计总量
+        bytesSize = 0;
+        for (final Entry entry : entries.values()) {
+            if (null != entry.compressedBytes) {
+                bytesSize += entry.compressedBytes.length;
+            }
+        }
+
+        while (bytesSize > capacity) {
+            Entry eldest = null;
+            for (final Entry entry : entries.values()) {
+                if (entry != keep
+                        && null != entry.compressedBytes
+                        && (null == eldest || entry.lastAccess < eldest.lastAccess)) {
+                    eldest = entry;
+                }
+            }
+            if (null == eldest) {
+                return;
+            }
+            evict(eldest);
+        }
+    }
+
+    private void evict(Entry entry) {
+        if (null != entry.compressedBytes) {
+            bytesSize -= entry.compressedBytes.length;
+            entry.compressedBytes = null;
+        }
+    }
+
+    private void updatePerf() {
+        GaPerf.setClassBytesCache(entries.size(), bytesSize);
+    }
+
+    private byte[] compress(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decompress(byte[] data, int length) {
+        inflater.reset();
+        inflater.setInput(data);
+        final byte[] result = new byte[length];
+        try {
+            int offset = 0;
+            while (offset < length
+                    && !inflater.finished()) {
+                offset += inflater.inflate(result, offset, length - offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * 类继承关系解析<br/>
+ * 为ClassWriter计算栈帧时求两个类型的公共父类提供支持,一次增强过程共享一个实例<br/>
+ * 类型信息优先取自已经加载的类(增强目标及其父类、接口),其次从类资源中读取class文件头,
+ * 都找不到时才会退回到Class.forName,尽量避免在重新转换期间触发类加载
+ */
+final class ClassHierarchy {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    // (ClassLoader,类型) -> 类型信息
+    private final Map<Key, TypeInfo> typeInfos = new ConcurrentHashMap<Key, TypeInfo>();
+
+    // (ClassLoader,类型1+类型2) -> 公共父类
+    private final Map<Key, String> commonSuperClasses = new ConcurrentHashMap<Key, String>();
+
+    /*
+     * 类型信息
+     */
+    private static class TypeInfo {
+
+        private final String superName;
+        private final String[] interfaces;
+        private final boolean isInterface;
+
+        TypeInfo(String superName, String[] interfaces, boolean isInterface) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+
+    }
+
+    /*
+     * 以ClassLoader的对象标识区分的键,bootstrap的ClassLoader为null
+     */
+    private static class Key {
+
+        private final ClassLoader loader;
+        private final String name;
+
+        Key(ClassLoader loader, String name) {
+            this.loader = loader;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return loader == key.loader
+                    && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(loader) + name.hashCode();
+        }
+
+    }
+
+    /**
+     * 登记已经加载的类<br/>
+     * 类及其所有父类、接口都以该类的ClassLoader登记,从该类中引用这些类型时解析结果必然相同
+     *
+     * @param clazz 已经加载的类
+     */
+    void seed(Class<?> clazz) {
+        final ClassLoader loader = clazz.getClassLoader();
+        seed(loader, clazz);
+    }
+
+    private void seed(ClassLoader loader, Class<?> clazz) {
+        final Key key = new Key(loader, toInternalName(clazz));
+        if (typeInfos.containsKey(key)) {
+            return;
+        }
+        typeInfos.put(key, toTypeInfo(clazz));
+        if (null != clazz.getSuperclass()) {
+            seed(loader, clazz.getSuperclass());
+        }
+        for (final Class<?> anInterface : clazz.getInterfaces()) {
+            seed(loader, anInterface);
+        }
+    }
+
+    /**
+     * 求两个类型的公共父类
+     *
+     * @param loader 类型所在的ClassLoader
+     * @param type1  类型1(内部类名格式)
+     * @param type2  类型2(内部类名格式)
+     * @return 公共父类(内部类名格式)
+     */
+    String getCommonSuperClass(ClassLoader loader, String type1, String type2) {
+        final Key pairKey = new Key(loader, type1 + ';' + type2);
+        String commonSuperClass = commonSuperClasses.get(pairKey);
+        if (null == commonSuperClass) {
+            commonSuperClasses.put(pairKey, commonSuperClass = resolveCommonSuperClass(loader, type1, type2));
+        }
+        return commonSuperClass;
+    }
+
+    private String resolveCommonSuperClass(ClassLoader loader, String type1, String type2) {
+        if (isAssignableFrom(loader, type1, type2)) {
+            return type1;
+        }
+        if (isAssignableFrom(loader, type2, type1)) {
+            return type2;
+        }
+        if (getTypeInfo(loader, type1).isInterface
+                || getTypeInfo(loader, type2).isInterface) {
+            return OBJECT;
+        }
+        String type = type1;
+        do {
+            type = getTypeInfo(loader, type).superName;
+            if (null == type) {
+                return OBJECT;
+            }
+        } while (!isAssignableFrom(loader, type, type2));
+        return type;
+    }
+
+    /*
+     * type是否是target本身或者其父类、接口
+     */
+    private boolean isAssignableFrom(ClassLoader loader, String type, String target) {
+        if (type.equals(target)) {
+            return true;
+        }
+        final TypeInfo typeInfo = getTypeInfo(loader, target);
+        if (null != typeInfo.superName
+                && isAssignableFrom(loader, type, typeInfo.superName)) {
+            return true;
+        }
+        for (final String anInterface : typeInfo.interfaces) {
+            if (isAssignableFrom(loader, type, anInterface)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TypeInfo getTypeInfo(ClassLoader loader, String type) {
+        final Key key = new Key(loader, type);
+        TypeInfo typeInfo = typeInfos.get(key);
+        if (null == typeInfo) {
+            typeInfos.put(key, typeInfo = resolveTypeInfo(loader, type));
+        }
+        return typeInfo;
+    }
+
+    /*
+     * 先从类资源中读取class文件头,读不到再加载类(不初始化)
+     */
+    private static TypeInfo resolveTypeInfo(ClassLoader loader, String type) {
+        final InputStream is = null == loader
+                ? ClassLoader.getSystemResourceAsStream(type + ".class")
+                : loader.getResourceAsStream(type + ".class");
+        if (null != is) {
+            try {
+                final ClassReader cr = new ClassReader(is);
+                return new TypeInfo(
+                        cr.getSuperName(),
+                        cr.getInterfaces(),
+                        (cr.getAccess() & Opcodes.ACC_INTERFACE) != 0
+                );
+            } catch (Throwable t) {
+                // 资源无法解析,退回到加载类
+            } finally {
+                closeQuietly(is);
+            }
+        }
+
+        try {
+            return toTypeInfo(Class.forName(type.replace('/', '.'), false, loader));
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static TypeInfo toTypeInfo(Class<?> clazz) {
+        final Class<?>[] interfaceClasses = clazz.getInterfaces();
+        final String[] interfaces = new String[interfaceClasses.length];
+        for (int index = 0; index < interfaceClasses.length; index++) {
+            interfaces[index] = toInternalName(interfaceClasses[index]);
+        }
+        return new TypeInfo(
+                null == clazz.getSuperclass() ? null : toInternalName(clazz.getSuperclass()),
+                interfaces,
+                clazz.isInterface()
+        );
+    }
+
+    private static String toInternalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * 类结构指纹<br/>
+ * 重新转换时JVM给出的字节码由运行时数据重建,常量池的布局与原始class文件并不相同,
+ * 所以只对类、字段、方法的声明以及方法体的指令序列做摘要,忽略常量池布局和调试信息<br/>
+ * 重建后字段和方法的顺序也可能不同,每个成员单独摘要后再无序累加
+ */
+final class ClassShape extends ClassVisitor implements Opcodes {
+
+    private static final long SEED = 0xcbf29ce484222325L;
+
+    // 类声明的摘要
+    private long header;
+
+    // 所有成员摘要的累加
+    private long members;
+
+    // 当前正在摘要的类声明或成员
+    private long hash = SEED;
+    private boolean isMember;
+
+    private ClassShape() {
+        super(ASM5);
+    }
+
+    /**
+     * 计算类结构指纹
+     *
+     * @param classBytes 类字节码
+     * @return 指纹
+     */
+    static long fingerprint(byte[] classBytes) {
+        final ClassShape shape = new ClassShape();
+        new ClassReader(classBytes).accept(shape, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        shape.next(false);
+        return shape.header * 31 + shape.members;
+    }
+
+    /*
+     * 结束当前摘要,开始下一个成员
+     */
+    private void next(boolean isMember) {
+        if (this.isMember) {
+            members += hash;
+        } else {
+            header = hash;
+        }
+        this.isMember = isMember;
+        hash = SEED;
+    }
+
+    private void mix(int value) {
+        hash = (hash ^ value) * 0x100000001b3L;
+    }
+
+    private void mix(Object value) {
+        mix(null == value ? 0 : value.hashCode());
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        mix(access);
+        mix(name);
+        mix(superName);
+        if (null != interfaces) {
+            for (final String anInterface : interfaces) {
+                mix(anInterface);
+            }
+        }
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        next(true);
+        mix(access);
+        mix(name);
+        mix(desc);
+        return null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        next(true);
+        mix(access);
+        mix(name);
+        mix(desc);
+        return new MethodVisitor(ASM5) {
+
+            @Override
+            public void visitInsn(int opcode) {
+                mix(opcode);
+            }
+
+            @Override
+            public void visitIntInsn(int opcode, int operand) {
+                mix(opcode);
+                mix(operand);
+            }
+
+            @Override
+            public void visitVarInsn(int opcode, int var) {
+                mix(opcode);
+                mix(var);
+            }
+
+            @Override
+            public void visitTypeInsn(int opcode, String type) {
+                mix(opcode);
+                mix(type);
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                mix(opcode);
+                mix(owner);
+                mix(name);
+                mix(desc);
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                mix(opcode);
+                mix(owner);
+                mix(name);
+                mix(desc);
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+                mix(INVOKEDYNAMIC);
+                mix(name);
+                mix(desc);
+            }
+
+            @Override
+            public void visitJumpInsn(int opcode, Label label) {
+                mix(opcode);
+            }
+
+            @Override
+            public void visitLdcInsn(Object cst) {
+                mix(LDC);
+                mix(cst);
+            }
+
+            @Override
+            public void visitIincInsn(int var, int increment) {
+                mix(IINC);
+                mix(var);
+                mix(increment);
+            }
+
+            @Override
+            public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+                mix(TABLESWITCH);
+                mix(min);
+                mix(max);
+            }
+
+            @Override
+            public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                mix(LOOKUPSWITCH);
+                for (final int key : keys) {
+                    mix(key);
+                }
+            }
+
+            @Override
+            public void visitMultiANewArrayInsn(String desc, int dims) {
+                mix(MULTIANEWARRAY);
+                mix(desc);
+                mix(dims);
+            }
+
+            @Override
+            public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                mix(type);
+            }
+
+            @Override
+            public void visitMaxs(int maxStack, int maxLocals) {
+                mix(maxStack);
+                mix(maxLocals);
+            }
+
+        };
+    }
+
+}
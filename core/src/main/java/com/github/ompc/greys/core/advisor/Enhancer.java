@@ -6,10 +6,10 @@ import com.github.ompc.greys.core.util.GaMethod;
 import com.github.ompc.greys.core.util.GaStringUtils;
 import com.github.ompc.greys.core.util.LogUtil;
 import com.github.ompc.greys.core.util.PointCut;
+import com.github.ompc.greys.core.util.TracingFilter;
 import com.github.ompc.greys.core.util.affect.AsmAffect;
 import com.github.ompc.greys.core.util.affect.EnhancerAffect;
-import com.github.ompc.greys.core.util.matcher.GroupMatcher;
-import com.github.ompc.greys.core.util.matcher.Matcher;
+import com.github.ompc.greys.core.util.perf.GaPerf;
 import org.apache.commons.lang3.StringUtils;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
@@ -17,27 +17,43 @@ import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.InvocationTargetException;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.ompc.greys.core.GlobalOptions.isPatchFrames;
 import static com.github.ompc.greys.core.util.GaCheckUtils.isEquals;
 import static com.github.ompc.greys.core.util.GaReflectUtils.defineClass;
 import static java.lang.System.arraycopy;
 import static org.apache.commons.io.FileUtils.writeByteArrayToFile;
+import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.apache.commons.io.IOUtils.toByteArray;
 import static org.apache.commons.lang3.reflect.FieldUtils.getField;
 import static org.apache.commons.lang3.reflect.MethodUtils.invokeStaticMethod;
 import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
 import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
 import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.V1_7;
 
 
 /**
@@ -49,31 +65,37 @@ public class Enhancer implements ClassFileTransformer {
 
     private static final Logger logger = LogUtil.getLogger();
 
-    private final int adviceId;
-    private final boolean isTracing;
-    private final Map<Class<?>, Matcher<AsmMethod>> enhanceMap;
+    private final Set<Class<?>> reTransformClasses;
     private final EnhancerAffect affect;
 
+    // 本次增强共享的类继承关系,用于计算栈帧
+    private final ClassHierarchy hierarchy = new ClassHierarchy();
+
+    // 预先生成的增强字节码,transform取用后即移除
+    private final Map<Class<?>, PrecomputedClass> precomputedClasses = new ConcurrentHashMap<Class<?>, PrecomputedClass>();
+
     private static final ReflectManager reflectManager = ReflectManager.Factory.getInstance();
 
     // 类-字节码缓存
-    private final static Map<Class<?>/*Class*/, byte[]/*bytes of Class*/> classBytesCache
-            = new WeakHashMap<Class<?>, byte[]>();
+    private final static ClassBytesCache classBytesCache = new ClassBytesCache();
+
+    // 增强字节码磁盘缓存
+    private final static WeaveCache weaveCache = newWeaveCache();
+
+    // 后台还原线程,空闲时自动退出
+    private final static ThreadPoolExecutor resetExecutor = newResetExecutor();
 
     /**
-     * @param adviceId   通知编号
-     * @param isTracing  可跟踪方法调用
-     * @param enhanceMap 增强点集合
-     * @param affect     影响统计
+     * @param reTransformClasses 需要重新织入的类集合
+     * @param affect             影响统计
      */
-    private Enhancer(int adviceId,
-                     boolean isTracing,
-                     Map<Class<?>, Matcher<AsmMethod>> enhanceMap,
+    private Enhancer(Set<Class<?>> reTransformClasses,
                      EnhancerAffect affect) {
-        this.adviceId = adviceId;
-        this.isTracing = isTracing;
-        this.enhanceMap = enhanceMap;
+        this.reTransformClasses = reTransformClasses;
         this.affect = affect;
+        for (final Class<?> clazz : reTransformClasses) {
+            hierarchy.seed(clazz);
+        }
     }
 
 
@@ -95,12 +117,6 @@ public class Enhancer implements ClassFileTransformer {
     private void spy(final ClassLoader targetClassLoader)
             throws IOException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
 
-        // 如果对方是bootstrap就算了
-        if (null == targetClassLoader) {
-            return;
-        }
-
-
         // Enhancer类只可能从greysClassLoader中加载
         // 所以找他要ClassLoader是靠谱的
         final ClassLoader greysClassLoader = Enhancer.class.getClassLoader();
@@ -113,6 +129,14 @@ public class Enhancer implements ClassFileTransformer {
             return;
         }
 
+        // GreysClassLoader所见的Spy同样需要持有通知开关
+        AdviceWeaver.regSpy(spyClassFromGreysClassLoader);
+
+        // 如果对方是bootstrap就算了
+        if (null == targetClassLoader) {
+            return;
+        }
+
         // 从目标ClassLoader中尝试加载或定义ClassLoader
         Class<?> spyClassFromTargetClassLoader = null;
         try {
@@ -164,6 +188,9 @@ public class Enhancer implements ClassFileTransformer {
                         getField(spyClassFromGreysClassLoader, "AFTER_INVOKING_METHOD").get(null),
                         getField(spyClassFromGreysClassLoader, "THROW_INVOKING_METHOD").get(null)
                 );
+
+                // 同步通知开关
+                AdviceWeaver.regSpy(spyClassFromTargetClassLoader);
             }
 
         }
@@ -183,30 +210,96 @@ public class Enhancer implements ClassFileTransformer {
             final byte[] classfileBuffer) throws IllegalClassFormatException {
 
         // 过滤掉不在增强集合范围内的类
-        if (!enhanceMap.containsKey(classBeingRedefined)) {
+        if (!reTransformClasses.contains(classBeingRedefined)) {
             return null;
         }
 
-        // 字节码输入
-        final ClassReader cr;
+        // 获取这个类所有需要织入的方法
+        // 多人协作时同一个类只织入一层钩子,每次都按照所有需要织入的方法重新生成
+        final Map<String, MethodMeta> wovenMethodMetas = AdviceWeaver.getWovenMethodMetas(classBeingRedefined);
+        if (wovenMethodMetas.isEmpty()) {
+            // 已经没有需要织入的方法,还原为原始字节码
+            classBytesCache.remove(classBeingRedefined);
+            precomputedClasses.remove(classBeingRedefined);
+            return null;
+        }
+
+        try {
+
+            // 预先生成的字节码只有在原始字节码与JVM给出的结构一致时才能使用,否则现场编织
+            final PrecomputedClass precomputed = precomputedClasses.remove(classBeingRedefined);
+            final byte[] enhanceClassByteArray = null != precomputed
+                    && precomputed.originalShape == ClassShape.fingerprint(classfileBuffer)
+                    ? precomputed.enhancedBytes
+                    : weaving(inClassLoader, classfileBuffer, wovenMethodMetas);
+
+            // 生成成功,推入缓存
+            classBytesCache.put(classBeingRedefined, enhanceClassByteArray);
+
+            // dump the class
+            dumpClassIfNecessary(className, enhanceClassByteArray, affect);
+
+            // 排遣间谍
+            try {
+                spy(inClassLoader);
+            } catch (Throwable t) {
+                logger.warn("print spy failed. classname={};loader={};", className, inClassLoader, t);
+                throw t;
+            }
 
-        // 首先先检查是否在缓存中存在Class字节码
-        // 因为要支持多人协作,存在多人同时增强的情况
-        final byte[] byteOfClassInCache = classBytesCache.get(classBeingRedefined);
-        if (null != byteOfClassInCache) {
-            cr = new ClassReader(byteOfClassInCache);
+            return enhanceClassByteArray;
+        } catch (Throwable t) {
+            logger.warn("transform loader[{}]:class[{}] failed.", inClassLoader, className, t);
         }
 
-        // 如果没有命中缓存,则从原始字节码开始增强
-        else {
-            cr = new ClassReader(classfileBuffer);
+        return null;
+    }
+
+    /*
+     * 编织类字节码
+     * 重新转换时拿到的总是原始字节码,所以不会在之前的增强上层层叠加
+     */
+    private byte[] weaving(final ClassLoader inClassLoader,
+                                  final byte[] classfileBuffer,
+                                  final Map<String, MethodMeta> wovenMethodMetas) {
+
+        final long beginNanos = System.nanoTime();
+
+        // 字节码输入
+        final ClassReader cr = new ClassReader(classfileBuffer);
+
+        // 1.7及以上版本的类保留并修补原有的栈帧,修补失败时退回到重新计算栈帧
+        // 修补栈帧的结果与目标ClassLoader无关,可以从磁盘缓存中取用
+        byte[] enhanceClassByteArray = null;
+        if (isPatchFrames
+                && cr.readUnsignedShort(6) >= V1_7) {
+            try {
+                enhanceClassByteArray = weaveCache.weaving(classfileBuffer, wovenMethodMetas, new WeaveCache.Weaver() {
+                    @Override
+                    public byte[] weaving(Map<String, Integer> idConstants) {
+                        return Enhancer.this.weaving(inClassLoader, cr, wovenMethodMetas, true, idConstants);
+                    }
+                });
+            } catch (Throwable t) {
+                logger.debug("patch frames of {} failed, recompute frames.", cr.getClassName(), t);
+            }
+        }
+        if (null == enhanceClassByteArray) {
+            enhanceClassByteArray = weaving(inClassLoader, cr, wovenMethodMetas, false, null);
         }
+        GaPerf.WEAVE.record(System.nanoTime() - beginNanos);
+        return enhanceClassByteArray;
+    }
 
-        // 获取这个类所对应的asm方法匹配
-        final Matcher<AsmMethod> asmMethodMatcher = enhanceMap.get(classBeingRedefined);
+    private byte[] weaving(final ClassLoader inClassLoader,
+                           final ClassReader cr,
+                           final Map<String, MethodMeta> wovenMethodMetas,
+                           final boolean isPatchFrames,
+                           final Map<String, Integer> idConstants) {
 
         // 字节码增强
-        final ClassWriter cw = new ClassWriter(cr, COMPUTE_FRAMES | COMPUTE_MAXS) {
+        // 修补栈帧时只需要计算操作数栈和局部变量表的大小,未织入的方法原样复制
+        final ClassWriter cw = new ClassWriter(cr, isPatchFrames ? COMPUTE_MAXS : COMPUTE_FRAMES | COMPUTE_MAXS) {
 
             /*
              * 注意，为了自动计算帧的大小，有时必须计算两个类共同的父类。
@@ -214,66 +307,133 @@ public class Enhancer implements ClassFileTransformer {
              * 但是，如果你将要生成的几个类相互之间引用，这将会带来问题，因为引用的类可能还不存在。
              * 在这种情况下，你可以重写getCommonSuperClass方法来解决这个问题。
              *
-             * 通过重写 getCommonSuperClass() 方法，更正获取ClassLoader的方式，改成使用指定ClassLoader的方式进行。
-             * 规避了原有代码采用Object.class.getClassLoader()的方式
+             * 通过重写 getCommonSuperClass() 方法，改为从本次增强共享的类继承关系中解析,
+             * 继承关系取自已加载的类和class文件头,不再在每次合并栈帧时都去ClassLoader中加载类
              */
             @Override
             protected String getCommonSuperClass(String type1, String type2) {
-                Class<?> c, d;
-                try {
-                    c = Class.forName(type1.replace('/', '.'), false, inClassLoader);
-                    d = Class.forName(type2.replace('/', '.'), false, inClassLoader);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-                if (c.isAssignableFrom(d)) {
-                    return type1;
-                }
-                if (d.isAssignableFrom(c)) {
-                    return type2;
-                }
-                if (c.isInterface() || d.isInterface()) {
-                    return "java/lang/Object";
-                } else {
-                    do {
-                        c = c.getSuperclass();
-                    } while (!c.isAssignableFrom(d));
-                    return c.getName().replace('.', '/');
-                }
+                return hierarchy.getCommonSuperClass(inClassLoader, type1, type2);
             }
 
         };
 
-        try {
+        // 生成增强字节码
+        // 访问者模式，AdviceWeaver继承了ClassVisitor，在AdviceWeaver中改写字节码
+        cr.accept(new AdviceWeaver(cr.getClassName(), wovenMethodMetas, isPatchFrames, idConstants, cw), EXPAND_FRAMES);
+        return cw.toByteArray();
+    }
 
-            // 生成增强字节码
-            // 访问者模式，AdviceWeaver继承了ClassVisitor，在AdviceWeaver中改写字节码
-            cr.accept(new AdviceWeaver(adviceId, isTracing, cr.getClassName(), asmMethodMatcher, affect, cw), EXPAND_FRAMES);
-            final byte[] enhanceClassByteArray = cw.toByteArray();
+    /*
+     * 预先生成的增强字节码
+     */
+    private static class PrecomputedClass {
 
-            // 生成成功,推入缓存
-            classBytesCache.put(classBeingRedefined, enhanceClassByteArray);
+        // 编织所依据的原始字节码的结构指纹
+        private final long originalShape;
+        private final byte[] enhancedBytes;
 
-            // dump the class
-            dumpClassIfNecessary(className, enhanceClassByteArray, affect);
+        PrecomputedClass(long originalShape, byte[] enhancedBytes) {
+            this.originalShape = originalShape;
+            this.enhancedBytes = enhancedBytes;
+        }
 
-            // 成功计数
-            affect.cCnt(1);
+    }
 
-            // 排遣间谍
-            try {
-                spy(inClassLoader);
-            } catch (Throwable t) {
-                logger.warn("print spy failed. classname={};loader={};", className, inClassLoader, t);
-                throw t;
+    /*
+     * 预先生成增强字节码的任务,按照类数组二分拆解
+     */
+    private class PrecomputeTask extends RecursiveAction {
+
+        private final Class<?>[] classArray;
+        private final int from;
+        private final int to;
+
+        PrecomputeTask(Class<?>[] classArray, int from, int to) {
+            this.classArray = classArray;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    precompute(classArray[from]);
+                }
+                return;
             }
+            final int middle = (from + to) >>> 1;
+            invokeAll(
+                    new PrecomputeTask(classArray, from, middle),
+                    new PrecomputeTask(classArray, middle, to)
+            );
+        }
 
-            return enhanceClassByteArray;
+    }
+
+    /*
+     * 在fork-join池中并行生成所有类的增强字节码
+     * retransformClasses时transform只需要取回预先生成的结果,JVM处于重新转换过程中的时间不再随编织耗时增长
+     */
+    private void precompute() {
+
+        final int parallelism = GlobalOptions.enhanceParallelism > 0
+                ? GlobalOptions.enhanceParallelism
+                : Runtime.getRuntime().availableProcessors();
+        final int size = reTransformClasses.size();
+        if (parallelism <= 1
+                || size <= 1) {
+            return;
+        }
+
+        final long beginNanos = System.nanoTime();
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, size));
+        try {
+            pool.invoke(new PrecomputeTask(reTransformClasses.toArray(new Class<?>[size]), 0, size));
         } catch (Throwable t) {
-            logger.warn("transform loader[{}]:class[{}] failed.", inClassLoader, className, t);
+            logger.warn("precompute enhanced classes failed, weaving in transform.", t);
+        } finally {
+            pool.shutdown();
         }
+        logger.info("precompute {}/{} classes in {}ms, parallelism={}.",
+                precomputedClasses.size(), size, (System.nanoTime() - beginNanos) / 1000000, parallelism);
+    }
 
-        return null;
+    /*
+     * 预先生成一个类的增强字节码,失败时留给transform现场编织
+     */
+    private void precompute(final Class<?> clazz) {
+        try {
+            final byte[] originalBytes = readClassBytes(clazz);
+            if (null == originalBytes) {
+                return;
+            }
+            final Map<String, MethodMeta> wovenMethodMetas = AdviceWeaver.getWovenMethodMetas(clazz);
+            if (wovenMethodMetas.isEmpty()) {
+                return;
+            }
+            precomputedClasses.put(clazz, new PrecomputedClass(
+                    ClassShape.fingerprint(originalBytes),
+                    weaving(clazz.getClassLoader(), originalBytes, wovenMethodMetas)
+            ));
+        } catch (Throwable t) {
+            logger.debug("precompute {} failed.", clazz, t);
+        }
+    }
+
+    /*
+     * 从类资源中读取原始字节码,动态生成的类没有对应的资源
+     */
+    private static byte[] readClassBytes(final Class<?> clazz) throws IOException {
+        final InputStream is = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+        if (null == is) {
+            return null;
+        }
+        try {
+            return toByteArray(is);
+        } finally {
+            closeQuietly(is);
+        }
     }
 
     /*
@@ -354,17 +514,17 @@ public class Enhancer implements ClassFileTransformer {
         return StringUtils.startsWith(clazz.getCanonicalName(), "com.github.ompc.greys.");
     }
 
-    private static Map<Class<?>, Matcher<AsmMethod>> toEnhanceMap(final PointCut pointCut) {
+    private static WeavePlan toWeavePlan(final PointCut pointCut) {
 
-        final Map<Class<?>, Matcher<AsmMethod>> enhanceMap = new LinkedHashMap<Class<?>, Matcher<AsmMethod>>();
+        final WeavePlan weavePlan = new WeavePlan();
         final Collection<Class<?>> classes = pointCut.isIncludeSubClass()
                 ? reflectManager.searchClassWithSubClass(pointCut.getClassMatcher())
                 : reflectManager.searchClass(pointCut.getClassMatcher());
 
 
-        for (final Class<?> clazz : classes) {
+        for (final Collection<GaMethod> gaMethods : reflectManager.searchClassGaMethods(classes, pointCut.getGaMethodMatcher()).values()) {
 
-            for (final GaMethod gaMethod : reflectManager.searchClassGaMethods(clazz, pointCut.getGaMethodMatcher())) {
+            for (final GaMethod gaMethod : gaMethods) {
 
                 // 如果当前方法所归属的类不支持增强,则华丽的忽略之
                 // 这里不用能上一层循环的clazz,主要的原因在于会找到从父类继承过来的可见方法(照顾到用户习惯)
@@ -373,32 +533,25 @@ public class Enhancer implements ClassFileTransformer {
                     continue;
                 }
 
-                final Matcher<AsmMethod> groupMatcher;
-                if (enhanceMap.containsKey(targetClass)) {
-                    groupMatcher = enhanceMap.get(targetClass);
-                } else {
-                    groupMatcher = new GroupMatcher.Or<AsmMethod>();
-                    enhanceMap.put(targetClass, groupMatcher);
-                }
-
-                if (groupMatcher instanceof GroupMatcher) {
-                    ((GroupMatcher<AsmMethod>) groupMatcher).add(new AsmMethodMatcher(gaMethod));
-                }
+                weavePlan.add(targetClass, gaMethod.getName(), gaMethod.getDesc());
 
             }
 
         }
 
-        return enhanceMap;
+        return weavePlan;
     }
 
     /**
-     * 对象增强
+     * 对象增强<br/>
+     * 通知所圈定的方法如果已经被织入过,则无需重新转换类,注册监听器后即可立即生效
      *
-     * @param inst      inst
-     * @param adviceId  通知ID
-     * @param isTracing 可跟踪方法调用
-     * @param pointCut  增强点
+     * @param inst         inst
+     * @param adviceId     通知ID
+     * @param isTracing    可跟踪方法调用
+     * @param capabilities 监听器所需要的事件和数据,参考{@link AdviceCapable}
+     * @param pointCut     增强点
+     * @param progress     分批重新转换的进度,为null则不反馈进度
      * @return 增强影响范围
      * @throws UnmodifiableClassException 增强失败
      */
@@ -406,59 +559,271 @@ public class Enhancer implements ClassFileTransformer {
             final Instrumentation inst,
             final int adviceId,
             final boolean isTracing,
-            final PointCut pointCut) throws UnmodifiableClassException {
+            final int capabilities,
+            final PointCut pointCut,
+            final Progress progress) throws UnmodifiableClassException {
 
         final EnhancerAffect affect = new EnhancerAffect();
 
         // pointCut->切点，实际上就是一堆的正则匹配表达式
         // 然后从jvm所有加载的类中根据正则规则匹配出class和方法等等。
         // 返回的结果：匹配的类，以及类对应的匹配上的方法
-        final Map<Class<?>, Matcher<AsmMethod>> enhanceMap = toEnhanceMap(pointCut);
+        final WeavePlan weavePlan = toWeavePlan(pointCut);
+
+        // 方法调用跟踪过滤器,在编织期过滤掉不需要跟踪的调用点
+        final TracingFilter tracingFilter = isTracing
+                ? pointCut.getTracingFilter()
+                : null;
+
+        // 方法调用跟踪依赖方法的开始与结束事件维护调用栈
+        final int wovenCapabilities = isTracing
+                ? capabilities | AdviceCapable.EVENT_ALL
+                : capabilities;
+
+        // 通知所圈定的方法
+        final Collection<MethodMeta> adviceMethodMetas = new ArrayList<MethodMeta>();
+
+        // 织入状态发生了变化,需要重新转换的类
+        final Map<Class<?>, WeaveSnapshot> reTransformSnapshots = new LinkedHashMap<Class<?>, WeaveSnapshot>();
+
+        for (final Class<?> clazz : weavePlan.getClasses()) {
+            final Collection<AsmMethod> asmMethods = weavePlan.getMethods(clazz);
+
+            for (final AsmMethod asmMethod : asmMethods) {
+                final MethodMeta meta = AdviceWeaver.regMethodMeta(clazz, asmMethod.name, asmMethod.desc);
+                adviceMethodMetas.add(meta);
+
+                // 已经织入了所需的钩子
+                if (meta.isWoven
+                        && (meta.wovenCapabilities & wovenCapabilities) == wovenCapabilities
+                        && (!isTracing || meta.isTracingCovered(tracingFilter))) {
+                    continue;
+                }
+
+                WeaveSnapshot snapshot = reTransformSnapshots.get(clazz);
+                if (null == snapshot) {
+                    reTransformSnapshots.put(clazz, snapshot = new WeaveSnapshot(clazz));
+                }
+                snapshot.record(meta);
+                meta.isWoven = true;
+                meta.wovenCapabilities |= wovenCapabilities;
+                if (isTracing) {
+                    meta.addTracingFilter(tracingFilter);
+                }
+            }
+
+            affect.cCnt(1);
+            affect.mCnt(asmMethods.size());
+        }
 
         // 构建增强器
         // asm 开始上场
-        final Enhancer enhancer = new Enhancer(adviceId, isTracing, enhanceMap, affect);
+        final Enhancer enhancer = new Enhancer(reTransformSnapshots.keySet(), affect);
+        enhancer.precompute();
+        final List<Class<?>> reTransformClasses = new ArrayList<Class<?>>(reTransformSnapshots.keySet());
+        final ChunkedReTransformer reTransformer = new ChunkedReTransformer(inst, affect, progress);
+        boolean isCompleted = false;
         try {
             // 设定class转换器
             inst.addTransformer(enhancer, true);
 
-            // 批量增强
-            if (GlobalOptions.isBatchReTransform) {
-                final int size = enhanceMap.size();
-                final Class<?>[] classArray = new Class<?>[size];
-                arraycopy(enhanceMap.keySet().toArray(), 0, classArray, 0, size);
-                if (classArray.length > 0) {
-                    // 这里会调用enhancer的的transform方法
-                    // 也就是重新更新当前的类class文件
-                    inst.retransformClasses(classArray);
-                }
+            // 这里会调用enhancer的的transform方法
+            // 也就是重新更新当前的类class文件
+            // 中途放弃时,剩余未转换的类回滚织入状态
+            isCompleted = reTransformer.reTransform(reTransformClasses, reTransformSnapshots);
+
+        } finally {
+            inst.removeTransformer(enhancer);
+
+            // 中途放弃或失败时已经完成重新转换的类仍处于增强状态,
+            // 同样登记到通知名下,通知重置时才能将其还原
+            if (!isCompleted) {
+                own(adviceId, reTransformClasses.subList(0, reTransformer.transformed), adviceMethodMetas, tracingFilter);
             }
+        }
+
+        if (isCompleted) {
+            // 增强成功,登记通知所圈定的方法,等待注册监听器
+            // 同时登记通知所增强的类,通知重置时只还原仅被该通知增强的类
+            own(adviceId, weavePlan.getClasses(), adviceMethodMetas, tracingFilter);
+        }
+        return affect;
+    }
+
+    /*
+     * 登记通知所增强的类以及这些类中被通知所圈定的方法
+     */
+    private static void own(final int adviceId,
+                            final Collection<Class<?>> classes,
+                            final Collection<MethodMeta> adviceMethodMetas,
+                            final TracingFilter tracingFilter) {
+        if (classes.isEmpty()) {
+            return;
+        }
+        final Set<Class<?>> classSet = new HashSet<Class<?>>(classes);
+        final Collection<MethodMeta> metas = new ArrayList<MethodMeta>();
+        for (final MethodMeta meta : adviceMethodMetas) {
+            if (classSet.contains(meta.getDeclaringClass())) {
+                metas.add(meta);
+            }
+        }
+        for (final Class<?> clazz : classSet) {
+            classBytesCache.own(clazz, adviceId);
+        }
+        AdviceWeaver.regAdviceMethodMetas(adviceId, metas, tracingFilter);
+    }
+
+    /**
+     * 分批重新转换的进度
+     */
+    public interface Progress {
+
+        /**
+         * 一批类重新转换完成
+         *
+         * @param transformed 已经完成重新转换的类个数
+         * @param total       需要重新转换的类总数
+         * @return true:继续;false:放弃剩余的批次
+         */
+        boolean progress(int transformed, int total);
+
+    }
+
+    /**
+     * 按照时间预算分批重新转换<br/>
+     * 每批完成后按照本批的单类耗时调整下一批的大小,使每批的停顿不超过预算,批次之间让出CPU
+     */
+    private static class ChunkedReTransformer {
+
+        // 第一批的类个数
+        private static final int FIRST_CHUNK_SIZE = 8;
+
+        private final Instrumentation inst;
+        private final EnhancerAffect affect;
+        private final Progress progress;
 
+        // 已经完成重新转换的类个数
+        private int transformed;
+
+        ChunkedReTransformer(Instrumentation inst, EnhancerAffect affect, Progress progress) {
+            this.inst = inst;
+            this.affect = affect;
+            this.progress = progress;
+        }
 
-            // for each 增强
-            else {
-                for (Class<?> clazz : enhanceMap.keySet()) {
-                    try {
-                        inst.retransformClasses(clazz);
-                    } catch (Throwable t) {
-                        logger.warn("reTransform {} failed.", clazz, t);
-                        if (t instanceof UnmodifiableClassException) {
-                            throw (UnmodifiableClassException) t;
-                        } else if (t instanceof RuntimeException) {
-                            throw (RuntimeException) t;
-                        } else {
-                            throw new RuntimeException(t);
-                        }
+        /*
+         * 重新转换,返回false表示中途放弃
+         * 给出快照时,失败或中途放弃会回滚尚未转换成功的类的织入状态
+         */
+        boolean reTransform(final List<Class<?>> classes, final Map<Class<?>, WeaveSnapshot> snapshots) throws UnmodifiableClassException {
+
+            final int total = classes.size();
+            final long budgetNanos = TimeUnit.MILLISECONDS.toNanos(GlobalOptions.reTransformChunkBudget);
+            int chunkSize = !GlobalOptions.isBatchReTransform
+                    ? 1
+                    : budgetNanos <= 0 ? total : FIRST_CHUNK_SIZE;
+
+            while (transformed < total) {
+
+                final List<Class<?>> chunk = classes.subList(transformed, Math.min(total, transformed + chunkSize));
+                final long beginNanos = System.nanoTime();
+                try {
+                    inst.retransformClasses(chunk.toArray(new Class<?>[chunk.size()]));
+                } catch (Throwable t) {
+                    logger.warn("reTransform {} classes failed.", chunk.size(), t);
+                    rollback(classes, snapshots);
+                    throw t;
+                }
+                final long costNanos = System.nanoTime() - beginNanos;
+                affect.chunk(chunk.size(), costNanos);
+                transformed += chunk.size();
+
+                // 本批的类已经换上新的字节码,发布其织入状态
+                for (final Class<?> clazz : chunk) {
+                    AdviceWeaver.activate(clazz);
+                }
+
+                if (transformed < total) {
+
+                    if (null != progress
+                            && !progress.progress(transformed, total)) {
+                        logger.info("reTransform aborted at {}/{}.", transformed, total);
+                        rollback(classes, snapshots);
+                        affect.abort();
+                        return false;
+                    }
+
+                    if (GlobalOptions.isBatchReTransform
+                            && budgetNanos > 0) {
+                        final long perClassNanos = Math.max(1, costNanos / chunk.size());
+                        chunkSize = (int) Math.max(1, Math.min(total, budgetNanos / perClassNanos));
                     }
+                    Thread.yield();
                 }
+
             }
 
+            if (null != progress
+                    && total > 0) {
+                progress.progress(transformed, total);
+            }
+            return true;
+        }
 
-        } finally {
-            inst.removeTransformer(enhancer);
+        /*
+         * 回滚尚未转换成功的类
+         */
+        private void rollback(final List<Class<?>> classes, final Map<Class<?>, WeaveSnapshot> snapshots) {
+            if (null == snapshots) {
+                return;
+            }
+            for (final Class<?> clazz : classes.subList(transformed, classes.size())) {
+                snapshots.get(clazz).rollback();
+            }
+        }
+
+    }
+
+    /**
+     * 类织入状态快照<br/>
+     * 重新转换失败时类仍然保持原来的字节码,织入状态和缓存需要一并回滚
+     */
+    private static class WeaveSnapshot {
+
+        private final Class<?> clazz;
+        private final boolean isCached;
+        private final byte[] classBytes;
+        private final Map<MethodMeta, Boolean> wovenStates = new HashMap<MethodMeta, Boolean>();
+        private final Map<MethodMeta, TracingFilter[]> tracingStates = new HashMap<MethodMeta, TracingFilter[]>();
+        private final Map<MethodMeta, Integer> capabilityStates = new HashMap<MethodMeta, Integer>();
+
+        WeaveSnapshot(Class<?> clazz) {
+            this.clazz = clazz;
+            this.isCached = classBytesCache.contains(clazz);
+            this.classBytes = classBytesCache.get(clazz);
+        }
+
+        void record(MethodMeta meta) {
+            if (!wovenStates.containsKey(meta)) {
+                wovenStates.put(meta, meta.isWoven);
+                tracingStates.put(meta, meta.tracingFilters);
+                capabilityStates.put(meta, meta.wovenCapabilities);
+            }
+        }
+
+        void rollback() {
+            for (Map.Entry<MethodMeta, Boolean> entry : wovenStates.entrySet()) {
+                entry.getKey().isWoven = entry.getValue();
+                entry.getKey().tracingFilters = tracingStates.get(entry.getKey());
+                entry.getKey().wovenCapabilities = capabilityStates.get(entry.getKey());
+            }
+            if (isCached) {
+                classBytesCache.put(clazz, classBytes);
+            } else {
+                classBytesCache.remove(clazz);
+            }
         }
 
-        return affect;
     }
 
 
@@ -469,9 +834,21 @@ public class Enhancer implements ClassFileTransformer {
      * @return 增强影响范围
      * @throws UnmodifiableClassException
      */
-    public static synchronized EnhancerAffect reset(final Instrumentation inst) throws UnmodifiableClassException {
+    public static EnhancerAffect reset(final Instrumentation inst) throws UnmodifiableClassException {
+        return reset(inst, (Progress) null);
+    }
+
+    /**
+     * 重置所有增强过的Class<br/>
+     * 中途放弃时所有监听器依然会被注销,尚未还原的类保留在缓存中,下次重置时继续还原
+     *
+     * @param inst     inst
+     * @param progress 分批重新转换的进度,为null则不反馈进度
+     * @return 增强影响范围
+     * @throws UnmodifiableClassException 重置失败
+     */
+    public static synchronized EnhancerAffect reset(final Instrumentation inst, final Progress progress) throws UnmodifiableClassException {
 
-        final int size = classBytesCache.size();
         final EnhancerAffect affect = new EnhancerAffect();
         final ClassFileTransformer resetClassFileTransformer = new ClassFileTransformer() {
             @Override
@@ -485,27 +862,140 @@ public class Enhancer implements ClassFileTransformer {
             }
         };
 
+        final List<Class<?>> classes = classBytesCache.getClasses();
+        final ChunkedReTransformer reTransformer = new ChunkedReTransformer(inst, affect, progress);
         try {
-
             inst.addTransformer(resetClassFileTransformer, true);
+            reTransformer.reTransform(classes, null);
+        } finally {
+            inst.removeTransformer(resetClassFileTransformer);
+            affect.cCnt(reTransformer.transformed);
+            for (final Class<?> clazz : classes.subList(0, reTransformer.transformed)) {
+                classBytesCache.remove(clazz);
+            }
+
+            // 解除所有方法上的织入状态和监听器
+            // 尚未还原的类中残留的钩子因为通知开关关闭而不再产生通知
+            AdviceWeaver.resetMethodMetas();
+        }
+
+        return affect;
+    }
+
+
+    /**
+     * 重置指定通知的增强<br/>
+     * 注销通知,并将只被该通知所圈定的方法还原,其他通知的增强不受影响
+     *
+     * @param inst     inst
+     * @param adviceId 通知ID
+     * @return 增强影响范围
+     * @throws UnmodifiableClassException 重置失败
+     */
+    public static EnhancerAffect reset(final Instrumentation inst, final int adviceId) throws UnmodifiableClassException {
+        return reset(inst, adviceId, null);
+    }
+
+    /**
+     * 重置指定通知的增强<br/>
+     * 注销通知,并将只被该通知所圈定的方法还原,其他通知的增强不受影响
+     *
+     * @param inst     inst
+     * @param adviceId 通知ID
+     * @param progress 分批重新转换的进度,为null则不反馈进度
+     * @return 增强影响范围
+     * @throws UnmodifiableClassException 重置失败
+     */
+    public static synchronized EnhancerAffect reset(final Instrumentation inst, final int adviceId, final Progress progress) throws UnmodifiableClassException {
+
+        final EnhancerAffect affect = new EnhancerAffect();
 
-            if (!classBytesCache.isEmpty()) {
-                // 批量增强
-                final Class<?>[] classArray = new Class<?>[size];
-                arraycopy(classBytesCache.keySet().toArray(), 0, classArray, 0, size);
-                inst.retransformClasses(classArray);
+        final Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+        for (final MethodMeta meta : AdviceWeaver.unWeave(adviceId)) {
+            final Class<?> clazz = meta.getDeclaringClass();
+            if (null != clazz) {
+                classes.add(clazz);
             }
+        }
+
+        // 不再被任何通知增强的类一并还原
+        for (final Class<?> clazz : classBytesCache.release(adviceId)) {
+            AdviceWeaver.unWeave(clazz);
+            classes.add(clazz);
+        }
+
+        if (classes.isEmpty()) {
+            return affect;
+        }
 
+        // 按照剩余需要织入的方法重新转换
+        // 中途放弃时尚未还原的类中残留的钩子因为通知开关关闭而不再产生通知
+        final Enhancer enhancer = new Enhancer(classes, affect);
+        enhancer.precompute();
+        final ChunkedReTransformer reTransformer = new ChunkedReTransformer(inst, affect, progress);
+        try {
+            inst.addTransformer(enhancer, true);
+            reTransformer.reTransform(new ArrayList<Class<?>>(classes), null);
         } finally {
-            inst.removeTransformer(resetClassFileTransformer);
-            affect.cCnt(classBytesCache.size());
-            classBytesCache.clear();
+            inst.removeTransformer(enhancer);
         }
 
+        affect.cCnt(reTransformer.transformed);
         return affect;
     }
 
 
+    /**
+     * 在后台重置指定通知的增强<br/>
+     * 多次重置同一个通知是安全的,已经还原过的通知不会再次重新转换
+     *
+     * @param inst     inst
+     * @param adviceId 通知ID
+     */
+    public static void resetLater(final Instrumentation inst, final int adviceId) {
+        resetExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final EnhancerAffect affect = reset(inst, adviceId);
+                    if (affect.cCnt() > 0) {
+                        logger.info("advice[{}] auto reset, {}", adviceId, affect);
+                    }
+                } catch (Throwable t) {
+                    logger.warn("advice[{}] auto reset failed.", adviceId, t);
+                }
+            }
+        });
+    }
+
+    private static WeaveCache newWeaveCache() {
+        String version;
+        try {
+            version = GaStringUtils.getVersion();
+        } catch (Throwable t) {
+            version = "UNKNOWN";
+        }
+        return new WeaveCache(new File(System.getProperty("user.home"), ".greys" + File.separator + "weave-cache"), version);
+    }
+
+    private static ThreadPoolExecutor newResetExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "ga-reset-daemon");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
     /**
      * 获取匹配的类字节码信息
      *
@@ -523,6 +1013,9 @@ public class Enhancer implements ClassFileTransformer {
             return affect;
         }
 
+        // 缓存中的字节码被淘汰时,按照当前的织入状态重新编织,保证重新转换后增强依然有效
+        final Enhancer enhancer = new Enhancer(new HashSet<Class<?>>(classes), new EnhancerAffect());
+
         final ClassFileTransformer getClassByteArrayFileTransformer = new ClassFileTransformer() {
             @Override
             public byte[] transform(
@@ -542,11 +1035,13 @@ public class Enhancer implements ClassFileTransformer {
                     affect.rCnt(1);
                 }
 
-                if (classBytesCache.containsKey(classBeingRedefined)) {
-                    return classBytesCache.get(classBeingRedefined);
-                } else {
+                if (!classBytesCache.contains(classBeingRedefined)) {
                     return null;
                 }
+                final byte[] classBytes = classBytesCache.get(classBeingRedefined);
+                return null != classBytes
+                        ? classBytes
+                        : enhancer.transform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
 
             }
         };
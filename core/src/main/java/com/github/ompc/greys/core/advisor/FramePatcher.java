@@ -0,0 +1,245 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 栈帧修补器<br/>
+ * 织入时原样保留方法中原有的栈帧,只为织入代码新增的跳转目标和异常处理块补上栈帧,
+ * 不再由ClassWriter整体重新计算;栈帧的类型状态由下游的AnalyzerAdapter推导<br/>
+ * 同一位置上原有的栈帧优先于补上的栈帧
+ */
+final class FramePatcher extends MethodVisitor implements Opcodes {
+
+    // 推导不出的栈帧,遇到时放弃修补
+    private static final Frame UNKNOWN = new Frame(null, null);
+
+    private final AnalyzerAdapter analyzer;
+
+    // 已经访问过的Label
+    private final Set<Label> visitedLabels = new HashSet<Label>();
+
+    // 尚未访问的Label -> 需要补上的栈帧
+    private final Map<Label, Frame> frames = new HashMap<Label, Frame>();
+
+    // 等待写入的栈帧,推迟到下一条指令之前写入
+    private Frame pendingFrame;
+
+    // 自上一条指令以来是否已经写入了原有的栈帧
+    private boolean isFrameVisited;
+
+    /*
+     * 栈帧(F_NEW格式)
+     */
+    private static class Frame {
+
+        private final Object[] locals;
+        private final Object[] stack;
+
+        Frame(Object[] locals, Object[] stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+    }
+
+    /**
+     * 构建栈帧修补器
+     *
+     * @param owner  方法所属类(内部类名格式)
+     * @param access 方法访问标志
+     * @param name   方法名
+     * @param desc   方法描述
+     * @param mv     下游MethodVisitor
+     */
+    FramePatcher(String owner, int access, String name, String desc, MethodVisitor mv) {
+        this(new AnalyzerAdapter(owner, access, name, desc, mv));
+    }
+
+    private FramePatcher(AnalyzerAdapter analyzer) {
+        super(ASM5, analyzer);
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * 获取当前的局部变量类型
+     *
+     * @return 局部变量类型(F_NEW格式)
+     */
+    Object[] getLocals() {
+        if (null == analyzer.locals) {
+            throw new IllegalStateException("frame is unreachable.");
+        }
+        return toFrameTypes(analyzer.locals);
+    }
+
+    /**
+     * 为异常处理块补上栈帧
+     *
+     * @param handler 异常处理块的Label,必须尚未访问
+     * @param locals  局部变量类型(F_NEW格式),需要兼容try块中的每一条指令
+     * @param type    异常类型(内部类名格式)
+     */
+    void catchFrame(Label handler, Object[] locals, String type) {
+        frames.put(handler, new Frame(locals, new Object[]{type}));
+    }
+
+    /*
+     * 将AnalyzerAdapter的按槽位排列的类型转换为F_NEW格式,long/double只占一项
+     */
+    private static Object[] toFrameTypes(List<Object> types) {
+        final List<Object> frameTypes = new ArrayList<Object>(types.size());
+        for (int index = 0; index < types.size(); index++) {
+            final Object type = types.get(index);
+            frameTypes.add(type);
+            if (LONG.equals(type) || DOUBLE.equals(type)) {
+                index++;
+            }
+        }
+        return frameTypes.toArray();
+    }
+
+    /*
+     * 记录跳转到label时的栈帧,只有前向跳转需要
+     */
+    private void recordJumpFrame(Label label) {
+        if (visitedLabels.contains(label)
+                || frames.containsKey(label)) {
+            return;
+        }
+        frames.put(label, null == analyzer.locals
+                ? UNKNOWN
+                : new Frame(toFrameTypes(analyzer.locals), toFrameTypes(analyzer.stack)));
+    }
+
+    /*
+     * 在指令之前写入等待中的栈帧
+     */
+    private void flush() {
+        final Frame frame = pendingFrame;
+        pendingFrame = null;
+        isFrameVisited = false;
+        if (null == frame) {
+            return;
+        }
+        if (UNKNOWN == frame) {
+            throw new IllegalStateException("frame is unknown.");
+        }
+        analyzer.visitFrame(F_NEW, frame.locals.length, frame.locals, frame.stack.length, frame.stack);
+    }
+
+    @Override
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+        // 原有的栈帧
+        pendingFrame = null;
+        isFrameVisited = true;
+        super.visitFrame(type, nLocal, local, nStack, stack);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        visitedLabels.add(label);
+        final Frame frame = frames.remove(label);
+        if (null != frame
+                && !isFrameVisited) {
+            pendingFrame = frame;
+        }
+        super.visitLabel(label);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        flush();
+        // GOTO之后为不可达状态,需要在跳转之前记录;条件跳转则在弹出操作数之后记录
+        if (opcode == GOTO) {
+            recordJumpFrame(label);
+            super.visitJumpInsn(opcode, label);
+        } else {
+            super.visitJumpInsn(opcode, label);
+            recordJumpFrame(label);
+        }
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        flush();
+        super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        flush();
+        super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        flush();
+        super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        flush();
+        super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+        flush();
+        super.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+        flush();
+        super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+        flush();
+        super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    }
+
+    @Override
+    public void visitLdcInsn(Object cst) {
+        flush();
+        super.visitLdcInsn(cst);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        flush();
+        super.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        flush();
+        super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        flush();
+        super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+        flush();
+        super.visitMultiANewArrayInsn(desc, dims);
+    }
+
+}
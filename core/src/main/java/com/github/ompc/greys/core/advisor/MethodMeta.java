@@ -0,0 +1,228 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.util.TracingFilter;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.ompc.greys.core.advisor.AdviceBinding.EMPTY_BINDINGS;
+import static com.github.ompc.greys.core.advisor.AdviceCapable.EVENT_RETURNING;
+import static com.github.ompc.greys.core.advisor.AdviceCapable.EVENT_THROWING;
+
+/**
+ * 被编织方法的元数据<br/>
+ * 每个(类,方法名+方法描述)只有一份,方法ID在整个生命周期内稳定不变。
+ * 钩子在运行期只需要拿到方法ID就能还原出类加载器、类名、方法名、方法描述以及当前注册在该方法上的所有监听器
+ */
+final class MethodMeta {
+
+    private static final TracingFilter[] EMPTY_TRACING_FILTERS = new TracingFilter[0];
+
+    // 方法ID
+    final int id;
+
+    // 类与类加载器都用弱引用,避免方法元数据表拖住类加载器
+    private final WeakReference<Class<?>> classRef;
+    private final WeakReference<ClassLoader> loaderRef;
+
+    final String className;
+    final String methodName;
+    final String methodDesc;
+
+    // 监听器表,写时复制
+    private volatile AdviceBinding[] bindings = EMPTY_BINDINGS;
+
+    // 方法内部的调用点,按照在字节码中出现的顺序排列
+    // 每次都从原始字节码织入,所以同一个方法的调用点顺序不变,重新织入时可以复用调用点ID
+    final List<CallSiteMeta> callSites = new ArrayList<CallSiteMeta>();
+
+    // -- 织入状态,只在Enhancer的锁内读写 --
+    // 当前类的增强字节码中是否织入了该方法
+    boolean isWoven;
+
+    // 织入的事件和数据,为所有通知所需的并集,编织时据此生成钩子
+    int wovenCapabilities;
+
+    // 已经生效的织入事件和数据,所在的类完成重新转换后才发布
+    // 运行期据此判断是否有结束钩子,重新转换完成之前仍按照旧的字节码处理
+    volatile int activeCapabilities;
+
+    // 织入方法调用跟踪时所依据的过滤器,为空则没有织入跟踪,元素为null表示跟踪所有调用点
+    // 写时复制,运行期需要据此判断监听器是否还要再做一次过滤
+    volatile TracingFilter[] tracingFilters = EMPTY_TRACING_FILTERS;
+
+    MethodMeta(int id, Class<?> clazz, String methodName, String methodDesc) {
+        this.id = id;
+        this.classRef = new WeakReference<Class<?>>(clazz);
+        this.loaderRef = new WeakReference<ClassLoader>(clazz.getClassLoader());
+        this.className = clazz.getName();
+        this.methodName = methodName;
+        this.methodDesc = methodDesc;
+    }
+
+    /**
+     * 获取类加载器
+     *
+     * @return 类加载器, 若为BootstrapClassLoader或已被回收则为null
+     */
+    ClassLoader getLoader() {
+        return loaderRef.get();
+    }
+
+    /**
+     * 获取方法所归属的类
+     *
+     * @return 类, 若已被回收则为null
+     */
+    Class<?> getDeclaringClass() {
+        return classRef.get();
+    }
+
+    /**
+     * 获取当前的监听器表<br/>
+     * 返回的数组不允许修改
+     *
+     * @return 监听器表
+     */
+    AdviceBinding[] getBindings() {
+        return bindings;
+    }
+
+    /**
+     * 是否织入了方法结束的钩子<br/>
+     * 没有结束钩子的方法在开始时不需要保存执行现场
+     *
+     * @return true:织入了返回或异常的钩子
+     */
+    boolean isEndWoven() {
+        return (activeCapabilities & (EVENT_RETURNING | EVENT_THROWING)) != 0;
+    }
+
+    /**
+     * 发布当前的织入状态,在所在的类完成重新转换后调用
+     */
+    void activate() {
+        activeCapabilities = isWoven
+                ? wovenCapabilities
+                : 0;
+    }
+
+    /**
+     * 是否织入了方法调用跟踪
+     *
+     * @return true:已织入跟踪
+     */
+    boolean isTracing() {
+        return tracingFilters.length > 0;
+    }
+
+    /**
+     * 已经织入的跟踪是否覆盖了过滤器所需要跟踪的所有调用点
+     *
+     * @param tracingFilter 跟踪过滤器,为null表示跟踪所有调用点
+     * @return true:已覆盖,无需重新织入
+     */
+    boolean isTracingCovered(TracingFilter tracingFilter) {
+        for (final TracingFilter filter : tracingFilters) {
+            if (null == filter
+                    || filter == tracingFilter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 追加跟踪过滤器,在Enhancer的锁内调用
+     *
+     * @param tracingFilter 跟踪过滤器,为null表示跟踪所有调用点
+     */
+    void addTracingFilter(TracingFilter tracingFilter) {
+        if (isTracingCovered(tracingFilter)) {
+            return;
+        }
+        if (null == tracingFilter) {
+            tracingFilters = new TracingFilter[]{null};
+            return;
+        }
+        final TracingFilter[] oldFilters = tracingFilters;
+        final TracingFilter[] newFilters = new TracingFilter[oldFilters.length + 1];
+        System.arraycopy(oldFilters, 0, newFilters, 0, oldFilters.length);
+        newFilters[oldFilters.length] = tracingFilter;
+        tracingFilters = newFilters;
+    }
+
+    /**
+     * 清除所有跟踪过滤器
+     */
+    void clearTracingFilters() {
+        tracingFilters = EMPTY_TRACING_FILTERS;
+    }
+
+    /**
+     * 编织期判断方法调用是否需要织入跟踪代码
+     *
+     * @param owner 调用类名
+     * @param name  调用方法名
+     * @return 任意一个跟踪过滤器需要跟踪即为true
+     */
+    boolean isTracing(String owner, String name) {
+        for (final TracingFilter filter : tracingFilters) {
+            if (null == filter
+                    || filter.isTracing(owner, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * 以下修改监听器表的方法由AdviceWeaver在锁内调用
+     */
+
+    void bind(AdviceBinding binding) {
+        final AdviceBinding[] oldBindings = bindings;
+        final AdviceBinding[] newBindings = new AdviceBinding[oldBindings.length + 1];
+        System.arraycopy(oldBindings, 0, newBindings, 0, oldBindings.length);
+        newBindings[oldBindings.length] = binding;
+        bindings = newBindings;
+    }
+
+    void unBind(int adviceId) {
+        final AdviceBinding[] oldBindings = bindings;
+        int count = 0;
+        for (AdviceBinding binding : oldBindings) {
+            if (binding.adviceId != adviceId) {
+                count++;
+            }
+        }
+        if (count == oldBindings.length) {
+            return;
+        }
+        final AdviceBinding[] newBindings = count == 0 ? EMPTY_BINDINGS : new AdviceBinding[count];
+        int index = 0;
+        for (AdviceBinding binding : oldBindings) {
+            if (binding.adviceId != adviceId) {
+                newBindings[index++] = binding;
+            }
+        }
+        bindings = newBindings;
+    }
+
+    void unBindAll() {
+        bindings = EMPTY_BINDINGS;
+    }
+
+    /**
+     * 方法签名KEY
+     *
+     * @param methodName 方法名
+     * @param methodDesc 方法描述
+     * @return name+desc
+     */
+    static String toKey(String methodName, String methodDesc) {
+        return methodName + methodDesc;
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.util.LogUtil;
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.String.format;
+
+/**
+ * 通知开销守护<br/>
+ * 定期计算每个通知的监听器在业务线程上所占用的时间比例,超出预算({@link GlobalOptions#overheadBudget})时
+ * 先降级为采样,降级后仍然超出预算则交由处理器卸载通知<br/>
+ * 监听器耗时是所有业务线程的累加,占比以检查周期内所有CPU的可用时间为分母
+ */
+public class OverheadGuard {
+
+    private static final Logger logger = LogUtil.getLogger();
+
+    // 检查周期(毫秒)
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    // 正在守护的通知
+    private static final Map<Integer/*ADVICE_ID*/, Guarding> guardings = new ConcurrentHashMap<Integer, Guarding>();
+
+    private static Timer timer;
+
+    /**
+     * 开销超出预算时的处理器<br/>
+     * 在所有通知共享的守护线程中回调,不能阻塞,耗时的处理(如还原增强)需要交给其他线程
+     */
+    public interface Handler {
+
+        /**
+         * 通知已降级为采样
+         *
+         * @param adviceId    通知ID
+         * @param percent     监听器耗时占比(%)
+         * @param sampleCount 降级后每N次调用采样1次
+         */
+        void onDegrade(int adviceId, double percent, int sampleCount);
+
+        /**
+         * 降级后仍然超出预算,需要卸载通知<br/>
+         * 还原增强需要等待Enhancer的锁,应通过{@link Enhancer#resetLater}在后台完成
+         *
+         * @param adviceId 通知ID
+         * @param percent  监听器耗时占比(%)
+         */
+        void onDetach(int adviceId, double percent);
+
+    }
+
+    /*
+     * 守护中的通知
+     */
+    static class Guarding {
+
+        private final AdviceBinding binding;
+        private final Handler handler;
+
+        // 可用的CPU个数
+        private final int processors;
+
+        // 上个检查周期结束时的时间和监听器耗时
+        private long lastNanos;
+        private long lastListenerNanos;
+
+        // 是否已经降级
+        private boolean isDegraded;
+
+        Guarding(AdviceBinding binding, Handler handler, long nowNanos, int processors) {
+            this.binding = binding;
+            this.handler = handler;
+            this.lastNanos = nowNanos;
+            this.lastListenerNanos = binding.listenerNanos.getSum();
+            this.processors = Math.max(1, processors);
+        }
+
+    }
+
+    /**
+     * 开始守护通知
+     *
+     * @param binding 通知绑定
+     * @param handler 处理器
+     */
+    static synchronized void guard(AdviceBinding binding, Handler handler) {
+        guardings.put(binding.adviceId, new Guarding(binding, handler, System.nanoTime(), Runtime.getRuntime().availableProcessors()));
+        if (null == timer) {
+            timer = new Timer("greys-overhead-guard", true);
+            timer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    checking();
+                }
+            }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * 停止守护通知
+     *
+     * @param adviceId 通知ID
+     */
+    static synchronized void unGuard(int adviceId) {
+        guardings.remove(adviceId);
+        if (guardings.isEmpty()
+                && null != timer) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    private static void checking() {
+        for (final Guarding guarding : guardings.values()) {
+            try {
+                checking(guarding, System.nanoTime());
+            } catch (Throwable t) {
+                logger.warn("check overhead of advice[{}] failed.", guarding.binding.adviceId, t);
+            }
+        }
+    }
+
+    static void checking(Guarding guarding, long nowNanos) {
+
+        final AdviceBinding binding = guarding.binding;
+        final long listenerNanos = binding.listenerNanos.getSum();
+        final long intervalNanos = nowNanos - guarding.lastNanos;
+        if (intervalNanos <= 0) {
+            return;
+        }
+        final double percent = 100d * (listenerNanos - guarding.lastListenerNanos) / ((double) intervalNanos * guarding.processors);
+        guarding.lastNanos = nowNanos;
+        guarding.lastListenerNanos = listenerNanos;
+
+        final int budget = GlobalOptions.overheadBudget;
+        if (budget <= 0
+                || percent <= budget
+                || !binding.isActive) {
+            return;
+        }
+
+        // 已经降级过仍然超出预算,卸载通知
+        if (guarding.isDegraded) {
+            logger.info("advice[{}] overhead {}% still exceeded budget {}%, detach it.", binding.adviceId, format("%.2f", percent), budget);
+            unGuard(binding.adviceId);
+            guarding.handler.onDetach(binding.adviceId, percent);
+            return;
+        }
+
+        // 监听器耗时占比为s时,每次调用的监听器耗时与业务耗时之比为s/(1-s)
+        // 按照预算的一半作为降级目标t计算采样间隔,使得降级后的占比为t
+        final double share = Math.min(percent, 99d) / 100;
+        final double target = budget / 200d;
+        final int factor = Math.max(2, (int) Math.ceil(share / (1 - share) * (1 - target) / target));
+        final Sampler sampler = binding.sampler;
+        final int sampleCount;
+        if (null == sampler) {
+            binding.sampler = Sampler.newInstance(factor, null);
+            sampleCount = factor;
+        } else {
+            sampleCount = sampler.degrade(factor);
+        }
+        guarding.isDegraded = true;
+        logger.info("advice[{}] overhead {}% exceeded budget {}%, degrade to sampling 1/{}.", binding.adviceId, format("%.2f", percent), budget, sampleCount);
+        guarding.handler.onDegrade(binding.adviceId, percent, sampleCount);
+
+    }
+
+}
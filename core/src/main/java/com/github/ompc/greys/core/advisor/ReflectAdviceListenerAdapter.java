@@ -3,6 +3,7 @@ package com.github.ompc.greys.core.advisor;
 import com.github.ompc.greys.core.Advice;
 import com.github.ompc.greys.core.util.GaCheckUtils;
 import com.github.ompc.greys.core.util.GaMethod;
+import com.github.ompc.greys.core.util.GaMethodCache;
 import com.github.ompc.greys.core.util.LazyGet;
 import com.github.ompc.greys.core.util.collection.GaStack;
 import com.github.ompc.greys.core.util.collection.ThreadUnsafeGaStack;
@@ -13,6 +14,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 
 import static com.github.ompc.greys.core.Advice.*;
+import static com.github.ompc.greys.core.advisor.AdviceCapable.EVENT_ALL;
 import static com.github.ompc.greys.core.util.GaStringUtils.tranClassName;
 
 /**
@@ -44,6 +46,13 @@ public abstract class ReflectAdviceListenerAdapter extends AdviceListenerAdapter
 
     private GaMethod toMethod(ClassLoader loader, Class<?> clazz, String methodName, String methodDesc)
             throws ClassNotFoundException, NoSuchMethodException {
+
+        // 类所声明的方法按name+desc缓存在类上,不用再逐个解析参数类型
+        final GaMethod gaMethod = GaMethodCache.getDeclaredMethod(clazz, methodName, methodDesc);
+        if (null != gaMethod) {
+            return gaMethod;
+        }
+
         final org.objectweb.asm.Type asmType = org.objectweb.asm.Type.getMethodType(methodDesc);
 
         // to arg types
@@ -148,6 +157,14 @@ public abstract class ReflectAdviceListenerAdapter extends AdviceListenerAdapter
         }
     };
 
+    /*
+     * 只有同时收到开始和结束事件时,before才能把类和方法引用传递给after<br/>
+     * 否则压入的引用永远不会被弹出
+     */
+    private boolean isPairing() {
+        return (getCapabilities() & EVENT_ALL) == EVENT_ALL;
+    }
+
     @Override
     final public void before(
             ClassLoader loader, String className, String methodName, String methodDesc,
@@ -156,9 +173,11 @@ public abstract class ReflectAdviceListenerAdapter extends AdviceListenerAdapter
         try {
             final LazyGet<Class<?>> clazzRef = toClassRef(loader, className);
             final LazyGet<GaMethod> methodRef = toMethodRef(loader, clazzRef, methodName, methodDesc);
-            final GaStack<LazyGet<?>> infoStack = infoStackRef.get();
-            infoStack.push(clazzRef);
-            infoStack.push(methodRef);
+            if (isPairing()) {
+                final GaStack<LazyGet<?>> infoStack = infoStackRef.get();
+                infoStack.push(clazzRef);
+                infoStack.push(methodRef);
+            }
 
             before(newForBefore(loader, clazzRef, methodRef, target, args));
         } finally {
@@ -186,12 +205,19 @@ public abstract class ReflectAdviceListenerAdapter extends AdviceListenerAdapter
     @Override
     final public void afterReturning(
             ClassLoader loader, String className, String methodName, String methodDesc,
-            Object target, Object[] args, Object returnObject) throws Throwable {
+            Object target, Object[] args, Object returnObject, long cost) throws Throwable {
 
         try {
-            final GaStack<LazyGet<?>> infoStack = infoStackRef.get();
-            final LazyGet<GaMethod> methodRef = (LazyGet<GaMethod>) infoStack.pop();
-            final LazyGet<Class<?>> clazzRef = (LazyGet<Class<?>>) infoStack.pop();
+            final LazyGet<Class<?>> clazzRef;
+            final LazyGet<GaMethod> methodRef;
+            if (isPairing()) {
+                final GaStack<LazyGet<?>> infoStack = infoStackRef.get();
+                methodRef = (LazyGet<GaMethod>) infoStack.pop();
+                clazzRef = (LazyGet<Class<?>>) infoStack.pop();
+            } else {
+                clazzRef = toClassRef(loader, className);
+                methodRef = toMethodRef(loader, clazzRef, methodName, methodDesc);
+            }
 
             final Advice advice = newForAfterRetuning(
                     loader,
@@ -201,7 +227,8 @@ public abstract class ReflectAdviceListenerAdapter extends AdviceListenerAdapter
                     args,
                     // #98 在return的时候,如果目标函数是<init>,会导致return的内容缺失
                     // 初步的想法是用target(this)去代替returnObj
-                    StringUtils.equals("<init>", methodName) ? target : returnObject
+                    StringUtils.equals("<init>", methodName) ? target : returnObject,
+                    cost
             );
 
             afterReturning(advice);
@@ -215,19 +242,27 @@ public abstract class ReflectAdviceListenerAdapter extends AdviceListenerAdapter
     @Override
     final public void afterThrowing(
             ClassLoader loader, String className, String methodName, String methodDesc,
-            Object target, Object[] args, Throwable throwable) throws Throwable {
+            Object target, Object[] args, Throwable throwable, long cost) throws Throwable {
 
         try {
-            final GaStack<LazyGet<?>> infoStack = infoStackRef.get();
-            final LazyGet<GaMethod> methodRef = (LazyGet<GaMethod>) infoStack.pop();
-            final LazyGet<Class<?>> clazzRef = (LazyGet<Class<?>>) infoStack.pop();
+            final LazyGet<Class<?>> clazzRef;
+            final LazyGet<GaMethod> methodRef;
+            if (isPairing()) {
+                final GaStack<LazyGet<?>> infoStack = infoStackRef.get();
+                methodRef = (LazyGet<GaMethod>) infoStack.pop();
+                clazzRef = (LazyGet<Class<?>>) infoStack.pop();
+            } else {
+                clazzRef = toClassRef(loader, className);
+                methodRef = toMethodRef(loader, clazzRef, methodName, methodDesc);
+            }
             final Advice advice = newForAfterThrowing(
                     loader,
                     clazzRef,
                     methodRef,
                     target,
                     args,
-                    throwable
+                    throwable,
+                    cost
             );
             afterThrowing(advice);
             afterFinishing(advice);
@@ -0,0 +1,156 @@
+package com.github.ompc.greys.core.advisor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 采样器<br/>
+ * 在方法开始的钩子中、构造任何通知数据之前判定本次调用是否需要通知监听器,
+ * 支持固定比例(每N次调用采样1次)和限速(令牌桶,每秒最多采样N次)两种方式,同时设置时两者都满足才采样<br/>
+ * 比例采样由线程本地的随机数判定,计数使用分段累加器,只有通过比例判定的调用才会竞争令牌桶
+ */
+public class Sampler {
+
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // 每N次调用采样1次,为0则不做比例采样
+    // 开销超出预算时会被降级加大
+    private volatile int count;
+
+    // 令牌间隔,为0则不做限速采样
+    private final long permitIntervalNanos;
+
+    // 下一个令牌的发放时间,最多允许提前积攒1秒的令牌
+    private final AtomicLong nextPermitNanos;
+
+    // 调用次数
+    private final LongAdder invokeCount = new LongAdder();
+
+    // 采样次数
+    private final LongAdder sampleCount = new LongAdder();
+
+    /**
+     * @param count 每N次调用采样1次
+     * @param rate  每秒最多采样N次
+     */
+    private Sampler(int count, int rate) {
+        this(count, rate, System.nanoTime());
+    }
+
+    /**
+     * @param count     每N次调用采样1次
+     * @param rate      每秒最多采样N次
+     * @param initNanos 创建时间(纳秒)
+     */
+    Sampler(int count, int rate, long initNanos) {
+        this.count = count;
+        this.permitIntervalNanos = rate > 0
+                ? Math.max(1, ONE_SECOND_NANOS / rate)
+                : 0;
+        this.nextPermitNanos = new AtomicLong(initNanos - ONE_SECOND_NANOS);
+    }
+
+    /**
+     * 创建采样器
+     *
+     * @param count 每N次调用采样1次,可以为null
+     * @param rate  每秒最多采样N次,可以为null
+     * @return 采样器, 若两者都未设置则为null(全量通知)
+     */
+    public static Sampler newInstance(Integer count, Integer rate) {
+        if (null != count && count <= 0) {
+            throw new IllegalArgumentException("sample count must be positive : " + count);
+        }
+        if (null != rate && rate <= 0) {
+            throw new IllegalArgumentException("sample rate must be positive : " + rate);
+        }
+        if ((null == count || count == 1)
+                && null == rate) {
+            return null;
+        }
+        return new Sampler(
+                null == count ? 0 : count,
+                null == rate ? 0 : rate
+        );
+    }
+
+    /**
+     * 创建全量采样器<br/>
+     * 不丢弃任何调用,只做计数。用于需要根据采样计数还原调用次数的场景,降级采样后倍率依然正确
+     *
+     * @return 采样器
+     */
+    public static Sampler newCountingInstance() {
+        return new Sampler(0, 0);
+    }
+
+    /**
+     * 降级采样,比例采样的间隔放大为原来的N倍
+     *
+     * @param factor 放大倍数
+     * @return 降级后每N次调用采样1次
+     */
+    int degrade(int factor) {
+        return count = Math.max(1, count) * factor;
+    }
+
+    /**
+     * 判定本次调用是否采样
+     *
+     * @return true:采样;false:丢弃
+     */
+    boolean sampling() {
+        invokeCount.increment();
+        final int count = this.count;
+        if (count > 1
+                && ThreadLocalRandom.current().nextInt(count) != 0) {
+            return false;
+        }
+        if (permitIntervalNanos > 0
+                && !tryAcquirePermit(System.nanoTime())) {
+            return false;
+        }
+        sampleCount.increment();
+        return true;
+    }
+
+    /*
+     * 从令牌桶中获取一个令牌
+     */
+    boolean tryAcquirePermit(final long now) {
+        while (true) {
+            final long next = nextPermitNanos.get();
+            if (next - now > 0) {
+                return false;
+            }
+            final long earliest = now - ONE_SECOND_NANOS;
+            final long base = earliest - next > 0
+                    ? earliest
+                    : next;
+            if (nextPermitNanos.compareAndSet(next, base + permitIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取调用次数
+     *
+     * @return 经过采样判定的调用次数
+     */
+    public long getInvokeCount() {
+        return invokeCount.sum();
+    }
+
+    /**
+     * 获取采样次数
+     *
+     * @return 被采样的调用次数
+     */
+    public long getSampleCount() {
+        return sampleCount.sum();
+    }
+
+}
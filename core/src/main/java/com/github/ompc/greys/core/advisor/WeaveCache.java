@@ -0,0 +1,529 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.util.AsmCodeLock;
+import com.github.ompc.greys.core.util.CodeLock;
+import com.github.ompc.greys.core.util.LogUtil;
+import com.github.ompc.greys.core.util.perf.GaPerf;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.commons.io.IOUtils.toByteArray;
+import static org.objectweb.asm.ClassReader.SKIP_CODE;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import static org.objectweb.asm.ClassReader.SKIP_FRAMES;
+import static org.objectweb.asm.Opcodes.ASM5;
+
+/**
+ * 增强字节码磁盘缓存<br/>
+ * 以(原始字节码,编织计划,Greys版本)为键,将修补栈帧方式织入的字节码保存在本地目录中,
+ * 重新挂载或JVM重启后对同样的类执行同样的命令时直接取用,不再经过ASM编织<br/>
+ * 缓存的字节码中方法ID以常量池中的占位常量织入,与方法ID的分配无关,取用时再将占位常量替换成本次的方法ID;
+ * 带方法调用跟踪的类其调用点ID在编织时才分配,不做缓存;
+ * 重新计算栈帧的结果依赖于目标ClassLoader中的类继承关系,同样不做缓存<br/>
+ * 缓存文件以增强字节码的CRC32校验和开头,取用时校验不通过的文件直接删除
+ */
+final class WeaveCache {
+
+    private static final Logger logger = LogUtil.getLogger();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SUFFIX = ".class";
+
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+
+    // 缓存文件头部的校验和长度
+    private static final int CHECKSUM_LENGTH = 4;
+
+    // 影响编织结果的类,连同其内部类一起参与编织器摘要
+    // Spy在agent中,不一定能在当前ClassLoader中找到
+    private static final String[] WEAVER_CLASS_NAMES = {
+            AdviceWeaver.class.getName(),
+            TracingAsmCodeLock.class.getName(),
+            AsmMethod.class.getName(),
+            AsmTryCatchBlock.class.getName(),
+            AdviceCapable.class.getName(),
+            MethodMeta.class.getName(),
+            FramePatcher.class.getName(),
+            ClassHierarchy.class.getName(),
+            WeavePlan.class.getName(),
+            WeaveCache.class.getName(),
+            AsmCodeLock.class.getName(),
+            CodeLock.class.getName(),
+            "com.github.ompc.greys.agent.Spy"
+    };
+
+    private static final String GREYS_PACKAGE = "com/github/ompc/greys/";
+
+    // 方法ID占位常量的起始值,大于Short.MAX_VALUE才会以ldc指令织入
+    private static final int ID_CONSTANT_BASE = 0x7A000000;
+
+    // 缓存目录
+    private final File cacheDir;
+
+    // Greys版本以及编织器摘要
+    private final String version;
+
+    // 缓存目录中文件的总量,首次写入时统计
+    private final AtomicLong dirSize = new AtomicLong(-1);
+
+    // 临时文件序列
+    private final AtomicLong tmpSeq = new AtomicLong();
+
+    /**
+     * @param cacheDir 缓存目录
+     * @param version  Greys版本,版本或者编织器不同的缓存互不可见
+     */
+    WeaveCache(File cacheDir, String version) {
+        this.cacheDir = cacheDir;
+        this.version = version + '@' + digestWeaver();
+    }
+
+    /*
+     * 编织器字节码的摘要,同一版本号下编织逻辑变化时缓存随之失效
+     * 内部类(包括AdviceAdapter等匿名类)是独立的类文件,从InnerClasses属性中逐个找出
+     */
+    private static String digestWeaver() {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final Set<String> digested = new TreeSet<String>();
+            final LinkedList<String> internalNames = new LinkedList<String>();
+            for (final String className : WEAVER_CLASS_NAMES) {
+                internalNames.add(className.replace('.', '/'));
+            }
+            while (!internalNames.isEmpty()) {
+                final String internalName = internalNames.removeFirst();
+                if (!digested.add(internalName)) {
+                    continue;
+                }
+                final byte[] classBytes = readClassBytes(internalName);
+                if (null == classBytes) {
+                    continue;
+                }
+                digest.update(internalName.getBytes(UTF_8));
+                digest.update(classBytes);
+                new ClassReader(classBytes).accept(new ClassVisitor(ASM5) {
+                    @Override
+                    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                        if (name.startsWith(GREYS_PACKAGE)) {
+                            internalNames.add(name);
+                        }
+                    }
+                }, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+            }
+            return toHex(digest.digest());
+        } catch (Throwable t) {
+            logger.debug("digest weaver failed.", t);
+            return "UNKNOWN";
+        }
+    }
+
+    private static byte[] readClassBytes(String internalName) throws IOException {
+        final InputStream is = WeaveCache.class.getResourceAsStream("/" + internalName + SUFFIX);
+        if (null == is) {
+            return null;
+        }
+        try {
+            return toByteArray(is);
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
+    /**
+     * 编织器
+     */
+    interface Weaver {
+
+        /**
+         * 编织类字节码
+         *
+         * @param idConstants 方法ID占位常量(name+desc -> 常量),为null则直接织入方法ID
+         * @return 增强字节码
+         */
+        byte[] weaving(Map<String, Integer> idConstants);
+
+    }
+
+    /**
+     * 编织类字节码,能缓存时优先从缓存中取用
+     *
+     * @param originalBytes    原始字节码
+     * @param wovenMethodMetas 类中需要织入的方法
+     * @param weaver           编织器
+     * @return 增强字节码
+     */
+    byte[] weaving(byte[] originalBytes, Map<String, MethodMeta> wovenMethodMetas, Weaver weaver) {
+        if (GlobalOptions.weaveCacheCapacity <= 0
+                || isTracing(wovenMethodMetas)) {
+            return weaver.weaving(null);
+        }
+
+        final Map<String, Integer> idConstants = toIdConstants(originalBytes, wovenMethodMetas);
+        final String key = toKey(originalBytes, wovenMethodMetas);
+        if (null == idConstants
+                || null == key) {
+            return weaver.weaving(null);
+        }
+
+        final byte[] cachedBytes = get(key);
+        if (null != cachedBytes) {
+            final byte[] enhanceBytes = bindIds(cachedBytes, idConstants, wovenMethodMetas);
+            if (null != enhanceBytes) {
+                GaPerf.WEAVE_CACHE_HITS.increment();
+                return enhanceBytes;
+            }
+        }
+        GaPerf.WEAVE_CACHE_MISSES.increment();
+
+        final byte[] templateBytes = weaver.weaving(idConstants);
+        final byte[] enhanceBytes = bindIds(templateBytes, idConstants, wovenMethodMetas);
+        if (null == enhanceBytes) {
+            return weaver.weaving(null);
+        }
+        put(key, templateBytes);
+        return enhanceBytes;
+    }
+
+    private static boolean isTracing(Map<String, MethodMeta> wovenMethodMetas) {
+        for (final MethodMeta meta : wovenMethodMetas.values()) {
+            if (meta.isTracing()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 计算缓存键<br/>
+     * 只由原始字节码与编织计划决定,与方法ID无关
+     *
+     * @param originalBytes    原始字节码
+     * @param wovenMethodMetas 类中需要织入的方法
+     * @return 缓存键,不能缓存时返回null
+     */
+    String toKey(byte[] originalBytes, Map<String, MethodMeta> wovenMethodMetas) {
+
+        // 编织计划按照方法排序,与织入的顺序无关
+        final StringBuilder planSB = new StringBuilder()
+                .append(version).append('\n')
+                .append(GlobalOptions.isEnableInvokeDynamic).append(',')
+                .append(GlobalOptions.isDebugForAsm).append('\n');
+        for (final Map.Entry<String, MethodMeta> entry : new TreeMap<String, MethodMeta>(wovenMethodMetas).entrySet()) {
+            planSB.append(entry.getKey())
+                    .append('#').append(entry.getValue().wovenCapabilities)
+                    .append('\n');
+        }
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(originalBytes);
+            digest.update(planSB.toString().getBytes(UTF_8));
+            return toHex(digest.digest());
+        } catch (Throwable t) {
+            logger.debug("digest weave cache key failed.", t);
+            return null;
+        }
+    }
+
+    /*
+     * 按照方法排序分配方法ID占位常量,跳过原始字节码常量池中已有的整数常量,
+     * 保证占位常量在增强字节码的常量池中各自独占一项;分配结果同样只由原始字节码与编织计划决定
+     */
+    private static Map<String, Integer> toIdConstants(byte[] originalBytes, Map<String, MethodMeta> wovenMethodMetas) {
+        final Set<Integer> intConstants = new HashSet<Integer>();
+        try {
+            for (final int offset : intConstantOffsets(originalBytes)) {
+                intConstants.add(readInt(originalBytes, offset + 1));
+            }
+        } catch (Throwable t) {
+            logger.debug("read constant pool failed.", t);
+            return null;
+        }
+
+        final Map<String, Integer> idConstants = new HashMap<String, Integer>();
+        int idConstant = ID_CONSTANT_BASE;
+        for (final String key : new TreeMap<String, MethodMeta>(wovenMethodMetas).keySet()) {
+            while (intConstants.contains(idConstant)) {
+                idConstant++;
+            }
+            idConstants.put(key, idConstant++);
+        }
+        return idConstants;
+    }
+
+    /*
+     * 将增强字节码常量池中的方法ID占位常量替换成真实的方法ID
+     */
+    private static byte[] bindIds(byte[] templateBytes, Map<String, Integer> idConstants, Map<String, MethodMeta> wovenMethodMetas) {
+        final Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+        for (final Map.Entry<String, Integer> entry : idConstants.entrySet()) {
+            ids.put(entry.getValue(), wovenMethodMetas.get(entry.getKey()).id);
+        }
+
+        final byte[] enhanceBytes = Arrays.copyOf(templateBytes, templateBytes.length);
+        try {
+            for (final int offset : intConstantOffsets(enhanceBytes)) {
+                final Integer id = ids.get(readInt(enhanceBytes, offset + 1));
+                if (null != id) {
+                    writeInt(enhanceBytes, offset + 1, id);
+                }
+            }
+        } catch (Throwable t) {
+            logger.debug("bind method id failed.", t);
+            return null;
+        }
+        return enhanceBytes;
+    }
+
+    /*
+     * 常量池中所有CONSTANT_Integer常量的位置
+     */
+    private static List<Integer> intConstantOffsets(byte[] bytes) {
+        if (readInt(bytes, 0) != CLASS_MAGIC) {
+            throw new IllegalArgumentException("illegal class magic");
+        }
+        final List<Integer> offsets = new ArrayList<Integer>();
+        final int count = readUnsignedShort(bytes, 8);
+        int offset = 10;
+        for (int index = 1; index < count; index++) {
+            final int tag = bytes[offset] & 0xFF;
+            switch (tag) {
+                case 1:
+                    // CONSTANT_Utf8
+                    offset += 3 + readUnsignedShort(bytes, offset + 1);
+                    break;
+                case 3:
+                    // CONSTANT_Integer
+                    offsets.add(offset);
+                    offset += 5;
+                    break;
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    offset += 5;
+                    break;
+                case 5:
+                case 6:
+                    // CONSTANT_Long/CONSTANT_Double占两项
+                    offset += 9;
+                    index++;
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    offset += 3;
+                    break;
+                case 15:
+                    offset += 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("illegal constant tag " + tag + " at " + offset);
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * 取出缓存的增强字节码,命中时刷新文件的修改时间<br/>
+     * 校验和不一致的文件已经损坏,删除后按未命中处理,随后编织的结果会重新写入
+     *
+     * @param key 缓存键
+     * @return 增强字节码,未命中时返回null
+     */
+    byte[] get(String key) {
+        final File file = new File(cacheDir, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            final byte[] bytes = toByteArray(is);
+            if (bytes.length < CHECKSUM_LENGTH + 4
+                    || readInt(bytes, 0) != checksum(bytes, CHECKSUM_LENGTH)
+                    || readInt(bytes, CHECKSUM_LENGTH) != CLASS_MAGIC) {
+                closeQuietly(is);
+                is = null;
+                file.delete();
+                logger.debug("weave cache {} is corrupted, deleted.", file);
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return Arrays.copyOfRange(bytes, CHECKSUM_LENGTH, bytes.length);
+        } catch (Throwable t) {
+            logger.debug("read weave cache {} failed.", file, t);
+            return null;
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
+    /**
+     * 放入增强字节码<br/>
+     * 先写入临时文件再改名,并行写入或者写入中途退出都不会留下残缺的缓存
+     *
+     * @param key          缓存键
+     * @param enhanceBytes 增强字节码
+     */
+    void put(String key, byte[] enhanceBytes) {
+        final File file = new File(cacheDir, key + SUFFIX);
+        if (file.exists()) {
+            return;
+        }
+        if (!cacheDir.mkdirs()
+                && !cacheDir.isDirectory()) {
+            logger.debug("create weave cache dir {} failed.", cacheDir);
+            return;
+        }
+
+        final File tmpFile = new File(cacheDir, key + "." + tmpSeq.incrementAndGet() + ".tmp");
+        FileOutputStream os = null;
+        try {
+            final byte[] checksumBytes = new byte[CHECKSUM_LENGTH];
+            writeInt(checksumBytes, 0, checksum(enhanceBytes, 0));
+            os = new FileOutputStream(tmpFile);
+            os.write(checksumBytes);
+            os.write(enhanceBytes);
+            os.close();
+            os = null;
+            if (!tmpFile.renameTo(file)) {
+                return;
+            }
+            if (dirSize.get() < 0) {
+                dirSize.compareAndSet(-1, sizeOfDir());
+            } else {
+                dirSize.addAndGet(CHECKSUM_LENGTH + enhanceBytes.length);
+            }
+            evictIfNecessary();
+        } catch (Throwable t) {
+            logger.debug("write weave cache {} failed.", file, t);
+        } finally {
+            closeQuietly(os);
+            tmpFile.delete();
+        }
+    }
+
+    /*
+     * 超过容量上限时按修改时间删除最早的缓存文件,删除到上限的3/4为止
+     */
+    private synchronized void evictIfNecessary() {
+        final long capacity = GlobalOptions.weaveCacheCapacity * 1024L * 1024L;
+        if (dirSize.get() <= capacity) {
+            return;
+        }
+
+        final File[] files = listCacheFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                final long m1 = o1.lastModified();
+                final long m2 = o2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+
+        long size = 0;
+        for (final File file : files) {
+            size += file.length();
+        }
+        for (final File file : files) {
+            if (size <= capacity / 4 * 3) {
+                break;
+            }
+            final long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+        dirSize.set(size);
+    }
+
+    private long sizeOfDir() {
+        long size = 0;
+        for (final File file : listCacheFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private File[] listCacheFiles() {
+        final File[] files = cacheDir.listFiles();
+        if (null == files) {
+            return new File[0];
+        }
+        int count = 0;
+        for (final File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private static int checksum(byte[] bytes, int offset) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, bytes.length - offset);
+        return (int) crc32.getValue();
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24)
+                | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8)
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8)
+                | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final char[] chars = new char[bytes.length * 2];
+        for (int index = 0; index < bytes.length; index++) {
+            chars[index * 2] = digits[(bytes[index] >> 4) & 0x0F];
+            chars[index * 2 + 1] = digits[bytes[index] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+}
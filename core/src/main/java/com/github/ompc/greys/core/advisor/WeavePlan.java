@@ -0,0 +1,64 @@
+package com.github.ompc.greys.core.advisor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.github.ompc.greys.core.util.GaReflectUtils.CLASS_NAME_COMPARATOR;
+
+/**
+ * 编织计划<br/>
+ * 记录切点所圈定的类以及每个类中需要织入的方法,方法以name+desc为键去重,
+ * 编织时按键直接定位,不再对类中的每个方法逐个匹配<br/>
+ * 类按类名、方法按name+desc排序,同样的切点总是以同样的顺序登记方法元数据,
+ * 使方法ID的分配与类的加载顺序无关
+ */
+final class WeavePlan {
+
+    // 类 -> (name+desc -> 方法)
+    private final Map<Class<?>, Map<String/*name+desc*/, AsmMethod>> classMethods
+            = new HashMap<Class<?>, Map<String, AsmMethod>>();
+
+    /**
+     * 将方法加入计划
+     *
+     * @param clazz 方法所声明的类
+     * @param name  方法名
+     * @param desc  方法描述
+     */
+    void add(Class<?> clazz, String name, String desc) {
+        Map<String, AsmMethod> asmMethods = classMethods.get(clazz);
+        if (null == asmMethods) {
+            classMethods.put(clazz, asmMethods = new TreeMap<String, AsmMethod>());
+        }
+        final String key = MethodMeta.toKey(name, desc);
+        if (!asmMethods.containsKey(key)) {
+            asmMethods.put(key, new AsmMethod(name, desc));
+        }
+    }
+
+    /**
+     * @return 计划中的类,按类名排列,同名的类按ClassLoader的名称排列
+     */
+    Collection<Class<?>> getClasses() {
+        final List<Class<?>> classes = new ArrayList<Class<?>>(classMethods.keySet());
+        Collections.sort(classes, CLASS_NAME_COMPARATOR);
+        return classes;
+    }
+
+    /**
+     * @param clazz 类
+     * @return 类中需要织入的方法
+     */
+    Collection<AsmMethod> getMethods(Class<?> clazz) {
+        final Map<String, AsmMethod> asmMethods = classMethods.get(clazz);
+        return null == asmMethods
+                ? Collections.<AsmMethod>emptyList()
+                : asmMethods.values();
+    }
+
+}
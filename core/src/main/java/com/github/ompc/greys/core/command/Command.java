@@ -1,6 +1,7 @@
 package com.github.ompc.greys.core.command;
 
 import com.github.ompc.greys.core.advisor.AdviceListener;
+import com.github.ompc.greys.core.advisor.Sampler;
 import com.github.ompc.greys.core.server.Session;
 import com.github.ompc.greys.core.util.PointCut;
 import com.github.ompc.greys.core.util.affect.RowAffect;
@@ -77,6 +78,20 @@ public interface Command {
 
     }
 
+    /**
+     * 支持采样的类增强
+     */
+    interface GetSamplingEnhancer extends GetEnhancer {
+
+        /**
+         * 获取采样器
+         *
+         * @return 采样器, 返回null则全量通知
+         */
+        Sampler getSampler();
+
+    }
+
 
     /**
      * 命令动作
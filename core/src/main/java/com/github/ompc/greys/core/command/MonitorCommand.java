@@ -3,12 +3,12 @@ package com.github.ompc.greys.core.command;
 
 import com.github.ompc.greys.core.advisor.AdviceListener;
 import com.github.ompc.greys.core.advisor.AdviceListenerAdapter;
+import com.github.ompc.greys.core.advisor.Sampler;
 import com.github.ompc.greys.core.command.annotation.Cmd;
 import com.github.ompc.greys.core.command.annotation.IndexArg;
 import com.github.ompc.greys.core.command.annotation.NamedArg;
 import com.github.ompc.greys.core.server.Session;
 import com.github.ompc.greys.core.textui.TTable;
-import com.github.ompc.greys.core.util.InvokeCost;
 import com.github.ompc.greys.core.util.PointCut;
 import com.github.ompc.greys.core.util.SimpleDateFormatHolder;
 import com.github.ompc.greys.core.util.matcher.ClassMatcher;
@@ -77,7 +77,8 @@ import static com.github.ompc.greys.core.util.GaCheckUtils.isEquals;
         eg = {
                 "monitor -c 5 -E org\\.apache\\.commons\\.lang\\.StringUtils *",
                 "monitor -c 5 org.apache.commons.lang.StringUtils is*",
-                "monitor *StringUtils isBlank"
+                "monitor *StringUtils isBlank",
+                "monitor --sample-rate 100 *StringUtils isBlank"
         })
 public class MonitorCommand implements Command {
 
@@ -93,6 +94,12 @@ public class MonitorCommand implements Command {
     @NamedArg(name = "E", summary = "Enable regular expression to match (wildcard matching by default)")
     private boolean isRegEx = false;
 
+    @NamedArg(name = "sample", hasValue = true, summary = "Sample one in every N invocations")
+    private Integer sampleCount;
+
+    @NamedArg(name = "sample-rate", hasValue = true, summary = "Sample at most N invocations per second")
+    private Integer sampleRate;
+
     /**
      * 数据监控用的Key
      *
@@ -134,6 +141,7 @@ public class MonitorCommand implements Command {
         private int total;
         private int success;
         private int failed;
+        // 耗时(纳秒)
         private long cost;
         private Long maxCost;
         private Long minCost;
@@ -146,7 +154,17 @@ public class MonitorCommand implements Command {
 
             @Override
             public GetEnhancer action(final Session session, Instrumentation inst, final Printer printer) throws Throwable {
-                return new GetEnhancer() {
+                // 统计需要根据采样计数还原调用次数,未指定采样时也使用全量采样器计数,开销超出预算被降级后倍率依然正确
+                final Sampler specifiedSampler = Sampler.newInstance(sampleCount, sampleRate);
+                final Sampler sampler = null == specifiedSampler
+                        ? Sampler.newCountingInstance()
+                        : specifiedSampler;
+                return new GetSamplingEnhancer() {
+
+                    @Override
+                    public Sampler getSampler() {
+                        return sampler;
+                    }
 
                     @Override
                     public PointCut getPointCut() {
@@ -172,6 +190,27 @@ public class MonitorCommand implements Command {
                             private final ConcurrentHashMap<Key, AtomicReference<Data>> monitorData
                                     = new ConcurrentHashMap<Key, AtomicReference<Data>>();
 
+                            /*
+                             * 上个统计周期结束时的采样器计数
+                             */
+                            private long lastInvokeCount;
+                            private long lastSampleCount;
+
+                            /*
+                             * 计算本统计周期的采样倍率,用于从采样数据还原调用次数
+                             */
+                            private double samplingScale() {
+                                if (null == sampler) {
+                                    return 1;
+                                }
+                                final long invokes = sampler.getInvokeCount();
+                                final long samples = sampler.getSampleCount();
+                                final double scale = div(invokes - lastInvokeCount, samples - lastSampleCount);
+                                lastInvokeCount = invokes;
+                                lastSampleCount = samples;
+                                return scale == 0 ? 1 : scale;
+                            }
+
                             private double div(double a, double b) {
                                 if (b == 0) {
                                     return 0;
@@ -204,6 +243,9 @@ public class MonitorCommand implements Command {
                                                         "MAX-RT(ms)"
                                                 );
 
+                                        // 开启采样时,调用次数按采样倍率还原,耗时仍为样本统计值
+                                        final double scale = samplingScale();
+
                                         for (Map.Entry<Key, AtomicReference<Data>> entry : monitorData.entrySet()) {
                                             final AtomicReference<Data> value = entry.getValue();
 
@@ -223,13 +265,13 @@ public class MonitorCommand implements Command {
                                                         SimpleDateFormatHolder.getInstance().format(new Date()),
                                                         entry.getKey().className,
                                                         entry.getKey().methodName,
-                                                        data.total,
-                                                        data.success,
-                                                        data.failed,
+                                                        Math.round(data.total * scale),
+                                                        Math.round(data.success * scale),
+                                                        Math.round(data.failed * scale),
                                                         df.format(100.0d * div(data.failed, data.total)) + "%",
-                                                        df.format(div(data.cost, data.total)),
-                                                        data.minCost,
-                                                        data.maxCost
+                                                        df.format(div(data.cost, data.total) / 1000000d),
+                                                        null == data.minCost ? null : df.format(data.minCost / 1000000d),
+                                                        null == data.maxCost ? null : df.format(data.maxCost / 1000000d)
                                                 );
 
                                             }
@@ -250,26 +292,24 @@ public class MonitorCommand implements Command {
                                 }
                             }
 
-                            private final InvokeCost invokeCost = new InvokeCost();
-
                             @Override
-                            public void before(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args) throws Throwable {
-                                invokeCost.begin();
+                            public int getCapabilities() {
+                                // 只统计调用次数和耗时,耗时由结束事件带回,不需要开始事件和任何数据
+                                return EVENT_RETURNING | EVENT_THROWING;
                             }
 
                             @Override
-                            public void afterReturning(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Object returnObject) throws Throwable {
-                                finishing(className, methodName, true);
+                            public void afterReturning(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Object returnObject, long cost) throws Throwable {
+                                finishing(className, methodName, true, cost);
                             }
 
                             @Override
-                            public void afterThrowing(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Throwable throwable) throws Throwable {
-                                finishing(className, methodName, false);
+                            public void afterThrowing(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Throwable throwable, long cost) throws Throwable {
+                                finishing(className, methodName, false, cost);
                             }
 
-                            public void finishing(String className, String methodName, boolean isSuccess) throws Throwable {
+                            public void finishing(String className, String methodName, boolean isSuccess, long cost) throws Throwable {
                                 final Key key = new Key(className, methodName);
-                                final long cost = invokeCost.cost();
 
                                 while (true) {
                                     final AtomicReference<Data> value = monitorData.get(key);
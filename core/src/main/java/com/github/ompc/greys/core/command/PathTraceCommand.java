@@ -15,9 +15,8 @@ import com.github.ompc.greys.core.server.Session;
 import com.github.ompc.greys.core.textui.TTree;
 import com.github.ompc.greys.core.textui.ext.TTimeFragmentTable;
 import com.github.ompc.greys.core.util.GaMethod;
-import com.github.ompc.greys.core.util.InvokeCost;
 import com.github.ompc.greys.core.util.PointCut;
-import com.github.ompc.greys.core.util.collection.ThreadUnsafeLRUHashMap;
+import com.github.ompc.greys.core.util.collection.ConcurrentClockHashMap;
 import com.github.ompc.greys.core.util.matcher.*;
 
 import java.lang.instrument.Instrumentation;
@@ -128,12 +127,12 @@ public class PathTraceCommand implements Command {
 
         final Matcher<String> classNameMatcher = new CachedMatcher<String>(
                 new PatternMatcher(isRegEx, classPattern),
-                new ThreadUnsafeLRUHashMap<String, Boolean>(GlobalOptions.ptraceClassMatcherLruCapacity)
+                new ConcurrentClockHashMap<String, Boolean>(GlobalOptions.ptraceClassMatcherLruCapacity)
         );
 
         final Matcher<String> methodNameMatcher = new CachedMatcher<String>(
                 new PatternMatcher(isRegEx, methodPattern),
-                new ThreadUnsafeLRUHashMap<String, Boolean>(GlobalOptions.ptraceMethodMatcherLruCapacity)
+                new ConcurrentClockHashMap<String, Boolean>(GlobalOptions.ptraceMethodMatcherLruCapacity)
         );
 
         final Matcher pathTracingMatcher = newPathTracingMatcher();
@@ -157,9 +156,6 @@ public class PathTraceCommand implements Command {
                     public AdviceListener getAdviceListener() {
                         return new ReflectAdviceListenerAdapter() {
 
-                            private final InvokeCost topInvokeCost = new InvokeCost();
-                            private final InvokeCost invokeCost = new InvokeCost();
-
                             private final ThreadLocal<PathTrace> pathTraceRef = new ThreadLocal<PathTrace>() {
                                 @Override
                                 protected PathTrace initialValue() {
@@ -196,8 +192,6 @@ public class PathTraceCommand implements Command {
                                     return;
                                 }
 
-                                invokeCost.begin();
-
                                 final PathTrace pathTrace = pathTraceRef.get();
                                 if (!pathTrace.isTracing) {
                                     if (isTracingEnter(advice.getClazz(), advice.getMethod())) {
@@ -214,11 +208,6 @@ public class PathTraceCommand implements Command {
                                     }
                                 });
 
-                                // top invoke
-                                if(entity.deep <= 0) {
-                                    topInvokeCost.begin();
-                                }
-
                                 entity.tTree.begin(advice.getClazz().getCanonicalName() + ":" + advice.getMethod().getName() + "()");
                                 entity.deep++;
                             }
@@ -231,8 +220,6 @@ public class PathTraceCommand implements Command {
                                     return;
                                 }
 
-                                final long cost = invokeCost.cost();
-
                                 final Entity entity = pathTrace.getEntity();
                                 entity.deep--;
 
@@ -250,7 +237,7 @@ public class PathTraceCommand implements Command {
                                             entity.processId,
                                             advice,
                                             new Date(),
-                                            cost,
+                                            advice.cost,
                                             getStack(getThreadInfo())
                                     );
                                     entity.tfTable.add(timeFragment);
@@ -261,12 +248,9 @@ public class PathTraceCommand implements Command {
 
                                 if (entity.deep <= 0) {
 
-                                    // top invoke cost
-                                    final long topCost = topInvokeCost.cost();
-
-                                    // 是否有匹配到条件
+                                    // 是否有匹配到条件,此时的通知点就是最外层的调用
                                     // 之所以在这里主要是需要照顾到上下文参数对齐
-                                    if (isInCondition(advice, topCost)) {
+                                    if (isInCondition(advice, advice.getCostMillis())) {
                                         // 输出打印内容
                                         if (isTimeTunnel) {
                                             printer.println(entity.tTree.rendering() + entity.tfTable.rendering());
@@ -293,7 +277,7 @@ public class PathTraceCommand implements Command {
                             }
 
                             // 匹配过滤规则
-                            private boolean isInCondition(Advice advice, long cost) {
+                            private boolean isInCondition(Advice advice, double cost) {
                                 try {
                                     return isBlank(conditionExpress)
                                             || newExpress(advice).bind("cost", cost).is(conditionExpress);
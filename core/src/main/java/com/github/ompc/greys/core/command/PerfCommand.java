@@ -0,0 +1,105 @@
+package com.github.ompc.greys.core.command;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.command.annotation.Cmd;
+import com.github.ompc.greys.core.command.annotation.NamedArg;
+import com.github.ompc.greys.core.server.Session;
+import com.github.ompc.greys.core.textui.TTable;
+import com.github.ompc.greys.core.util.perf.GaPerf;
+import com.github.ompc.greys.core.util.perf.PerfHistogram;
+
+import java.lang.instrument.Instrumentation;
+import java.util.Map;
+
+import static com.github.ompc.greys.core.textui.TTable.Align.LEFT;
+import static com.github.ompc.greys.core.textui.TTable.Align.RIGHT;
+import static java.lang.String.format;
+
+/**
+ * 查看Greys自身开销命令
+ */
+@Cmd(name = "perf", sort = 10, summary = "Display the overhead of greys itself",
+        eg = {
+                "perf",
+                "perf -r"
+        })
+public class PerfCommand implements Command {
+
+    @NamedArg(name = "r", summary = "Reset the counters after display")
+    private boolean isReset = false;
+
+    @Override
+    public Action getAction() {
+        return new SilentAction() {
+            @Override
+            public void action(Session session, Instrumentation inst, Printer printer) throws Throwable {
+
+                final TTable tTable = new TTable(new TTable.ColumnDefine[]{
+                        new TTable.ColumnDefine(RIGHT),
+                        new TTable.ColumnDefine(LEFT)
+                })
+                        .addRow("CATEGORY", "INFO")
+                        .padding(1);
+
+                // 监听器耗时只在设置了开销预算后注册的通知上统计
+                tTable.addRow("OVERHEAD-BUDGET", GlobalOptions.overheadBudget > 0
+                        ? GlobalOptions.overheadBudget + "%"
+                        : "unlimited, listener cost is not metered");
+                tTable.addRow("LISTENER", drawHistogram(GaPerf.getListeners()));
+                tTable.addRow("ADVICES", drawAdvices(GaPerf.getAdviceListeners()));
+                tTable.addRow("EXPRESS", drawHistogram(GaPerf.EXPRESS_EVAL));
+                tTable.addRow("WEAVE", drawHistogram(GaPerf.WEAVE));
+                tTable.addRow("WEAVE-CACHE", format("%d hits, %d misses",
+                        GaPerf.WEAVE_CACHE_HITS.sum(), GaPerf.WEAVE_CACHE_MISSES.sum()));
+                tTable.addRow("DROPPED-MESSAGES", format("%d dropped, %d discarded on unlock",
+                        GaPerf.DROPPED_MESSAGES.sum(), GaPerf.DISCARDED_MESSAGES.sum()));
+                tTable.addRow("CLASS-BYTES-CACHE", format("%d classes, %d KB",
+                        GaPerf.getClassBytesCacheSize(), GaPerf.getClassBytesCacheBytes() / 1024));
+
+                if (isReset) {
+                    GaPerf.reset();
+                }
+
+                printer.print(tTable.rendering()).finish();
+
+            }
+        };
+    }
+
+    private String drawHistogram(PerfHistogram histogram) {
+        return new TTable(new TTable.ColumnDefine[]{
+                new TTable.ColumnDefine(RIGHT),
+                new TTable.ColumnDefine(LEFT)
+        })
+                .addRow("COUNT", histogram.getCount())
+                .addRow("TOTAL(ms)", toMillis(histogram.getSum()))
+                .addRow("AVG(ms)", toMillis(histogram.getAvg()))
+                .addRow("P99(ms)", toMillis(histogram.getPercentile(99)))
+                .addRow("MAX(ms)", toMillis(histogram.getMax()))
+                .padding(1)
+                .rendering();
+    }
+
+    private String drawAdvices(Map<Integer, PerfHistogram> adviceHistograms) {
+        final TTable tTable = new TTable(6)
+                .addRow("ADVICE-ID", "COUNT", "TOTAL(ms)", "AVG(ms)", "P99(ms)", "MAX(ms)")
+                .padding(1);
+        for (final Map.Entry<Integer, PerfHistogram> entry : adviceHistograms.entrySet()) {
+            final PerfHistogram histogram = entry.getValue();
+            tTable.addRow(
+                    entry.getKey(),
+                    histogram.getCount(),
+                    toMillis(histogram.getSum()),
+                    toMillis(histogram.getAvg()),
+                    toMillis(histogram.getPercentile(99)),
+                    toMillis(histogram.getMax())
+            );
+        }
+        return tTable.rendering();
+    }
+
+    private static String toMillis(double nanos) {
+        return format("%.3f", nanos / 1000000);
+    }
+
+}
@@ -29,11 +29,18 @@ public class ResetCommand implements Command {
 
             @Override
             public RowAffect action(
-                    Session session,
+                    final Session session,
                     Instrumentation inst,
                     Printer printer) throws Throwable {
 
-                final EnhancerAffect enhancerAffect = Enhancer.reset(inst);
+                // 会话被放弃后不再继续还原剩余的类
+                final int lock = session.getLock();
+                final EnhancerAffect enhancerAffect = Enhancer.reset(inst, new Enhancer.Progress() {
+                    @Override
+                    public boolean progress(int transformed, int total) {
+                        return session.getLock() == lock;
+                    }
+                });
                 printer.print(EMPTY).finish();
                 return new RowAffect(enhancerAffect.cCnt());
             }
@@ -19,6 +19,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.lang.instrument.Instrumentation;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -66,8 +67,12 @@ public class SearchMethodCommand implements Command {
                 })
                         .addRow("DECLARED-CLASS", "VISIBLE-METHOD")
                         .padding(1);
-                for (Class<?> clazz : reflectManager.searchClassWithSubClass(classMatcher)) {
-                    renderingMethodSummary(tTable, clazz, affect);
+                final Map<Class<?>, Collection<GaMethod>> classGaMethods = reflectManager.searchClassGaMethods(
+                        reflectManager.searchClassWithSubClass(classMatcher),
+                        toGaMethodMatcher()
+                );
+                for (Map.Entry<Class<?>, Collection<GaMethod>> entry : classGaMethods.entrySet()) {
+                    renderingMethodSummary(tTable, entry.getKey(), entry.getValue(), affect);
                 }
 
                 printer.print(tTable.rendering()).finish();
@@ -96,11 +101,9 @@ public class SearchMethodCommand implements Command {
     /*
      * 渲染类方法摘要信息
      */
-    private void renderingMethodSummary(final TTable view, final Class<?> clazz, final RowAffect affect) {
+    private void renderingMethodSummary(final TTable view, final Class<?> clazz, final Collection<GaMethod> gaMethods, final RowAffect affect) {
 
         final TLadder classLadderView = new TLadder();
-        final GaMethodMatcher gaMethodMatcher = toGaMethodMatcher();
-        final Collection<GaMethod> gaMethods = reflectManager.searchClassGaMethods(clazz, gaMethodMatcher);
         final Set<Class<?>> uniqueSet = new HashSet<Class<?>>();
 
         classLadderView.addItem(clazz.getName());
@@ -8,7 +8,6 @@ import com.github.ompc.greys.core.command.annotation.IndexArg;
 import com.github.ompc.greys.core.command.annotation.NamedArg;
 import com.github.ompc.greys.core.exception.ExpressException;
 import com.github.ompc.greys.core.server.Session;
-import com.github.ompc.greys.core.util.InvokeCost;
 import com.github.ompc.greys.core.util.PointCut;
 import com.github.ompc.greys.core.util.matcher.ClassMatcher;
 import com.github.ompc.greys.core.util.matcher.GaMethodMatcher;
@@ -98,7 +97,6 @@ public class StackCommand implements Command {
                         return new ReflectAdviceListenerAdapter() {
 
                             private final ThreadLocal<String> stackInfoRef = new ThreadLocal<String>();
-                            private final InvokeCost invokeCost = new InvokeCost();
 
                             private String getTitle(final Advice advice) {
                                 final StringBuilder titleSB = new StringBuilder(getThreadInfo());
@@ -108,13 +106,20 @@ public class StackCommand implements Command {
                                 return titleSB.toString();
                             }
 
+                            @Override
+                            public int getCapabilities() {
+                                // 没有条件表达式时不需要目标对象、参数和返回值
+                                return isBlank(conditionExpress)
+                                        ? EVENT_ALL
+                                        : ALL;
+                            }
+
                             @Override
                             public void before(Advice advice) throws Throwable {
                                 stackInfoRef.set(getStack(getTitle(advice)));
-                                invokeCost.begin();
                             }
 
-                            private boolean isInCondition(Advice advice, long cost) {
+                            private boolean isInCondition(Advice advice, double cost) {
                                 try {
                                     return isBlank(conditionExpress)
                                             || newExpress(advice).bind("cost", cost).is(conditionExpress);
@@ -130,7 +135,7 @@ public class StackCommand implements Command {
 
                             @Override
                             public void afterFinishing(Advice advice) throws Throwable {
-                                if (isInCondition(advice, invokeCost.cost())) {
+                                if (isInCondition(advice, advice.getCostMillis())) {
                                     printer.println(stackInfoRef.get());
                                     if (isOverThreshold(times.incrementAndGet())) {
                                         printer.finish();
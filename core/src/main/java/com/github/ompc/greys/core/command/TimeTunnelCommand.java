@@ -4,6 +4,7 @@ import com.github.ompc.greys.core.Advice;
 import com.github.ompc.greys.core.TimeFragment;
 import com.github.ompc.greys.core.advisor.AdviceListener;
 import com.github.ompc.greys.core.advisor.ReflectAdviceListenerAdapter;
+import com.github.ompc.greys.core.advisor.Sampler;
 import com.github.ompc.greys.core.command.annotation.Cmd;
 import com.github.ompc.greys.core.command.annotation.IndexArg;
 import com.github.ompc.greys.core.command.annotation.NamedArg;
@@ -45,6 +46,7 @@ import static org.apache.commons.lang3.StringUtils.*;
         eg = {
                 "tt -t *StringUtils isTop",
                 "tt -t *StringUtils isTop params[0].length==1",
+                "tt -t --sample-rate 10 *StringUtils isTop",
                 "tt -l",
                 "tt -D",
                 "tt -i 1000 -w params[0]",
@@ -176,6 +178,12 @@ public class TimeTunnelCommand implements Command {
     @NamedArg(name = "n", hasValue = true, summary = "Threshold of execution times")
     private Integer threshold;
 
+    @NamedArg(name = "sample", hasValue = true, summary = "Sample one in every N invocations")
+    private Integer sampleCount;
+
+    @NamedArg(name = "sample-rate", hasValue = true, summary = "Sample at most N invocations per second")
+    private Integer sampleRate;
+
     /**
      * 检查参数是否合法
      */
@@ -220,7 +228,13 @@ public class TimeTunnelCommand implements Command {
         return new GetEnhancerAction() {
             @Override
             public GetEnhancer action(Session session, Instrumentation inst, final Printer printer) throws Throwable {
-                return new GetEnhancer() {
+                final Sampler sampler = Sampler.newInstance(sampleCount, sampleRate);
+                return new GetSamplingEnhancer() {
+
+                    @Override
+                    public Sampler getSampler() {
+                        return sampler;
+                    }
 
                     private final AtomicInteger timesRef = new AtomicInteger();
 
@@ -242,14 +256,12 @@ public class TimeTunnelCommand implements Command {
                              */
                             private volatile boolean isFirst = true;
 
-                            private final InvokeCost invokeCost = new InvokeCost();
-
                             private boolean isOverThreshold(int currentTimes) {
                                 return null != threshold
                                         && currentTimes >= threshold;
                             }
 
-                            private boolean isInCondition(final Advice advice, long cost) {
+                            private boolean isInCondition(final Advice advice, double cost) {
                                 try {
                                     return isBlank(conditionExpress)
                                             || newExpress(advice).bind("cost", cost).is(conditionExpress);
@@ -258,17 +270,10 @@ public class TimeTunnelCommand implements Command {
                                 }
                             }
 
-                            @Override
-                            public void before(Advice advice) throws Throwable {
-                                invokeCost.begin();
-                            }
-
                             @Override
                             public void afterFinishing(Advice advice) {
 
-                                final long cost = invokeCost.cost();
-
-                                if (!isInCondition(advice, cost)) {
+                                if (!isInCondition(advice, advice.getCostMillis())) {
                                     return;
                                 }
 
@@ -276,7 +281,7 @@ public class TimeTunnelCommand implements Command {
                                         timeFragmentManager.generateProcessId(),
                                         advice,
                                         new Date(),
-                                        cost,
+                                        advice.cost,
                                         getStack(getThreadInfo())
                                 );
 
@@ -441,70 +446,48 @@ public class TimeTunnelCommand implements Command {
                 final GaMethod method = advice.getMethod();
                 final boolean accessible = advice.getMethod().isAccessible();
 
-                final long beginTimestamp = System.currentTimeMillis();
-                final long cost;
-                Advice reAdvice = null;
+                Object returnObj = null;
+                Throwable cause = null;
 
                 // 注入时间片段id
                 PlayIndexHolder.getInstance().set(timeFragment.id);
 
+                final long beginNanos = System.nanoTime();
                 try {
                     method.setAccessible(true);
-                    final Object returnObj = method.invoke(advice.target, advice.params);
-                    reAdvice = newForAfterRetuning(
-                            advice.loader,
-                            new LazyGet<Class<?>>() {
-                                @Override
-                                protected Class<?> initialValue() throws Throwable {
-                                    return advice.getClazz();
-                                }
-                            },
-                            new LazyGet<GaMethod>() {
-                                @Override
-                                protected GaMethod initialValue() throws Throwable {
-                                    return advice.getMethod();
-                                }
-                            },
-                            advice.target,
-                            advice.params,
-                            returnObj
-                    );
+                    returnObj = method.invoke(advice.target, advice.params);
                 } catch (Throwable t) {
 
                     // 执行失败:输出失败异常信息
-                    final Throwable cause;
                     if (t instanceof InvocationTargetException) {
                         cause = t.getCause();
                     } else {
                         cause = t;
                     }
 
-                    reAdvice = newForAfterThrowing(
-                            advice.loader,
-                            new LazyGet<Class<?>>() {
-                                @Override
-                                protected Class<?> initialValue() throws Throwable {
-                                    return advice.getClazz();
-                                }
-                            },
-                            new LazyGet<GaMethod>() {
-                                @Override
-                                protected GaMethod initialValue() throws Throwable {
-                                    return advice.getMethod();
-                                }
-                            },
-                            advice.target,
-                            advice.params,
-                            cause
-                    );
-
                 } finally {
                     method.setAccessible(accessible);
-                    cost = System.currentTimeMillis() - beginTimestamp;
 
                     // 清除时间片段id
                     // PlayIndexHolder.getInstance().remove();
                 }
+                final long cost = System.nanoTime() - beginNanos;
+
+                final LazyGet<Class<?>> clazzRef = new LazyGet<Class<?>>() {
+                    @Override
+                    protected Class<?> initialValue() throws Throwable {
+                        return advice.getClazz();
+                    }
+                };
+                final LazyGet<GaMethod> methodRef = new LazyGet<GaMethod>() {
+                    @Override
+                    protected GaMethod initialValue() throws Throwable {
+                        return advice.getMethod();
+                    }
+                };
+                final Advice reAdvice = null == cause
+                        ? newForAfterRetuning(advice.loader, clazzRef, methodRef, advice.target, advice.params, returnObj, cost)
+                        : newForAfterThrowing(advice.loader, clazzRef, methodRef, advice.target, advice.params, cause, cost);
 
                 final TimeFragment reTimeFragment = new TimeFragment(
                         timeFragment.id,
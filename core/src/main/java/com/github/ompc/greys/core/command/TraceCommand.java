@@ -3,14 +3,15 @@ package com.github.ompc.greys.core.command;
 import com.github.ompc.greys.core.Advice;
 import com.github.ompc.greys.core.advisor.AdviceListener;
 import com.github.ompc.greys.core.advisor.ReflectAdviceTracingListenerAdapter;
+import com.github.ompc.greys.core.advisor.Sampler;
 import com.github.ompc.greys.core.command.annotation.Cmd;
 import com.github.ompc.greys.core.command.annotation.IndexArg;
 import com.github.ompc.greys.core.command.annotation.NamedArg;
 import com.github.ompc.greys.core.exception.ExpressException;
 import com.github.ompc.greys.core.server.Session;
 import com.github.ompc.greys.core.textui.TTree;
-import com.github.ompc.greys.core.util.InvokeCost;
 import com.github.ompc.greys.core.util.PointCut;
+import com.github.ompc.greys.core.util.TracingFilter;
 import com.github.ompc.greys.core.util.matcher.ClassMatcher;
 import com.github.ompc.greys.core.util.matcher.GaMethodMatcher;
 import com.github.ompc.greys.core.util.matcher.PatternMatcher;
@@ -35,6 +36,8 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
                 "trace *StringUtils isBlank params[0].length==1",
                 "trace *StringUtils isBlank '#cost>100'",
                 "trace -n 2 *StringUtils isBlank",
+                "trace --sample 100 *StringUtils isBlank",
+                "trace --skip-jdk --exclude-class *Logger *StringUtils isBlank",
         })
 public class TraceCommand implements Command {
 
@@ -74,6 +77,53 @@ public class TraceCommand implements Command {
     @NamedArg(name = "n", hasValue = true, summary = "Threshold of execution times")
     private Integer threshold;
 
+    @NamedArg(name = "sample", hasValue = true, summary = "Sample one in every N invocations")
+    private Integer sampleCount;
+
+    @NamedArg(name = "sample-rate", hasValue = true, summary = "Sample at most N invocations per second")
+    private Integer sampleRate;
+
+    @NamedArg(name = "include-class", hasValue = true, summary = "Only trace the invocations of matching classes")
+    private String includeClassPattern;
+
+    @NamedArg(name = "include-method", hasValue = true, summary = "Only trace the invocations of matching methods")
+    private String includeMethodPattern;
+
+    @NamedArg(name = "exclude-class", hasValue = true, summary = "Do not trace the invocations of matching classes")
+    private String excludeClassPattern;
+
+    @NamedArg(name = "exclude-method", hasValue = true, summary = "Do not trace the invocations of matching methods")
+    private String excludeMethodPattern;
+
+    @NamedArg(name = "skip-jdk", summary = "Do not trace the invocations of JDK classes (java.*, javax.*, sun.* ...)")
+    private boolean isSkipJdk = false;
+
+    /*
+     * 构造方法调用跟踪过滤,没有设置任何过滤条件时返回null
+     */
+    private TracingFilter toTracingFilter() {
+        if (null == includeClassPattern
+                && null == includeMethodPattern
+                && null == excludeClassPattern
+                && null == excludeMethodPattern
+                && !isSkipJdk) {
+            return null;
+        }
+        return new TracingFilter(
+                toPatternMatcher(includeClassPattern),
+                toPatternMatcher(includeMethodPattern),
+                toPatternMatcher(excludeClassPattern),
+                toPatternMatcher(excludeMethodPattern),
+                isSkipJdk
+        );
+    }
+
+    private PatternMatcher toPatternMatcher(String pattern) {
+        return null == pattern
+                ? null
+                : new PatternMatcher(isRegEx, pattern);
+    }
+
     @Override
     public Action getAction() {
 
@@ -81,7 +131,14 @@ public class TraceCommand implements Command {
 
             @Override
             public GetEnhancer action(Session session, Instrumentation inst, final Printer printer) throws Throwable {
-                return new GetEnhancer() {
+                final Sampler sampler = Sampler.newInstance(sampleCount, sampleRate);
+                final TracingFilter tracingFilter = toTracingFilter();
+                return new GetSamplingEnhancer() {
+
+                    @Override
+                    public Sampler getSampler() {
+                        return sampler;
+                    }
 
                     @Override
                     public PointCut getPointCut() {
@@ -94,7 +151,10 @@ public class TraceCommand implements Command {
                                 // GlobalOptions.isTracingSubClass
 
                                 // include sub class when tracing now
-                                true
+                                true,
+
+                                // 编织期过滤掉不需要跟踪的方法调用
+                                tracingFilter
                         );
                     }
 
@@ -103,7 +163,6 @@ public class TraceCommand implements Command {
                         return new ReflectAdviceTracingListenerAdapter() {
 
                             private final AtomicInteger timesRef = new AtomicInteger();
-                            private final InvokeCost invokeCost = new InvokeCost();
 
                             // thread local key-value 只有一个
                             private final ThreadLocal<Trace> traceRef = new ThreadLocal<Trace>();
@@ -162,7 +221,6 @@ public class TraceCommand implements Command {
                             @Override
                             public void before(Advice advice) throws Throwable {
 
-                                invokeCost.begin();
                                 traceRef.set(
                                         new Trace(
                                                 new TTree(true, getTitle(advice))
@@ -194,7 +252,7 @@ public class TraceCommand implements Command {
 
                             }
 
-                            private boolean isInCondition(Advice advice, long cost) {
+                            private boolean isInCondition(Advice advice, double cost) {
                                 try {
                                     return isBlank(conditionExpress)
                                             || newExpress(advice).bind("cost", cost).is(conditionExpress);
@@ -210,8 +268,7 @@ public class TraceCommand implements Command {
 
                             @Override
                             public void afterFinishing(Advice advice) throws Throwable {
-                                final long cost = invokeCost.cost();
-                                if (isInCondition(advice, cost)) {
+                                if (isInCondition(advice, advice.getCostMillis())) {
                                     final Trace trace = traceRef.get();
                                     printer.println(trace.tTree.rendering());
                                     if (isOverThreshold(timesRef.incrementAndGet())) {
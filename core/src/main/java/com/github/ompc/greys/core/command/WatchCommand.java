@@ -3,13 +3,13 @@ package com.github.ompc.greys.core.command;
 import com.github.ompc.greys.core.Advice;
 import com.github.ompc.greys.core.advisor.AdviceListener;
 import com.github.ompc.greys.core.advisor.ReflectAdviceListenerAdapter;
+import com.github.ompc.greys.core.advisor.Sampler;
 import com.github.ompc.greys.core.command.annotation.Cmd;
 import com.github.ompc.greys.core.command.annotation.IndexArg;
 import com.github.ompc.greys.core.command.annotation.NamedArg;
 import com.github.ompc.greys.core.exception.ExpressException;
 import com.github.ompc.greys.core.server.Session;
 import com.github.ompc.greys.core.textui.ext.TObject;
-import com.github.ompc.greys.core.util.InvokeCost;
 import com.github.ompc.greys.core.util.LogUtil;
 import com.github.ompc.greys.core.util.PointCut;
 import com.github.ompc.greys.core.util.matcher.ClassMatcher;
@@ -31,6 +31,7 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
                 "watch -f org.apache.commons.lang.StringUtils isBlank returnObj",
                 "watch -bf *StringUtils isBlank params[0]",
                 "watch *StringUtils isBlank params[0]",
+                "watch --sample 100 *StringUtils isBlank params[0]",
                 "watch *StringUtils isBlank params[0] 'params[0].length==1'",
                 "watch *StringUtils isBlank params[0] '#cost>100'",
         })
@@ -114,6 +115,12 @@ public class WatchCommand implements Command {
     @NamedArg(name = "n", hasValue = true, summary = "Threshold of execution times")
     private Integer threshold;
 
+    @NamedArg(name = "sample", hasValue = true, summary = "Sample one in every N invocations")
+    private Integer sampleCount;
+
+    @NamedArg(name = "sample-rate", hasValue = true, summary = "Sample at most N invocations per second")
+    private Integer sampleRate;
+
     @Override
     public Action getAction() {
 
@@ -130,7 +137,13 @@ public class WatchCommand implements Command {
 
             @Override
             public GetEnhancer action(Session session, Instrumentation inst, final Printer printer) throws Throwable {
-                return new GetEnhancer() {
+                final Sampler sampler = Sampler.newInstance(sampleCount, sampleRate);
+                return new GetSamplingEnhancer() {
+
+                    @Override
+                    public Sampler getSampler() {
+                        return sampler;
+                    }
 
                     private final AtomicInteger timesRef = new AtomicInteger();
 
@@ -147,11 +160,23 @@ public class WatchCommand implements Command {
 
                         return new ReflectAdviceListenerAdapter() {
 
-                            private final InvokeCost invokeCost = new InvokeCost();
+                            @Override
+                            public int getCapabilities() {
+                                int capabilities = DATA_ALL;
+                                if (isBefore) {
+                                    capabilities |= EVENT_BEFORE;
+                                }
+                                if (isSuccess || isFinish) {
+                                    capabilities |= EVENT_RETURNING;
+                                }
+                                if (isException || isFinish) {
+                                    capabilities |= EVENT_THROWING;
+                                }
+                                return capabilities;
+                            }
 
                             @Override
                             public void before(Advice advice) throws Throwable {
-                                invokeCost.begin();
                                 if (isBefore) {
                                     watching(advice);
                                 }
@@ -186,7 +211,7 @@ public class WatchCommand implements Command {
                             private boolean isInCondition(Advice advice) {
                                 try {
                                     return isBlank(conditionExpress)
-                                            || newExpress(advice).bind("cost", invokeCost.cost()).is(conditionExpress);
+                                            || newExpress(advice).bind("cost", advice.getCostMillis()).is(conditionExpress);
                                 } catch (ExpressException e) {
                                     return false;
                                 }
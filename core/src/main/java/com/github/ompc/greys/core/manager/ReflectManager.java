@@ -1,11 +1,13 @@
 package com.github.ompc.greys.core.manager;
 
 import com.github.ompc.greys.core.ClassDataSource;
+import com.github.ompc.greys.core.manager.impl.ClassIndex;
 import com.github.ompc.greys.core.manager.impl.DefaultReflectManager;
 import com.github.ompc.greys.core.util.GaMethod;
 import com.github.ompc.greys.core.util.matcher.Matcher;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * 反射操作管理类
@@ -46,15 +48,28 @@ public interface ReflectManager {
      */
     Collection<GaMethod> searchClassGaMethods(Class<?> targetClass, Matcher<GaMethod> gaMethodMatcher);
 
+    /**
+     * 搜索多个类的所有可见匹配方法
+     *
+     * @param targetClasses   目标类集合
+     * @param gaMethodMatcher 方法匹配
+     * @return 返回类与其匹配的方法集合,按照目标类集合的顺序排列
+     */
+    Map<Class<?>, Collection<GaMethod>> searchClassGaMethods(Collection<Class<?>> targetClasses, Matcher<GaMethod> gaMethodMatcher);
+
     class Factory {
 
         private volatile static ReflectManager instance = null;
 
         public static ReflectManager initInstance(final ClassDataSource classDataSource) {
+            return initInstance(classDataSource, new ClassIndex(classDataSource));
+        }
+
+        public static ReflectManager initInstance(final ClassDataSource classDataSource, final ClassIndex classIndex) {
             if (null == instance) {
                 synchronized (ReflectManager.class) {
                     if (null == instance) {
-                        instance = new DefaultReflectManager(classDataSource);
+                        instance = new DefaultReflectManager(classDataSource, classIndex);
                     }
                 }
             }
@@ -27,7 +27,7 @@ public interface TimeFragmentManager {
      * @param processId 过程ID
      * @param advice    通知数据
      * @param gmtCreate 记录时间戳
-     * @param cost      片段耗时
+     * @param cost      片段耗时(纳秒)
      * @param stack     片段堆栈
      * @return 时间片段
      */
@@ -0,0 +1,413 @@
+package com.github.ompc.greys.core.manager.impl;
+
+import com.github.ompc.greys.core.ClassDataSource;
+import com.github.ompc.greys.core.util.GaMethodCache;
+import com.github.ompc.greys.core.util.LogUtil;
+import org.slf4j.Logger;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 已加载类的索引<br/>
+ * 按照包名组织成树,按前缀查找时只需要访问前缀所在的子树;同时维护父类/接口到直接子类/实现类的继承图,
+ * 查找子类时只需要沿着继承图遍历;类以弱引用持有,不会阻止类被卸载<br/>
+ * 常驻的ClassFileTransformer只记录新定义的类名,查询时再按类名从ClassLoader已定义的类中找出并加入索引,
+ * 查询不会通过ClassLoader加载类;由于注册时不支持retransform,只会收到新定义和重新定义(redefine)的类<br/>
+ * 尚未定义完成的类留到下次查询时再找;不经过ClassFileTransformer的类(数组类、隐藏类)由后台线程定期的全量核对补齐,
+ * 没有观察者或积压过多时才在查询时全量核对
+ */
+public class ClassIndex implements ClassFileTransformer {
+
+    private final Logger logger = LogUtil.getLogger();
+
+    // 全量核对的最小间隔
+    private static final long RECONCILE_INTERVAL_MILLIS = 30 * 1000L;
+
+    // 积压的待解析类超过这个数量时放弃解析,查询时全量核对
+    private static final int PENDING_CAPACITY = 64 * 1024;
+
+    // ClassLoader.findLoadedClass(),不能访问时(bootstrap或java.lang未开放)退回到扫描ClassLoader已发起加载的类
+    private static final Method FIND_LOADED_CLASS_METHOD = getFindLoadedClassMethod();
+
+    private final ClassDataSource classDataSource;
+
+    // 包名树的根
+    private Node root;
+
+    // 父类/接口 -> 直接子类/实现类
+    private Map<Class<?>, Set<Class<?>>> subClassGraph;
+
+    // 类定义观察者所在的Instrumentation,没有观察者时每次查询都需要全量核对
+    private volatile Instrumentation inst;
+
+    // 定期全量核对的后台线程
+    private Timer reconcileTimer;
+
+    // 已定义但尚未加入索引的类
+    private final Queue<PendingClass> pendingClasses = new ConcurrentLinkedQueue<PendingClass>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // 是否有新定义的类因为积压过多而没有记录
+    private volatile boolean isPendingOverflow;
+
+    /*
+     * 包名树节点
+     */
+    private static class Node {
+
+        // 子包
+        private final Map<String, Node> children = new HashMap<String, Node>();
+
+        // 包中的类
+        private final Set<Class<?>> classes = Collections.newSetFromMap(new WeakHashMap<Class<?>, Boolean>());
+
+    }
+
+    /*
+     * 已定义但尚未解析的类
+     */
+    private static class PendingClass {
+
+        private final WeakReference<ClassLoader> loaderRef;
+        private final boolean isBootstrap;
+        private final String className;
+
+        PendingClass(ClassLoader loader, String className) {
+            this.loaderRef = new WeakReference<ClassLoader>(loader);
+            this.isBootstrap = null == loader;
+            this.className = className;
+        }
+
+    }
+
+    public ClassIndex(ClassDataSource classDataSource) {
+        this.classDataSource = classDataSource;
+    }
+
+    /**
+     * 注册为常驻的类定义观察者
+     *
+     * @param inst inst
+     */
+    public synchronized void observe(Instrumentation inst) {
+        inst.addTransformer(this);
+        this.inst = inst;
+        reconcileTimer = new Timer("greys-class-index-reconcile", true);
+        reconcileTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Throwable t) {
+                    logger.warn("class index reconcile failed.", t);
+                }
+            }
+        }, RECONCILE_INTERVAL_MILLIS, RECONCILE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * 注销类定义观察者
+     *
+     * @param inst inst
+     */
+    public synchronized void unObserve(Instrumentation inst) {
+        this.inst = null;
+        if (null != reconcileTimer) {
+            reconcileTimer.cancel();
+            reconcileTimer = null;
+        }
+        inst.removeTransformer(this);
+    }
+
+    /**
+     * 只记录新定义的类名,重新定义的类失效其方法元数据,不修改字节码
+     */
+    @Override
+    public byte[] transform(
+            ClassLoader loader,
+            String className,
+            Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain,
+            byte[] classfileBuffer) {
+        if (null != classBeingRedefined) {
+            GaMethodCache.invalidate(classBeingRedefined);
+        } else if (null != className) {
+            if (pendingCount.get() < PENDING_CAPACITY) {
+                pendingCount.incrementAndGet();
+                pendingClasses.offer(new PendingClass(loader, className));
+            } else {
+                isPendingOverflow = true;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找类名以指定前缀开头的类
+     *
+     * @param prefix 类名前缀,空字符串表示所有类
+     * @return 候选类集合
+     */
+    synchronized Collection<Class<?>> getClasses(String prefix) {
+        sync();
+
+        final List<Class<?>> classes = new ArrayList<Class<?>>();
+        final String[] segments = prefix.split("\\.", -1);
+        Node node = root;
+        for (int index = 0; index < segments.length - 1; index++) {
+            node = node.children.get(segments[index]);
+            if (null == node) {
+                return classes;
+            }
+        }
+
+        // 最后一段只是包名或类名的前缀
+        final String partial = segments[segments.length - 1];
+        for (final Class<?> clazz : node.classes) {
+            if (getSimpleName(clazz.getName()).startsWith(partial)) {
+                classes.add(clazz);
+            }
+        }
+        for (final Map.Entry<String, Node> entry : node.children.entrySet()) {
+            if (entry.getKey().startsWith(partial)) {
+                collect(entry.getValue(), classes);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * 查找目标类的所有子类(包括实现类和子接口),不包括目标类本身
+     *
+     * @param targetClass 目标类
+     * @return 子类集合
+     */
+    synchronized Collection<Class<?>> getSubClasses(Class<?> targetClass) {
+        sync();
+
+        // 所有类都是Object的子类;数组类型之间的协变关系不在继承图中
+        if (Object.class.equals(targetClass)
+                || targetClass.isArray()) {
+            final List<Class<?>> classes = new ArrayList<Class<?>>();
+            for (final Class<?> clazz : getClasses("")) {
+                if (!clazz.equals(targetClass)
+                        && targetClass.isAssignableFrom(clazz)) {
+                    classes.add(clazz);
+                }
+            }
+            return classes;
+        }
+
+        final Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+        final Queue<Class<?>> queue = new LinkedList<Class<?>>();
+        queue.offer(targetClass);
+        Class<?> clazz;
+        while (null != (clazz = queue.poll())) {
+            final Set<Class<?>> subClasses = subClassGraph.get(clazz);
+            if (null == subClasses) {
+                continue;
+            }
+            for (final Class<?> subClass : subClasses) {
+                if (classes.add(subClass)) {
+                    queue.offer(subClass);
+                }
+            }
+        }
+        return classes;
+    }
+
+    /*
+     * 将新定义的类加入索引,没有观察者或积压过多时全量核对
+     */
+    private void sync() {
+        final Instrumentation inst = this.inst;
+        if (null == root
+                || null == inst
+                || isPendingOverflow) {
+            reconcile();
+            return;
+        }
+
+        // 按ClassLoader分组,bootstrap以null为键
+        final Map<ClassLoader, List<PendingClass>> pendingGroups = new IdentityHashMap<ClassLoader, List<PendingClass>>();
+        PendingClass pending;
+        while (null != (pending = pendingClasses.poll())) {
+            pendingCount.decrementAndGet();
+            final ClassLoader loader = pending.loaderRef.get();
+            if (null == loader
+                    && !pending.isBootstrap) {
+                continue;
+            }
+            List<PendingClass> pendings = pendingGroups.get(loader);
+            if (null == pendings) {
+                pendingGroups.put(loader, pendings = new ArrayList<PendingClass>());
+            }
+            pendings.add(pending);
+        }
+
+        // 尚未定义完成的类重新排队,下次查询时再找,定义失败的类由全量核对清出队列
+        for (final Map.Entry<ClassLoader, List<PendingClass>> entry : pendingGroups.entrySet()) {
+            for (final PendingClass unresolved : resolve(inst, entry.getKey(), entry.getValue())) {
+                pendingCount.incrementAndGet();
+                pendingClasses.offer(unresolved);
+            }
+        }
+    }
+
+    /*
+     * 按类名从ClassLoader已定义的类中逐个找出待解析类,不会触发类的加载和初始化;
+     * 只有找不到的类才扫描ClassLoader已发起加载的类
+     */
+    private Collection<PendingClass> resolve(Instrumentation inst, ClassLoader loader, List<PendingClass> pendings) {
+        final Map<String, PendingClass> unresolved = new HashMap<String, PendingClass>();
+        for (final PendingClass pending : pendings) {
+            final String className = pending.className.replace('/', '.');
+            final Class<?> clazz = findLoadedClass(loader, className);
+            if (null != clazz) {
+                add(root, subClassGraph, clazz);
+            } else {
+                unresolved.put(className, pending);
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return unresolved.values();
+        }
+
+        for (final Class<?> clazz : inst.getInitiatedClasses(loader)) {
+            if (clazz.getClassLoader() == loader
+                    && null != unresolved.remove(clazz.getName())) {
+                add(root, subClassGraph, clazz);
+                if (unresolved.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        return unresolved.values();
+    }
+
+    /*
+     * 找出由ClassLoader定义的类,找不到或者不能访问时返回null
+     */
+    private static Class<?> findLoadedClass(ClassLoader loader, String className) {
+        if (null == loader
+                || null == FIND_LOADED_CLASS_METHOD) {
+            return null;
+        }
+        try {
+            final Class<?> clazz = (Class<?>) FIND_LOADED_CLASS_METHOD.invoke(loader, className);
+            return null != clazz
+                    && clazz.getClassLoader() == loader
+                    ? clazz
+                    : null;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static Method getFindLoadedClassMethod() {
+        try {
+            final Method method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+            method.setAccessible(true);
+            return method;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /*
+     * 是否能按类名直接找出已定义的类
+     */
+    static boolean isFindLoadedClassAccessible() {
+        return null != FIND_LOADED_CLASS_METHOD;
+    }
+
+    /*
+     * 以所有已加载的类重建索引
+     */
+    synchronized void reconcile() {
+        final long beginNanos = System.nanoTime();
+        isPendingOverflow = false;
+        int dropped = 0;
+        while (null != pendingClasses.poll()) {
+            pendingCount.decrementAndGet();
+            dropped++;
+        }
+
+        final Node newRoot = new Node();
+        final Map<Class<?>, Set<Class<?>>> newSubClassGraph = new WeakHashMap<Class<?>, Set<Class<?>>>();
+        int count = 0;
+        for (final Class<?> clazz : classDataSource.allLoadedClasses()) {
+            add(newRoot, newSubClassGraph, clazz);
+            count++;
+        }
+        root = newRoot;
+        subClassGraph = newSubClassGraph;
+        logger.debug("class index reconciled, classes={};dropped={};cost={}ms.",
+                count, dropped, (System.nanoTime() - beginNanos) / 1000000);
+    }
+
+    private static void add(Node root, Map<Class<?>, Set<Class<?>>> subClassGraph, Class<?> clazz) {
+        final String className = clazz.getName();
+        Node node = root;
+        int from = 0;
+        int to;
+        while ((to = className.indexOf('.', from)) >= 0) {
+            final String segment = className.substring(from, to);
+            Node child = node.children.get(segment);
+            if (null == child) {
+                node.children.put(segment, child = new Node());
+            }
+            node = child;
+            from = to + 1;
+        }
+        node.classes.add(clazz);
+
+        // 登记到父类和直接实现的接口之下
+        if (null != clazz.getSuperclass()) {
+            addSubClass(subClassGraph, clazz.getSuperclass(), clazz);
+        }
+        for (final Class<?> anInterface : clazz.getInterfaces()) {
+            addSubClass(subClassGraph, anInterface, clazz);
+        }
+    }
+
+    private static void addSubClass(Map<Class<?>, Set<Class<?>>> subClassGraph, Class<?> superClass, Class<?> subClass) {
+        Set<Class<?>> subClasses = subClassGraph.get(superClass);
+        if (null == subClasses) {
+            subClassGraph.put(superClass, subClasses = Collections.newSetFromMap(new WeakHashMap<Class<?>, Boolean>()));
+        }
+        subClasses.add(subClass);
+    }
+
+    private static void collect(Node node, List<Class<?>> classes) {
+        classes.addAll(node.classes);
+        for (final Node child : node.children.values()) {
+            collect(child, classes);
+        }
+    }
+
+    private static String getSimpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+}
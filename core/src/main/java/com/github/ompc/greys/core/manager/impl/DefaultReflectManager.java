@@ -3,21 +3,27 @@ package com.github.ompc.greys.core.manager.impl;
 import com.github.ompc.greys.core.ClassDataSource;
 import com.github.ompc.greys.core.GlobalOptions;
 import com.github.ompc.greys.core.manager.ReflectManager;
-import com.github.ompc.greys.core.util.GaCheckUtils;
 import com.github.ompc.greys.core.util.GaMethod;
+import com.github.ompc.greys.core.util.GaMethodCache;
 import com.github.ompc.greys.core.util.LogUtil;
 import com.github.ompc.greys.core.util.matcher.Matcher;
+import com.github.ompc.greys.core.util.matcher.PrefixMatcher;
 import org.slf4j.Logger;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 
-import static com.github.ompc.greys.core.util.GaReflectUtils.recGetSuperClass;
+import static com.github.ompc.greys.core.util.GaReflectUtils.CLASS_NAME_COMPARATOR;
 
 /**
  * 默认反射操作管理类实现
@@ -25,10 +31,30 @@ import static com.github.ompc.greys.core.util.GaReflectUtils.recGetSuperClass;
  */
 public class DefaultReflectManager implements ReflectManager {
 
+    // 候选类超过这个数量时才并行匹配类
+    private static final int PARALLEL_CLASS_THRESHOLD = 1024;
+
+    // 目标类超过这个数量时才并行搜索方法
+    private static final int PARALLEL_METHOD_THRESHOLD = 64;
+
+    // 并行任务拆分到这个粒度后在当前线程中逐个处理
+    private static final int CLASS_GRAIN = 256;
+    private static final int METHOD_GRAIN = 8;
+
+    // 并行匹配共用的fork-join池,按需创建,Greys关闭时销毁
+    private static ForkJoinPool matchPool;
+
     private Logger logger = LogUtil.getLogger();
     private final ClassDataSource classDataSource;
 
+    // 已加载类的索引
+    private final ClassIndex classIndex;
+
     public DefaultReflectManager(ClassDataSource classDataSource) {
+        this(classDataSource, new ClassIndex(classDataSource));
+    }
+
+    public DefaultReflectManager(ClassDataSource classDataSource, ClassIndex classIndex) {
         // 打印一次系统加载到的类
          Iterator iterator =  classDataSource.allLoadedClasses().iterator();
          while (iterator.hasNext()) {
@@ -36,29 +62,141 @@ public class DefaultReflectManager implements ReflectManager {
          }
 
         this.classDataSource = classDataSource;
+        this.classIndex = classIndex;
+    }
+
+    /*
+     * 按下标处理的动作
+     */
+    private interface IndexAction {
+
+        void action(int index);
+
+    }
+
+    /*
+     * 按下标区间二分拆解的并行任务
+     */
+    private static class RangeTask extends RecursiveAction {
+
+        private final IndexAction indexAction;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(IndexAction indexAction, int from, int to, int grain) {
+            this.indexAction = indexAction;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int index = from; index < to; index++) {
+                    indexAction.action(index);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(
+                    new RangeTask(indexAction, from, middle, grain),
+                    new RangeTask(indexAction, middle, to, grain)
+            );
+        }
+
+    }
+
+    /*
+     * 对[0,size)中的每个下标执行动作,数量达到阈值时在fork-join池中并行执行,否则在当前线程中顺序执行
+     * 每个下标的结果由动作写入各自的位置,合并时按照下标顺序,结果与执行顺序无关
+     */
+    private static void forEachIndex(int size, int threshold, int grain, IndexAction indexAction) {
+        final int parallelism = GlobalOptions.matchParallelism > 0
+                ? GlobalOptions.matchParallelism
+                : Runtime.getRuntime().availableProcessors();
+        if (parallelism <= 1
+                || size < threshold) {
+            for (int index = 0; index < size; index++) {
+                indexAction.action(index);
+            }
+            return;
+        }
+
+        getMatchPool(parallelism).invoke(new RangeTask(indexAction, 0, size, grain));
+    }
+
+    /*
+     * 获取并行匹配的fork-join池,并行度发生变化时重建
+     */
+    private static synchronized ForkJoinPool getMatchPool(int parallelism) {
+        if (null != matchPool
+                && matchPool.getParallelism() == parallelism) {
+            return matchPool;
+        }
+        if (null != matchPool) {
+            matchPool.shutdown();
+        }
+        return matchPool = new ForkJoinPool(
+                parallelism,
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("ga-match-daemon-" + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                null,
+                false
+        );
+    }
+
+    /**
+     * 销毁并行匹配的fork-join池
+     */
+    public static synchronized void shutdownMatchPool() {
+        if (null != matchPool) {
+            matchPool.shutdown();
+            matchPool = null;
+        }
     }
 
     @Override
     public Collection<Class<?>> searchClass(final Matcher<Class<?>> classMatcher) {
-        final Set<Class<?>> classSet = new LinkedHashSet<Class<?>>();
-        for (Class<?> clazz : classDataSource.allLoadedClasses()) {
-            if (classMatcher.matching(clazz)) {
-                classSet.add(clazz);
+
+        // 只在类名前缀所在的子树中匹配
+        final String prefix = classMatcher instanceof PrefixMatcher
+                ? ((PrefixMatcher<Class<?>>) classMatcher).getPrefix()
+                : "";
+        final Collection<Class<?>> candidates = classIndex.getClasses(prefix);
+        final Class<?>[] candidateArray = candidates.toArray(new Class<?>[candidates.size()]);
+        final boolean[] matchedArray = new boolean[candidateArray.length];
+        forEachIndex(candidateArray.length, PARALLEL_CLASS_THRESHOLD, CLASS_GRAIN, new IndexAction() {
+            @Override
+            public void action(int index) {
+                matchedArray[index] = classMatcher.matching(candidateArray[index]);
+            }
+        });
+
+        final List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (int index = 0; index < candidateArray.length; index++) {
+            if (matchedArray[index]) {
+                classes.add(candidateArray[index]);
             }
         }
-        return classSet;
+        Collections.sort(classes, CLASS_NAME_COMPARATOR);
+        return new LinkedHashSet<Class<?>>(classes);
     }
 
     @Override
     public Collection<Class<?>> searchSubClass(final Class<?> targetClass) {
-        final Set<Class<?>> classSet = new LinkedHashSet<Class<?>>();
-        for (Class<?> clazz : classDataSource.allLoadedClasses()) {
-            if (!clazz.equals(targetClass)
-                    && targetClass.isAssignableFrom(clazz)) {
-                classSet.add(clazz);
-            }
-        }
-        return classSet;
+        // 沿着继承图遍历,耗时只与子类的个数相关
+        final List<Class<?>> classes = new ArrayList<Class<?>>(classIndex.getSubClasses(targetClass));
+        Collections.sort(classes, CLASS_NAME_COMPARATOR);
+        return new LinkedHashSet<Class<?>>(classes);
     }
 
     @Override
@@ -70,7 +208,10 @@ public class DefaultReflectManager implements ReflectManager {
         for (Class<?> matchedClass : searchClass(classMatcher)) {
 
             // 首先添加自己
-            matchedClassSet.add(matchedClass);
+            // 已经作为其他匹配类的子类加入过的类,其子类也都已经加入
+            if (!matchedClassSet.add(matchedClass)) {
+                continue;
+            }
 
             if (!GlobalOptions.isDisableSubClass) {
                 // 继续搜索子类
@@ -82,100 +223,39 @@ public class DefaultReflectManager implements ReflectManager {
     }
 
 
-    /**
-     * 返回类中的所有可见方法<br/>
-     * 所谓可见方法的定义是开发在类中可以直接通过Java语法继承关系感知到的方法
-     *
-     * @param clazz 目标类
-     * @return 类的所有可见方法
-     */
-    private Set<Method> listVisualMethod(final Class<?> clazz) {
-        final Set<Method> methodSet = new LinkedHashSet<Method>();
-
-        // 首先查出当前类所声明的所有方法
-        final Method[] classDeclaredMethodArray = clazz.getDeclaredMethods();
-        if (null != classDeclaredMethodArray) {
-            for (Method declaredMethod : classDeclaredMethodArray) {
-                methodSet.add(declaredMethod);
-            }
-        }
-
-        // 查出当前类所有的父类
-        final Collection<Class<?>> superClassSet = recGetSuperClass(clazz);
-
-        // 查出所有父类的可见方法
-        for (Class<?> superClass : superClassSet) {
-            final Method[] superClassDeclaredMethodArray = superClass.getDeclaredMethods();
-            if (null != superClassDeclaredMethodArray) {
-                for (Method superClassDeclaredMethod : superClassDeclaredMethodArray) {
-
-                    final int modifier = superClassDeclaredMethod.getModifiers();
-
-                    // 私有方法可以过滤掉
-                    if (Modifier.isPrivate(modifier)) {
-                        continue;
-                    }
-
-                    // public & protected 这两种情况是可以通过继承可见
-                    // 所以放行
-                    else if (Modifier.isPublic(modifier)
-                            || Modifier.isProtected(modifier)) {
-                        methodSet.add(superClassDeclaredMethod);
-                    }
-
-                    // 剩下的情况只剩下默认, 默认的范围需要同包才能生效
-                    else if (null != clazz
-                            && null != superClassDeclaredMethod
-                            && null != superClassDeclaredMethod.getDeclaringClass()
-                            && GaCheckUtils.isEquals(clazz.getPackage(), superClassDeclaredMethod.getDeclaringClass().getPackage())) {
-                        methodSet.add(superClassDeclaredMethod);
-                    }
-
-                }
-            }
-        }
-
-        return methodSet;
-    }
-
-    /*
-     * 移除来自{@link java.lang.Object}的方法
-     */
-    private Collection<GaMethod> removeObjectMethods(final Collection<GaMethod> gaMethods) {
-        final Iterator<GaMethod> gaMethodIt = gaMethods.iterator();
-        while (gaMethodIt.hasNext()) {
-
-            final GaMethod gaMethod = gaMethodIt.next();
-            if (GaCheckUtils.isEquals(gaMethod.getDeclaringClass(), Object.class)) {
-                gaMethodIt.remove();
-            }
-
-        }
-
-        return gaMethods;
-    }
-
     @Override
     public Collection<GaMethod> searchClassGaMethods(Class<?> targetClass, Matcher<GaMethod> gaMethodMatcher) {
 
         final Set<GaMethod> gaMethodSet = new LinkedHashSet<GaMethod>();
 
-        for (final Method method : listVisualMethod(targetClass)) {
-            final GaMethod gaMethod = new GaMethod.MethodImpl(method);
+        // 类的可见方法缓存在类上,只需要逐个匹配
+        for (final GaMethod gaMethod : GaMethodCache.getVisibleMethods(targetClass)) {
             if (gaMethodMatcher.matching(gaMethod)) {
                 gaMethodSet.add(gaMethod);
             }
         }
 
-        // 因为构造函数不能继承,所以这里就不用像方法这么复杂的做可视化处理了
-        for (final Constructor<?> constructor : targetClass.getDeclaredConstructors()) {
-            final GaMethod gaMethod = new GaMethod.ConstructorImpl(constructor);
-            if (gaMethodMatcher.matching(gaMethod)) {
-                gaMethodSet.add(gaMethod);
+        return gaMethodSet;
+    }
+
+    @Override
+    public Map<Class<?>, Collection<GaMethod>> searchClassGaMethods(final Collection<Class<?>> targetClasses,
+                                                                    final Matcher<GaMethod> gaMethodMatcher) {
+        final Class<?>[] classArray = targetClasses.toArray(new Class<?>[targetClasses.size()]);
+        final List<Collection<GaMethod>> gaMethodsList = new ArrayList<Collection<GaMethod>>(
+                Collections.<Collection<GaMethod>>nCopies(classArray.length, null));
+        forEachIndex(classArray.length, PARALLEL_METHOD_THRESHOLD, METHOD_GRAIN, new IndexAction() {
+            @Override
+            public void action(int index) {
+                gaMethodsList.set(index, searchClassGaMethods(classArray[index], gaMethodMatcher));
             }
-        }
+        });
 
-        return removeObjectMethods(gaMethodSet);
+        final Map<Class<?>, Collection<GaMethod>> classGaMethods = new LinkedHashMap<Class<?>, Collection<GaMethod>>();
+        for (int index = 0; index < classArray.length; index++) {
+            classGaMethods.put(classArray[index], gaMethodsList.get(index));
+        }
+        return classGaMethods;
     }
 
 }
@@ -70,7 +70,7 @@ public class DefaultTimeFragmentManager implements TimeFragmentManager {
                     .newExpress(timeFragment.advice)
                     .bind("processId", timeFragment.processId)
                     .bind("index", timeFragment.id)
-                    .bind("cost", timeFragment.cost)
+                    .bind("cost", timeFragment.getCostMillis())
                     .is(express);
         } catch (ExpressException e) {
             return false;
@@ -1,12 +1,15 @@
 package com.github.ompc.greys.core.server;
 
+import com.github.ompc.greys.core.GlobalOptions;
 import com.github.ompc.greys.core.advisor.AdviceListener;
 import com.github.ompc.greys.core.advisor.AdviceWeaver;
 import com.github.ompc.greys.core.advisor.Enhancer;
 import com.github.ompc.greys.core.advisor.InvokeTraceable;
+import com.github.ompc.greys.core.advisor.OverheadGuard;
 import com.github.ompc.greys.core.command.Command;
 import com.github.ompc.greys.core.command.Command.Action;
 import com.github.ompc.greys.core.command.Command.GetEnhancerAction;
+import com.github.ompc.greys.core.command.Command.GetSamplingEnhancer;
 import com.github.ompc.greys.core.command.Command.Printer;
 import com.github.ompc.greys.core.command.Commands;
 import com.github.ompc.greys.core.command.QuitCommand;
@@ -20,6 +23,7 @@ import com.github.ompc.greys.core.util.LogUtil;
 import com.github.ompc.greys.core.util.affect.Affect;
 import com.github.ompc.greys.core.util.affect.EnhancerAffect;
 import com.github.ompc.greys.core.util.affect.RowAffect;
+import com.github.ompc.greys.core.util.perf.GaPerf;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
@@ -161,6 +165,7 @@ public class DefaultCommandHandler implements CommandHandler {
                 final BlockingQueue<String> writeQueue = session.getWriteQueue();
                 if (null != message) {
                     if (!writeQueue.offer(message)) {
+                        GaPerf.DROPPED_MESSAGES.increment();
                         logger.warn("offer message failed. write-queue.size() was {}", writeQueue.size());
                     }
                 }
@@ -236,13 +241,22 @@ public class DefaultCommandHandler implements CommandHandler {
                         inst,
                         lock,
                         listener instanceof InvokeTraceable,
-                        getEnhancer.getPointCut()
+                        AdviceWeaver.getCapabilities(listener),
+                        getEnhancer.getPointCut(),
+                        newProgress(session, lock)
                 );
 
                 // 这里做个补偿,如果在enhance期间,unLock被调用了,则补偿性放弃
                 if (session.getLock() == lock) {
                     // 注册通知监听器
-                    AdviceWeaver.reg(lock, listener);
+                    AdviceWeaver.reg(
+                            lock,
+                            listener,
+                            getEnhancer instanceof GetSamplingEnhancer
+                                    ? ((GetSamplingEnhancer) getEnhancer).getSampler()
+                                    : null,
+                            newOverheadHandler(session, printer)
+                    );
 
                     if (!session.isSilent()) {
                         printer.println(ABORT_MSG);
@@ -252,6 +266,15 @@ public class DefaultCommandHandler implements CommandHandler {
                     ((EnhancerAffect) affect).mCnt(enhancerAffect.mCnt());
                     ((EnhancerAffect) affect).getClassDumpFiles().addAll(enhancerAffect.getClassDumpFiles());
                 }
+
+                // 会话已放弃,丢弃本次增强所登记的方法
+                // 解锁发生在增强开始之前时,解锁时的还原已经落空,需要再次还原
+                else {
+                    AdviceWeaver.unReg(lock);
+                    if (GlobalOptions.isAutoReset) {
+                        Enhancer.resetLater(inst, lock);
+                    }
+                }
             }
 
             // 其他自定义动作
@@ -277,6 +300,70 @@ public class DefaultCommandHandler implements CommandHandler {
 
     }
 
+    /*
+     * 分批重新转换的进度直接输出到会话,会话解锁(放弃)后不再继续剩余的批次
+     * 此时命令还没有进入输出循环,由执行命令的线程直接写网络
+     */
+    private Enhancer.Progress newProgress(final Session session, final int lock) {
+        return new Enhancer.Progress() {
+
+            // 只有分成多个批次时才输出进度
+            private boolean isReporting = false;
+
+            @Override
+            public boolean progress(int transformed, int total) {
+                if (session.getLock() != lock) {
+                    return false;
+                }
+                if (session.isSilent()
+                        || (!isReporting && transformed >= total)) {
+                    return true;
+                }
+                isReporting = true;
+                try {
+                    write(session.getSocketChannel(),
+                            format("\rReTransforming classes %d/%d (%d%%)%s", transformed, total, transformed * 100 / total, transformed >= total ? "\n" : ""),
+                            session.getCharset());
+                } catch (IOException e) {
+                    logger.debug("session[{}] write progress failed.", session.getSessionId(), e);
+                }
+                return true;
+            }
+
+        };
+    }
+
+    /*
+     * 通知开销超出预算时,把处理过程反馈给会话
+     * 卸载时在后台只还原本次通知所独占的增强,然后结束命令
+     */
+    private OverheadGuard.Handler newOverheadHandler(final Session session, final Printer printer) {
+        return new OverheadGuard.Handler() {
+
+            @Override
+            public void onDegrade(int adviceId, double percent, int sampleCount) {
+                if (session.getLock() == adviceId) {
+                    printer.println(format("Advice overhead %.2f%% exceeded budget %d%%, degraded to sampling 1/%d.",
+                            percent, GlobalOptions.overheadBudget, sampleCount));
+                }
+            }
+
+            @Override
+            public void onDetach(int adviceId, double percent) {
+                if (session.getLock() != adviceId) {
+                    return;
+                }
+
+                // 还原需要持有Enhancer的锁并重新转换类,交给后台还原线程,不阻塞守护线程
+                Enhancer.resetLater(inst, adviceId);
+                printer.println(format("Advice overhead %.2f%% still exceeded budget %d%%, detached and resetting in background.",
+                        percent, GlobalOptions.overheadBudget));
+                printer.finish();
+            }
+
+        };
+    }
+
     private void jobRunning(Session session, AtomicBoolean isFinishRef) throws IOException, GaExecuteException {
 
         final Thread currentThread = Thread.currentThread();
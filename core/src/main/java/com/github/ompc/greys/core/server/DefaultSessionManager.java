@@ -4,6 +4,7 @@ import com.github.ompc.greys.core.util.LogUtil;
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.lang.instrument.Instrumentation;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
@@ -34,7 +35,10 @@ public class DefaultSessionManager implements SessionManager {
 
     private final AtomicBoolean isDestroyRef = new AtomicBoolean(false);
 
-    public DefaultSessionManager() {
+    private final Instrumentation inst;
+
+    public DefaultSessionManager(Instrumentation inst) {
+        this.inst = inst;
         activeSessionExpireDaemon();
     }
 
@@ -46,7 +50,7 @@ public class DefaultSessionManager implements SessionManager {
     @Override
     public Session newSession(int javaPid, SocketChannel socketChannel, Charset charset) {
         final int sessionId = sessionIndexSequence.getAndIncrement();
-        final Session session = new Session(javaPid, sessionId, DEFAULT_SESSION_DURATION, socketChannel, charset) {
+        final Session session = new Session(javaPid, sessionId, DEFAULT_SESSION_DURATION, socketChannel, charset, inst) {
             @Override
             public void destroy() {
                 super.destroy();
@@ -4,8 +4,12 @@ import com.github.ompc.greys.core.ClassDataSource;
 import com.github.ompc.greys.core.Configure;
 import com.github.ompc.greys.core.manager.ReflectManager;
 import com.github.ompc.greys.core.manager.TimeFragmentManager;
+import com.github.ompc.greys.core.manager.impl.ClassIndex;
+import com.github.ompc.greys.core.manager.impl.DefaultReflectManager;
 import com.github.ompc.greys.core.util.GaCheckUtils;
+import com.github.ompc.greys.core.util.GaMethodCache;
 import com.github.ompc.greys.core.util.LogUtil;
+import com.github.ompc.greys.core.util.perf.GaPerf;
 import org.slf4j.Logger;
 
 import java.io.IOException;
@@ -118,6 +122,11 @@ public class GaServer {
     private final SessionManager sessionManager;
     private final CommandHandler commandHandler;
     private final int javaPid;
+    private final Instrumentation inst;
+
+    // 已加载类的索引,由常驻的类定义观察者增量维护
+    private ClassIndex classIndex;
+
     private final Thread jvmShutdownHooker = new Thread("ga-shutdown-hooker") {
 
         @Override
@@ -137,7 +146,8 @@ public class GaServer {
 
     private GaServer(int javaPid, Instrumentation inst) {
         this.javaPid = javaPid;
-        this.sessionManager = new DefaultSessionManager();
+        this.inst = inst;
+        this.sessionManager = new DefaultSessionManager(inst);
         this.commandHandler = new DefaultCommandHandler(this, inst);
 
         // 加载所有的系统类
@@ -155,7 +165,7 @@ public class GaServer {
 
         // 这句话的意思：把jvm加载的所有类交给反射管理器管理。
         // 那么反射管理器是干嘛用的呢？
-        ReflectManager.Factory.initInstance(new ClassDataSource() {
+        final ClassDataSource classDataSource = new ClassDataSource() {
             @Override
             public Collection<Class<?>> allLoadedClasses() {
                 // inst 获取pid jvm加载的全部类
@@ -164,7 +174,10 @@ public class GaServer {
                         ? new ArrayList<Class<?>>()
                         : Arrays.asList(classArray);
             }
-        });
+        };
+        classIndex = new ClassIndex(classDataSource);
+        ReflectManager.Factory.initInstance(classDataSource, classIndex);
+        classIndex.observe(inst);
     }
 
     /**
@@ -216,6 +229,9 @@ public class GaServer {
 
             activeSelectorDaemon(selector, configure);
 
+            // 暴露自身开销统计
+            GaPerf.regMBean();
+
         } catch (IOException e) {
             unbind();
             throw e;
@@ -463,6 +479,17 @@ public class GaServer {
 
         executorService.shutdown();
 
+        // 常驻的类定义观察者持有GreysClassLoader,必须注销
+        classIndex.unObserve(inst);
+
+        // 方法元数据挂在目标类上,同样持有GreysClassLoader
+        GaMethodCache.clear();
+
+        // 并行匹配的工作线程
+        DefaultReflectManager.shutdownMatchPool();
+
+        GaPerf.unRegMBean();
+
         logger.info("ga-server destroy completed.");
     }
 
@@ -2,9 +2,12 @@ package com.github.ompc.greys.core.server;
 
 import com.github.ompc.greys.core.GlobalOptions;
 import com.github.ompc.greys.core.advisor.AdviceWeaver;
+import com.github.ompc.greys.core.advisor.Enhancer;
 import com.github.ompc.greys.core.util.LogUtil;
+import com.github.ompc.greys.core.util.perf.GaPerf;
 import org.slf4j.Logger;
 
+import java.lang.instrument.Instrumentation;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.util.concurrent.BlockingQueue;
@@ -36,6 +39,7 @@ public class Session {
     private final int sessionId;
     private final long sessionDuration;
     private final SocketChannel socketChannel;
+    private final Instrumentation inst;
     private Charset charset;
 
     // 是否会话静默,静默的会话不输出提示符,LOGO,同时也会影响一些命令的输出
@@ -64,12 +68,14 @@ public class Session {
      * @param sessionDuration 会话持续时间(单位毫秒)
      * @param socketChannel   socket
      * @param charset         会话字符集
+     * @param inst            inst
      */
-    Session(int javaPid, int sessionId, long sessionDuration, SocketChannel socketChannel, Charset charset) {
+    Session(int javaPid, int sessionId, long sessionDuration, SocketChannel socketChannel, Charset charset, Instrumentation inst) {
         this.javaPid = javaPid;
         this.sessionId = sessionId;
         this.sessionDuration = sessionDuration;
         this.socketChannel = socketChannel;
+        this.inst = inst;
         this.charset = charset;
         this.gmtLastTouch = currentTimeMillis();
     }
@@ -128,11 +134,18 @@ public class Session {
             throw new IllegalStateException();
         }
 
-        // 解锁的时候需要清理输出队列
+        // 解锁的时候需要清理输出队列,尚未输出的消息单独计数,与写队列已满而丢弃的消息区分开
+        final int discarded = writeQueue.size();
         writeQueue.clear();
+        GaPerf.DISCARDED_MESSAGES.add(discarded);
 
         // 取消监听注册
         AdviceWeaver.unReg(currentLockTx);
+
+        // 后台还原本次命令所增强的类
+        if (GlobalOptions.isAutoReset) {
+            Enhancer.resetLater(inst, currentLockTx);
+        }
     }
 
     /**
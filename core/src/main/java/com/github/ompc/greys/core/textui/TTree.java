@@ -7,7 +7,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
-import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
 import static org.apache.commons.lang3.StringUtils.EMPTY;
 import static org.apache.commons.lang3.StringUtils.repeat;
 
@@ -59,7 +59,7 @@ public class TTree implements TComponent {
                 }
                 if (isPrintCost
                         && !node.isRoot()) {
-                    final String costPrefix = String.format("[%s,%sms]", (node.endTimestamp - root.beginTimestamp), (node.endTimestamp - node.beginTimestamp));
+                    final String costPrefix = String.format("[%.3f,%.3fms]", toMillis(node.endTimestamp - root.beginTimestamp), toMillis(node.endTimestamp - node.beginTimestamp));
                     costPrefixLength = StringUtils.length(costPrefix);
                     treeSB.append(costPrefix);
                 }
@@ -92,6 +92,10 @@ public class TTree implements TComponent {
         return treeSB.toString();
     }
 
+    private static double toMillis(long nanos) {
+        return nanos / 1000000d;
+    }
+
     /**
      * 递归遍历
      */
@@ -184,12 +188,12 @@ public class TTree implements TComponent {
         final List<Node> children = new ArrayList<Node>();
 
         /**
-         * 开始时间戳
+         * 开始时间戳(纳秒)
          */
         private long beginTimestamp;
 
         /**
-         * 结束时间戳
+         * 结束时间戳(纳秒)
          */
         private long endTimestamp;
 
@@ -232,12 +236,12 @@ public class TTree implements TComponent {
         }
 
         Node markBegin() {
-            beginTimestamp = currentTimeMillis();
+            beginTimestamp = nanoTime();
             return this;
         }
 
         Node markEnd() {
-            endTimestamp = currentTimeMillis();
+            endTimestamp = nanoTime();
             return this;
         }
 
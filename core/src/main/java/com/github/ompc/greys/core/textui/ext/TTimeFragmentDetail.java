@@ -16,6 +16,7 @@ import java.lang.instrument.Instrumentation;
 
 import static com.github.ompc.greys.core.textui.TTable.Align.LEFT;
 import static com.github.ompc.greys.core.textui.TTable.Align.RIGHT;
+import static java.lang.String.format;
 
 /**
  * 时间碎片详情展示
@@ -57,7 +58,7 @@ public class TTimeFragmentDetail implements TComponent {
                 .addRow("INDEX", timeFragment.id)
                 .addRow("PROCESS-ID", timeFragment.processId)
                 .addRow("GMT-CREATE", SimpleDateFormatHolder.getInstance().format(timeFragment.gmtCreate))
-                .addRow("COST(ms)", timeFragment.cost)
+                .addRow("COST(ms)", format("%.3f", timeFragment.getCostMillis()))
                 .addRow("OBJECT", GaStringUtils.hashCodeToHexString(advice.target))
                 .addRow("CLASS", className)
                 .addRow("METHOD", methodName)
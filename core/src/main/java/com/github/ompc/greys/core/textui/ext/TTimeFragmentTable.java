@@ -7,6 +7,7 @@ import com.github.ompc.greys.core.textui.TTable;
 import com.github.ompc.greys.core.util.SimpleDateFormatHolder;
 
 import static com.github.ompc.greys.core.util.GaStringUtils.hashCodeToHexString;
+import static java.lang.String.format;
 import static org.apache.commons.lang3.StringUtils.substringAfterLast;
 
 /**
@@ -95,7 +96,7 @@ public class TTimeFragmentTable implements TComponent {
                 timeFragment.id,
                 timeFragment.processId,
                 SimpleDateFormatHolder.getInstance().format(timeFragment.gmtCreate),
-                timeFragment.cost,
+                format("%.3f", timeFragment.getCostMillis()),
                 advice.isReturn,
                 advice.isThrow,
                 hashCodeToHexString(advice.target),
@@ -1,6 +1,7 @@
 package com.github.ompc.greys.core.util;
 
 import com.github.ompc.greys.core.exception.ExpressException;
+import com.github.ompc.greys.core.util.perf.GaPerf;
 import ognl.DefaultMemberAccess;
 import ognl.Ognl;
 import ognl.OgnlContext;
@@ -86,11 +87,14 @@ public interface Express {
 
         @Override
         public Object get(String express) throws ExpressException {
+            final long beginNanos = System.nanoTime();
             try {
                 context.setMemberAccess(new DefaultMemberAccess(true));
                 return Ognl.getValue(express, context, bindObject);
             } catch (Exception e) {
                 throw new ExpressException(express, e);
+            } finally {
+                GaPerf.EXPRESS_EVAL.record(System.nanoTime() - beginNanos);
             }
         }
 
@@ -0,0 +1,209 @@
+package com.github.ompc.greys.core.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static com.github.ompc.greys.core.util.GaReflectUtils.recGetSuperClass;
+
+/**
+ * 类的方法元数据缓存<br/>
+ * 缓存类的可见方法与构造函数,以及按name+desc索引的本类声明方法,搜索方法和通知回调时不再重复反射<br/>
+ * 元数据通过{@link ClassValue}挂在类自身上,读取时无锁,类被卸载时随类一起回收;
+ * 类被重新定义后元数据可能变化,需要主动失效;Greys关闭时清空,避免目标类持有GreysClassLoader
+ */
+public final class GaMethodCache {
+
+    // 已缓存元数据的类,清空时逐个移除
+    private static final Set<Class<?>> cachedClasses = Collections.newSetFromMap(new WeakHashMap<Class<?>, Boolean>());
+
+    private static final ClassValue<ClassMethods> classMethodsValue = new ClassValue<ClassMethods>() {
+        @Override
+        protected ClassMethods computeValue(Class<?> type) {
+            synchronized (cachedClasses) {
+                cachedClasses.add(type);
+            }
+            return new ClassMethods(type);
+        }
+    };
+
+    /*
+     * 一个类的方法元数据,按需构建
+     */
+    private static class ClassMethods {
+
+        private final Class<?> clazz;
+
+        // 可见方法与构造函数
+        private volatile List<GaMethod> visibleMethods;
+
+        // name -> (desc -> 本类声明的方法与构造函数)
+        private volatile Map<String, Map<String, GaMethod>> declaredMethods;
+
+        ClassMethods(Class<?> clazz) {
+            this.clazz = clazz;
+        }
+
+        List<GaMethod> getVisibleMethods() {
+            List<GaMethod> methods = visibleMethods;
+            if (null == methods) {
+                visibleMethods = methods = Collections.unmodifiableList(listVisibleGaMethod(clazz));
+            }
+            return methods;
+        }
+
+        GaMethod getDeclaredMethod(String name, String desc) {
+            Map<String, Map<String, GaMethod>> methods = declaredMethods;
+            if (null == methods) {
+                methods = new HashMap<String, Map<String, GaMethod>>();
+                for (final Method method : clazz.getDeclaredMethods()) {
+                    put(methods, new GaMethod.MethodImpl(method));
+                }
+                for (final Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                    put(methods, new GaMethod.ConstructorImpl(constructor));
+                }
+                declaredMethods = methods;
+            }
+            final Map<String, GaMethod> descMethods = methods.get(name);
+            return null == descMethods
+                    ? null
+                    : descMethods.get(desc);
+        }
+
+        private static void put(Map<String, Map<String, GaMethod>> methods, GaMethod gaMethod) {
+            Map<String, GaMethod> descMethods = methods.get(gaMethod.getName());
+            if (null == descMethods) {
+                methods.put(gaMethod.getName(), descMethods = new HashMap<String, GaMethod>(4));
+            }
+            descMethods.put(gaMethod.getDesc(), gaMethod);
+        }
+
+    }
+
+    private GaMethodCache() {
+    }
+
+    /**
+     * 获取类的所有可见方法以及构造函数,不包括来自{@link Object}的方法<br/>
+     * 所谓可见方法的定义是开发在类中可以直接通过Java语法继承关系感知到的方法
+     *
+     * @param clazz 目标类
+     * @return 类的所有可见方法以及构造函数,不可修改
+     */
+    public static List<GaMethod> getVisibleMethods(Class<?> clazz) {
+        return classMethodsValue.get(clazz).getVisibleMethods();
+    }
+
+    /**
+     * 获取类所声明的方法或构造函数
+     *
+     * @param clazz 目标类
+     * @param name  方法名,构造函数为&lt;init&gt;
+     * @param desc  方法描述
+     * @return 方法,找不到时返回null
+     */
+    public static GaMethod getDeclaredMethod(Class<?> clazz, String name, String desc) {
+        return classMethodsValue.get(clazz).getDeclaredMethod(name, desc);
+    }
+
+    /**
+     * 失效类的方法元数据
+     *
+     * @param clazz 被重新定义的类
+     */
+    public static void invalidate(Class<?> clazz) {
+        classMethodsValue.remove(clazz);
+    }
+
+    /**
+     * 清空所有类的方法元数据
+     */
+    public static void clear() {
+        final List<Class<?>> classes;
+        synchronized (cachedClasses) {
+            classes = new ArrayList<Class<?>>(cachedClasses);
+            cachedClasses.clear();
+        }
+        for (final Class<?> clazz : classes) {
+            classMethodsValue.remove(clazz);
+        }
+    }
+
+    /*
+     * 列出类的可见方法以及构造函数,移除来自Object的方法
+     */
+    private static List<GaMethod> listVisibleGaMethod(final Class<?> clazz) {
+        final List<GaMethod> gaMethods = new ArrayList<GaMethod>();
+        for (final Method method : listVisualMethod(clazz)) {
+            if (!GaCheckUtils.isEquals(method.getDeclaringClass(), Object.class)) {
+                gaMethods.add(new GaMethod.MethodImpl(method));
+            }
+        }
+
+        // 因为构造函数不能继承,所以这里就不用像方法这么复杂的做可视化处理了
+        for (final Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+            if (!GaCheckUtils.isEquals(constructor.getDeclaringClass(), Object.class)) {
+                gaMethods.add(new GaMethod.ConstructorImpl(constructor));
+            }
+        }
+        return gaMethods;
+    }
+
+    /*
+     * 返回类中的所有可见方法
+     */
+    private static Set<Method> listVisualMethod(final Class<?> clazz) {
+        final Set<Method> methodSet = new LinkedHashSet<Method>();
+
+        // 首先查出当前类所声明的所有方法
+        final Method[] classDeclaredMethodArray = clazz.getDeclaredMethods();
+        if (null != classDeclaredMethodArray) {
+            Collections.addAll(methodSet, classDeclaredMethodArray);
+        }
+
+        // 查出当前类所有的父类
+        final Collection<Class<?>> superClassSet = recGetSuperClass(clazz);
+
+        // 查出所有父类的可见方法
+        for (Class<?> superClass : superClassSet) {
+            final Method[] superClassDeclaredMethodArray = superClass.getDeclaredMethods();
+            if (null != superClassDeclaredMethodArray) {
+                for (Method superClassDeclaredMethod : superClassDeclaredMethodArray) {
+
+                    final int modifier = superClassDeclaredMethod.getModifiers();
+
+                    // 私有方法可以过滤掉
+                    if (Modifier.isPrivate(modifier)) {
+                        continue;
+                    }
+
+                    // public & protected 这两种情况是可以通过继承可见
+                    // 所以放行
+                    else if (Modifier.isPublic(modifier)
+                            || Modifier.isProtected(modifier)) {
+                        methodSet.add(superClassDeclaredMethod);
+                    }
+
+                    // 剩下的情况只剩下默认, 默认的范围需要同包才能生效
+                    else if (null != superClassDeclaredMethod.getDeclaringClass()
+                            && GaCheckUtils.isEquals(clazz.getPackage(), superClassDeclaredMethod.getDeclaringClass().getPackage())) {
+                        methodSet.add(superClassDeclaredMethod);
+                    }
+
+                }
+            }
+        }
+
+        return methodSet;
+    }
+
+}
@@ -3,6 +3,7 @@ package com.github.ompc.greys.core.util;
 import java.lang.reflect.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -205,6 +206,19 @@ public class GaReflectUtils {
 
     }
 
+    /**
+     * 按类名排序的比较器,同名的类按ClassLoader的名称排序
+     */
+    public static final Comparator<Class<?>> CLASS_NAME_COMPARATOR = new Comparator<Class<?>>() {
+        @Override
+        public int compare(Class<?> o1, Class<?> o2) {
+            final int result = o1.getName().compareTo(o2.getName());
+            return 0 != result
+                    ? result
+                    : String.valueOf(o1.getClassLoader()).compareTo(String.valueOf(o2.getClassLoader()));
+        }
+    };
+
 
     /**
      * 计算ClassType
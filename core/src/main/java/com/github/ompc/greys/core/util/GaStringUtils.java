@@ -159,6 +159,16 @@ public class GaStringUtils {
         return t.getMessage();
     }
 
+    /**
+     * 获取Greys版本
+     *
+     * @return 版本号
+     * @throws IOException resource not found.
+     */
+    public static String getVersion() throws IOException {
+        return IOUtils.toString(GaStringUtils.class.getResourceAsStream("/com/github/ompc/greys/core/res/version"));
+    }
+
     /**
      * 展示logo<br/>
      * 这个代码不忍直视，忍吧，不要问我怎么写出来的
@@ -168,7 +178,7 @@ public class GaStringUtils {
      */
     public static String getLogo() throws IOException {
         final String logo = IOUtils.toString(GaStringUtils.class.getResourceAsStream("/com/github/ompc/greys/core/res/logo.txt"));
-        final String version = IOUtils.toString(GaStringUtils.class.getResourceAsStream("/com/github/ompc/greys/core/res/version"));
+        final String version = getVersion();
 
         final char[] versionPrefixArray = "version:".toCharArray();
         final String[] versionArray = StringUtils.split(version, '.');
@@ -17,6 +17,9 @@ public class PointCut {
     // 匹配是否包含子类
     private final boolean isIncludeSubClass;
 
+    // 方法调用跟踪过滤
+    private final TracingFilter tracingFilter;
+
     /**
      * 构造切入点
      *
@@ -35,9 +38,22 @@ public class PointCut {
      * @param isIncludeSubClass 类匹配是否包含子类
      */
     public PointCut(Matcher<Class<?>> classMatcher, Matcher<GaMethod> gaMethodMatcher, boolean isIncludeSubClass) {
+        this(classMatcher, gaMethodMatcher, isIncludeSubClass, null);
+    }
+
+    /**
+     * 构造切入点
+     *
+     * @param classMatcher      类匹配
+     * @param gaMethodMatcher   方法匹配
+     * @param isIncludeSubClass 类匹配是否包含子类
+     * @param tracingFilter     方法调用跟踪过滤,为null则跟踪所有调用
+     */
+    public PointCut(Matcher<Class<?>> classMatcher, Matcher<GaMethod> gaMethodMatcher, boolean isIncludeSubClass, TracingFilter tracingFilter) {
         this.classMatcher = classMatcher;
         this.gaMethodMatcher = gaMethodMatcher;
         this.isIncludeSubClass = isIncludeSubClass;
+        this.tracingFilter = tracingFilter;
     }
 
     public Matcher<Class<?>> getClassMatcher() {
@@ -51,4 +67,8 @@ public class PointCut {
     public boolean isIncludeSubClass() {
         return isIncludeSubClass;
     }
+
+    public TracingFilter getTracingFilter() {
+        return tracingFilter;
+    }
 }
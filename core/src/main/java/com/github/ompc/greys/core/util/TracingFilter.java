@@ -0,0 +1,92 @@
+package com.github.ompc.greys.core.util;
+
+import com.github.ompc.greys.core.util.matcher.Matcher;
+
+/**
+ * 方法调用跟踪过滤<br/>
+ * 在编织期决定被跟踪方法内部的哪些方法调用需要织入跟踪代码,被过滤掉的调用点不会产生任何运行期开销
+ */
+public class TracingFilter {
+
+    // JDK自带类的包前缀(内部类名格式)
+    private static final String[] JDK_PACKAGE_PREFIXES = {
+            "java/",
+            "javax/",
+            "sun/",
+            "com/sun/",
+            "jdk/"
+    };
+
+    // 包含的调用类/方法,为null则不限制
+    private final Matcher<String> includeClassMatcher;
+    private final Matcher<String> includeMethodMatcher;
+
+    // 排除的调用类/方法,为null则不排除
+    private final Matcher<String> excludeClassMatcher;
+    private final Matcher<String> excludeMethodMatcher;
+
+    // 是否跳过JDK自带类的方法调用
+    private final boolean isSkipJdk;
+
+    /**
+     * 构造方法调用跟踪过滤<br/>
+     * 类匹配与方法匹配同时设置时,两者都匹配才算命中
+     *
+     * @param includeClassMatcher  包含的调用类匹配
+     * @param includeMethodMatcher 包含的调用方法名匹配
+     * @param excludeClassMatcher  排除的调用类匹配
+     * @param excludeMethodMatcher 排除的调用方法名匹配
+     * @param isSkipJdk            是否跳过JDK自带类的方法调用
+     */
+    public TracingFilter(Matcher<String> includeClassMatcher,
+                         Matcher<String> includeMethodMatcher,
+                         Matcher<String> excludeClassMatcher,
+                         Matcher<String> excludeMethodMatcher,
+                         boolean isSkipJdk) {
+        this.includeClassMatcher = includeClassMatcher;
+        this.includeMethodMatcher = includeMethodMatcher;
+        this.excludeClassMatcher = excludeClassMatcher;
+        this.excludeMethodMatcher = excludeMethodMatcher;
+        this.isSkipJdk = isSkipJdk;
+    }
+
+    /**
+     * 判断方法调用是否需要跟踪
+     *
+     * @param owner 调用类名(内部类名格式)
+     * @param name  调用方法名
+     * @return true:需要跟踪;false:不跟踪
+     */
+    public boolean isTracing(String owner, String name) {
+
+        if (isSkipJdk
+                && isJdkClass(owner)) {
+            return false;
+        }
+
+        final String className = owner.replace('/', '.');
+
+        if ((null != includeClassMatcher || null != includeMethodMatcher)
+                && !matching(includeClassMatcher, includeMethodMatcher, className, name)) {
+            return false;
+        }
+
+        return (null == excludeClassMatcher && null == excludeMethodMatcher)
+                || !matching(excludeClassMatcher, excludeMethodMatcher, className, name);
+    }
+
+    private static boolean matching(Matcher<String> classMatcher, Matcher<String> methodMatcher, String className, String name) {
+        return (null == classMatcher || classMatcher.matching(className))
+                && (null == methodMatcher || methodMatcher.matching(name));
+    }
+
+    private static boolean isJdkClass(String owner) {
+        for (final String prefix : JDK_PACKAGE_PREFIXES) {
+            if (owner.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -23,6 +23,16 @@ public final class EnhancerAffect extends Affect {
      */
     private final Collection<File> classDumpFiles = new ArrayList<File>();
 
+    /*
+     * 分批重新转换的每个批次
+     */
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+    /*
+     * 是否中途放弃
+     */
+    private volatile boolean isAborted = false;
+
     public EnhancerAffect() {
 
     }
@@ -79,6 +89,59 @@ public final class EnhancerAffect extends Affect {
         return classDumpFiles;
     }
 
+    /**
+     * 记录一个重新转换的批次
+     *
+     * @param cc   批次中的类个数
+     * @param cost 批次耗时(纳秒)
+     */
+    public void chunk(int cc, long cost) {
+        chunks.add(new Chunk(cc, cost));
+    }
+
+    /**
+     * 获取重新转换的批次
+     *
+     * @return 批次集合
+     */
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * 标记中途放弃
+     */
+    public void abort() {
+        isAborted = true;
+    }
+
+    /**
+     * 是否中途放弃
+     *
+     * @return true:中途放弃
+     */
+    public boolean isAborted() {
+        return isAborted;
+    }
+
+    /**
+     * 重新转换的批次
+     */
+    public static final class Chunk {
+
+        // 类个数
+        public final int cCnt;
+
+        // 耗时(纳秒)
+        public final long cost;
+
+        Chunk(int cCnt, long cost) {
+            this.cCnt = cCnt;
+            this.cost = cost;
+        }
+
+    }
+
     @Override
     public String toString() {
         final StringBuilder infoSB = new StringBuilder();
@@ -89,10 +152,26 @@ public final class EnhancerAffect extends Affect {
                 infoSB.append("[dump: ").append(classDumpFile.getAbsoluteFile()).append("]\n");
             }
         }
-        infoSB.append(format("Affect(class-cnt:%d , method-cnt:%d) cost in %s ms.",
-                cCnt(),
-                mCnt(),
-                cost()));
+        if (isAborted) {
+            infoSB.append("Aborted. ");
+        }
+        if (chunks.size() > 1) {
+            long maxChunkCost = 0;
+            for (Chunk chunk : chunks) {
+                maxChunkCost = Math.max(maxChunkCost, chunk.cost);
+            }
+            infoSB.append(format("Affect(class-cnt:%d , method-cnt:%d , chunk-cnt:%d , max-chunk-cost:%.3f ms) cost in %s ms.",
+                    cCnt(),
+                    mCnt(),
+                    chunks.size(),
+                    maxChunkCost / 1000000d,
+                    cost()));
+        } else {
+            infoSB.append(format("Affect(class-cnt:%d , method-cnt:%d) cost in %s ms.",
+                    cCnt(),
+                    mCnt(),
+                    cost()));
+        }
         return infoSB.toString();
     }
 
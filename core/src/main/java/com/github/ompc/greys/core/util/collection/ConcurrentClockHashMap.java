@@ -0,0 +1,228 @@
+package com.github.ompc.greys.core.util.collection;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 线程安全的定长缓存HashMap<br/>
+ * 按key的hash分成多个段,写入时只锁住key所在的段;读取不加锁,命中时只打上访问标记<br/>
+ * 段满时按CLOCK算法淘汰:时钟指针扫过的缓存项如有访问标记则清除标记放过一次,否则淘汰,
+ * 近似于LRU而读取时不需要调整访问顺序<br/>
+ * 不支持null键
+ */
+public class ConcurrentClockHashMap<K, V> extends AbstractMap<K, V> {
+
+    // 默认分段数
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+
+    /**
+     * @param capacity 缓存容量,总量不超过容量
+     */
+    public ConcurrentClockHashMap(int capacity) {
+        this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param capacity         缓存容量,总量不超过容量
+     * @param concurrencyLevel 预计并发写入的线程数,决定分段数
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentClockHashMap(int capacity, int concurrencyLevel) {
+        final int fixCapacity = Math.max(1, capacity);
+        int segmentCount = 1;
+        while (segmentCount << 1 <= Math.min(concurrencyLevel, fixCapacity)) {
+            segmentCount <<= 1;
+        }
+
+        // 容量按段均分,余数分给前面的段;key在段间的分布不均匀时,总量会略低于容量
+        this.segments = new Segment[segmentCount];
+        for (int index = 0; index < segmentCount; index++) {
+            segments[index] = new Segment<K, V>(fixCapacity / segmentCount + (index < fixCapacity % segmentCount ? 1 : 0));
+        }
+        this.segmentMask = segmentCount - 1;
+    }
+
+    /*
+     * 缓存项
+     */
+    private static class Node<K, V> {
+
+        private final K key;
+        private volatile V value;
+
+        // 访问标记
+        private volatile boolean isReferenced;
+
+        // 在时钟环中的位置,只在段锁内访问
+        private int slot;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+    }
+
+    /*
+     * 缓存段
+     */
+    private static class Segment<K, V> {
+
+        private final ConcurrentHashMap<K, Node<K, V>> nodes;
+
+        // 时钟环,[0,count)中保存段内所有缓存项
+        private final Node<K, V>[] ring;
+        private int count;
+
+        // 时钟指针
+        private int hand;
+
+        @SuppressWarnings("unchecked")
+        Segment(int capacity) {
+            this.nodes = new ConcurrentHashMap<K, Node<K, V>>(capacity);
+            this.ring = new Node[capacity];
+        }
+
+        V get(Object key) {
+            final Node<K, V> node = nodes.get(key);
+            if (null == node) {
+                return null;
+            }
+
+            // 已经标记过的不再重复写,减少多个线程对同一缓存项的写竞争
+            if (!node.isReferenced) {
+                node.isReferenced = true;
+            }
+            return node.value;
+        }
+
+        synchronized V put(K key, V value) {
+            final Node<K, V> exist = nodes.get(key);
+            if (null != exist) {
+                final V oldValue = exist.value;
+                exist.value = value;
+                exist.isReferenced = true;
+                return oldValue;
+            }
+
+            final Node<K, V> node = new Node<K, V>(key, value);
+            if (count < ring.length) {
+                node.slot = count++;
+            } else {
+                node.slot = evict();
+            }
+            ring[node.slot] = node;
+            nodes.put(key, node);
+            return null;
+        }
+
+        /*
+         * 转动时钟指针,淘汰第一个没有访问标记的缓存项,返回其空出的位置
+         */
+        private int evict() {
+            while (true) {
+                final Node<K, V> node = ring[hand];
+                final int slot = hand;
+                hand = (hand + 1) % count;
+                if (node.isReferenced) {
+                    node.isReferenced = false;
+                } else {
+                    nodes.remove(node.key);
+                    return slot;
+                }
+            }
+        }
+
+        synchronized V remove(Object key) {
+            final Node<K, V> node = nodes.remove(key);
+            if (null == node) {
+                return null;
+            }
+
+            // 以环中最后一项填补空出的位置
+            final Node<K, V> last = ring[--count];
+            ring[node.slot] = last;
+            last.slot = node.slot;
+            ring[count] = null;
+            if (hand >= count) {
+                hand = 0;
+            }
+            return node.value;
+        }
+
+        synchronized void clear() {
+            nodes.clear();
+            Arrays.fill(ring, null);
+            count = 0;
+            hand = 0;
+        }
+
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return segments[hash & segmentMask];
+    }
+
+    @Override
+    public V get(Object key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return segmentFor(key).nodes.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return segmentFor(key).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (final Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final Segment<K, V> segment : segments) {
+            size += segment.nodes.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return 当前缓存项的快照,不可修改
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        final Map<K, V> snapshot = new LinkedHashMap<K, V>();
+        for (final Segment<K, V> segment : segments) {
+            for (final Node<K, V> node : segment.nodes.values()) {
+                snapshot.put(node.key, node.value);
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+}
@@ -3,10 +3,11 @@ package com.github.ompc.greys.core.util.matcher;
 import java.util.Map;
 
 /**
- * 带缓存的匹配
+ * 带缓存的匹配<br/>
+ * 多线程并发匹配时缓存需要是线程安全的,参考{@link com.github.ompc.greys.core.util.collection.ConcurrentClockHashMap}
  * Created by oldmanpushcart@gmail.com on 15/12/12.
  */
-public class CachedMatcher<T> implements Matcher<T> {
+public class CachedMatcher<T> implements PrefixMatcher<T> {
 
     private final Matcher<T> matcher;
     private final Map<T, Boolean> cachedMap;
@@ -19,6 +20,11 @@ public class CachedMatcher<T> implements Matcher<T> {
     @Override
     public boolean matching(T target) {
 
+        // 匿名类等没有规范名称的目标不进入缓存
+        if (null == target) {
+            return matcher.matching(null);
+        }
+
         final Boolean valueInCache = cachedMap.get(target);
         if (null == valueInCache) {
             final boolean value = matcher.matching(target);
@@ -30,4 +36,11 @@ public class CachedMatcher<T> implements Matcher<T> {
 
     }
 
+    @Override
+    public String getPrefix() {
+        return matcher instanceof PrefixMatcher
+                ? ((PrefixMatcher<T>) matcher).getPrefix()
+                : "";
+    }
+
 }
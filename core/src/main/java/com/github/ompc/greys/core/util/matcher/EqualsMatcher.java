@@ -6,7 +6,7 @@ import com.github.ompc.greys.core.util.GaCheckUtils;
  * 相等比对
  * Created by oldmanpushcart@gmail.com on 15/12/12.
  */
-public class EqualsMatcher<T> implements Matcher<T> {
+public class EqualsMatcher<T> implements PrefixMatcher<T> {
 
     private final T source;
 
@@ -19,4 +19,11 @@ public class EqualsMatcher<T> implements Matcher<T> {
         return GaCheckUtils.isEquals(source, target);
     }
 
+    @Override
+    public String getPrefix() {
+        return source instanceof String
+                ? (String) source
+                : "";
+    }
+
 }
@@ -4,11 +4,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 
+import static org.apache.commons.lang3.StringUtils.getCommonPrefix;
+
 /**
  * 组匹配
  * Created by vlinux on 15/11/1.
  */
-public interface GroupMatcher<T> extends Matcher<T> {
+public interface GroupMatcher<T> extends PrefixMatcher<T> {
 
     /**
      * 追加匹配器
@@ -50,6 +52,23 @@ public interface GroupMatcher<T> extends Matcher<T> {
         public void add(Matcher<T> matcher) {
             matchers.add(matcher);
         }
+
+        /**
+         * 目标必须同时以每一个匹配器的前缀开头,取最长的前缀
+         */
+        @Override
+        public String getPrefix() {
+            String prefix = "";
+            for (Matcher<T> matcher : matchers) {
+                if (matcher instanceof PrefixMatcher) {
+                    final String matcherPrefix = ((PrefixMatcher<T>) matcher).getPrefix();
+                    if (matcherPrefix.length() > prefix.length()) {
+                        prefix = matcherPrefix;
+                    }
+                }
+            }
+            return prefix;
+        }
     }
 
     /**
@@ -93,6 +112,24 @@ public interface GroupMatcher<T> extends Matcher<T> {
         public void add(Matcher<T> matcher) {
             matchers.add(matcher);
         }
+
+        /**
+         * 目标只需要以任一匹配器的前缀开头,取所有前缀的公共部分
+         */
+        @Override
+        public String getPrefix() {
+            String prefix = null;
+            for (Matcher<T> matcher : matchers) {
+                if (!(matcher instanceof PrefixMatcher)) {
+                    return "";
+                }
+                final String matcherPrefix = ((PrefixMatcher<T>) matcher).getPrefix();
+                prefix = null == prefix
+                        ? matcherPrefix
+                        : getCommonPrefix(prefix, matcherPrefix);
+            }
+            return null == prefix ? "" : prefix;
+        }
     }
 
 }
@@ -1,10 +1,15 @@
 package com.github.ompc.greys.core.util.matcher;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
 /**
  * 模版匹配
  * Created by oldmanpushcart@gmail.com on 15/10/31.
  */
-public class PatternMatcher implements Matcher<String> {
+public class PatternMatcher implements PrefixMatcher<String> {
 
     /**
      * 匹配策略
@@ -31,6 +36,9 @@ public class PatternMatcher implements Matcher<String> {
     // 匹配器
     private final Matcher<String> matcher;
 
+    // 匹配前缀
+    private final String prefix;
+
     /**
      * 正则/通配符匹配切换构造函数<br/>
      * 这个构造函数的出现主要是迎合Command中的使用需要
@@ -52,14 +60,17 @@ public class PatternMatcher implements Matcher<String> {
         switch (strategy) {
             case WILDCARD: {
                 this.matcher = new WildcardMatcher(pattern);
+                this.prefix = toWildcardPrefix(pattern);
                 break;
             }
             case REGEX: {
                 this.matcher = new RegexMatcher(pattern);
+                this.prefix = toRegexPrefix(pattern);
                 break;
             }
             case EQUALS: {
                 this.matcher = new EqualsMatcher<String>(pattern);
+                this.prefix = null == pattern ? "" : pattern;
                 break;
             }
             default: {
@@ -73,119 +84,238 @@ public class PatternMatcher implements Matcher<String> {
         return matcher.matching(target);
     }
 
+    @Override
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /*
+     * 通配符表达式中第一个通配符或转义符之前的部分
+     */
+    private static String toWildcardPrefix(String pattern) {
+        if (null == pattern) {
+            return "";
+        }
+        int index = 0;
+        while (index < pattern.length()
+                && "*?\\".indexOf(pattern.charAt(index)) < 0) {
+            index++;
+        }
+        return pattern.substring(0, index);
+    }
+
+    /*
+     * 正则表达式开头的字面部分,只识别字母、数字、下划线以及转义的'.'<br/>
+     * 带有'|'的表达式可能有多个分支,不给出前缀;后面跟着可选量词的字符不计入前缀
+     */
+    private static String toRegexPrefix(String pattern) {
+        if (null == pattern
+                || pattern.indexOf('|') >= 0) {
+            return "";
+        }
+        final StringBuilder prefixSB = new StringBuilder();
+        int index = pattern.startsWith("^") ? 1 : 0;
+        while (index < pattern.length()) {
+            final char c = pattern.charAt(index);
+            final int next;
+            if (Character.isLetterOrDigit(c)
+                    || c == '_') {
+                next = index + 1;
+            } else if (c == '\\'
+                    && index + 1 < pattern.length()
+                    && pattern.charAt(index + 1) == '.') {
+                next = index + 2;
+            } else {
+                break;
+            }
+            if (next < pattern.length()
+                    && "?*{".indexOf(pattern.charAt(next)) >= 0) {
+                break;
+            }
+            prefixSB.append(c == '\\' ? '.' : c);
+            index = next;
+        }
+        return prefixSB.toString();
+    }
+
     /**
-     * 正则表达式匹配
+     * 正则表达式匹配<br/>
+     * 表达式在构造时编译一次,匹配时不再重复编译
      */
     class RegexMatcher implements Matcher<String> {
 
-        private final String pattern;
+        private final Pattern pattern;
 
         public RegexMatcher(String pattern) {
-            this.pattern = pattern;
+            this.pattern = null == pattern
+                    ? null
+                    : Pattern.compile(pattern);
         }
 
         @Override
         public boolean matching(String target) {
             return null != target
                     && null != pattern
-                    && target.matches(pattern);
+                    && pattern.matcher(target).matches();
         }
     }
 
 
     /**
-     * 通配符表达式匹配
+     * 通配符表达式匹配<br/>
+     * 表达式在构造时按'*'拆分成片段,首尾片段分别锚定在目标的开头和结尾,
+     * 中间的片段从左到右依次查找最靠前的位置,不需要回溯,匹配耗时不会随'*'的个数指数增长
      */
     class WildcardMatcher implements Matcher<String> {
 
-        private final String pattern;
+        // 以'*'分隔的非空片段
+        private final Segment[] segments;
+
+        // 表达式中是否有'*'
+        private final boolean hasStar;
+
+        // 表达式是否以'*'开头或结尾
+        private final boolean isStartWithStar;
+        private final boolean isEndWithStar;
 
         public WildcardMatcher(String pattern) {
-            this.pattern = pattern;
-        }
+            final List<Segment> segmentList = new ArrayList<Segment>();
+            final StringBuilder charsSB = new StringBuilder();
+            final BitSet anyBits = new BitSet();
+            boolean hasStar = false;
+            boolean isStartWithStar = false;
+            final int length = null == pattern ? 0 : pattern.length();
+            for (int index = 0; index < length; index++) {
+                final char c = pattern.charAt(index);
+                if (c == '*') {
+                    if (charsSB.length() > 0) {
+                        segmentList.add(new Segment(charsSB.toString().toCharArray(), anyBits));
+                        charsSB.setLength(0);
+                        anyBits.clear();
+                    } else if (!hasStar) {
+                        isStartWithStar = segmentList.isEmpty();
+                    }
+                    hasStar = true;
+                    continue;
+                }
 
+                // 转义符之后的字符按字面匹配,末尾单独的转义符忽略
+                if (c == '\\') {
+                    if (++index < length) {
+                        charsSB.append(pattern.charAt(index));
+                    }
+                } else {
+                    if (c == '?') {
+                        anyBits.set(charsSB.length());
+                    }
+                    charsSB.append(c);
+                }
+            }
+
+            // 最后一个'*'之后没有字符
+            final boolean isEndWithStar = hasStar && charsSB.length() == 0;
+            if (charsSB.length() > 0) {
+                segmentList.add(new Segment(charsSB.toString().toCharArray(), anyBits));
+            }
+            this.segments = segmentList.toArray(new Segment[segmentList.size()]);
+            this.hasStar = hasStar;
+            this.isStartWithStar = isStartWithStar;
+            this.isEndWithStar = isEndWithStar;
+        }
 
         @Override
         public boolean matching(String target) {
-            return match(target, pattern, 0, 0);
-        }
+            if (null == target) {
+                return false;
+            }
+            final int length = target.length();
 
-        /**
-         * Internal matching recursive function.
-         */
-        private boolean match(String string, String pattern, int stringStartNdx, int patternStartNdx) {
-            int pNdx = patternStartNdx;
-            int sNdx = stringStartNdx;
-            int pLen = pattern.length();
-            if (pLen == 1) {
-                if (pattern.charAt(0) == '*') {     // speed-up
-                    return true;
-                }
+            // 没有'*'时整体匹配
+            if (!hasStar) {
+                return segments.length == 0
+                        ? length == 0
+                        : segments[0].chars.length == length && segments[0].matching(target, 0);
             }
-            int sLen = string.length();
-            boolean nextIsNotWildcard = false;
 
-            while (true) {
+            int from = 0;
+            int to = length;
+            int first = 0;
+            int last = segments.length;
 
-                // check if end of string and/or pattern occurred
-                if ((sNdx >= sLen)) {   // end of string still may have pending '*' callback pattern
-                    while ((pNdx < pLen) && (pattern.charAt(pNdx) == '*')) {
-                        pNdx++;
-                    }
-                    return pNdx >= pLen;
-                }
-                if (pNdx >= pLen) {         // end of pattern, but not end of the string
+            // 锚定开头的片段
+            if (!isStartWithStar) {
+                if (!segments[first].matching(target, from)) {
                     return false;
                 }
-                char p = pattern.charAt(pNdx);    // pattern char
+                from += segments[first++].chars.length;
+            }
 
-                // perform logic
-                if (!nextIsNotWildcard) {
+            // 锚定结尾的片段
+            if (!isEndWithStar) {
+                final Segment segment = segments[--last];
+                to = length - segment.chars.length;
+                if (to < from
+                        || !segment.matching(target, to)) {
+                    return false;
+                }
+            }
 
-                    if (p == '\\') {
-                        pNdx++;
-                        nextIsNotWildcard = true;
-                        continue;
-                    }
-                    if (p == '?') {
-                        sNdx++;
-                        pNdx++;
-                        continue;
-                    }
-                    if (p == '*') {
-                        char pnext = 0;           // next pattern char
-                        if (pNdx + 1 < pLen) {
-                            pnext = pattern.charAt(pNdx + 1);
-                        }
-                        if (pnext == '*') {         // double '*' have the same effect as one '*'
-                            pNdx++;
-                            continue;
-                        }
-                        int i;
-                        pNdx++;
-
-                        // find recursively if there is any substring from the end of the
-                        // line that matches the rest of the pattern !!!
-                        for (i = string.length(); i >= sNdx; i--) {
-                            if (match(string, pattern, i, pNdx)) {
-                                return true;
-                            }
-                        }
-                        return false;
-                    }
-                } else {
-                    nextIsNotWildcard = false;
+            // 中间的片段依次取最靠前的位置
+            for (int index = first; index < last; index++) {
+                final Segment segment = segments[index];
+                final int found = segment.indexOf(target, from, to);
+                if (found < 0) {
+                    return false;
                 }
+                from = found + segment.chars.length;
+            }
+            return true;
+        }
+
+    }
+
+    /*
+     * 通配符表达式中'*'之间的片段,其中的'?'匹配任意一个字符
+     */
+    private static class Segment {
+
+        private final char[] chars;
+        private final boolean[] isAny;
+
+        Segment(char[] chars, BitSet anyBits) {
+            this.chars = chars;
+            this.isAny = new boolean[chars.length];
+            for (int index = anyBits.nextSetBit(0); index >= 0; index = anyBits.nextSetBit(index + 1)) {
+                isAny[index] = true;
+            }
+        }
 
-                // check if pattern char and string char are equals
-                if (p != string.charAt(sNdx)) {
+        /*
+         * 片段是否与目标从offset开始的部分相符
+         */
+        boolean matching(String target, int offset) {
+            if (offset + chars.length > target.length()) {
+                return false;
+            }
+            for (int index = 0; index < chars.length; index++) {
+                if (!isAny[index]
+                        && chars[index] != target.charAt(offset + index)) {
                     return false;
                 }
+            }
+            return true;
+        }
 
-                // everything matches for now, continue
-                sNdx++;
-                pNdx++;
+        /*
+         * 在目标的[from,to)区间中查找片段最靠前的位置
+         */
+        int indexOf(String target, int from, int to) {
+            for (int offset = from; offset + chars.length <= to; offset++) {
+                if (matching(target, offset)) {
+                    return offset;
+                }
             }
+            return -1;
         }
 
     }
@@ -0,0 +1,16 @@
+package com.github.ompc.greys.core.util.matcher;
+
+/**
+ * 能够给出匹配前缀的匹配器<br/>
+ * 只有名称以该前缀开头的目标才有可能被匹配,用于在按名称组织的索引中缩小需要匹配的范围
+ */
+public interface PrefixMatcher<T> extends Matcher<T> {
+
+    /**
+     * 获取匹配前缀
+     *
+     * @return 匹配前缀,无法确定时返回空字符串
+     */
+    String getPrefix();
+
+}
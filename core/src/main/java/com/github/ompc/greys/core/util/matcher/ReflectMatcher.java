@@ -9,7 +9,7 @@ import static com.github.ompc.greys.core.util.GaReflectUtils.DEFAULT_MOD;
  * 反射相关匹配器
  * Created by vlinux on 15/11/1.
  */
-public abstract class ReflectMatcher<T> implements Matcher<T> {
+public abstract class ReflectMatcher<T> implements PrefixMatcher<T> {
 
     // 访问修饰符
     private final int modifier;
@@ -45,6 +45,16 @@ public abstract class ReflectMatcher<T> implements Matcher<T> {
                 reflectMatching(target)); // 执行目标实现类的比对
     }
 
+    /**
+     * 名称的匹配前缀
+     */
+    @Override
+    public String getPrefix() {
+        return name instanceof PrefixMatcher
+                ? ((PrefixMatcher<String>) name).getPrefix()
+                : "";
+    }
+
     /**
      * @param target 匹配目标
      * @return 匹配结果
@@ -0,0 +1,260 @@
+package com.github.ompc.greys.core.util.perf;
+
+import com.github.ompc.greys.core.util.LogUtil;
+import org.slf4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Greys自身开销统计<br/>
+ * 所有的计数都是分段计数器,在业务线程上记录时没有锁竞争
+ */
+public final class GaPerf {
+
+    private static final Logger logger = LogUtil.getLogger();
+
+    // JMX注册名
+    public static final String MBEAN_NAME = "com.github.ompc.greys:type=Perf";
+
+    // OGNL表达式求值耗时
+    public static final PerfHistogram EXPRESS_EVAL = new PerfHistogram();
+
+    // 类编织耗时,每个类记录一次
+    public static final PerfHistogram WEAVE = new PerfHistogram();
+
+    // 增强字节码磁盘缓存的命中与未命中数
+    public static final LongAdder WEAVE_CACHE_HITS = new LongAdder();
+    public static final LongAdder WEAVE_CACHE_MISSES = new LongAdder();
+
+    // 写队列已满而丢弃的消息数
+    public static final LongAdder DROPPED_MESSAGES = new LongAdder();
+
+    // 会话解锁时清理掉的尚未输出的消息数
+    public static final LongAdder DISCARDED_MESSAGES = new LongAdder();
+
+    // 类-字节码缓存的类个数以及压缩后的字节数,在缓存变化时更新
+    private static volatile int classBytesCacheSize;
+    private static volatile long classBytesCacheBytes;
+
+    // 存活通知的监听器耗时
+    private static final Map<Integer/*ADVICE_ID*/, PerfHistogram> adviceListeners = new ConcurrentHashMap<Integer, PerfHistogram>();
+
+    // 已注销通知的监听器耗时
+    private static final PerfHistogram retiredListeners = new PerfHistogram();
+
+    private GaPerf() {
+    }
+
+    /**
+     * 登记通知的监听器耗时统计
+     *
+     * @param adviceId 通知ID
+     * @return 监听器耗时直方图,调用次数即为直方图的记录数
+     */
+    public static PerfHistogram regAdvice(int adviceId) {
+        final PerfHistogram histogram = new PerfHistogram();
+        adviceListeners.put(adviceId, histogram);
+        return histogram;
+    }
+
+    /**
+     * 注销通知的监听器耗时统计,记录归并到总量中
+     *
+     * @param adviceId 通知ID
+     */
+    public static void unRegAdvice(int adviceId) {
+        final PerfHistogram histogram = adviceListeners.remove(adviceId);
+        if (null != histogram) {
+            retiredListeners.merge(histogram);
+        }
+    }
+
+    /**
+     * 获取存活通知的监听器耗时统计
+     *
+     * @return ADVICE_ID有序的统计
+     */
+    public static Map<Integer, PerfHistogram> getAdviceListeners() {
+        return new TreeMap<Integer, PerfHistogram>(adviceListeners);
+    }
+
+    /**
+     * 获取所有通知(包括已注销)的监听器耗时统计
+     *
+     * @return 合并后的直方图
+     */
+    public static PerfHistogram getListeners() {
+        final PerfHistogram histogram = new PerfHistogram();
+        histogram.merge(retiredListeners);
+        for (final PerfHistogram adviceHistogram : adviceListeners.values()) {
+            histogram.merge(adviceHistogram);
+        }
+        return histogram;
+    }
+
+    public static void setClassBytesCache(int size, long bytes) {
+        classBytesCacheSize = size;
+        classBytesCacheBytes = bytes;
+    }
+
+    public static int getClassBytesCacheSize() {
+        return classBytesCacheSize;
+    }
+
+    public static long getClassBytesCacheBytes() {
+        return classBytesCacheBytes;
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public static void reset() {
+        EXPRESS_EVAL.reset();
+        WEAVE.reset();
+        WEAVE_CACHE_HITS.reset();
+        WEAVE_CACHE_MISSES.reset();
+        DROPPED_MESSAGES.reset();
+        DISCARDED_MESSAGES.reset();
+        retiredListeners.reset();
+        for (final PerfHistogram histogram : adviceListeners.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * 注册到平台MBeanServer
+     */
+    public static synchronized void regMBean() {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(new MXBean(), objectName);
+            }
+        } catch (Throwable t) {
+            logger.warn("register mbean {} failed.", MBEAN_NAME, t);
+        }
+    }
+
+    /**
+     * 从平台MBeanServer注销
+     */
+    public static synchronized void unRegMBean() {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (Throwable t) {
+            logger.warn("unregister mbean {} failed.", MBEAN_NAME, t);
+        }
+    }
+
+    /*
+     * JMX视图
+     */
+    private static class MXBean implements GaPerfMXBean {
+
+        @Override
+        public long getHookInvokeCount() {
+            return getListeners().getCount();
+        }
+
+        @Override
+        public long getListenerNanos() {
+            return getListeners().getSum();
+        }
+
+        @Override
+        public Map<String, Long> getAdviceHookInvokeCounts() {
+            final Map<String, Long> counts = new TreeMap<String, Long>();
+            for (final Map.Entry<Integer, PerfHistogram> entry : getAdviceListeners().entrySet()) {
+                counts.put(String.valueOf(entry.getKey()), entry.getValue().getCount());
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> getAdviceListenerNanos() {
+            final Map<String, Long> nanos = new TreeMap<String, Long>();
+            for (final Map.Entry<Integer, PerfHistogram> entry : getAdviceListeners().entrySet()) {
+                nanos.put(String.valueOf(entry.getKey()), entry.getValue().getSum());
+            }
+            return nanos;
+        }
+
+        @Override
+        public long getExpressEvalCount() {
+            return EXPRESS_EVAL.getCount();
+        }
+
+        @Override
+        public long getExpressEvalNanos() {
+            return EXPRESS_EVAL.getSum();
+        }
+
+        @Override
+        public long getExpressEvalMaxNanos() {
+            return EXPRESS_EVAL.getMax();
+        }
+
+        @Override
+        public long getWeaveClassCount() {
+            return WEAVE.getCount();
+        }
+
+        @Override
+        public long getWeaveNanos() {
+            return WEAVE.getSum();
+        }
+
+        @Override
+        public long getWeaveMaxNanos() {
+            return WEAVE.getMax();
+        }
+
+        @Override
+        public long getWeaveCacheHitCount() {
+            return WEAVE_CACHE_HITS.sum();
+        }
+
+        @Override
+        public long getWeaveCacheMissCount() {
+            return WEAVE_CACHE_MISSES.sum();
+        }
+
+        @Override
+        public long getDroppedMessageCount() {
+            return DROPPED_MESSAGES.sum();
+        }
+
+        @Override
+        public long getDiscardedMessageCount() {
+            return DISCARDED_MESSAGES.sum();
+        }
+
+        @Override
+        public int getClassBytesCacheSize() {
+            return GaPerf.getClassBytesCacheSize();
+        }
+
+        @Override
+        public long getClassBytesCacheBytes() {
+            return GaPerf.getClassBytesCacheBytes();
+        }
+
+        @Override
+        public void reset() {
+            GaPerf.reset();
+        }
+
+    }
+
+}
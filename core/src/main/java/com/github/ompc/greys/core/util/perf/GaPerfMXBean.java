@@ -0,0 +1,63 @@
+package com.github.ompc.greys.core.util.perf;
+
+import java.util.Map;
+
+/**
+ * Greys自身开销的JMX视图<br/>
+ * 耗时单位均为纳秒
+ */
+public interface GaPerfMXBean {
+
+    /**
+     * @return 监听器累计被回调的次数
+     */
+    long getHookInvokeCount();
+
+    /**
+     * @return 监听器累计执行耗时
+     */
+    long getListenerNanos();
+
+    /**
+     * @return 各个存活通知的监听器回调次数
+     */
+    Map<String/*ADVICE_ID*/, Long> getAdviceHookInvokeCounts();
+
+    /**
+     * @return 各个存活通知的监听器累计执行耗时
+     */
+    Map<String/*ADVICE_ID*/, Long> getAdviceListenerNanos();
+
+    long getExpressEvalCount();
+
+    long getExpressEvalNanos();
+
+    long getExpressEvalMaxNanos();
+
+    long getWeaveClassCount();
+
+    long getWeaveNanos();
+
+    long getWeaveMaxNanos();
+
+    long getWeaveCacheHitCount();
+
+    long getWeaveCacheMissCount();
+
+    long getDroppedMessageCount();
+
+    long getDiscardedMessageCount();
+
+    int getClassBytesCacheSize();
+
+    /**
+     * @return 类-字节码缓存压缩后的字节数
+     */
+    long getClassBytesCacheBytes();
+
+    /**
+     * 清空所有统计
+     */
+    void reset();
+
+}
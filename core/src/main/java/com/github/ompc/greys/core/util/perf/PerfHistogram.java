@@ -0,0 +1,129 @@
+package com.github.ompc.greys.core.util.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图<br/>
+ * 按照2的幂次分桶,每个桶都是一个分段计数器,多线程并发记录时几乎没有竞争
+ */
+public class PerfHistogram {
+
+    // 第N个桶记录[2^(N-1), 2^N)范围内的值,第0个桶记录0
+    private static final int BUCKET_SIZE = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_SIZE];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public PerfHistogram() {
+        for (int index = 0; index < BUCKET_SIZE; index++) {
+            buckets[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一个值
+     *
+     * @param value 值(纳秒),负数按0处理
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        buckets[bucketIndex(v)].increment();
+        count.increment();
+        sum.add(v);
+
+        // 最大值很快就会稳定下来,绝大多数情况只有一次读
+        long current;
+        while (v > (current = max.get())) {
+            if (max.compareAndSet(current, v)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 合并另外一个直方图的记录
+     *
+     * @param other 另外一个直方图
+     */
+    public void merge(PerfHistogram other) {
+        for (int index = 0; index < BUCKET_SIZE; index++) {
+            buckets[index].add(other.buckets[index].sum());
+        }
+        count.add(other.getCount());
+        sum.add(other.getSum());
+        final long otherMax = other.getMax();
+        long current;
+        while (otherMax > (current = max.get())) {
+            if (max.compareAndSet(current, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 清空记录
+     */
+    public void reset() {
+        for (final LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 获取平均值
+     *
+     * @return 平均值,没有记录时为0
+     */
+    public double getAvg() {
+        final long c = getCount();
+        return c == 0
+                ? 0
+                : (double) getSum() / c;
+    }
+
+    /**
+     * 获取百分位值<br/>
+     * 返回所在桶的上界,最多偏大一倍,但不会超过最大值
+     *
+     * @param percent 百分位(0~100)
+     * @return 百分位值,没有记录时为0
+     */
+    public long getPercentile(double percent) {
+        final long c = getCount();
+        if (c == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(c * percent / 100);
+        long accumulated = 0;
+        for (int index = 0; index < BUCKET_SIZE; index++) {
+            accumulated += buckets[index].sum();
+            if (accumulated >= rank) {
+                return Math.min(index == 0 ? 0 : (1L << index) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int bucketIndex(long value) {
+        return Math.min(BUCKET_SIZE - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 线程上下文测试用例
+ */
+public class AdviceThreadContextTestCase {
+
+    @Test
+    public void testPushPop() {
+        final AdviceThreadContext context = new AdviceThreadContext();
+        Assert.assertNull(context.peek());
+        final AdviceFrame first = push(context, 1);
+        final AdviceFrame second = push(context, 2);
+        Assert.assertSame(second, context.peek());
+
+        Assert.assertSame(second, context.pop(2));
+        Assert.assertSame(first, context.peek());
+        Assert.assertSame(first, context.pop(1));
+        Assert.assertNull(context.peek());
+
+        // 帧对象池化复用
+        Assert.assertSame(first, context.push());
+    }
+
+    @Test
+    public void testPopMismatched() {
+        final AdviceThreadContext context = new AdviceThreadContext();
+        final AdviceFrame first = push(context, 1);
+        final AdviceFrame second = push(context, 2);
+        final AdviceFrame third = push(context, 3);
+
+        // 栈顶不是该方法的帧,丢弃之上的残留帧并释放其引用
+        Assert.assertSame(first, context.pop(1));
+        Assert.assertNull(context.peek());
+        Assert.assertNull(second.meta);
+        Assert.assertNull(third.meta);
+        Assert.assertNull(third.target);
+        Assert.assertNull(third.args);
+
+        // 压入后重新弹出,不受之前残留帧的影响
+        Assert.assertSame(first, push(context, 4));
+        Assert.assertSame(second, push(context, 5));
+        Assert.assertSame(second, context.pop(5));
+        Assert.assertSame(first, context.pop(4));
+    }
+
+    @Test
+    public void testPopMissing() {
+        final AdviceThreadContext context = new AdviceThreadContext();
+        final AdviceFrame first = push(context, 1);
+        final AdviceFrame second = push(context, 2);
+
+        // Begin没有压帧,不做任何弹出
+        Assert.assertNull(context.pop(3));
+        Assert.assertSame(second, context.peek());
+        Assert.assertNotNull(second.meta);
+
+        // 没有方法元数据的帧不会被误认
+        second.clear();
+        Assert.assertNull(context.pop(2));
+        Assert.assertSame(first, context.pop(1));
+        Assert.assertNull(context.peek());
+    }
+
+    @Test
+    public void testRecursiveAndGrow() {
+        final AdviceThreadContext context = new AdviceThreadContext();
+        final AdviceFrame[] frames = new AdviceFrame[100];
+        for (int index = 0; index < frames.length; index++) {
+            frames[index] = push(context, 1);
+        }
+
+        // 递归调用同一方法时弹出最近的一帧
+        for (int index = frames.length - 1; index >= 0; index--) {
+            Assert.assertSame(frames[index], context.pop(1));
+        }
+        Assert.assertNull(context.peek());
+    }
+
+    private static AdviceFrame push(AdviceThreadContext context, int methodId) {
+        final AdviceFrame frame = context.push();
+        frame.meta = new MethodMeta(methodId, AdviceThreadContextTestCase.class, "method" + methodId, "()V");
+        frame.target = new Object();
+        frame.args = new Object[0];
+        return frame;
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+
+/**
+ * 通知编织者的通知登记测试用例
+ */
+public class AdviceWeaverTestCase {
+
+    private static final int BASE_ADVICE_ID = 100000;
+
+    private boolean isEnableInvokeDynamic;
+
+    @Before
+    public void before() {
+        isEnableInvokeDynamic = GlobalOptions.isEnableInvokeDynamic;
+        AdviceWeaver.resetMethodMetas();
+    }
+
+    @After
+    public void after() {
+        GlobalOptions.isEnableInvokeDynamic = isEnableInvokeDynamic;
+        AdviceWeaver.resetMethodMetas();
+    }
+
+    @Test
+    public void testUnWeaveExclusiveMethod() {
+        final MethodMeta meta = wovenMeta(Exclusive.class, "exclusive");
+        regAndUnReg(BASE_ADVICE_ID, meta);
+
+        final Collection<MethodMeta> unWovenMetas = AdviceWeaver.unWeave(BASE_ADVICE_ID);
+        Assert.assertEquals(Collections.singletonList(meta), unWovenMetas);
+        Assert.assertFalse(meta.isWoven);
+
+        // 重复还原是安全的
+        Assert.assertTrue(AdviceWeaver.unWeave(BASE_ADVICE_ID).isEmpty());
+    }
+
+    @Test
+    public void testSharedMethodNotUnWoven() {
+        final MethodMeta meta = wovenMeta(Shared.class, "shared");
+        final int otherAdviceId = BASE_ADVICE_ID + 1;
+        AdviceWeaver.regAdviceMethodMetas(otherAdviceId, Collections.singletonList(meta), null);
+        AdviceWeaver.reg(otherAdviceId, new AdviceListenerAdapter(), null, null);
+
+        // 仍然被其他通知圈定的方法不需要登记,也不会被解除
+        regAndUnReg(BASE_ADVICE_ID, meta);
+        Assert.assertTrue(AdviceWeaver.unWeave(BASE_ADVICE_ID).isEmpty());
+        Assert.assertTrue(meta.isWoven);
+
+        // 最后一个通知注销后才还原
+        Assert.assertEquals(Collections.singletonList(meta), AdviceWeaver.unWeave(otherAdviceId));
+        Assert.assertFalse(meta.isWoven);
+    }
+
+    @Test
+    public void testUnRegBounded() {
+        final int advices = AdviceWeaver.MAX_UN_REG_ADVICES + 10;
+        final MethodMeta[] metas = new MethodMeta[advices];
+        for (int index = 0; index < advices; index++) {
+            metas[index] = wovenMeta(Bounded.class, "bounded" + index);
+            regAndUnReg(BASE_ADVICE_ID + index, metas[index]);
+        }
+
+        // 最早注销的通知登记已被淘汰
+        Assert.assertTrue(AdviceWeaver.unWeave(BASE_ADVICE_ID).isEmpty());
+        Assert.assertTrue(metas[0].isWoven);
+
+        // 最近注销的通知仍然能还原
+        final int last = advices - 1;
+        Assert.assertEquals(Collections.singletonList(metas[last]), AdviceWeaver.unWeave(BASE_ADVICE_ID + last));
+
+        // 被淘汰的通知由类的归属释放来解除织入状态
+        AdviceWeaver.unWeave(Bounded.class);
+        for (final MethodMeta meta : metas) {
+            Assert.assertFalse(meta.isWoven);
+        }
+    }
+
+    @Test
+    public void testEndWovenOnBothExits() throws Exception {
+        final MethodMeta meta = AdviceWeaver.regMethodMeta(Throwing.class, "run", "(Z)V");
+        meta.isWoven = true;
+        meta.wovenCapabilities = AdviceCapable.EVENT_RETURNING;
+        meta.activate();
+
+        // 经由Spy的Method.invoke()调用钩子
+        GlobalOptions.isEnableInvokeDynamic = false;
+        final Map<String, MethodMeta> wovenMethodMetas = new HashMap<String, MethodMeta>();
+        wovenMethodMetas.put(MethodMeta.toKey(meta.methodName, meta.methodDesc), meta);
+        final ClassReader cr = new ClassReader(readClassBytes(Throwing.class));
+        final ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
+        cr.accept(new AdviceWeaver(cr.getClassName(), wovenMethodMetas, true, cw), EXPAND_FRAMES);
+
+        final TargetClassLoader loader = new TargetClassLoader();
+        final Class<?> spyClass = loader.defineSpy();
+        final Method runMethod = loader.defineAndLink(Throwing.class.getName(), cw.toByteArray()).getMethod("run", boolean.class);
+        AdviceWeaver.regSpy(spyClass);
+
+        final int[] counts = new int[2];
+        AdviceWeaver.regAdviceMethodMetas(BASE_ADVICE_ID, Collections.singletonList(meta), null);
+        AdviceWeaver.reg(BASE_ADVICE_ID, new AdviceListenerAdapter() {
+
+            @Override
+            public int getCapabilities() {
+                return EVENT_RETURNING;
+            }
+
+            @Override
+            public void afterReturning(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Object returnObject, long cost) {
+                counts[0]++;
+            }
+
+            @Override
+            public void afterThrowing(ClassLoader loader, String className, String methodName, String methodDesc, Object target, Object[] args, Throwable throwable, long cost) {
+                counts[1]++;
+            }
+
+        });
+        try {
+
+            // 只需要返回通知的方法反复抛出异常,帧栈也不会增长
+            for (int index = 0; index < 100; index++) {
+                try {
+                    runMethod.invoke(null, true);
+                    Assert.fail();
+                } catch (InvocationTargetException e) {
+                    Assert.assertTrue(e.getTargetException() instanceof IllegalStateException);
+                }
+            }
+            Assert.assertEquals(0, AdviceWeaver.getThreadContext().depth());
+
+            // 只通知监听器所需要的事件
+            runMethod.invoke(null, false);
+            Assert.assertEquals(0, AdviceWeaver.getThreadContext().depth());
+            Assert.assertEquals(1, counts[0]);
+            Assert.assertEquals(0, counts[1]);
+        } finally {
+            AdviceWeaver.unReg(BASE_ADVICE_ID);
+        }
+    }
+
+    private static MethodMeta wovenMeta(Class<?> clazz, String name) {
+        final MethodMeta meta = AdviceWeaver.regMethodMeta(clazz, name, "()V");
+        meta.isWoven = true;
+        return meta;
+    }
+
+    private static void regAndUnReg(int adviceId, MethodMeta meta) {
+        AdviceWeaver.regAdviceMethodMetas(adviceId, Collections.singletonList(meta), null);
+        AdviceWeaver.reg(adviceId, new AdviceListenerAdapter(), null, null);
+        Assert.assertEquals(1, meta.getBindings().length - countOtherBindings(meta, adviceId));
+        AdviceWeaver.unReg(adviceId);
+    }
+
+    private static int countOtherBindings(MethodMeta meta, int adviceId) {
+        int count = 0;
+        for (final AdviceBinding binding : meta.getBindings()) {
+            if (binding.adviceId != adviceId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 织入目标
+     */
+    public static class Throwing {
+
+        public static void run(boolean isThrow) {
+            if (isThrow) {
+                throw new IllegalStateException();
+            }
+        }
+
+    }
+
+    static class Exclusive {
+    }
+
+    static class Shared {
+    }
+
+    static class Bounded {
+    }
+
+    private static byte[] readClassBytes(Class<?> clazz) throws IOException {
+        final InputStream is = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /*
+     * 定义织入后的目标类和Spy的ClassLoader
+     */
+    private static class TargetClassLoader extends ClassLoader implements Opcodes {
+
+        TargetClassLoader() {
+            super(AdviceWeaverTestCase.class.getClassLoader());
+        }
+
+        Class<?> defineAndLink(String className, byte[] classBytes) throws ClassNotFoundException {
+            defineClass(className, classBytes, 0, classBytes.length);
+            return Class.forName(className, true, this);
+        }
+
+        /*
+         * 生成只有钩子字段的Spy,并指向AdviceWeaver的钩子方法
+         */
+        Class<?> defineSpy() throws Exception {
+            final ClassWriter cw = new ClassWriter(0);
+            cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, "com/github/ompc/greys/agent/Spy", null, "java/lang/Object", null);
+            for (final String name : new String[]{"ON_BEFORE_METHOD", "ON_RETURN_METHOD", "ON_THROWS_METHOD"}) {
+                cw.visitField(ACC_PUBLIC | ACC_STATIC | ACC_VOLATILE, name, "Ljava/lang/reflect/Method;", null, null).visitEnd();
+            }
+            cw.visitField(ACC_PUBLIC | ACC_STATIC | ACC_VOLATILE, "ADVICE_SWITCHES", "[Z", null, null).visitEnd();
+            cw.visitEnd();
+
+            final Class<?> spyClass = defineAndLink("com.github.ompc.greys.agent.Spy", cw.toByteArray());
+            spyClass.getField("ON_BEFORE_METHOD").set(null, AdviceWeaver.class.getMethod("methodOnBegin", int.class, Object.class, Object[].class));
+            spyClass.getField("ON_RETURN_METHOD").set(null, AdviceWeaver.class.getMethod("methodOnReturnEnd", Object.class, int.class, long.class));
+            spyClass.getField("ON_THROWS_METHOD").set(null, AdviceWeaver.class.getMethod("methodOnThrowingEnd", Throwable.class, int.class, long.class));
+            return spyClass;
+        }
+
+    }
+
+}
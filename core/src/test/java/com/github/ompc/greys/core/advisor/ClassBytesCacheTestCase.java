@@ -0,0 +1,129 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * 增强类字节码缓存测试用例<br/>
+ * 以随机字节模拟增强后的字节码,压缩后与原始长度相当,便于控制淘汰时机
+ */
+public class ClassBytesCacheTestCase {
+
+    private int classBytesCacheCapacity;
+
+    @Before
+    public void before() {
+        classBytesCacheCapacity = GlobalOptions.classBytesCacheCapacity;
+    }
+
+    @After
+    public void after() {
+        GlobalOptions.classBytesCacheCapacity = classBytesCacheCapacity;
+    }
+
+    @Test
+    public void testPutGet() {
+        final ClassBytesCache cache = new ClassBytesCache();
+        final byte[] classBytes = newClassBytes(1, 4096);
+        cache.put(String.class, classBytes);
+        Assert.assertTrue(cache.contains(String.class));
+        Assert.assertFalse(cache.contains(Integer.class));
+        Assert.assertTrue(Arrays.equals(classBytes, cache.get(String.class)));
+        Assert.assertNull(cache.get(Integer.class));
+
+        // 只保留增强记录
+        cache.put(String.class, null);
+        Assert.assertTrue(cache.contains(String.class));
+        Assert.assertNull(cache.get(String.class));
+        Assert.assertEquals(Collections.<Class<?>>singletonList(String.class), cache.getClasses());
+
+        cache.remove(String.class);
+        Assert.assertFalse(cache.contains(String.class));
+        Assert.assertTrue(cache.getClasses().isEmpty());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        GlobalOptions.classBytesCacheCapacity = 2;
+        final ClassBytesCache cache = new ClassBytesCache();
+        final byte[] stringBytes = newClassBytes(1, 700);
+        final byte[] integerBytes = newClassBytes(2, 700);
+        final byte[] longBytes = newClassBytes(3, 700);
+        cache.put(String.class, stringBytes);
+        cache.put(Integer.class, integerBytes);
+
+        // String最近被访问过,超过容量时淘汰Integer
+        Assert.assertNotNull(cache.get(String.class));
+        cache.put(Long.class, longBytes);
+        Assert.assertNull(cache.get(Integer.class));
+        Assert.assertTrue(Arrays.equals(stringBytes, cache.get(String.class)));
+        Assert.assertTrue(Arrays.equals(longBytes, cache.get(Long.class)));
+
+        // 被淘汰的类仍然保留增强记录
+        Assert.assertTrue(cache.contains(Integer.class));
+        Assert.assertEquals(3, cache.getClasses().size());
+
+        // 刚放入的字节码即使单独超过容量也不淘汰
+        final byte[] hugeBytes = newClassBytes(4, 4096);
+        cache.put(Integer.class, hugeBytes);
+        Assert.assertTrue(Arrays.equals(hugeBytes, cache.get(Integer.class)));
+        Assert.assertNull(cache.get(String.class));
+        Assert.assertNull(cache.get(Long.class));
+    }
+
+    @Test
+    public void testUnlimited() {
+        GlobalOptions.classBytesCacheCapacity = 0;
+        final ClassBytesCache cache = new ClassBytesCache();
+        cache.put(String.class, newClassBytes(1, 4096));
+        cache.put(Integer.class, newClassBytes(2, 4096));
+        Assert.assertNotNull(cache.get(String.class));
+        Assert.assertNotNull(cache.get(Integer.class));
+    }
+
+    @Test
+    public void testOwners() {
+        final ClassBytesCache cache = new ClassBytesCache();
+        cache.put(String.class, newClassBytes(1, 64));
+        cache.put(Integer.class, newClassBytes(2, 64));
+        cache.own(String.class, 1);
+        cache.own(String.class, 2);
+        cache.own(Integer.class, 1);
+
+        // 没有增强记录的类不登记
+        cache.own(Long.class, 1);
+        Assert.assertFalse(cache.contains(Long.class));
+        Assert.assertTrue(cache.getOwners(Long.class).isEmpty());
+
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), cache.getOwners(String.class));
+        Assert.assertEquals(Collections.<Class<?>>singleton(Integer.class), cache.release(1));
+        Assert.assertEquals(Collections.singleton(2), cache.getOwners(String.class));
+        Assert.assertTrue(cache.getOwners(Integer.class).isEmpty());
+
+        // 已经释放的通知不会再次释放出类
+        Assert.assertTrue(cache.release(1).isEmpty());
+        Assert.assertEquals(Collections.<Class<?>>singleton(String.class), cache.release(2));
+        Assert.assertTrue(cache.release(3).isEmpty());
+
+        // 释放登记不移除增强记录,重新放入字节码也不影响登记
+        cache.own(String.class, 4);
+        cache.put(String.class, newClassBytes(3, 64));
+        Assert.assertEquals(Collections.singleton(4), cache.getOwners(String.class));
+        Assert.assertEquals(2, cache.getClasses().size());
+    }
+
+    private static byte[] newClassBytes(long seed, int length) {
+        final byte[] classBytes = new byte[length];
+        new Random(seed).nextBytes(classBytes);
+        return classBytes;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 类继承关系解析测试用例
+ */
+public class ClassHierarchyTestCase {
+
+    @Test
+    public void testJdkTypes() {
+        final ClassHierarchy hierarchy = new ClassHierarchy();
+        final ClassLoader loader = getClass().getClassLoader();
+        Assert.assertEquals("java/lang/Number", hierarchy.getCommonSuperClass(loader, "java/lang/Integer", "java/lang/Long"));
+        Assert.assertEquals("java/util/AbstractList", hierarchy.getCommonSuperClass(loader, "java/util/ArrayList", "java/util/LinkedList"));
+        Assert.assertEquals("java/lang/Object", hierarchy.getCommonSuperClass(loader, "java/lang/String", "java/lang/Integer"));
+        Assert.assertEquals("java/lang/Throwable", hierarchy.getCommonSuperClass(null, "java/lang/Error", "java/lang/Exception"));
+
+        // 一方是另一方的父类或接口
+        Assert.assertEquals("java/lang/Number", hierarchy.getCommonSuperClass(loader, "java/lang/Number", "java/lang/Integer"));
+        Assert.assertEquals("java/util/List", hierarchy.getCommonSuperClass(loader, "java/util/List", "java/util/ArrayList"));
+        Assert.assertEquals("java/util/List", hierarchy.getCommonSuperClass(loader, "java/util/ArrayList", "java/util/List"));
+
+        // 互不相干的接口
+        Assert.assertEquals("java/lang/Object", hierarchy.getCommonSuperClass(loader, "java/lang/Runnable", "java/util/List"));
+        Assert.assertEquals("java/lang/Object", hierarchy.getCommonSuperClass(loader, "java/lang/Runnable", "java/lang/Integer"));
+    }
+
+    @Test
+    public void testNeverLoads() throws Exception {
+        final TargetClassLoader loader = new TargetClassLoader();
+        loader.define("hierarchy/target/Base", "java/lang/Object");
+        final Class<?> leftClass = loader.define("hierarchy/target/Left", "hierarchy/target/Base");
+        loader.addResource("hierarchy/target/Right", "hierarchy/target/Base");
+        loader.addResource("hierarchy/target/Other", "java/lang/Object");
+        final int loadTimes = loader.loadTimes;
+
+        // Left取自已加载的类,Right取自类资源,都不经过ClassLoader加载
+        final ClassHierarchy hierarchy = new ClassHierarchy();
+        hierarchy.seed(leftClass);
+        Assert.assertEquals("hierarchy/target/Base", hierarchy.getCommonSuperClass(loader, "hierarchy/target/Left", "hierarchy/target/Right"));
+        Assert.assertEquals("hierarchy/target/Base", hierarchy.getCommonSuperClass(loader, "hierarchy/target/Right", "hierarchy/target/Left"));
+        Assert.assertEquals("java/lang/Object", hierarchy.getCommonSuperClass(loader, "hierarchy/target/Left", "hierarchy/target/Other"));
+        Assert.assertEquals(loadTimes, loader.loadTimes);
+    }
+
+    @Test
+    public void testSameNameInDifferentLoaders() throws Exception {
+        final TargetClassLoader numberLoader = new TargetClassLoader();
+        numberLoader.addResource("hierarchy/target/Value", "java/lang/Number");
+        final TargetClassLoader exceptionLoader = new TargetClassLoader();
+        exceptionLoader.addResource("hierarchy/target/Value", "java/lang/Exception");
+
+        // 同名的类在不同的ClassLoader中各自解析
+        final ClassHierarchy hierarchy = new ClassHierarchy();
+        Assert.assertEquals("java/lang/Number", hierarchy.getCommonSuperClass(numberLoader, "hierarchy/target/Value", "java/lang/Integer"));
+        Assert.assertEquals("java/lang/Exception", hierarchy.getCommonSuperClass(exceptionLoader, "hierarchy/target/Value", "java/lang/RuntimeException"));
+        Assert.assertEquals("java/lang/Number", hierarchy.getCommonSuperClass(numberLoader, "hierarchy/target/Value", "java/lang/Integer"));
+    }
+
+    /*
+     * 生成只有默认构造函数的类
+     */
+    private static byte[] newClassBytes(String internalName, String superName) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName, null, superName, null);
+        final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /*
+     * 定义目标类、提供类资源并记录loadClass调用次数的ClassLoader
+     */
+    private static class TargetClassLoader extends ClassLoader {
+
+        private final Map<String, byte[]> resources = new HashMap<String, byte[]>();
+        private int loadTimes;
+
+        TargetClassLoader() {
+            super(ClassHierarchyTestCase.class.getClassLoader());
+        }
+
+        Class<?> define(String internalName, String superName) {
+            final byte[] classBytes = newClassBytes(internalName, superName);
+            return defineClass(internalName.replace('/', '.'), classBytes, 0, classBytes.length);
+        }
+
+        void addResource(String internalName, String superName) {
+            resources.put(internalName + ".class", newClassBytes(internalName, superName));
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            loadTimes++;
+            return super.loadClass(name, resolve);
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            final byte[] classBytes = resources.get(name);
+            return null == classBytes
+                    ? super.getResourceAsStream(name)
+                    : new ByteArrayInputStream(classBytes);
+        }
+
+    }
+
+}
@@ -0,0 +1,352 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.ClassDataSource;
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.manager.ReflectManager;
+import com.github.ompc.greys.core.util.GaMethod;
+import com.github.ompc.greys.core.util.PointCut;
+import com.github.ompc.greys.core.util.affect.EnhancerAffect;
+import com.github.ompc.greys.core.util.matcher.Matcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 增强器分批重新转换测试用例<br/>
+ * 用动态生成的类和模拟的Instrumentation驱动增强与重置,只记录每个类当前生效的字节码,不真正重新定义类
+ */
+public class EnhancerTestCase {
+
+    private static final int CLASS_COUNT = 20;
+
+    // 动态生成的目标类及其原始字节码
+    private static final Map<Class<?>, byte[]> originalBytes = new HashMap<Class<?>, byte[]>();
+    private static final List<Class<?>> targetClasses = new ArrayList<Class<?>>();
+
+    private static final int BASE_ADVICE_ID = 200000;
+
+    private boolean isBatchReTransform;
+    private long reTransformChunkBudget;
+    private int enhanceParallelism;
+
+    private FakeInstrumentation fakeInst;
+    private Instrumentation inst;
+
+    @BeforeClass
+    public static void beforeClass() {
+        final TargetClassLoader loader = new TargetClassLoader();
+        for (int index = 0; index < CLASS_COUNT; index++) {
+            final String className = String.format("enhancer.target.Target%02d", index);
+            final byte[] classBytes = newTargetClassBytes(className, index);
+            final Class<?> clazz = loader.define(className, classBytes);
+            originalBytes.put(clazz, classBytes);
+            targetClasses.add(clazz);
+        }
+        ReflectManager.Factory.initInstance(new ClassDataSource() {
+            @Override
+            public Collection<Class<?>> allLoadedClasses() {
+                return new ArrayList<Class<?>>(targetClasses);
+            }
+        });
+    }
+
+    @Before
+    public void before() {
+        isBatchReTransform = GlobalOptions.isBatchReTransform;
+        reTransformChunkBudget = GlobalOptions.reTransformChunkBudget;
+        enhanceParallelism = GlobalOptions.enhanceParallelism;
+        GlobalOptions.isBatchReTransform = true;
+        GlobalOptions.reTransformChunkBudget = 50;
+        GlobalOptions.enhanceParallelism = 1;
+        fakeInst = new FakeInstrumentation();
+        inst = fakeInst.newProxy();
+    }
+
+    @After
+    public void after() throws Exception {
+        Enhancer.reset(inst);
+        GlobalOptions.isBatchReTransform = isBatchReTransform;
+        GlobalOptions.reTransformChunkBudget = reTransformChunkBudget;
+        GlobalOptions.enhanceParallelism = enhanceParallelism;
+    }
+
+    @Test
+    public void testEnhanceAndReset() throws Exception {
+        final int adviceId = BASE_ADVICE_ID;
+        final EnhancerAffect affect = Enhancer.enhance(inst, adviceId, false, AdviceCapable.EVENT_ALL, newPointCut(), null);
+        Assert.assertFalse(affect.isAborted());
+        Assert.assertEquals(CLASS_COUNT, affect.cCnt());
+        for (final Class<?> clazz : targetClasses) {
+            Assert.assertTrue(clazz.getName(), fakeInst.isEnhanced(clazz));
+        }
+
+        Enhancer.reset(inst, adviceId);
+        assertRestored();
+    }
+
+    @Test
+    public void testAbortAfterFirstChunkThenReset() throws Exception {
+        final int adviceId = BASE_ADVICE_ID + 1;
+        final EnhancerAffect affect = Enhancer.enhance(inst, adviceId, false, AdviceCapable.EVENT_ALL, newPointCut(), new Enhancer.Progress() {
+            @Override
+            public boolean progress(int transformed, int total) {
+                return false;
+            }
+        });
+        Assert.assertTrue(affect.isAborted());
+
+        // 第一批已经完成重新转换,其余的类没有被增强
+        int enhanced = 0;
+        for (final Class<?> clazz : targetClasses) {
+            if (fakeInst.isEnhanced(clazz)) {
+                enhanced++;
+            }
+        }
+        Assert.assertTrue(enhanced > 0);
+        Assert.assertTrue(enhanced < CLASS_COUNT);
+
+        // 放弃的通知同样会被注销并重置,已经增强的类必须全部还原
+        AdviceWeaver.unReg(adviceId);
+        Enhancer.reset(inst, adviceId);
+        assertRestored();
+    }
+
+    @Test
+    public void testFailAfterFirstChunkThenReset() throws Exception {
+        final int adviceId = BASE_ADVICE_ID + 2;
+        fakeInst.failAfterChunks = 1;
+        try {
+            Enhancer.enhance(inst, adviceId, false, AdviceCapable.EVENT_ALL, newPointCut(), null);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // ok
+        }
+        fakeInst.failAfterChunks = -1;
+        Assert.assertTrue(fakeInst.isEnhanced(targetClasses.get(0)));
+
+        AdviceWeaver.unReg(adviceId);
+        Enhancer.reset(inst, adviceId);
+        assertRestored();
+    }
+
+    @Test
+    public void testCapabilitiesActivatedAfterReTransform() throws Exception {
+        final int beforeAdviceId = BASE_ADVICE_ID + 3;
+        Enhancer.enhance(inst, beforeAdviceId, false, AdviceCapable.EVENT_BEFORE, newPointCut(), null);
+        for (final Class<?> clazz : targetClasses) {
+            Assert.assertFalse(clazz.getName(), sizeMeta(clazz).isEndWoven());
+        }
+
+        // 增加结束钩子时,尚未重新转换的类仍然按照没有结束钩子处理
+        final int endAdviceId = BASE_ADVICE_ID + 4;
+        final List<String> errors = new ArrayList<String>();
+        Enhancer.enhance(inst, endAdviceId, false, AdviceCapable.EVENT_ALL, newPointCut(), new Enhancer.Progress() {
+            @Override
+            public boolean progress(int transformed, int total) {
+                for (int index = 0; index < targetClasses.size(); index++) {
+                    final Class<?> clazz = targetClasses.get(index);
+                    if (sizeMeta(clazz).isEndWoven() != index < transformed) {
+                        errors.add(clazz.getName() + "@" + transformed);
+                    }
+                }
+                return true;
+            }
+        });
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        for (final Class<?> clazz : targetClasses) {
+            Assert.assertTrue(clazz.getName(), sizeMeta(clazz).isEndWoven());
+        }
+
+        // 类还原后不再压帧
+        Enhancer.reset(inst, endAdviceId);
+        Enhancer.reset(inst, beforeAdviceId);
+        assertRestored();
+        for (final Class<?> clazz : targetClasses) {
+            Assert.assertFalse(clazz.getName(), sizeMeta(clazz).isEndWoven());
+        }
+    }
+
+    private static MethodMeta sizeMeta(Class<?> clazz) {
+        return AdviceWeaver.regMethodMeta(clazz, "size", "()I");
+    }
+
+    private void assertRestored() {
+        for (final Class<?> clazz : targetClasses) {
+            Assert.assertFalse(clazz.getName(), fakeInst.isEnhanced(clazz));
+            Assert.assertTrue(clazz.getName(), AdviceWeaver.getWovenMethodMetas(clazz).isEmpty());
+        }
+    }
+
+    private static PointCut newPointCut() {
+        return new PointCut(
+                new Matcher<Class<?>>() {
+                    @Override
+                    public boolean matching(Class<?> target) {
+                        return targetClasses.contains(target);
+                    }
+                },
+                new Matcher<GaMethod>() {
+                    @Override
+                    public boolean matching(GaMethod target) {
+                        return "size".equals(target.getName());
+                    }
+                }
+        );
+    }
+
+    /*
+     * 生成目标类: public class Target { public int size() { return index; } }
+     */
+    private static byte[] newTargetClassBytes(String className, int index) {
+        final String internalName = className.replace('.', '/');
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName, null, "java/lang/Object", null);
+
+        final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        final MethodVisitor size = cw.visitMethod(Opcodes.ACC_PUBLIC, "size", "()I", null, null);
+        size.visitCode();
+        size.visitLdcInsn(index);
+        size.visitInsn(Opcodes.IRETURN);
+        size.visitMaxs(0, 0);
+        size.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /*
+     * 定义目标类的ClassLoader
+     */
+    private static class TargetClassLoader extends ClassLoader {
+
+        TargetClassLoader() {
+            super(EnhancerTestCase.class.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] classBytes) {
+            return defineClass(className, classBytes, 0, classBytes.length);
+        }
+
+    }
+
+    /*
+     * 模拟的Instrumentation<br/>
+     * 重新转换时按顺序调用所有转换器,记录每个类最终生效的字节码;用动态代理实现,不依赖具体JDK版本的接口方法
+     */
+    private static class FakeInstrumentation implements InvocationHandler {
+
+        private final List<ClassFileTransformer> transformers = new ArrayList<ClassFileTransformer>();
+
+        // 当前生效的增强字节码,没有则为原始字节码
+        private final Map<Class<?>, byte[]> enhancedBytes = new HashMap<Class<?>, byte[]>();
+
+        // 成功重新转换这么多批之后失败,为负数则不失败
+        private int failAfterChunks = -1;
+        private int chunks;
+
+        Instrumentation newProxy() {
+            return (Instrumentation) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[]{Instrumentation.class},
+                    this
+            );
+        }
+
+        boolean isEnhanced(Class<?> clazz) {
+            return enhancedBytes.containsKey(clazz);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("addTransformer".equals(name)) {
+                transformers.add((ClassFileTransformer) args[0]);
+                return null;
+            } else if ("removeTransformer".equals(name)) {
+                return transformers.remove(args[0]);
+            } else if ("retransformClasses".equals(name)) {
+                reTransform((Class<?>[]) args[0]);
+                return null;
+            } else if ("isRetransformClassesSupported".equals(name)
+                    || "isModifiableClass".equals(name)) {
+                return true;
+            } else if ("getAllLoadedClasses".equals(name)) {
+                return targetClasses.toArray(new Class<?>[targetClasses.size()]);
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("toString".equals(name)) {
+                return "FakeInstrumentation";
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        /*
+         * 重新转换总是从原始字节码开始,一批中任意一个类失败则整批都不生效
+         */
+        private void reTransform(Class<?>[] classes) throws InvocationTargetException {
+            if (failAfterChunks >= 0
+                    && chunks >= failAfterChunks) {
+                throw new IllegalStateException("retransform failed.");
+            }
+            final Map<Class<?>, byte[]> chunkBytes = new HashMap<Class<?>, byte[]>();
+            for (final Class<?> clazz : classes) {
+                final byte[] original = originalBytes.get(clazz);
+                byte[] current = original;
+                for (final ClassFileTransformer transformer : new ArrayList<ClassFileTransformer>(transformers)) {
+                    try {
+                        final byte[] transformed = transformer.transform(
+                                clazz.getClassLoader(),
+                                clazz.getName().replace('.', '/'),
+                                clazz,
+                                clazz.getProtectionDomain(),
+                                current
+                        );
+                        if (null != transformed) {
+                            current = transformed;
+                        }
+                    } catch (Exception e) {
+                        throw new InvocationTargetException(e);
+                    }
+                }
+                chunkBytes.put(clazz, Arrays.equals(original, current) ? null : current);
+            }
+            for (final Map.Entry<Class<?>, byte[]> entry : chunkBytes.entrySet()) {
+                if (null == entry.getValue()) {
+                    enhancedBytes.remove(entry.getKey());
+                } else {
+                    enhancedBytes.put(entry.getKey(), entry.getValue());
+                }
+            }
+            chunks++;
+        }
+
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+
+/**
+ * 织入栈帧基准测试<br/>
+ * 以classpath目录中所有1.7及以上版本的类作为语料,织入全部方法的所有事件和调用跟踪,
+ * 分别统计重新计算栈帧和修补栈帧平均每个类的织入耗时,并在新的ClassLoader中校验修补的结果,需要时手工运行
+ */
+@Ignore
+public class FramePatcherBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+
+    @Test
+    public void benchmark() throws IOException {
+        final List<byte[]> corpus = loadClassBytes();
+        final List<Map<String, MethodMeta>> wovenMethodMetas = new ArrayList<Map<String, MethodMeta>>();
+        for (final byte[] classBytes : corpus) {
+            wovenMethodMetas.add(toWovenMethodMetas(classBytes));
+        }
+        System.out.println("corpus: " + corpus.size() + " classes");
+
+        benchmark(corpus, wovenMethodMetas, false);
+        benchmark(corpus, wovenMethodMetas, true);
+    }
+
+    private void benchmark(List<byte[]> corpus, List<Map<String, MethodMeta>> wovenMethodMetas, boolean isPatchFrames) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            weaving(corpus, wovenMethodMetas, isPatchFrames);
+        }
+
+        // 取多轮中最快的一轮
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            final long beginNanos = System.nanoTime();
+            weaving(corpus, wovenMethodMetas, isPatchFrames);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - beginNanos);
+        }
+
+        // 修补失败(会退回到重新计算)和校验失败的类
+        int fallbacks = 0;
+        int verifyErrors = 0;
+        if (isPatchFrames) {
+            for (int index = 0; index < corpus.size(); index++) {
+                final byte[] wovenBytes;
+                try {
+                    wovenBytes = weaving(new ClassHierarchy(), corpus.get(index), wovenMethodMetas.get(index), true);
+                } catch (Throwable t) {
+                    fallbacks++;
+                    continue;
+                }
+                if (!isVerified(wovenBytes)) {
+                    verifyErrors++;
+                }
+            }
+        }
+
+        System.out.println(String.format("%-10s %6dus/class fallbacks=%d verifyErrors=%d",
+                isPatchFrames ? "PATCH" : "RECOMPUTE",
+                bestNanos / 1000 / Math.max(1, corpus.size()),
+                fallbacks,
+                verifyErrors));
+    }
+
+    /*
+     * 每一轮相当于一次增强过程,共享一个类继承关系解析
+     */
+    private void weaving(List<byte[]> corpus, List<Map<String, MethodMeta>> wovenMethodMetas, boolean isPatchFrames) {
+        final ClassHierarchy hierarchy = new ClassHierarchy();
+        for (int index = 0; index < corpus.size(); index++) {
+            try {
+                weaving(hierarchy, corpus.get(index), wovenMethodMetas.get(index), isPatchFrames);
+            } catch (Throwable t) {
+                // 修补失败的类在统计时单独计数
+            }
+        }
+    }
+
+    /*
+     * 与Enhancer的织入方式一致
+     */
+    private byte[] weaving(final ClassHierarchy hierarchy, byte[] classBytes, Map<String, MethodMeta> wovenMethodMetas, boolean isPatchFrames) {
+        final ClassReader cr = new ClassReader(classBytes);
+        final ClassWriter cw = new ClassWriter(cr, isPatchFrames ? COMPUTE_MAXS : COMPUTE_FRAMES | COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return hierarchy.getCommonSuperClass(FramePatcherBenchmark.class.getClassLoader(), type1, type2);
+            }
+        };
+        cr.accept(new AdviceWeaver(cr.getClassName(), wovenMethodMetas, isPatchFrames, cw), EXPAND_FRAMES);
+        return cw.toByteArray();
+    }
+
+    /*
+     * 在新的ClassLoader中定义并链接,非bootstrap加载的类总会经过字节码校验
+     */
+    private boolean isVerified(final byte[] classBytes) {
+        final String className = new ClassReader(classBytes).getClassName().replace('/', '.');
+        final ClassLoader loader = new ClassLoader(FramePatcherBenchmark.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (name.equals(className)) {
+                    synchronized (getClassLoadingLock(name)) {
+                        final Class<?> clazz = findLoadedClass(name);
+                        return null == clazz
+                                ? defineClass(name, classBytes, 0, classBytes.length)
+                                : clazz;
+                    }
+                }
+                return super.loadClass(name, resolve);
+            }
+        };
+        try {
+            Class.forName(className, false, loader).getDeclaredMethods();
+            return true;
+        } catch (VerifyError e) {
+            System.out.println(className + ": " + e.getMessage());
+            return false;
+        } catch (Throwable t) {
+            // 与校验无关的链接错误
+            return true;
+        }
+    }
+
+    /*
+     * 织入类中除类初始化之外的所有方法
+     */
+    private Map<String, MethodMeta> toWovenMethodMetas(byte[] classBytes) {
+        final Map<String, MethodMeta> wovenMethodMetas = new HashMap<String, MethodMeta>();
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                if (!"<clinit>".equals(name)) {
+                    final MethodMeta meta = new MethodMeta(0, FramePatcherBenchmark.class, name, desc);
+                    meta.isWoven = true;
+                    meta.wovenCapabilities = AdviceCapable.ALL;
+                    meta.addTracingFilter(null);
+                    wovenMethodMetas.put(MethodMeta.toKey(name, desc), meta);
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE);
+        return wovenMethodMetas;
+    }
+
+    /*
+     * 读取classpath目录中所有1.7及以上版本的类
+     */
+    private List<byte[]> loadClassBytes() throws IOException {
+        final List<byte[]> corpus = new ArrayList<byte[]>();
+        for (final String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            final File dir = new File(path);
+            if (!dir.isDirectory()) {
+                continue;
+            }
+            for (final File file : FileUtils.listFiles(dir, new String[]{"class"}, true)) {
+                final byte[] classBytes = FileUtils.readFileToByteArray(file);
+                if (new ClassReader(classBytes).readUnsignedShort(6) >= Opcodes.V1_7) {
+                    corpus.add(classBytes);
+                }
+            }
+        }
+        return corpus;
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+
+/**
+ * 栈帧修补器测试用例<br/>
+ * 生成的类都在新的ClassLoader中定义并完成链接,非bootstrap加载的类总会经过字节码校验
+ */
+public class FramePatcherTestCase implements Opcodes {
+
+    private static final String OWNER = "frame/patcher/Generated";
+
+    @Test
+    public void testLocals() {
+        final FramePatcher patcher = newPatcher(newClassWriter());
+        patcher.visitCode();
+
+        // long/double在F_NEW格式中只占一项
+        Assert.assertArrayEquals(new Object[]{LONG, DOUBLE, INTEGER}, patcher.getLocals());
+
+        patcher.visitInsn(ICONST_0);
+        patcher.visitInsn(IRETURN);
+        try {
+            patcher.getLocals();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // 不可达
+        }
+    }
+
+    @Test
+    public void testPatchJumpAndCatchFrames() throws Exception {
+        final ClassWriter cw = newClassWriter();
+        writePick(newPatcher(cw), false);
+        final byte[] classBytes = toByteArray(cw);
+
+        // 前向跳转的目标和异常处理块都补上了栈帧
+        final List<Object[]> frameLocals = readFrameLocals(classBytes);
+        Assert.assertEquals(2, frameLocals.size());
+        Assert.assertArrayEquals(new Object[]{LONG, DOUBLE, INTEGER}, frameLocals.get(0));
+        Assert.assertArrayEquals(new Object[]{LONG, DOUBLE, INTEGER}, frameLocals.get(1));
+
+        final Class<?> clazz = new TargetClassLoader().defineAndLink(OWNER.replace('/', '.'), classBytes);
+        Assert.assertEquals(1, clazz.getMethod("pick", long.class, double.class, int.class).invoke(null, 1L, 1d, 1));
+        Assert.assertEquals(0, clazz.getMethod("pick", long.class, double.class, int.class).invoke(null, 1L, 1d, 0));
+    }
+
+    @Test
+    public void testOriginalFrameWins() throws Exception {
+        final ClassWriter cw = newClassWriter();
+        writePick(newPatcher(cw), true);
+        final byte[] classBytes = toByteArray(cw);
+
+        // 同一位置上只保留原有的栈帧
+        final List<Object[]> frameLocals = readFrameLocals(classBytes);
+        Assert.assertEquals(2, frameLocals.size());
+        Assert.assertArrayEquals(new Object[]{LONG}, frameLocals.get(1));
+        new TargetClassLoader().defineAndLink(OWNER.replace('/', '.'), classBytes);
+    }
+
+    @Test(expected = VerifyError.class)
+    public void testVerifierOn() throws Exception {
+        // 缺少栈帧的类无法通过校验,确认定义出的类确实经过了校验
+        final ClassWriter cw = newClassWriter();
+        writePick(cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "pick", "(JDI)I", null, null), null, false);
+        new TargetClassLoader().defineAndLink(OWNER.replace('/', '.'), toByteArray(cw));
+    }
+
+    @Test
+    public void testWeaveWideTryCatch() throws Exception {
+        final byte[] originalBytes = readClassBytes(WideTryCatch.class);
+        final Map<String, MethodMeta> wovenMethodMetas = new HashMap<String, MethodMeta>();
+        new ClassReader(originalBytes).accept(new ClassVisitor(ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                if (!"<clinit>".equals(name)) {
+                    final MethodMeta meta = AdviceWeaver.regMethodMeta(WideTryCatch.class, name, desc);
+                    meta.isWoven = true;
+                    meta.wovenCapabilities = AdviceCapable.ALL;
+                    meta.addTracingFilter(null);
+                    wovenMethodMetas.put(MethodMeta.toKey(name, desc), meta);
+                }
+                return null;
+            }
+        }, 0);
+
+        // 只修补栈帧,不重新计算,修补失败即抛出异常
+        final ClassReader cr = new ClassReader(originalBytes);
+        final ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
+        cr.accept(new AdviceWeaver(cr.getClassName(), wovenMethodMetas, true, cw), EXPAND_FRAMES);
+        final byte[] wovenBytes = cw.toByteArray();
+        Assert.assertTrue(readFrameLocals(wovenBytes).size() > readFrameLocals(originalBytes).size());
+
+        final Class<?> clazz = new TargetClassLoader().defineAndLink(WideTryCatch.class.getName(), wovenBytes);
+        Assert.assertNotSame(WideTryCatch.class, clazz);
+    }
+
+    /**
+     * 织入目标:覆盖整个方法的try/catch,long/double局部变量,循环、条件跳转和同步块
+     */
+    public static class WideTryCatch {
+
+        private long total;
+
+        public WideTryCatch(long initial, double scale) {
+            long value = initial;
+            try {
+                if (scale > 1d) {
+                    value = (long) (initial * scale);
+                }
+            } catch (RuntimeException e) {
+                value = -1L;
+            }
+            this.total = value;
+        }
+
+        public double compute(long count, double factor) {
+            long sum = 0L;
+            double avg = 0d;
+            try {
+                for (long index = 0; index < count; index++) {
+                    sum += index;
+                    if ((index & 1) == 0) {
+                        avg = sum * factor;
+                    } else {
+                        avg -= factor;
+                    }
+                }
+                final String text = count > 8 ? String.valueOf(sum) : "";
+                avg += text.length();
+            } catch (IllegalStateException e) {
+                avg = -1d;
+            } catch (RuntimeException e) {
+                avg = -2d;
+            } finally {
+                total += sum;
+            }
+            return avg + sum;
+        }
+
+        public static long mix(int value, long base, double ratio, Object target) {
+            try {
+                if (target instanceof String) {
+                    return ((String) target).length() + base;
+                }
+                synchronized (WideTryCatch.class) {
+                    final double product = value * ratio;
+                    return (long) product + base;
+                }
+            } catch (Throwable t) {
+                return -1L;
+            }
+        }
+
+    }
+
+    private static FramePatcher newPatcher(ClassWriter cw) {
+        return new FramePatcher(OWNER, ACC_PUBLIC | ACC_STATIC, "pick", "(JDI)I",
+                cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "pick", "(JDI)I", null, null));
+    }
+
+    /*
+     * 生成: static int pick(long l, double d, int flag) { try { return flag != 0 ? 1 : 0; } catch (Throwable t) { return -1; } }
+     * 只在原有栈帧的位置写入原有的栈帧,其余栈帧由栈帧修补器补上
+     */
+    private static void writePick(FramePatcher patcher, boolean isOriginalFrame) {
+        writePick(patcher, patcher, isOriginalFrame);
+    }
+
+    private static void writePick(MethodVisitor mv, FramePatcher patcher, boolean isOriginalFrame) {
+        final Label beginLabel = new Label();
+        final Label endLabel = new Label();
+        final Label handlerLabel = new Label();
+        final Label skipLabel = new Label();
+        mv.visitCode();
+        mv.visitTryCatchBlock(beginLabel, endLabel, handlerLabel, "java/lang/Throwable");
+        if (null != patcher) {
+            patcher.catchFrame(handlerLabel, patcher.getLocals(), "java/lang/Throwable");
+        }
+        mv.visitLabel(beginLabel);
+        mv.visitVarInsn(ILOAD, 4);
+        mv.visitJumpInsn(IFEQ, skipLabel);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(skipLabel);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(endLabel);
+        mv.visitLabel(handlerLabel);
+        if (isOriginalFrame) {
+            mv.visitFrame(F_NEW, 1, new Object[]{LONG}, 1, new Object[]{"java/lang/Throwable"});
+        }
+        mv.visitInsn(POP);
+        mv.visitInsn(ICONST_M1);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static ClassWriter newClassWriter() {
+        final ClassWriter cw = new ClassWriter(COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, OWNER, null, "java/lang/Object", null);
+        return cw;
+    }
+
+    private static byte[] toByteArray(ClassWriter cw) {
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /*
+     * 按出现顺序读取所有栈帧的局部变量类型
+     */
+    private static List<Object[]> readFrameLocals(byte[] classBytes) {
+        final List<Object[]> frameLocals = new ArrayList<Object[]>();
+        new ClassReader(classBytes).accept(new ClassVisitor(ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(ASM5) {
+                    @Override
+                    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+                        final Object[] locals = new Object[nLocal];
+                        System.arraycopy(local, 0, locals, 0, nLocal);
+                        frameLocals.add(locals);
+                    }
+                };
+            }
+        }, EXPAND_FRAMES);
+        return frameLocals;
+    }
+
+    private static byte[] readClassBytes(Class<?> clazz) throws IOException {
+        final InputStream is = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /*
+     * 定义目标类的ClassLoader
+     */
+    private static class TargetClassLoader extends ClassLoader {
+
+        TargetClassLoader() {
+            super(FramePatcherTestCase.class.getClassLoader());
+        }
+
+        Class<?> defineAndLink(String className, byte[] classBytes) throws ClassNotFoundException {
+            defineClass(className, classBytes, 0, classBytes.length);
+            return Class.forName(className, true, this);
+        }
+
+    }
+
+}
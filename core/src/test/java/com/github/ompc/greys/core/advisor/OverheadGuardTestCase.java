@@ -0,0 +1,142 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.util.perf.PerfHistogram;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通知开销守护测试用例
+ */
+public class OverheadGuardTestCase {
+
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private int budget;
+
+    private AdviceBinding binding;
+    private RecordingHandler handler;
+
+    @Before
+    public void before() {
+        budget = GlobalOptions.overheadBudget;
+        GlobalOptions.overheadBudget = 2;
+        binding = new AdviceBinding(1, new AdviceListenerAdapter(), null, null, new PerfHistogram());
+        handler = new RecordingHandler();
+    }
+
+    @After
+    public void after() {
+        GlobalOptions.overheadBudget = budget;
+    }
+
+    @Test
+    public void testUnderBudget() {
+        final OverheadGuard.Guarding guarding = new OverheadGuard.Guarding(binding, handler, 0, 1);
+
+        // 1秒内监听器耗时10ms,占比1%
+        binding.listenerNanos.record(TimeUnit.MILLISECONDS.toNanos(10));
+        OverheadGuard.checking(guarding, ONE_SECOND_NANOS);
+        Assert.assertTrue(handler.events.isEmpty());
+        Assert.assertNull(binding.sampler);
+    }
+
+    @Test
+    public void testNormalizeByProcessors() {
+
+        // 8个CPU的1秒内所有线程累计监听器耗时80ms,占比1%
+        final OverheadGuard.Guarding guarding = new OverheadGuard.Guarding(binding, handler, 0, 8);
+        binding.listenerNanos.record(TimeUnit.MILLISECONDS.toNanos(80));
+        OverheadGuard.checking(guarding, ONE_SECOND_NANOS);
+        Assert.assertTrue(handler.events.isEmpty());
+
+        // 同样的耗时只有1个CPU时占比8%
+        final OverheadGuard.Guarding single = new OverheadGuard.Guarding(binding, handler, 0, 1);
+        binding.listenerNanos.record(TimeUnit.MILLISECONDS.toNanos(80));
+        OverheadGuard.checking(single, ONE_SECOND_NANOS);
+        Assert.assertEquals(1, handler.events.size());
+        Assert.assertTrue(handler.events.get(0).startsWith("degrade"));
+    }
+
+    @Test
+    public void testDegradeThenDetach() {
+        final OverheadGuard.Guarding guarding = new OverheadGuard.Guarding(binding, handler, 0, 1);
+
+        // 1秒内监听器耗时100ms,占比10%,超出预算降级为采样
+        binding.listenerNanos.record(TimeUnit.MILLISECONDS.toNanos(100));
+        OverheadGuard.checking(guarding, ONE_SECOND_NANOS);
+        Assert.assertEquals(1, handler.events.size());
+        Assert.assertNotNull(binding.sampler);
+        Assert.assertTrue(handler.sampleCount >= 2);
+
+        // 降级后占比回落到预算之内,保持现状
+        binding.listenerNanos.record(TimeUnit.MILLISECONDS.toNanos(5));
+        OverheadGuard.checking(guarding, 2 * ONE_SECOND_NANOS);
+        Assert.assertEquals(1, handler.events.size());
+
+        // 降级后仍然超出预算,卸载
+        binding.listenerNanos.record(TimeUnit.MILLISECONDS.toNanos(50));
+        OverheadGuard.checking(guarding, 3 * ONE_SECOND_NANOS);
+        Assert.assertEquals(2, handler.events.size());
+        Assert.assertTrue(handler.events.get(1).startsWith("detach"));
+    }
+
+    @Test
+    public void testBudgetOff() {
+        GlobalOptions.overheadBudget = 0;
+        final OverheadGuard.Guarding guarding = new OverheadGuard.Guarding(binding, handler, 0, 1);
+        binding.listenerNanos.record(ONE_SECOND_NANOS / 2);
+        OverheadGuard.checking(guarding, ONE_SECOND_NANOS);
+        Assert.assertTrue(handler.events.isEmpty());
+    }
+
+    @Test
+    public void testInactive() {
+        binding.isActive = false;
+        final OverheadGuard.Guarding guarding = new OverheadGuard.Guarding(binding, handler, 0, 1);
+        binding.listenerNanos.record(ONE_SECOND_NANOS / 2);
+        OverheadGuard.checking(guarding, ONE_SECOND_NANOS);
+        Assert.assertTrue(handler.events.isEmpty());
+    }
+
+    @Test
+    public void testMeteringOnlyWithBudget() {
+        binding.endMetering(binding.beginMetering());
+        Assert.assertEquals(1, binding.listenerNanos.getCount());
+
+        // 没有设置开销预算时注册的通知不统计监听器耗时
+        GlobalOptions.overheadBudget = 0;
+        final AdviceBinding unMeteredBinding = new AdviceBinding(2, new AdviceListenerAdapter(), null, null, new PerfHistogram());
+        Assert.assertEquals(0, unMeteredBinding.beginMetering());
+        unMeteredBinding.endMetering(0);
+        Assert.assertEquals(0, unMeteredBinding.listenerNanos.getCount());
+    }
+
+    /*
+     * 记录回调的处理器
+     */
+    private static class RecordingHandler implements OverheadGuard.Handler {
+
+        private final List<String> events = new ArrayList<String>();
+        private int sampleCount;
+
+        @Override
+        public void onDegrade(int adviceId, double percent, int sampleCount) {
+            this.sampleCount = sampleCount;
+            events.add("degrade:" + adviceId);
+        }
+
+        @Override
+        public void onDetach(int adviceId, double percent) {
+            events.add("detach:" + adviceId);
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.github.ompc.greys.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 采样器测试用例
+ */
+public class SamplerTestCase {
+
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testNewInstance() {
+        Assert.assertNull(Sampler.newInstance(null, null));
+        Assert.assertNull(Sampler.newInstance(1, null));
+        Assert.assertNotNull(Sampler.newInstance(2, null));
+        Assert.assertNotNull(Sampler.newInstance(null, 10));
+        try {
+            Sampler.newInstance(0, null);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            Sampler.newInstance(null, -1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testCounting() {
+        final Sampler sampler = Sampler.newCountingInstance();
+        for (int index = 0; index < 1000; index++) {
+            Assert.assertTrue(sampler.sampling());
+        }
+        Assert.assertEquals(1000, sampler.getInvokeCount());
+        Assert.assertEquals(1000, sampler.getSampleCount());
+    }
+
+    @Test
+    public void testOneInN() {
+        final Sampler sampler = Sampler.newInstance(10, null);
+        final int invokes = 100000;
+        int sampled = 0;
+        for (int index = 0; index < invokes; index++) {
+            if (sampler.sampling()) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(invokes, sampler.getInvokeCount());
+        Assert.assertEquals(sampled, sampler.getSampleCount());
+
+        // 期望10000次,标准差约95
+        Assert.assertTrue(String.valueOf(sampled), Math.abs(sampled - invokes / 10) < 1000);
+    }
+
+    @Test
+    public void testDegrade() {
+        final Sampler sampler = Sampler.newCountingInstance();
+        Assert.assertEquals(4, sampler.degrade(4));
+        Assert.assertEquals(8, sampler.degrade(2));
+        final int invokes = 80000;
+        for (int index = 0; index < invokes; index++) {
+            sampler.sampling();
+        }
+        Assert.assertTrue(String.valueOf(sampler.getSampleCount()), Math.abs(sampler.getSampleCount() - invokes / 8) < 1000);
+    }
+
+    @Test
+    public void testRate() {
+        final long beginNanos = 0;
+        final Sampler sampler = new Sampler(0, 10, beginNanos);
+
+        // 创建时已积攒了1秒的令牌,加上当前的1个
+        int permits = 0;
+        for (int index = 0; index < 100; index++) {
+            if (sampler.tryAcquirePermit(beginNanos)) {
+                permits++;
+            }
+        }
+        Assert.assertEquals(11, permits);
+
+        // 之后每100ms发放一个令牌
+        Assert.assertFalse(sampler.tryAcquirePermit(beginNanos + ONE_SECOND_NANOS / 20));
+        Assert.assertTrue(sampler.tryAcquirePermit(beginNanos + ONE_SECOND_NANOS / 10));
+        Assert.assertFalse(sampler.tryAcquirePermit(beginNanos + ONE_SECOND_NANOS / 10));
+
+        // 空闲很久后最多积攒1秒的令牌,加上当前的1个
+        final long idleNanos = beginNanos + 100 * ONE_SECOND_NANOS;
+        permits = 0;
+        for (int index = 0; index < 100; index++) {
+            if (sampler.tryAcquirePermit(idleNanos)) {
+                permits++;
+            }
+        }
+        Assert.assertEquals(11, permits);
+    }
+
+    @Test
+    public void testRateOnlyAfterOneInN() {
+        final Sampler sampler = Sampler.newInstance(1000, 1000000);
+        final int invokes = 10000;
+        for (int index = 0; index < invokes; index++) {
+            sampler.sampling();
+        }
+
+        // 令牌足够,采样数只受比例限制
+        Assert.assertTrue(String.valueOf(sampler.getSampleCount()), sampler.getSampleCount() < 100);
+        Assert.assertEquals(invokes, sampler.getInvokeCount());
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.github.ompc.greys.core.advisor;
+
+import com.github.ompc.greys.core.GlobalOptions;
+import com.github.ompc.greys.core.util.perf.GaPerf;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+
+/**
+ * 增强字节码磁盘缓存测试用例<br/>
+ * 两个会话中同一份原始字节码分别由不同的ClassLoader定义,方法ID也各不相同,模拟重新挂载或JVM重启
+ */
+public class WeaveCacheTestCase {
+
+    private static final String CLASS_NAME = "weave.cache.Target";
+
+    // 目标类中原有的整数常量,恰好与方法ID占位常量的起始值相同
+    private static final int ORIGINAL_CONSTANT = 0x7A000000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private int weaveCacheCapacity;
+
+    private File cacheDir;
+    private byte[] originalBytes;
+
+    @Before
+    public void before() {
+        weaveCacheCapacity = GlobalOptions.weaveCacheCapacity;
+        GlobalOptions.weaveCacheCapacity = 64;
+        cacheDir = new File(folder.getRoot(), "weave-cache");
+        originalBytes = newTargetClassBytes();
+    }
+
+    @After
+    public void after() {
+        GlobalOptions.weaveCacheCapacity = weaveCacheCapacity;
+    }
+
+    @Test
+    public void testHitAcrossSessions() {
+
+        // 第一个会话,未命中,编织后写入缓存
+        final Map<String, MethodMeta> firstMetas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        final CountingWeaver firstWeaver = new CountingWeaver(firstMetas);
+        final long misses = GaPerf.WEAVE_CACHE_MISSES.sum();
+        final byte[] firstBytes = new WeaveCache(cacheDir, "test").weaving(originalBytes, firstMetas, firstWeaver);
+        Assert.assertEquals(1, firstWeaver.times);
+        Assert.assertEquals(misses + 1, GaPerf.WEAVE_CACHE_MISSES.sum());
+        Assert.assertTrue(readLdcIntegers(firstBytes).contains(sizeMeta(firstMetas).id));
+
+        // 第二个会话,方法ID已经不同,依然命中
+        newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        final Map<String, MethodMeta> secondMetas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        Assert.assertTrue(sizeMeta(firstMetas).id != sizeMeta(secondMetas).id);
+        final CountingWeaver secondWeaver = new CountingWeaver(secondMetas);
+        final long hits = GaPerf.WEAVE_CACHE_HITS.sum();
+        final byte[] secondBytes = new WeaveCache(cacheDir, "test").weaving(originalBytes, secondMetas, secondWeaver);
+        Assert.assertEquals(0, secondWeaver.times);
+        Assert.assertEquals(hits + 1, GaPerf.WEAVE_CACHE_HITS.sum());
+
+        // 取出的字节码中换上了本次的方法ID,与不经过缓存编织的结果一致
+        final Set<Integer> ldcIntegers = readLdcIntegers(secondBytes);
+        Assert.assertTrue(ldcIntegers.contains(sizeMeta(secondMetas).id));
+        Assert.assertFalse(ldcIntegers.contains(sizeMeta(firstMetas).id));
+        Assert.assertTrue(ldcIntegers.contains(ORIGINAL_CONSTANT));
+        final byte[] uncachedBytes = new WeaveCache(new File(folder.getRoot(), "other"), "test")
+                .weaving(originalBytes, secondMetas, new CountingWeaver(secondMetas));
+        Assert.assertTrue(Arrays.equals(uncachedBytes, secondBytes));
+    }
+
+    @Test
+    public void testMissOnDifferentPlan() {
+        final Map<String, MethodMeta> firstMetas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        new WeaveCache(cacheDir, "test").weaving(originalBytes, firstMetas, new CountingWeaver(firstMetas));
+
+        // 织入的事件不同
+        final Map<String, MethodMeta> beforeMetas = newWovenMethodMetas(AdviceCapable.EVENT_BEFORE);
+        final CountingWeaver beforeWeaver = new CountingWeaver(beforeMetas);
+        new WeaveCache(cacheDir, "test").weaving(originalBytes, beforeMetas, beforeWeaver);
+        Assert.assertEquals(1, beforeWeaver.times);
+
+        // Greys版本不同
+        final Map<String, MethodMeta> versionMetas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        final CountingWeaver versionWeaver = new CountingWeaver(versionMetas);
+        new WeaveCache(cacheDir, "other").weaving(originalBytes, versionMetas, versionWeaver);
+        Assert.assertEquals(1, versionWeaver.times);
+    }
+
+    @Test
+    public void testCorruptedDiscarded() throws IOException {
+        final Map<String, MethodMeta> firstMetas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        new WeaveCache(cacheDir, "test").weaving(originalBytes, firstMetas, new CountingWeaver(firstMetas));
+        final File[] files = cacheDir.listFiles();
+        Assert.assertEquals(1, files.length);
+
+        // 篡改缓存文件中的一个字节,校验不通过时重新编织并覆盖损坏的文件
+        final byte[] fileBytes = FileUtils.readFileToByteArray(files[0]);
+        fileBytes[fileBytes.length - 1] ^= 0x01;
+        FileUtils.writeByteArrayToFile(files[0], fileBytes);
+
+        final Map<String, MethodMeta> secondMetas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        final CountingWeaver secondWeaver = new CountingWeaver(secondMetas);
+        final WeaveCache weaveCache = new WeaveCache(cacheDir, "test");
+        weaveCache.weaving(originalBytes, secondMetas, secondWeaver);
+        Assert.assertEquals(1, secondWeaver.times);
+        Assert.assertFalse(Arrays.equals(fileBytes, FileUtils.readFileToByteArray(files[0])));
+
+        // 重新写入的文件可以正常命中
+        final Map<String, MethodMeta> thirdMetas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        final CountingWeaver thirdWeaver = new CountingWeaver(thirdMetas);
+        weaveCache.weaving(originalBytes, thirdMetas, thirdWeaver);
+        Assert.assertEquals(0, thirdWeaver.times);
+    }
+
+    @Test
+    public void testDisabled() {
+        GlobalOptions.weaveCacheCapacity = 0;
+        final Map<String, MethodMeta> metas = newWovenMethodMetas(AdviceCapable.EVENT_ALL);
+        final CountingWeaver weaver = new CountingWeaver(metas);
+        final WeaveCache weaveCache = new WeaveCache(cacheDir, "test");
+        weaveCache.weaving(originalBytes, metas, weaver);
+        weaveCache.weaving(originalBytes, metas, weaver);
+        Assert.assertEquals(2, weaver.times);
+        Assert.assertTrue(weaver.isDirect);
+        Assert.assertFalse(cacheDir.exists());
+    }
+
+    /*
+     * 在新的ClassLoader中定义目标类,登记需要织入的方法
+     */
+    private Map<String, MethodMeta> newWovenMethodMetas(int capabilities) {
+        final Class<?> clazz = new TargetClassLoader().define(CLASS_NAME, originalBytes);
+        final MethodMeta meta = AdviceWeaver.regMethodMeta(clazz, "size", "()I");
+        meta.isWoven = true;
+        meta.wovenCapabilities = capabilities;
+        final Map<String, MethodMeta> metas = new HashMap<String, MethodMeta>();
+        metas.put(MethodMeta.toKey("size", "()I"), meta);
+        return metas;
+    }
+
+    private static MethodMeta sizeMeta(Map<String, MethodMeta> metas) {
+        return metas.get(MethodMeta.toKey("size", "()I"));
+    }
+
+    /*
+     * 读取类中所有以ldc加载的整数常量
+     */
+    private static Set<Integer> readLdcIntegers(byte[] classBytes) {
+        final Set<Integer> ldcIntegers = new HashSet<Integer>();
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM5) {
+                    @Override
+                    public void visitLdcInsn(Object cst) {
+                        if (cst instanceof Integer) {
+                            ldcIntegers.add((Integer) cst);
+                        }
+                    }
+                };
+            }
+        }, 0);
+        return ldcIntegers;
+    }
+
+    /*
+     * 生成目标类: public class Target { public int size() { return ORIGINAL_CONSTANT; } }
+     */
+    private static byte[] newTargetClassBytes() {
+        final String internalName = CLASS_NAME.replace('.', '/');
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName, null, "java/lang/Object", null);
+
+        final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        final MethodVisitor size = cw.visitMethod(Opcodes.ACC_PUBLIC, "size", "()I", null, null);
+        size.visitCode();
+        size.visitLdcInsn(ORIGINAL_CONSTANT);
+        size.visitInsn(Opcodes.IRETURN);
+        size.visitMaxs(0, 0);
+        size.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /*
+     * 直接以AdviceWeaver修补栈帧编织,记录编织次数
+     */
+    private class CountingWeaver implements WeaveCache.Weaver {
+
+        private final Map<String, MethodMeta> wovenMethodMetas;
+        private int times;
+        private boolean isDirect;
+
+        CountingWeaver(Map<String, MethodMeta> wovenMethodMetas) {
+            this.wovenMethodMetas = wovenMethodMetas;
+        }
+
+        @Override
+        public byte[] weaving(Map<String, Integer> idConstants) {
+            times++;
+            isDirect = null == idConstants;
+            final ClassReader cr = new ClassReader(originalBytes);
+            final ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
+            cr.accept(new AdviceWeaver(cr.getClassName(), wovenMethodMetas, true, idConstants, cw), EXPAND_FRAMES);
+            return cw.toByteArray();
+        }
+
+    }
+
+    /*
+     * 定义目标类的ClassLoader
+     */
+    private static class TargetClassLoader extends ClassLoader {
+
+        TargetClassLoader() {
+            super(WeaveCacheTestCase.class.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] classBytes) {
+            return defineClass(className, classBytes, 0, classBytes.length);
+        }
+
+    }
+
+}
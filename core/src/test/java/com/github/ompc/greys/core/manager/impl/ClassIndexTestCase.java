@@ -0,0 +1,277 @@
+package com.github.ompc.greys.core.manager.impl;
+
+import com.github.ompc.greys.core.ClassDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 已加载类的索引测试用例<br/>
+ * 目标类由ASM生成,在记录loadClass调用的ClassLoader中定义
+ */
+public class ClassIndexTestCase {
+
+    private final List<Class<?>> loadedClasses = new ArrayList<Class<?>>();
+    private int reconcileTimes;
+    private int scanTimes;
+
+    private TargetClassLoader loader;
+    private Instrumentation inst;
+    private ClassIndex classIndex;
+
+    @Before
+    public void before() {
+        loader = new TargetClassLoader();
+        inst = newInstrumentation();
+        classIndex = new ClassIndex(new ClassDataSource() {
+            @Override
+            public Collection<Class<?>> allLoadedClasses() {
+                reconcileTimes++;
+                return new ArrayList<Class<?>>(loadedClasses);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        classIndex.unObserve(inst);
+    }
+
+    @Test
+    public void testLookupNeverLoads() {
+        classIndex.observe(inst);
+        Assert.assertTrue(classIndex.getClasses("index.target.").isEmpty());
+
+        final Class<?> fooClass = define("index.target.Foo", "java/lang/Object");
+        classIndex.transform(loader, "index/target/Missing", null, null, new byte[0]);
+        final int loadTimes = loader.loadTimes;
+
+        final Collection<Class<?>> classes = classIndex.getClasses("index.target.");
+        Assert.assertEquals(1, classes.size());
+        Assert.assertTrue(classes.contains(fooClass));
+
+        // 尚未定义的类不会经由ClassLoader加载,也不会在查询时全量核对
+        Assert.assertEquals(loadTimes, loader.loadTimes);
+        Assert.assertEquals(1, reconcileTimes);
+    }
+
+    @Test
+    public void testResolveWhenDefined() {
+        classIndex.observe(inst);
+        classIndex.getClasses("");
+
+        // 查询时尚未定义完成的类在下次查询时找出,不需要等待全量核对
+        final byte[] lateBytes = newClassBytes("index.target.Late", "java/lang/Object");
+        classIndex.transform(loader, "index/target/Late", null, null, lateBytes);
+        Assert.assertTrue(classIndex.getClasses("index.target.").isEmpty());
+        final Class<?> lateClass = loader.define("index.target.Late", lateBytes);
+        loadedClasses.add(lateClass);
+        Assert.assertTrue(classIndex.getClasses("index.target.").contains(lateClass));
+        Assert.assertEquals(1, reconcileTimes);
+
+        // 能按类名直接找出时不再扫描ClassLoader已发起加载的类
+        scanTimes = 0;
+        final Class<?> fooClass = define("index.target.Foo", "java/lang/Object");
+        Assert.assertTrue(classIndex.getClasses("index.target.").contains(fooClass));
+        if (ClassIndex.isFindLoadedClassAccessible()) {
+            Assert.assertEquals(0, scanTimes);
+        }
+    }
+
+    @Test
+    public void testReconcileOnlyWhenUnObserved() {
+        classIndex.observe(inst);
+        classIndex.getClasses("");
+        define("index.target.Foo", "java/lang/Object");
+        classIndex.getClasses("");
+        classIndex.getSubClasses(Runnable.class);
+        Assert.assertEquals(1, reconcileTimes);
+
+        // 不经过ClassFileTransformer的类由全量核对补齐
+        final Class<?> hiddenClass = new TargetClassLoader().define("index.target.Hidden", newClassBytes("index.target.Hidden", "java/lang/Object"));
+        loadedClasses.add(hiddenClass);
+        Assert.assertFalse(classIndex.getClasses("index.target.").contains(hiddenClass));
+        classIndex.reconcile();
+        Assert.assertTrue(classIndex.getClasses("index.target.").contains(hiddenClass));
+        Assert.assertEquals(2, reconcileTimes);
+
+        // 没有观察者时每次查询都全量核对
+        classIndex.unObserve(inst);
+        classIndex.getClasses("");
+        classIndex.getClasses("");
+        Assert.assertEquals(4, reconcileTimes);
+    }
+
+    @Test
+    public void testPrefix() {
+        classIndex.observe(inst);
+        classIndex.getClasses("");
+        define("index.target.Foo", "java/lang/Object");
+        define("index.target.FooBar", "java/lang/Object");
+        define("index.target.Bar", "java/lang/Object");
+        define("index.target.sub.Foo", "java/lang/Object");
+        define("index.targets.Foo", "java/lang/Object");
+        define("index.other.Foo", "java/lang/Object");
+
+        // 与逐个比较类名前缀的结果一致
+        for (final String prefix : new String[]{"", "index", "index.", "index.target", "index.target.",
+                "index.target.Foo", "index.target.FooB", "index.target.s", "index.targets.", "index.o", "index.none", "none."}) {
+            Assert.assertEquals(prefix, filterByPrefix(prefix), new HashSet<Class<?>>(classIndex.getClasses(prefix)));
+        }
+    }
+
+    @Test
+    public void testSubClasses() {
+        classIndex.observe(inst);
+        classIndex.getClasses("");
+        final Class<?> shape = defineInterface("index.target.Shape");
+        final Class<?> polygon = defineInterface("index.target.Polygon", "index/target/Shape");
+        final Class<?> base = define("index.target.Base", "java/lang/Object", "index/target/Shape");
+        final Class<?> square = define("index.target.Square", "index/target/Base", "index/target/Polygon");
+        final Class<?> tile = define("index.target.Tile", "index/target/Square", "index/target/Shape");
+        final Class<?> circle = define("index.target.Circle", "java/lang/Object", "java/lang/Runnable");
+
+        // 与逐个判断isAssignableFrom的结果一致
+        for (final Class<?> targetClass : new Class<?>[]{shape, polygon, base, square, tile, circle, Object.class, Runnable.class}) {
+            Assert.assertEquals(targetClass.getName(), filterBySuperClass(targetClass), new HashSet<Class<?>>(classIndex.getSubClasses(targetClass)));
+        }
+
+        // 经由多条路径可达的子类只出现一次
+        Assert.assertEquals(4, classIndex.getSubClasses(shape).size());
+    }
+
+    /*
+     * 逐个比较类名前缀
+     */
+    private Set<Class<?>> filterByPrefix(String prefix) {
+        final Set<Class<?>> classes = new HashSet<Class<?>>();
+        for (final Class<?> clazz : loadedClasses) {
+            if (clazz.getName().startsWith(prefix)) {
+                classes.add(clazz);
+            }
+        }
+        return classes;
+    }
+
+    /*
+     * 逐个判断isAssignableFrom
+     */
+    private Set<Class<?>> filterBySuperClass(Class<?> targetClass) {
+        final Set<Class<?>> classes = new HashSet<Class<?>>();
+        for (final Class<?> clazz : loadedClasses) {
+            if (!clazz.equals(targetClass)
+                    && targetClass.isAssignableFrom(clazz)) {
+                classes.add(clazz);
+            }
+        }
+        return classes;
+    }
+
+    /*
+     * 定义类并通知索引,与JVM定义类时回调ClassFileTransformer一致
+     */
+    private Class<?> define(String className, String superName, String... interfaces) {
+        return define(className, newClassBytes(className, superName, interfaces));
+    }
+
+    private Class<?> defineInterface(String className, String... interfaces) {
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+                className.replace('.', '/'), null, "java/lang/Object", interfaces);
+        cw.visitEnd();
+        return define(className, cw.toByteArray());
+    }
+
+    private Class<?> define(String className, byte[] classBytes) {
+        classIndex.transform(loader, className.replace('.', '/'), null, null, classBytes);
+        final Class<?> clazz = loader.define(className, classBytes);
+        loadedClasses.add(clazz);
+        return clazz;
+    }
+
+    /*
+     * 生成只有默认构造函数的类
+     */
+    private static byte[] newClassBytes(String className, String superName, String... interfaces) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className.replace('.', '/'), null, superName, interfaces);
+        final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /*
+     * 只支持ClassIndex用到的方法,已发起加载的类即由目标ClassLoader定义的类
+     */
+    private Instrumentation newInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{Instrumentation.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        final String name = method.getName();
+                        if ("addTransformer".equals(name)) {
+                            return null;
+                        } else if ("removeTransformer".equals(name)) {
+                            return true;
+                        } else if ("getInitiatedClasses".equals(name)) {
+                            scanTimes++;
+                            final List<Class<?>> classes = new ArrayList<Class<?>>();
+                            for (final Class<?> clazz : loadedClasses) {
+                                if (clazz.getClassLoader() == args[0]) {
+                                    classes.add(clazz);
+                                }
+                            }
+                            return classes.toArray(new Class<?>[classes.size()]);
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                }
+        );
+    }
+
+    /*
+     * 定义目标类并记录loadClass调用次数的ClassLoader
+     */
+    private static class TargetClassLoader extends ClassLoader {
+
+        private int loadTimes;
+
+        TargetClassLoader() {
+            super(ClassIndexTestCase.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            loadTimes++;
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> define(String className, byte[] classBytes) {
+            return defineClass(className, classBytes, 0, classBytes.length);
+        }
+
+    }
+
+}
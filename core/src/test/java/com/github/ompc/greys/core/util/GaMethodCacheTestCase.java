@@ -0,0 +1,98 @@
+package com.github.ompc.greys.core.util;
+
+import com.github.ompc.greys.core.manager.impl.ClassIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * 类的方法元数据缓存测试用例
+ */
+public class GaMethodCacheTestCase {
+
+    /**
+     * 缓存目标
+     */
+    public static class Sample extends Thread {
+
+        public Sample() {
+        }
+
+        public Sample(String name) {
+            super(name);
+        }
+
+        public int size(long count) {
+            return (int) count;
+        }
+
+        private void hidden() {
+        }
+
+    }
+
+    @Test
+    public void testCached() {
+        final List<GaMethod> methods = GaMethodCache.getVisibleMethods(Sample.class);
+        Assert.assertSame(methods, GaMethodCache.getVisibleMethods(Sample.class));
+        Assert.assertTrue(contains(methods, "size"));
+        Assert.assertTrue(contains(methods, "hidden"));
+        Assert.assertTrue(contains(methods, "run"));
+        Assert.assertFalse(contains(methods, "hashCode"));
+
+        final GaMethod size = GaMethodCache.getDeclaredMethod(Sample.class, "size", "(J)I");
+        Assert.assertNotNull(size);
+        Assert.assertEquals("size", size.getName());
+        Assert.assertSame(size, GaMethodCache.getDeclaredMethod(Sample.class, "size", "(J)I"));
+        Assert.assertNotNull(GaMethodCache.getDeclaredMethod(Sample.class, "<init>", "(Ljava/lang/String;)V"));
+        Assert.assertNull(GaMethodCache.getDeclaredMethod(Sample.class, "size", "(I)I"));
+        Assert.assertNull(GaMethodCache.getDeclaredMethod(Sample.class, "run", "()V"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final List<GaMethod> methods = GaMethodCache.getVisibleMethods(Sample.class);
+        final GaMethod size = GaMethodCache.getDeclaredMethod(Sample.class, "size", "(J)I");
+        final List<GaMethod> threadMethods = GaMethodCache.getVisibleMethods(Thread.class);
+
+        // 只失效指定的类
+        GaMethodCache.invalidate(Sample.class);
+        final List<GaMethod> newMethods = GaMethodCache.getVisibleMethods(Sample.class);
+        Assert.assertNotSame(methods, newMethods);
+        Assert.assertEquals(methods.size(), newMethods.size());
+        Assert.assertNotSame(size, GaMethodCache.getDeclaredMethod(Sample.class, "size", "(J)I"));
+        Assert.assertSame(threadMethods, GaMethodCache.getVisibleMethods(Thread.class));
+    }
+
+    @Test
+    public void testInvalidateOnRedefine() {
+        final List<GaMethod> methods = GaMethodCache.getVisibleMethods(Sample.class);
+
+        // 类被重新定义时由类定义观察者失效,新定义的类不影响已有的缓存
+        final ClassIndex classIndex = new ClassIndex(null);
+        classIndex.transform(Sample.class.getClassLoader(), "com/github/ompc/greys/core/util/Other", null, null, new byte[0]);
+        Assert.assertSame(methods, GaMethodCache.getVisibleMethods(Sample.class));
+        classIndex.transform(Sample.class.getClassLoader(), Sample.class.getName().replace('.', '/'), Sample.class, null, new byte[0]);
+        Assert.assertNotSame(methods, GaMethodCache.getVisibleMethods(Sample.class));
+    }
+
+    @Test
+    public void testClear() {
+        final List<GaMethod> methods = GaMethodCache.getVisibleMethods(Sample.class);
+        final List<GaMethod> threadMethods = GaMethodCache.getVisibleMethods(Thread.class);
+        GaMethodCache.clear();
+        Assert.assertNotSame(methods, GaMethodCache.getVisibleMethods(Sample.class));
+        Assert.assertNotSame(threadMethods, GaMethodCache.getVisibleMethods(Thread.class));
+    }
+
+    private static boolean contains(List<GaMethod> methods, String name) {
+        for (final GaMethod method : methods) {
+            if (name.equals(method.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.github.ompc.greys.core.util.collection;
+
+import com.github.ompc.greys.core.util.matcher.CachedMatcher;
+import com.github.ompc.greys.core.util.matcher.Matcher;
+import com.github.ompc.greys.core.util.matcher.PatternMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 线程安全的定长缓存HashMap测试用例
+ */
+public class ConcurrentClockHashMapTestCase {
+
+    @Test
+    public void testPutGetRemove() {
+        final Map<String, Integer> map = new ConcurrentClockHashMap<String, Integer>(8);
+        Assert.assertNull(map.put("a", 1));
+        Assert.assertEquals(Integer.valueOf(1), map.put("a", 2));
+        Assert.assertEquals(Integer.valueOf(2), map.get("a"));
+        Assert.assertTrue(map.containsKey("a"));
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals(Integer.valueOf(2), map.remove("a"));
+        Assert.assertNull(map.get("a"));
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testBounded() {
+        final Map<Integer, Integer> map = new ConcurrentClockHashMap<Integer, Integer>(100);
+        for (int index = 0; index < 10000; index++) {
+            map.put(index, index);
+            Assert.assertTrue(map.size() <= 100);
+        }
+        Assert.assertEquals(100, map.size());
+        for (final Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            Assert.assertEquals(entry.getKey(), entry.getValue());
+        }
+
+        // 移除后空出的位置可以继续使用
+        for (int index = 0; index < 10000; index++) {
+            map.remove(index);
+        }
+        Assert.assertTrue(map.isEmpty());
+        for (int index = 0; index < 1000; index++) {
+            map.put(index, index);
+        }
+        Assert.assertEquals(100, map.size());
+    }
+
+    @Test
+    public void testReferencedSurvive() {
+        final Map<Integer, Integer> map = new ConcurrentClockHashMap<Integer, Integer>(1);
+        map.put(1, 1);
+        map.put(2, 2);
+        Assert.assertNull(map.get(1));
+        Assert.assertEquals(Integer.valueOf(2), map.get(2));
+
+        // 被访问过的缓存项放过一次,先淘汰没有被访问的
+        final Map<Integer, Integer> clockMap = new ConcurrentClockHashMap<Integer, Integer>(16, 1);
+        for (int index = 0; index < 16; index++) {
+            clockMap.put(index, index);
+        }
+        for (int index = 0; index < 16; index += 2) {
+            clockMap.get(index);
+        }
+        for (int index = 16; index < 24; index++) {
+            clockMap.put(index, index);
+        }
+        Assert.assertEquals(16, clockMap.size());
+        for (int index = 0; index < 16; index++) {
+            Assert.assertEquals(index % 2 == 0, clockMap.containsKey(index));
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final int capacity = 1000;
+        final Map<Integer, Integer> map = new ConcurrentClockHashMap<Integer, Integer>(capacity);
+        final AtomicReference<Throwable> errorRef = new AtomicReference<Throwable>();
+        final AtomicInteger maxSize = new AtomicInteger();
+        runConcurrent(8, new Runnable() {
+            @Override
+            public void run() {
+                final Random random = new Random(Thread.currentThread().getId());
+                try {
+                    for (int times = 0; times < 200000; times++) {
+                        final int key = random.nextInt(5000);
+                        final int op = random.nextInt(10);
+                        if (op < 6) {
+                            final Integer value = map.get(key);
+                            if (null != value
+                                    && value != key * 31) {
+                                throw new AssertionError("key=" + key + ";value=" + value);
+                            }
+                        } else if (op < 9) {
+                            map.put(key, key * 31);
+                        } else {
+                            map.remove(key);
+                        }
+                        if ((times & 1023) == 0) {
+                            final int size = map.size();
+                            if (size > maxSize.get()) {
+                                maxSize.set(size);
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    errorRef.compareAndSet(null, t);
+                }
+            }
+        });
+
+        if (null != errorRef.get()) {
+            throw new AssertionError(errorRef.get());
+        }
+        Assert.assertTrue(map.size() <= capacity);
+        Assert.assertTrue(maxSize.get() <= capacity);
+        for (final Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            Assert.assertEquals(Integer.valueOf(entry.getKey() * 31), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testConcurrentCachedMatcher() throws InterruptedException {
+        final Matcher<String> matcher = new CachedMatcher<String>(
+                new PatternMatcher(false, "com.example.*Service"),
+                new ConcurrentClockHashMap<String, Boolean>(64)
+        );
+        final AtomicReference<Throwable> errorRef = new AtomicReference<Throwable>();
+        runConcurrent(8, new Runnable() {
+            @Override
+            public void run() {
+                final Random random = new Random(Thread.currentThread().getId());
+                try {
+                    for (int times = 0; times < 100000; times++) {
+                        final int index = random.nextInt(512);
+                        final boolean isService = (index & 1) == 0;
+                        final String className = "com.example.C" + index + (isService ? "Service" : "Dao");
+                        if (matcher.matching(className) != isService) {
+                            throw new AssertionError(className);
+                        }
+                        if (matcher.matching(null)) {
+                            throw new AssertionError("null");
+                        }
+                    }
+                } catch (Throwable t) {
+                    errorRef.compareAndSet(null, t);
+                }
+            }
+        });
+
+        if (null != errorRef.get()) {
+            throw new AssertionError(errorRef.get());
+        }
+    }
+
+    private static void runConcurrent(int threads, final Runnable runnable) throws InterruptedException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch finishLatch = new CountDownLatch(threads);
+        for (int index = 0; index < threads; index++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        runnable.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finishLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        finishLatch.await();
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.github.ompc.greys.core.util.matcher;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * 模版匹配基准测试<br/>
+ * 以classpath中所有jar包里的类名作为语料,统计每种表达式平均每次匹配的耗时,需要时手工运行
+ */
+@Ignore
+public class PatternMatcherBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+
+    @Test
+    public void benchmark() throws IOException {
+        final String[] classNames = loadClassNames();
+        System.out.println("corpus: " + classNames.length + " class names");
+
+        benchmark(classNames, false, "*");
+        benchmark(classNames, false, "org.apache.commons.lang3.*");
+        benchmark(classNames, false, "*StringUtils");
+        benchmark(classNames, false, "org.*.*Utils*");
+        benchmark(classNames, false, "*a*b*c*d*e*");
+        benchmark(classNames, true, "org\\.apache\\.commons\\.lang3\\..*");
+        benchmark(classNames, true, ".*(Map|List)");
+        benchmark(classNames, true, "org\\..*\\..*Utils.*");
+    }
+
+    private void benchmark(String[] classNames, boolean isRegex, String pattern) {
+        final PatternMatcher matcher = new PatternMatcher(isRegex, pattern);
+        int matched = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            matched = matching(matcher, classNames);
+        }
+        final long beginNanos = System.nanoTime();
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            matching(matcher, classNames);
+        }
+        final long costNanos = System.nanoTime() - beginNanos;
+        System.out.println(String.format("%-8s %-40s matched=%-6d %6dns/op",
+                isRegex ? "REGEX" : "WILDCARD",
+                pattern,
+                matched,
+                costNanos / MEASURE_ROUNDS / Math.max(1, classNames.length)));
+    }
+
+    private int matching(Matcher<String> matcher, String[] classNames) {
+        int matched = 0;
+        for (final String className : classNames) {
+            if (matcher.matching(className)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    /*
+     * 读取classpath中所有jar包里的类名
+     */
+    private String[] loadClassNames() throws IOException {
+        final List<String> classNames = new ArrayList<String>();
+        for (final String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+            final JarFile jarFile = new JarFile(path);
+            try {
+                final Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    final String name = entries.nextElement().getName();
+                    if (name.endsWith(".class")) {
+                        classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                    }
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+        return classNames.toArray(new String[classNames.size()]);
+    }
+
+}
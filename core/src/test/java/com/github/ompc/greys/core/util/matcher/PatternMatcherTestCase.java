@@ -0,0 +1,111 @@
+package com.github.ompc.greys.core.util.matcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * 模版匹配测试用例
+ */
+public class PatternMatcherTestCase {
+
+    @Test
+    public void testWildcard() {
+        assertWildcard("*", "", true);
+        assertWildcard("*", "java.lang.String", true);
+        assertWildcard("", "", true);
+        assertWildcard("", "a", false);
+        assertWildcard("java.lang.String", "java.lang.String", true);
+        assertWildcard("java.lang.String", "java.lang.StringBuilder", false);
+        assertWildcard("java.lang.*", "java.lang.String", true);
+        assertWildcard("java.lang.*", "java.util.Map", false);
+        assertWildcard("*String", "java.lang.String", true);
+        assertWildcard("*String", "java.lang.StringBuilder", false);
+        assertWildcard("*String*", "java.lang.StringBuilder", true);
+        assertWildcard("org.apache.commons.????.StringUtils", "org.apache.commons.lang.StringUtils", true);
+        assertWildcard("org.apache.commons.????.StringUtils", "org.apache.commons.lang3.StringUtils", false);
+        assertWildcard("*String????s", "org.apache.commons.lang.StringUtils", true);
+        assertWildcard("a*b*a", "aba", true);
+        assertWildcard("a*b*a", "ab", false);
+        assertWildcard("a*a", "a", false);
+        assertWildcard("a**b", "ab", true);
+        assertWildcard("java.util.Map\\$Entry", "java.util.Map$Entry", true);
+        assertWildcard("a\\*b", "a*b", true);
+        assertWildcard("a\\*b", "axb", false);
+        assertWildcard("a\\?b", "axb", false);
+    }
+
+    @Test
+    public void testWildcardWithoutBacktracking() {
+        final StringBuilder targetSB = new StringBuilder();
+        for (int index = 0; index < 10000; index++) {
+            targetSB.append('a');
+        }
+        final PatternMatcher matcher = new PatternMatcher(false, "*a*a*a*a*a*a*a*a*a*a*b");
+        final long beginMillis = System.currentTimeMillis();
+        Assert.assertFalse(matcher.matching(targetSB.toString()));
+        Assert.assertTrue(System.currentTimeMillis() - beginMillis < 1000);
+    }
+
+    @Test
+    public void testWildcardAgainstRegex() {
+        final Random random = new Random(0);
+        final String patternChars = "ab.*?\\";
+        final String targetChars = "ab.*?\\";
+        for (int times = 0; times < 20000; times++) {
+            final String pattern = randomString(random, patternChars, 8);
+            final String target = randomString(random, targetChars, 10);
+            Assert.assertEquals(
+                    pattern + " / " + target,
+                    toRegex(pattern).matcher(target).matches(),
+                    new PatternMatcher(false, pattern).matching(target)
+            );
+        }
+    }
+
+    @Test
+    public void testRegex() {
+        Assert.assertTrue(new PatternMatcher(true, "java\\.lang\\..*").matching("java.lang.String"));
+        Assert.assertFalse(new PatternMatcher(true, "java\\.lang\\..*").matching("java.util.Map"));
+        Assert.assertFalse(new PatternMatcher(true, "java\\.lang\\..*").matching(null));
+        Assert.assertTrue(new PatternMatcher(true, ".*(Map|List)").matching("java.util.ArrayList"));
+    }
+
+    private static void assertWildcard(String pattern, String target, boolean expected) {
+        Assert.assertEquals(pattern + " / " + target, expected, new PatternMatcher(false, pattern).matching(target));
+    }
+
+    private static String randomString(Random random, String chars, int maxLength) {
+        final int length = random.nextInt(maxLength + 1);
+        final StringBuilder sb = new StringBuilder();
+        for (int index = 0; index < length; index++) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * 将通配符表达式翻译成等价的正则表达式
+     */
+    private static Pattern toRegex(String pattern) {
+        final StringBuilder regexSB = new StringBuilder();
+        for (int index = 0; index < pattern.length(); index++) {
+            final char c = pattern.charAt(index);
+            if (c == '\\') {
+                if (++index < pattern.length()) {
+                    regexSB.append(Pattern.quote(String.valueOf(pattern.charAt(index))));
+                }
+            } else if (c == '*') {
+                regexSB.append("(?s:.*)");
+            } else if (c == '?') {
+                regexSB.append("(?s:.)");
+            } else {
+                regexSB.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regexSB.toString());
+    }
+
+}